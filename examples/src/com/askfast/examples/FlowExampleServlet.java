@@ -0,0 +1,46 @@
+package com.askfast.examples;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.askfast.askfastapi.flow.DialogFlow;
+import com.askfast.askfastapi.flow.DialogRouter;
+import com.askfast.askfastapi.model.EventPost.EventType;
+
+/**
+ * The dialog of the {@link SimpleExampleServlet}, declared as a flow instead
+ * of built per request
+ */
+@SuppressWarnings("serial")
+public class FlowExampleServlet extends HttpServlet
+{
+    private static final DialogRouter router = createFlow().compile();
+
+    public void doGet( HttpServletRequest req, HttpServletResponse resp ) throws IOException
+    {
+        router.handle( req, resp );
+    }
+
+    public void doPost( HttpServletRequest req, HttpServletResponse resp ) throws IOException
+    {
+        router.handle( req, resp );
+    }
+
+    private static DialogFlow createFlow()
+    {
+        DialogFlow flow = new DialogFlow( "/flow_example" );
+        flow.ask( "start", "Any plans for the day?" )
+            .addAnswer( "yes", "Yup", "party" )
+            .addAnswer( "no", "Nope", "declined" )
+            .addEvent( EventType.timeout, "start" );
+        flow.ask( "party", "Are you coming to my bday party?" )
+            .addAnswer( "yes", "Yup", "accepted" )
+            .addAnswer( "no", "Nope", "declined" );
+        flow.say( "accepted", "Thanks for your accepting!" );
+        flow.say( "declined", "Thanks for your reply!" );
+        return flow;
+    }
+}
@@ -11,6 +11,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.askfast.askfastapi.AskFast;
+import com.askfast.askfastapi.AskFastPool;
 
 @SuppressWarnings("serial")
 public class SimpleExampleServlet extends HttpServlet
@@ -19,7 +20,8 @@ public class SimpleExampleServlet extends HttpServlet
         private ArrayList<String> cSampleResponses = new ArrayList<String>(
             Arrays.asList( "Thanks for your accepting!", "Thanks for your reply!",
                            "Something went wrong in this conversation.." ) );
-	com.askfast.askfastapi.AskFast askFast;
+	// an AskFast per request thread; a shared field would mix up concurrent requests
+	private static final AskFastPool askFastPool = new AskFastPool();
 	static final Logger log = Logger.getLogger(SimpleExampleServlet.class.getName());
 
 	
@@ -32,7 +34,7 @@ public class SimpleExampleServlet extends HttpServlet
         if ( req.getParameter( "adapterId" ) != null && req.getParameter( "accountId" ) != null
             && req.getParameter( "refreshToken" ) != null && req.getParameter( "toAddress" ) != null )
         {
-            askFast = new AskFast( req, req.getParameter( "accountId" ), req.getParameter( "refreshToken" ), null );
+            AskFast askFast = new AskFast( req, req.getParameter( "accountId" ), req.getParameter( "refreshToken" ), null );
             String response;
             try
             {
@@ -52,8 +54,8 @@ public class SimpleExampleServlet extends HttpServlet
         }
         else //generate a simple closed question
         {
-            askFast = new AskFast( req );
-            firstQuestion();
+            AskFast askFast = askFastPool.acquire( req );
+            firstQuestion( askFast );
             askFast.render( resp );
         }
     }
@@ -70,8 +72,8 @@ public class SimpleExampleServlet extends HttpServlet
 		log.info(String.format(	"question_id: %s with and preferred_medium %s",
 								questionId, preferredMedium));
 
-		askFast = new AskFast(req);
-		answerQuestion(questionId, preferredMedium);
+		AskFast askFast = askFastPool.acquire(req);
+		answerQuestion(askFast, questionId, preferredMedium);
 		
 		Logger log = Logger.getLogger(SimpleExampleServlet.class.getName());
 		log.setLevel(Level.INFO);
@@ -80,7 +82,7 @@ public class SimpleExampleServlet extends HttpServlet
 		askFast.render(resp);
 	}
 
-	public void answerQuestion(String answerId, String preferred_medium)
+	public void answerQuestion(AskFast askFast, String answerId, String preferred_medium)
 	{
 		
 		if (answerId.equals("1"))
@@ -103,7 +105,7 @@ public class SimpleExampleServlet extends HttpServlet
 		}		
 	}
 
-	public void firstQuestion()
+	public void firstQuestion(AskFast askFast)
 	{
 		askFast.ask("Any plans for the day?", "");
 		askFast.addAnswer(cSampleAnswers.get(0), getServletPath() + "?question_id=10");
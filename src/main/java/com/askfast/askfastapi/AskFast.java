@@ -33,7 +33,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
- * A stateless implementation of the dialog handler
+ * A stateless implementation of the dialog handler. An instance builds the
+ * question of one request and is not thread safe; servlets can reuse an
+ * instance per thread with an {@link AskFastPool}.
  * @author Shravan
  */
 public class AskFast 
@@ -49,6 +51,11 @@ public class AskFast
     private String bearerToken = null;
     private String refreshToken = null;
     private Map<String, String> params = new HashMap<String, String>();
+    /**
+     * The params used after a {@link #reset(String, Map)}. Kept apart from the
+     * map given to the constructor, which belongs to the caller
+     */
+    private final Map<String, String> resetParams = new HashMap<String, String>();
 
     public AskFast() {
         this( "", null, null, null );
@@ -80,6 +87,42 @@ public class AskFast
             question = new Question();
     }
 
+    /**
+     * Clears the question and params of this instance, so it can build the
+     * response of another request. The accountID, tokens and endpoints are
+     * kept. The lists of the question are reused, which saves the allocations
+     * of a new instance per request, see {@link AskFastPool}.
+     * 
+     * @param req
+     *            The request to respond to. Its host becomes the baseURL
+     */
+    public void reset(HttpServletRequest req) {
+
+        reset(getHost(req), null);
+    }
+
+    /**
+     * Clears the question and params of this instance, so it can build the
+     * response of another request. The accountID, tokens and endpoints are
+     * kept.
+     * 
+     * @param url
+     *            The baseURL for relative urls
+     * @param params
+     *            Optional query parameters added to all urls. The map is
+     *            copied
+     */
+    public void reset(String url, Map<String, String> params) {
+
+        this.baseURL = url;
+        resetParams.clear();
+        if (params != null) {
+            resetParams.putAll(params);
+        }
+        this.params = resetParams;
+        question.reset(UUID.randomUUID().toString());
+    }
+
     @JsonIgnore
     public String getQuestionId() {
         return question.getQuestion_id();
@@ -804,7 +847,13 @@ public class AskFast
         return url;
     }
 
-    private static String getHost( HttpServletRequest req ) {
+    /**
+     * @param req
+     *            A request to this servlet
+     * @return The scheme, host and port of the request, without a default
+     *         port, i.e. the baseURL of an instance created for the request
+     */
+    public static String getHost( HttpServletRequest req ) {
         int port = req.getServerPort();
         if ( req.getScheme().equals( "http" ) && port == 80 ) {
             port = -1;
@@ -855,7 +904,15 @@ public class AskFast
         question.setQuestion_text(ask);
         question.setType(askType);
         if (answerCallback != null && !answerCallback.isEmpty()) {
-            question.setAnswers(new ArrayList<Answer>(Arrays.asList(new Answer(answerText, answerCallback))));
+            ArrayList<Answer> answers = question.getAnswers();
+            if (answers != null) {
+                answers.clear();
+            }
+            else {
+                answers = new ArrayList<Answer>();
+                question.setAnswers(answers);
+            }
+            answers.add(new Answer(answerText, answerCallback));
         }
     }
 
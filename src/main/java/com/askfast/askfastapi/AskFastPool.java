@@ -0,0 +1,90 @@
+package com.askfast.askfastapi;
+
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Hands out a reusable {@link AskFast} instance per thread, for servlets that
+ * build a response per request. An {@link AskFast} is not thread safe, so a
+ * servlet must not share one in a field; with a pool every request thread
+ * gets its own instance, which is {@link AskFast#reset(String, Map) reset}
+ * instead of allocated for every request. <br>
+ * An acquired instance must only be used by the thread that acquired it, and
+ * only until that thread acquires again, i.e. within the request. Don't keep
+ * it, or its {@link AskFast#getQuestion() question}, beyond the request.
+ * Servlet containers run a request on one thread, so that holds as long as
+ * the response isn't built asynchronously.
+ *
+ * <pre>
+ * private static final AskFastPool pool = new AskFastPool(accountId, refreshToken);
+ *
+ * public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+ *     AskFast askFast = pool.acquire(req);
+ *     askFast.say("Thanks for your reply!");
+ *     askFast.render(resp);
+ * }
+ * </pre>
+ */
+public class AskFastPool {
+
+    private final String accountID;
+    private final String refreshToken;
+    private final ThreadLocal<AskFast> instances = new ThreadLocal<AskFast>() {
+
+        @Override
+        protected AskFast initialValue() {
+
+            return new AskFast("", accountID, refreshToken, null);
+        }
+    };
+
+    public AskFastPool() {
+        this(null, null);
+    }
+
+    /**
+     * @param accountID
+     *            The accountId set on every instance, e.g. for outbound calls
+     * @param refreshToken
+     *            The refreshToken set on every instance
+     */
+    public AskFastPool(String accountID, String refreshToken) {
+        this.accountID = accountID;
+        this.refreshToken = refreshToken;
+    }
+
+    /**
+     * @param req
+     *            The request to respond to. Its host becomes the baseURL
+     * @return The cleared instance of the current thread
+     */
+    public AskFast acquire(HttpServletRequest req) {
+
+        AskFast askFast = instances.get();
+        askFast.reset(req);
+        return askFast;
+    }
+
+    /**
+     * @param url
+     *            The baseURL for relative urls
+     * @param params
+     *            Optional query parameters added to all urls
+     * @return The cleared instance of the current thread
+     */
+    public AskFast acquire(String url, Map<String, String> params) {
+
+        AskFast askFast = instances.get();
+        askFast.reset(url, params);
+        return askFast;
+    }
+
+    /**
+     * Drops the instance of the current thread, e.g. before a pooled thread
+     * is returned to a container that is being undeployed.
+     */
+    public void release() {
+
+        instances.remove();
+    }
+}
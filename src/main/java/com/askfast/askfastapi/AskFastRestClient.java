@@ -1,6 +1,15 @@
 package com.askfast.askfastapi;
 
+import java.io.File;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -9,7 +18,14 @@ import org.apache.oltu.oauth2.client.URLConnectionClient;
 import org.apache.oltu.oauth2.client.request.OAuthClientRequest;
 import org.apache.oltu.oauth2.client.response.OAuthJSONAccessTokenResponse;
 import org.apache.oltu.oauth2.common.message.types.GrantType;
+import com.askfast.askfastapi.cache.CacheLoader;
+import com.askfast.askfastapi.cache.RecordingCache;
+import com.askfast.askfastapi.cache.TTLCache;
+import com.askfast.askfastapi.ddr.DDRQuery;
+import com.askfast.askfastapi.ddr.DDRRecordCursor;
+import com.askfast.askfastapi.ddr.DDRRecordSource;
 import com.askfast.askfastapi.model.Question;
+import com.askfast.askfastapi.util.RecordingDownloader;
 import com.askfast.model.Adapter;
 import com.askfast.model.AdapterType;
 import com.askfast.model.DDRRecord;
@@ -19,13 +35,22 @@ import com.askfast.model.Recording;
 import com.askfast.model.RestResponse;
 import com.askfast.model.Result;
 import com.askfast.util.AskFastRestService;
+import com.askfast.util.ConditionalClient;
 import com.askfast.util.JSONUtil;
 import com.askfast.util.JacksonConverter;
+import com.askfast.util.RecordHandler;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.squareup.okhttp.OkHttpClient;
 import retrofit.RequestInterceptor;
 import retrofit.RestAdapter;
 import retrofit.RetrofitError;
+import retrofit.client.Client;
 import retrofit.client.OkClient;
+import retrofit.client.Response;
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
 
 /**
  * A client that gives access to the Ask Fast REST API. An accountId and
@@ -35,18 +60,56 @@ import retrofit.client.OkClient;
  * This REST client uses
  * <a href="https://github.com/square/retrofit">Retrofit</a>. Make sure to wrap
  * every call with a try/catch, as an exception could be thrown when the request
- * fails.
+ * fails. <br>
+ * Adapters and dialogs can optionally be cached in-process, see
+ * {@link #setAdapterCache(TTLCache)} and {@link #setDialogCache(TTLCache)}.
+ * Updates and removals done through this client are written through to those
+ * caches. <br>
+ * The lists returned by {@link #getAdapters(String)}, {@link #getDialogs()} and
+ * {@link #getRecordings(String)} are fetched with conditional requests: when
+ * nothing changed since the previous call, the previously parsed list is
+ * returned again. The lists can't be modified; the objects in them are shared
+ * between calls, so don't modify those either.
  */
-public class AskFastRestClient {
+public class AskFastRestClient implements DDRRecordSource {
 
     public static final String DEFAULT_ENDPOINT = "https://api.ask-fast.com";
     public static final String KEYSERVER_PATH = "/keyserver/token";
 
+    private static final Type ADAPTERS_TYPE = new TypeReference<Set<Adapter>>() {}.getType();
+    private static final Type DIALOGS_TYPE = new TypeReference<Set<Dialog>>() {}.getType();
+    private static final Type RECORDINGS_TYPE = new TypeReference<List<Recording>>() {}.getType();
+
     private String accountId = null;
     private String refreshToken = null;
     private String accessToken = null;
     private String endpoint = null;
 
+    private final JacksonConverter converter = new JacksonConverter();
+    private final Converter unmodifiableConverter = new UnmodifiableConverter(converter);
+    private final ConditionalClient conditionalClient = new ConditionalClient(new OkClient(new OkHttpClient()));
+
+    private volatile TTLCache<String, Adapter> adapterCache = null;
+    private volatile TTLCache<String, Dialog> dialogCache = null;
+
+    private final CacheLoader<String, Adapter> adapterLoader = new CacheLoader<String, Adapter>() {
+
+        @Override
+        public Adapter load(String adapterId) {
+
+            return getRestService().getAdapter(adapterId);
+        }
+    };
+
+    private final CacheLoader<String, Dialog> dialogLoader = new CacheLoader<String, Dialog>() {
+
+        @Override
+        public Dialog load(String dialogId) {
+
+            return getRestService().getDialog(dialogId);
+        }
+    };
+
     /**
      * Creates an AskFastRestClient instance. The accessToken will be retrieved
      * from the key server using your accountId and refreshToken.
@@ -327,15 +390,17 @@ public class AskFastRestClient {
      *            {@code email} or {@code ussd}
      *
      * @return A set of Adapters, optionally narrowed down by a {@code type}.
+     *         The set can't be modified.
      */
     public Set<Adapter> getAdapters(String type) {
 
-        AskFastRestService service = getRestService();
-        return service.getAdapters(type);
+        AskFastRestService service = getConditionalRestService();
+        return conditionalClient.convert(service.fetchAdapters(type), ADAPTERS_TYPE, unmodifiableConverter);
     }
 
     /**
-     * Returns the corresponding adapter by id
+     * Returns the corresponding adapter by id. If an adapter cache is set, the
+     * adapter is served from the cache when possible.
      * 
      * @param adapterId
      *            The adapterId to be fetched
@@ -343,7 +408,11 @@ public class AskFastRestClient {
      */
     public Adapter getAdapter(String adapterId) {
 
-        return getRestService().getAdapter(adapterId);
+        TTLCache<String, Adapter> cache = adapterCache;
+        if (cache != null) {
+            return cache.get(adapterId, adapterLoader);
+        }
+        return adapterLoader.load(adapterId);
     }
 
     /**
@@ -359,7 +428,12 @@ public class AskFastRestClient {
     public Adapter updateAdapter(String adapterId, Adapter adapter) {
 
         AskFastRestService service = getRestService();
-        return service.updateAdapter(adapterId, adapter);
+        Adapter updatedAdapter = service.updateAdapter(adapterId, adapter);
+        TTLCache<String, Adapter> cache = adapterCache;
+        if (cache != null) {
+            cache.put(adapterId, updatedAdapter);
+        }
+        return updatedAdapter;
     }
 
     /**
@@ -374,7 +448,12 @@ public class AskFastRestClient {
     public void buyAdapter(String adapterId) {
 
         AskFastRestService service = getRestService();
-        service.buyAdapter(adapterId);
+        try {
+            service.buyAdapter(adapterId);
+        }
+        finally {
+            invalidate(adapterCache, adapterId);
+        }
     }
 
     /**
@@ -388,7 +467,12 @@ public class AskFastRestClient {
     public void removeAdapter(String adapterId) {
 
         AskFastRestService service = getRestService();
-        service.removeAdapter(adapterId);
+        try {
+            service.removeAdapter(adapterId);
+        }
+        finally {
+            invalidate(adapterCache, adapterId);
+        }
     }
 
     /**
@@ -423,16 +507,17 @@ public class AskFastRestClient {
     /**
      * Returns the list of dialogs.
      *
-     * @return The list of dialogs
+     * @return The list of dialogs. The set can't be modified.
      */
     public Set<Dialog> getDialogs() {
 
-        AskFastRestService service = getRestService();
-        return service.getDialogs();
+        AskFastRestService service = getConditionalRestService();
+        return conditionalClient.convert(service.fetchDialogs(), DIALOGS_TYPE, unmodifiableConverter);
     }
 
     /**
-     * Retrieve a dialog by its id.
+     * Retrieve a dialog by its id. If a dialog cache is set, the dialog is
+     * served from the cache when possible.
      *
      * @param dialogId
      *            The id of the dialog
@@ -441,8 +526,11 @@ public class AskFastRestClient {
      */
     public Dialog getDialog(String dialogId) {
 
-        AskFastRestService service = getRestService();
-        return service.getDialog(dialogId);
+        TTLCache<String, Dialog> cache = dialogCache;
+        if (cache != null) {
+            return cache.get(dialogId, dialogLoader);
+        }
+        return dialogLoader.load(dialogId);
     }
 
     /**
@@ -458,7 +546,12 @@ public class AskFastRestClient {
     public Dialog updateDialog(String dialogId, Dialog dialog) {
 
         AskFastRestService service = getRestService();
-        return service.updateDialog(dialogId, dialog);
+        Dialog updatedDialog = service.updateDialog(dialogId, dialog);
+        TTLCache<String, Dialog> cache = dialogCache;
+        if (cache != null) {
+            cache.put(dialogId, updatedDialog);
+        }
+        return updatedDialog;
     }
 
     /**
@@ -470,7 +563,12 @@ public class AskFastRestClient {
     public void removeDialog(String dialogId) {
 
         AskFastRestService service = getRestService();
-        service.removeDialog(dialogId);
+        try {
+            service.removeDialog(dialogId);
+        }
+        finally {
+            invalidate(dialogCache, dialogId);
+        }
     }
 
     /**
@@ -488,7 +586,7 @@ public class AskFastRestClient {
      * 
      * @param accountId
      *            The accountId to for which all the recordings are recorded.
-     * @return List of recordings
+     * @return List of recordings. The list can't be modified.
      */
     public List<Recording> getRecordings(String accountId) {
 
@@ -496,8 +594,116 @@ public class AskFastRestClient {
             throw new IllegalArgumentException("No accountId given");
         }
 
-        AskFastRestService service = getRestService();
-        return service.getRecordings(accountId);
+        AskFastRestService service = getConditionalRestService();
+        return conditionalClient.convert(service.fetchRecordings(accountId), RECORDINGS_TYPE,
+            unmodifiableConverter);
+    }
+
+    /**
+     * The url of {@link AskFastRestService#getRecordingAudio(String, String)},
+     * for downloads that need more control over the request than Retrofit
+     * gives, like a Range header. The audio is assumed to be wav, see
+     * {@link AskFastRestService#RECORDING_AUDIO_PATH}
+     *
+     * @param recording
+     *            A recording. Without an accountId the account of this client
+     *            is used
+     * @return The url of the audio of the recording
+     */
+    public String getRecordingUrl(Recording recording) {
+
+        String recordingAccountId = recording.getAccountId() != null ? recording.getAccountId() : accountId;
+        return endpoint + AskFastRestService.RECORDING_AUDIO_PATH
+            .replace("{accountId}", encodePathSegment(recordingAccountId))
+            .replace("{recordingId}", encodePathSegment(recording.getId()));
+    }
+
+    /**
+     * Downloads the audio of a recording to a file, streaming it to disk. An
+     * interrupted download is resumed, see {@link RecordingDownloader}.
+     *
+     * @param recording
+     *            The recording to download
+     * @param target
+     *            The file to store the audio in
+     * @return The outcome of the download
+     * @throws Exception
+     *             Errors in getting an access token or downloading the audio
+     */
+    public RecordingDownloader.Download downloadRecording(Recording recording, File target) throws Exception {
+
+        return getRecordingDownloader().download(getRecordingUrl(recording), target);
+    }
+
+    /**
+     * Downloads the audio of the recordings in parallel to a directory, as
+     * {@code <recordingId>.wav}. Recordings that were downloaded before are
+     * skipped and interrupted downloads are resumed, so a failed run can
+     * simply be repeated.
+     *
+     * @param recordings
+     *            The recordings to download
+     * @param directory
+     *            The directory to store the audio in
+     * @param maxConcurrency
+     *            The maximum number of simultaneous downloads
+     * @return The outcome per recording, in the order of the recordings
+     * @throws Exception
+     *             Errors in getting an access token. Errors of a download are
+     *             in its outcome
+     */
+    public List<RecordingDownloader.Download> downloadRecordings(Collection<Recording> recordings, File directory,
+        int maxConcurrency) throws Exception {
+
+        Map<String, File> downloads = new LinkedHashMap<String, File>();
+        for (Recording recording : recordings) {
+            downloads.put(getRecordingUrl(recording), new File(directory, recording.getId() + ".wav"));
+        }
+        return getRecordingDownloader().downloadAll(downloads, maxConcurrency);
+    }
+
+    /**
+     * Returns the audio of a recording from the cache, downloading it into
+     * the cache when it isn't there yet.
+     *
+     * @param recording
+     *            The recording
+     * @param cache
+     *            The local cache of recordings
+     * @return The audio, mapped read only from the cached file
+     * @throws Exception
+     *             Errors in getting an access token or downloading the audio
+     */
+    public ByteBuffer getRecordingAudio(final Recording recording, RecordingCache cache) throws Exception {
+
+        return cache.get(recording.getId(), new RecordingCache.Fetcher() {
+
+            @Override
+            public void fetch(String recordingId, File target) throws Exception {
+
+                downloadRecording(recording, target);
+            }
+        });
+    }
+
+    /**
+     * Encodes a path parameter the way Retrofit does
+     */
+    private static String encodePathSegment(String value) {
+
+        try {
+            return URLEncoder.encode(String.valueOf(value), "UTF-8").replace("+", "%20");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private RecordingDownloader getRecordingDownloader() throws Exception {
+
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Authorization", "Bearer " + getAccessToken());
+        return new RecordingDownloader(new OkHttpClient(), headers);
     }
 
     /**
@@ -604,6 +810,210 @@ public class AskFastRestClient {
         }
     }
 
+    /**
+     * Returns a list of {@link DDRRecord DDRRecords} matching the given query.
+     * 
+     * @param query
+     *            The filter
+     * @param offset
+     *            Skip the given number of ddrRecords
+     * @param limit
+     *            Limit the fetch
+     * @throws Exception
+     *             Error in ddr fetching
+     * @return A collection of ddrRecords
+     */
+    @Override
+    public List<DDRRecord> getDDRRecords(DDRQuery query, Integer offset, Integer limit) throws Exception {
+
+        return getDDRRecords(query.getAdapterIds(), query.getAdapterTypes(), query.getFromAddress(),
+            query.getTypeId(), query.getStatus(), query.getStartTime(), query.getEndTime(),
+            query.getDelimitedSessionKeys(), offset, limit, query.getShouldGenerateCosts(),
+            query.getShouldIncludeServiceCosts());
+    }
+
+    /**
+     * Returns the number of {@link DDRRecord DDRRecords} matching the given
+     * query.
+     * 
+     * @param query
+     *            The filter
+     * @throws Exception
+     *             Error in ddr fetching
+     * @return Total number of ddrs fetched for the filter passed
+     */
+    @Override
+    public Integer getDDRRecordCount(DDRQuery query) throws Exception {
+
+        return getDDRRecordCount(query.getAdapterIds(), query.getAdapterTypes(), query.getFromAddress(),
+            query.getTypeId(), query.getStatus(), query.getStartTime(), query.getEndTime(),
+            query.getDelimitedSessionKeys(), null);
+    }
+
+    /**
+     * Fetches the {@link DDRRecord DDRRecords} matching the given query and
+     * hands each one to the handler as soon as it is parsed from the response.
+     * Unlike {@link #getDDRRecords(DDRQuery, Integer, Integer)}, the response
+     * is never held in memory as a whole, so large pages can be processed with
+     * memory proportional to a single ddrRecord.
+     * 
+     * @param query
+     *            The filter
+     * @param offset
+     *            Skip the given number of ddrRecords
+     * @param limit
+     *            Limit the fetch
+     * @param handler
+     *            Receives the ddrRecords in the order of the response
+     * @throws Exception
+     *             Error in ddr fetching or thrown by the handler
+     * @return The number of ddrRecords handled
+     */
+    public int streamDDRRecords(DDRQuery query, Integer offset, Integer limit, RecordHandler<DDRRecord> handler)
+        throws Exception {
+
+        AskFastRestService service = getRestService();
+        String delimitedAdapterIds = null;
+        String delimitedAdapterTypes = null;
+        if (query.getAdapterIds() != null) {
+            delimitedAdapterIds = JSONUtil.toCDLString(query.getAdapterIds());
+        }
+        if (query.getAdapterTypes() != null) {
+            delimitedAdapterTypes = JSONUtil.toCDLString(query.getAdapterTypes());
+        }
+        Response response = service.streamDDRRecords(delimitedAdapterIds, delimitedAdapterTypes,
+            query.getFromAddress(), query.getTypeId(), query.getStatus(), query.getStartTime(), query.getEndTime(),
+            query.getDelimitedSessionKeys(), offset, limit, query.getShouldGenerateCosts(),
+            query.getShouldIncludeServiceCosts());
+        if (response.getBody() == null) {
+            return 0;
+        }
+        InputStream in = response.getBody().in();
+        try {
+            return converter.readValues(in, DDRRecord.class, handler);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Streams all {@link DDRRecord DDRRecords} matching the query to the
+     * handler, page by page with
+     * {@link #streamDDRRecords(DDRQuery, Integer, Integer, RecordHandler)}, so
+     * neither a page nor the whole result is held in memory. The server may
+     * return smaller pages than asked for, so only an empty page marks the
+     * end.
+     * 
+     * @param query
+     *            The filter
+     * @param pageSize
+     *            The number of ddrRecords fetched per request
+     * @param handler
+     *            Receives the ddrRecords in the order of the responses
+     * @throws Exception
+     *             Error in ddr fetching or thrown by the handler
+     * @return The number of ddrRecords handled
+     */
+    public long streamAllDDRRecords(DDRQuery query, int pageSize, RecordHandler<DDRRecord> handler)
+        throws Exception {
+
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        long total = 0;
+        int offset = 0;
+        while (true) {
+            int count = streamDDRRecords(query, offset, pageSize, handler);
+            total += count;
+            if (count == 0) {
+                return total;
+            }
+            offset += count;
+        }
+    }
+
+    /**
+     * Iterates over all {@link DDRRecord DDRRecords} matching the given query.
+     * The pages are fetched in the background while the previous ones are
+     * consumed, see {@link DDRRecordCursor}.
+     * 
+     * @param query
+     *            The filter
+     * @param pageSize
+     *            The number of ddrRecords fetched per request
+     * @param maxBufferedPages
+     *            The number of fetched pages that may wait to be consumed
+     * @return A cursor over the ddrRecords. Close it when not iterating till
+     *         the end
+     */
+    public DDRRecordCursor iterateDDRRecords(DDRQuery query, int pageSize, int maxBufferedPages) {
+
+        return new DDRRecordCursor(this, query, pageSize, maxBufferedPages);
+    }
+
+    /**
+     * Sets the cache used by {@link #getAdapter(String)}. Use {@code null} to
+     * disable caching of adapters.
+     *
+     * @param adapterCache
+     *            The cache, e.g.
+     *            {@code new TTLCache<String, Adapter>(1000, 60000, 300000)}
+     */
+    public void setAdapterCache(TTLCache<String, Adapter> adapterCache) {
+
+        this.adapterCache = adapterCache;
+    }
+
+    /**
+     * @return The cache used by {@link #getAdapter(String)}, or {@code null} if
+     *         adapters aren't cached. Its {@link TTLCache#getStats()} expose the
+     *         hit ratio and load times.
+     */
+    public TTLCache<String, Adapter> getAdapterCache() {
+
+        return adapterCache;
+    }
+
+    /**
+     * Sets the cache used by {@link #getDialog(String)}. Use {@code null} to
+     * disable caching of dialogs.
+     *
+     * @param dialogCache
+     *            The cache, e.g.
+     *            {@code new TTLCache<String, Dialog>(1000, 60000, 300000)}
+     */
+    public void setDialogCache(TTLCache<String, Dialog> dialogCache) {
+
+        this.dialogCache = dialogCache;
+    }
+
+    /**
+     * @return The cache used by {@link #getDialog(String)}, or {@code null} if
+     *         dialogs aren't cached. Its {@link TTLCache#getStats()} expose the
+     *         hit ratio and load times.
+     */
+    public TTLCache<String, Dialog> getDialogCache() {
+
+        return dialogCache;
+    }
+
+    private static <V> void invalidate(TTLCache<String, V> cache, String id) {
+
+        if (cache != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * @return The client performing the conditional requests of the list
+     *         calls. Its counters show how many responses didn't need parsing.
+     */
+    public ConditionalClient getConditionalClient() {
+
+        return conditionalClient;
+    }
+
     /**
      * Builds the RestAdapter that is able instantiate a RestService instance.
      * 
@@ -611,6 +1021,18 @@ public class AskFastRestClient {
      */
     private RestAdapter getRestAdapter() {
 
+        return getRestAdapter(new OkClient(new OkHttpClient()));
+    }
+
+    /**
+     * Builds the RestAdapter that is able instantiate a RestService instance.
+     * 
+     * @param client
+     *            The client performing the HTTP requests
+     * @return A RestAdapter instance
+     */
+    private RestAdapter getRestAdapter(Client client) {
+
         return new RestAdapter.Builder().setRequestInterceptor(new RequestInterceptor() {
 
             @Override
@@ -624,8 +1046,7 @@ public class AskFastRestClient {
                     e.printStackTrace();
                 }
             }
-        }).setEndpoint(this.endpoint).setConverter(new JacksonConverter()).setClient(new OkClient(new OkHttpClient()))
-                                        .build();
+        }).setEndpoint(this.endpoint).setConverter(converter).setClient(client).build();
     }
 
     /**
@@ -639,6 +1060,18 @@ public class AskFastRestClient {
         return adapter.create(AskFastRestService.class);
     }
 
+    /**
+     * Retrieves an AskFastRestService instance whose GET requests are
+     * conditional, see {@link ConditionalClient}.
+     *
+     * @return An AskFastRestService instance
+     */
+    private AskFastRestService getConditionalRestService() {
+
+        RestAdapter adapter = getRestAdapter(conditionalClient);
+        return adapter.create(AskFastRestService.class);
+    }
+
     /**
      * Returns the access token. If the access token is {@code null}, it
      * requests the key server to give a fresh token.
@@ -701,4 +1134,38 @@ public class AskFastRestClient {
         }
         return accessToken;
     }
+
+    /**
+     * Makes the lists and sets it parses unmodifiable. Used for the
+     * conditional list calls, so the {@link ConditionalClient} keeps the
+     * unmodifiable view and returns that same object while the list doesn't
+     * change.
+     */
+    private static class UnmodifiableConverter implements Converter {
+
+        private final Converter delegate;
+
+        UnmodifiableConverter(Converter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object fromBody(TypedInput body, Type type) throws ConversionException {
+
+            Object value = delegate.fromBody(body, type);
+            if (value instanceof List) {
+                return Collections.unmodifiableList((List<?>) value);
+            }
+            if (value instanceof Set) {
+                return Collections.unmodifiableSet((Set<?>) value);
+            }
+            return value;
+        }
+
+        @Override
+        public TypedOutput toBody(Object object) {
+
+            return delegate.toBody(object);
+        }
+    }
 }
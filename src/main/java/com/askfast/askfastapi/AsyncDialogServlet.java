@@ -0,0 +1,185 @@
+package com.askfast.askfastapi;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.askfast.askfastapi.model.AnswerPost;
+import com.askfast.askfastapi.model.DialogCallback;
+import com.askfast.askfastapi.model.EventPost;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * A servlet for dialog callbacks that may take a while to answer, e.g.
+ * because the next question depends on a call to another backend. <br>
+ * A POSTed {@link AnswerPost} or {@link EventPost} is handed to
+ * {@link #onAnswer} or {@link #onEvent} together with a {@link DialogResponse}.
+ * The request is put in async mode, so the container thread returns to the
+ * pool as soon as the handler returns; the question is rendered whenever the
+ * handler completes the DialogResponse, from any thread. A callback that is
+ * not completed within the timeout gets the question of
+ * {@link #onTimeout(AskFast)}, or a 503. <br>
+ * The servlet must be mapped with asyncSupported, e.g.
+ * {@code @WebServlet(urlPatterns = "/dialog", asyncSupported = true)}. The
+ * {@link AskFast} instance belongs to the request; don't take it from an
+ * {@link AskFastPool}, as it is used beyond the container thread.
+ */
+public abstract class AsyncDialogServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = Logger.getLogger(AsyncDialogServlet.class.getName());
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    @Override
+    protected void doPost(final HttpServletRequest req, HttpServletResponse resp)
+        throws ServletException, IOException {
+
+        if (!req.isAsyncSupported()) {
+            throw new ServletException(getClass().getName() + " must be mapped with asyncSupported");
+        }
+        // callback bodies are small; Servlet 3.0 has no non blocking reads
+        DialogCallback callback = readCallback(req);
+
+        AskFast askFast = createAskFast(req);
+        AsyncContext context = req.startAsync(req, resp);
+        context.setTimeout(timeoutMillis);
+        final DialogResponse response = new DialogResponse(context, askFast);
+        context.addListener(new AsyncListener() {
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+
+                AskFast fallback = null;
+                try {
+                    fallback = AsyncDialogServlet.this.onTimeout(createAskFast(req));
+                }
+                catch (RuntimeException e) {
+                    log.log(Level.WARNING, "Creating the timeout question failed", e);
+                }
+                response.timeout(fallback);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+
+                response.fail(event.getThrowable());
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+
+            }
+        });
+
+        try {
+            if (callback != null && callback.isEvent()) {
+                onEvent(callback.getEvent(), askFast, response);
+            }
+            else {
+                onAnswer(callback != null ? callback.getAnswer() : null, askFast, response);
+            }
+        }
+        catch (Exception e) {
+            response.fail(e);
+        }
+    }
+
+    /**
+     * Handles an answer to a question. Build the next question in the given
+     * askFast instance and call {@link DialogResponse#complete()}, now or
+     * later from another thread.
+     *
+     * @param answer
+     *            The answer, or null when the body is empty
+     * @param askFast
+     *            A new instance for the request
+     * @param response
+     *            Completed with the next question
+     * @throws Exception
+     *             Fails the response
+     */
+    protected abstract void onAnswer(AnswerPost answer, AskFast askFast, DialogResponse response)
+        throws Exception;
+
+    /**
+     * Handles an event callback. By default the event is acknowledged with an
+     * empty question.
+     *
+     * @param event
+     *            The event
+     * @param askFast
+     *            A new instance for the request
+     * @param response
+     *            Completed with the next question
+     * @throws Exception
+     *             Fails the response
+     */
+    protected void onEvent(EventPost event, AskFast askFast, DialogResponse response) throws Exception {
+
+        response.complete();
+    }
+
+    /**
+     * @param askFast
+     *            A new instance for the request
+     * @return The question to render when the handler didn't complete in
+     *         time, or null to respond with a 503
+     */
+    protected AskFast onTimeout(AskFast askFast) {
+
+        return null;
+    }
+
+    /**
+     * @param req
+     *            The callback request
+     * @return The instance passed to the handler. Override to set an
+     *         accountID or params
+     */
+    protected AskFast createAskFast(HttpServletRequest req) {
+
+        return new AskFast(req);
+    }
+
+    public long getTimeoutMillis() {
+
+        return timeoutMillis;
+    }
+
+    /**
+     * @param timeoutMillis
+     *            How long a handler may take to complete its response
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be positive");
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    private static DialogCallback readCallback(HttpServletRequest req) throws IOException {
+
+        try {
+            return DialogCallback.read(req.getInputStream());
+        }
+        catch (JsonProcessingException e) {
+            log.log(Level.WARNING, "Ignoring a callback body that is not JSON", e);
+            return null;
+        }
+    }
+}
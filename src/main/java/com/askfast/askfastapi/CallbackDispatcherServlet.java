@@ -0,0 +1,277 @@
+package com.askfast.askfastapi;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.askfast.askfastapi.event.CallbackDeduplicator;
+import com.askfast.askfastapi.model.DialogCallback;
+import com.askfast.askfastapi.model.EventPost.EventType;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * A single servlet for all answer and event callbacks of a dialog. The body is
+ * parsed once into a {@link DialogCallback} and handed to the handler
+ * registered for it, which builds the next question in the given
+ * {@link AskFast} instance. <br>
+ * Answers are routed on their question_id and answer_id, events on their
+ * question_id and type, so the questions need fixed ids, e.g.
+ * {@code askFast.getQuestion().setQuestion_id("menu")}. The most specific
+ * handler wins:
+ * <ol>
+ * <li>the handler of the question_id and answer_id, or question_id and event
+ * type</li>
+ * <li>the handler of the question_id for answers, or of the event type for
+ * events</li>
+ * <li>the {@link #setDefaultHandler default handler}</li>
+ * </ol>
+ * A callback without a handler gets a 404, a body that is not JSON a 400, and
+ * a handler that throws a 500. The time spent per route is kept in
+ * {@link #getStats()}. Handlers are typically registered in
+ * {@link #init()}. <br>
+ * With a {@link #setDeduplicator deduplicator}, an event the platform posts
+ * again is acknowledged without calling its handler.
+ */
+public class CallbackDispatcherServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = Logger.getLogger(CallbackDispatcherServlet.class.getName());
+    private static final String ANSWER = "answer/";
+    private static final String EVENT = "event/";
+
+    /**
+     * Handles a dialog callback
+     */
+    public interface Handler {
+
+        /**
+         * @param callback
+         *            The answer or event
+         * @param askFast
+         *            The instance to build the next question in. It is rendered
+         *            when the handler returns
+         * @throws Exception
+         *             Responds with a 500
+         */
+        void handle(DialogCallback callback, AskFast askFast) throws Exception;
+    }
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<String, Route>();
+    private final AskFastPool pool = new AskFastPool();
+    private final AtomicLong unroutedCount = new AtomicLong();
+    private volatile Route defaultRoute;
+    private volatile CallbackDeduplicator deduplicator;
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+        DialogCallback callback;
+        try {
+            callback = DialogCallback.read(req.getInputStream());
+        }
+        catch (JsonProcessingException e) {
+            log.log(Level.WARNING, "Ignoring a callback body that is not JSON", e);
+            callback = null;
+        }
+        if (callback == null) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        Route route = getRoute(callback);
+        if (route == null) {
+            unroutedCount.incrementAndGet();
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        CallbackDeduplicator deduplicator = callback.isEvent() ? this.deduplicator : null;
+        long fingerprint = 0;
+        if (deduplicator != null) {
+            fingerprint = CallbackDeduplicator.fingerprint(callback);
+            if (deduplicator.isDuplicate(fingerprint)) {
+                createAskFast(req).render(resp);
+                return;
+            }
+        }
+
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            AskFast askFast = createAskFast(req);
+            route.handler.handle(callback, askFast);
+            askFast.render(resp);
+        }
+        catch (Exception e) {
+            failed = true;
+            if (deduplicator != null) {
+                // the platform posts the event again after the 500
+                deduplicator.forget(fingerprint);
+            }
+            log.log(Level.WARNING, "Handling callback " + route.name + " failed", e);
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        finally {
+            route.stats.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * @param questionId
+     *            The id of the answered question
+     * @param handler
+     *            Handles every answer to the question
+     */
+    public void addAnswerHandler(String questionId, Handler handler) {
+
+        addRoute(ANSWER + questionId, handler);
+    }
+
+    /**
+     * @param questionId
+     *            The id of the answered question
+     * @param answerId
+     *            The id of the answer
+     * @param handler
+     *            Handles this answer only
+     */
+    public void addAnswerHandler(String questionId, String answerId, Handler handler) {
+
+        addRoute(ANSWER + questionId + "/" + answerId, handler);
+    }
+
+    /**
+     * @param eventType
+     *            The type of the event
+     * @param handler
+     *            Handles the events of this type of every question
+     */
+    public void addEventHandler(EventType eventType, Handler handler) {
+
+        addRoute(EVENT + eventType, handler);
+    }
+
+    /**
+     * @param questionId
+     *            The id of the question the event is about
+     * @param eventType
+     *            The type of the event
+     * @param handler
+     *            Handles the events of this type of the question only
+     */
+    public void addEventHandler(String questionId, EventType eventType, Handler handler) {
+
+        addRoute(EVENT + questionId + "/" + eventType, handler);
+    }
+
+    /**
+     * @param handler
+     *            Handles the callbacks no other handler is registered for,
+     *            including unknown event types, or null for a 404
+     */
+    public void setDefaultHandler(Handler handler) {
+
+        defaultRoute = handler != null ? new Route("default", handler) : null;
+    }
+
+    /**
+     * @param deduplicator
+     *            Recognizes the events posted again, or null to handle every
+     *            event. Answers are always handled, as the platform needs the
+     *            next question again; a handler that counts answers can use
+     *            {@link CallbackDeduplicator#isDuplicate(com.askfast.askfastapi.model.AnswerPost)}
+     */
+    public void setDeduplicator(CallbackDeduplicator deduplicator) {
+
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * @return The counters per route, by the name of the route, e.g.
+     *         answer/menu/1 or event/hangup
+     */
+    public Map<String, CallbackStats> getStats() {
+
+        Map<String, CallbackStats> stats = new TreeMap<String, CallbackStats>();
+        for (Route route : routes.values()) {
+            stats.put(route.name, route.stats);
+        }
+        Route defaultRoute = this.defaultRoute;
+        if (defaultRoute != null) {
+            stats.put(defaultRoute.name, defaultRoute.stats);
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * @return Number of callbacks without a handler
+     */
+    public long getUnroutedCount() {
+
+        return unroutedCount.get();
+    }
+
+    /**
+     * @param req
+     *            The callback request
+     * @return The instance passed to the handler, by default the one of the
+     *         request thread in a pool. Override to set an accountID or
+     *         params
+     */
+    protected AskFast createAskFast(HttpServletRequest req) {
+
+        return pool.acquire(req);
+    }
+
+    private void addRoute(String name, Handler handler) {
+
+        if (handler == null) {
+            throw new IllegalArgumentException("A route needs a handler: " + name);
+        }
+        routes.put(name, new Route(name, handler));
+    }
+
+    private Route getRoute(DialogCallback callback) {
+
+        String questionId = callback.getQuestionId();
+        Route route;
+        if (callback.isEvent()) {
+            EventType eventType = callback.getEventType();
+            if (eventType == null) {
+                return defaultRoute;
+            }
+            route = questionId != null ? routes.get(EVENT + questionId + "/" + eventType) : null;
+            if (route == null) {
+                route = routes.get(EVENT + eventType);
+            }
+        }
+        else {
+            String answerId = callback.getAnswer().getAnswer_id();
+            if (questionId == null) {
+                return defaultRoute;
+            }
+            route = answerId != null ? routes.get(ANSWER + questionId + "/" + answerId) : null;
+            if (route == null) {
+                route = routes.get(ANSWER + questionId);
+            }
+        }
+        return route != null ? route : defaultRoute;
+    }
+
+    private static class Route {
+
+        private final String name;
+        private final Handler handler;
+        private final CallbackStats stats = new CallbackStats();
+
+        Route(String name, Handler handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.askfast.askfastapi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of a route of a {@link CallbackDispatcherServlet}. All
+ * counters are updated atomically and can be read at any time, e.g. to
+ * publish them to a monitoring system.
+ */
+public class CallbackStats {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private final AtomicLong maxTime = new AtomicLong();
+
+    void record(long timeNanos, boolean failed) {
+
+        count.incrementAndGet();
+        if (failed) {
+            errorCount.incrementAndGet();
+        }
+        totalTime.addAndGet(timeNanos);
+        long max = maxTime.get();
+        while (timeNanos > max && !maxTime.compareAndSet(max, timeNanos)) {
+            max = maxTime.get();
+        }
+    }
+
+    /**
+     * @return Number of callbacks handled
+     */
+    public long getCount() {
+
+        return count.get();
+    }
+
+    /**
+     * @return Number of callbacks whose handler threw
+     */
+    public long getErrorCount() {
+
+        return errorCount.get();
+    }
+
+    /**
+     * @return The total time spent handling and rendering, in milliseconds
+     */
+    public long getTotalTimeMillis() {
+
+        return TimeUnit.NANOSECONDS.toMillis(totalTime.get());
+    }
+
+    /**
+     * @return The average time a callback took, in milliseconds
+     */
+    public double getAverageTimeMillis() {
+
+        long callbacks = count.get();
+        return callbacks == 0 ? 0.0 : totalTime.get() / 1000000.0 / callbacks;
+    }
+
+    /**
+     * @return The time the slowest callback took, in milliseconds
+     */
+    public double getMaxTimeMillis() {
+
+        return maxTime.get() / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format("count: %d, errors: %d, averageTime: %.2fms, maxTime: %.2fms", getCount(),
+            getErrorCount(), getAverageTimeMillis(), getMaxTimeMillis());
+    }
+}
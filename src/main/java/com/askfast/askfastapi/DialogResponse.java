@@ -0,0 +1,135 @@
+package com.askfast.askfastapi;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The pending response to a dialog callback handled by an
+ * {@link AsyncDialogServlet}. The handler completes it, from any thread, once
+ * it knows the next question, e.g. in the callback of a request to another
+ * backend. The container thread is not held in the meantime. <br>
+ * Only the first of {@link #complete(AskFast)}, {@link #fail(Throwable)} or a
+ * timeout writes the response; later calls are ignored.
+ */
+public class DialogResponse {
+
+    private static final Logger log = Logger.getLogger(DialogResponse.class.getName());
+
+    private final AsyncContext context;
+    private final AskFast askFast;
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    DialogResponse(AsyncContext context, AskFast askFast) {
+        this.context = context;
+        this.askFast = askFast;
+    }
+
+    /**
+     * Renders the question of the {@link AskFast} instance given to the
+     * handler.
+     *
+     * @return False if the response was written already
+     */
+    public boolean complete() {
+
+        return complete(askFast);
+    }
+
+    /**
+     * Renders the question as the response.
+     *
+     * @param next
+     *            The next question
+     * @return False if the response was written already
+     */
+    public boolean complete(AskFast next) {
+
+        if (!done.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            next.render((HttpServletResponse) context.getResponse());
+        }
+        catch (IOException e) {
+            log.log(Level.WARNING, "Writing the next question failed", e);
+        }
+        finally {
+            context.complete();
+        }
+        return true;
+    }
+
+    /**
+     * Ends the callback with a server error, so the dialog handler retries or
+     * ends the dialog.
+     *
+     * @param error
+     *            The reason, logged
+     * @return False if the response was written already
+     */
+    public boolean fail(Throwable error) {
+
+        if (!done.compareAndSet(false, true)) {
+            return false;
+        }
+        log.log(Level.WARNING, "Handling the dialog callback failed", error);
+        try {
+            ((HttpServletResponse) context.getResponse()).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        catch (IOException e) {
+            log.log(Level.WARNING, "Writing the error failed", e);
+        }
+        finally {
+            context.complete();
+        }
+        return true;
+    }
+
+    /**
+     * @return True once the response was written
+     */
+    public boolean isDone() {
+
+        return done.get();
+    }
+
+    /**
+     * @return The instance to build the next question in
+     */
+    public AskFast getAskFast() {
+
+        return askFast;
+    }
+
+    /**
+     * Called when the async timeout passed before the handler completed.
+     *
+     * @param fallback
+     *            The question to render instead, or null for a 503
+     */
+    void timeout(AskFast fallback) {
+
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (fallback != null) {
+                fallback.render((HttpServletResponse) context.getResponse());
+            }
+            else {
+                ((HttpServletResponse) context.getResponse())
+                    .sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+        }
+        catch (IOException e) {
+            log.log(Level.WARNING, "Writing the timeout response failed", e);
+        }
+        finally {
+            context.complete();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.askfast.askfastapi.cache;
+
+/**
+ * Loads a value for a {@link TTLCache} when the key is missing, expired or due
+ * for a background refresh.
+ *
+ * @param <K>
+ *            The type of the keys
+ * @param <V>
+ *            The type of the values
+ */
+public interface CacheLoader<K, V> {
+
+    /**
+     * Loads the value for the given key. Any RuntimeException (e.g. a
+     * RetrofitError) is passed on to the caller of {@link TTLCache#get}.
+     *
+     * @param key
+     *            The key to load
+     * @return The loaded value. A {@code null} value is returned to the caller
+     *         but not cached
+     */
+    public V load(K key);
+}
@@ -0,0 +1,154 @@
+package com.askfast.askfastapi.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of a {@link TTLCache}. All counters are updated atomically and
+ * can be read at any time, e.g. to publish them to a monitoring system.
+ */
+public class CacheStats {
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadSuccessCount = new AtomicLong();
+    private final AtomicLong loadFailureCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+
+    void recordHit() {
+
+        hitCount.incrementAndGet();
+    }
+
+    void recordStaleHit() {
+
+        staleHitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+
+        missCount.incrementAndGet();
+    }
+
+    void recordRefresh() {
+
+        refreshCount.incrementAndGet();
+    }
+
+    void recordEviction() {
+
+        evictionCount.incrementAndGet();
+    }
+
+    void recordLoadSuccess(long loadTimeNanos) {
+
+        loadSuccessCount.incrementAndGet();
+        totalLoadTime.addAndGet(loadTimeNanos);
+    }
+
+    void recordLoadFailure(long loadTimeNanos) {
+
+        loadFailureCount.incrementAndGet();
+        totalLoadTime.addAndGet(loadTimeNanos);
+    }
+
+    /**
+     * @return Number of lookups served from a fresh entry
+     */
+    public long getHitCount() {
+
+        return hitCount.get();
+    }
+
+    /**
+     * @return Number of lookups served from an expired entry while it was
+     *         being refreshed in the background
+     */
+    public long getStaleHitCount() {
+
+        return staleHitCount.get();
+    }
+
+    /**
+     * @return Number of lookups that had to wait for the loader
+     */
+    public long getMissCount() {
+
+        return missCount.get();
+    }
+
+    /**
+     * @return Number of times the loader was invoked, both for misses and for
+     *         background refreshes
+     */
+    public long getLoadCount() {
+
+        return loadSuccessCount.get() + loadFailureCount.get();
+    }
+
+    public long getLoadSuccessCount() {
+
+        return loadSuccessCount.get();
+    }
+
+    public long getLoadFailureCount() {
+
+        return loadFailureCount.get();
+    }
+
+    /**
+     * @return Number of background refreshes that were scheduled
+     */
+    public long getRefreshCount() {
+
+        return refreshCount.get();
+    }
+
+    /**
+     * @return Number of entries evicted because the cache was full
+     */
+    public long getEvictionCount() {
+
+        return evictionCount.get();
+    }
+
+    /**
+     * @return Ratio of lookups that did not have to wait for the loader (fresh
+     *         and stale hits), or 1.0 if there were no lookups yet
+     */
+    public double getHitRatio() {
+
+        long hits = hitCount.get() + staleHitCount.get();
+        long requests = hits + missCount.get();
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    /**
+     * @return The total time spent in the loader, in milliseconds
+     */
+    public long getTotalLoadTimeMillis() {
+
+        return TimeUnit.NANOSECONDS.toMillis(totalLoadTime.get());
+    }
+
+    /**
+     * @return The average time a single load took, in milliseconds
+     */
+    public double getAverageLoadTimeMillis() {
+
+        long loads = getLoadCount();
+        return loads == 0 ? 0.0 : totalLoadTime.get() / 1000000.0 / loads;
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format("hits: %d, staleHits: %d, misses: %d, hitRatio: %.3f, loads: %d, loadFailures: %d, "
+            + "refreshes: %d, evictions: %d, averageLoadTime: %.2fms", getHitCount(), getStaleHitCount(),
+            getMissCount(), getHitRatio(), getLoadCount(), getLoadFailureCount(), getRefreshCount(),
+            getEvictionCount(), getAverageLoadTimeMillis());
+    }
+}
@@ -0,0 +1,789 @@
+package com.askfast.askfastapi.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * A local disk cache of recordings, so tools that read the same recordings
+ * over and over fetch each one from the network only once. <br>
+ * The files are stored content addressed, under the SHA-256 hash of their
+ * bytes, so recordings with the same audio share a file. The cache keeps an
+ * index of recording ids to hashes in memory, ordered from least to most
+ * recently used. When the files take more than maxBytes, the least recently
+ * used recordings are evicted. <br>
+ * Every change to the index is appended to a compact binary journal, from
+ * which the index is rebuilt when the cache is opened. Accesses only change
+ * the order in memory; they are appended to the journal in batches, before
+ * the next change and when the cache is closed, so after a crash the order of
+ * the last accesses may be lost. The journal is rewritten with the live
+ * entries only once it has grown to several times their number. A record that
+ * was not completely written, e.g. after a crash, is cut off, and files
+ * without an entry are removed. <br>
+ * Recordings are returned as read only memory mapped buffers. A file is
+ * mapped outside the lock of the cache; while it is being mapped, an eviction
+ * of its recording leaves the file until the mapping is done. A buffer stays
+ * valid after its recording is evicted, so readers on other threads are not
+ * affected by eviction. Concurrent requests for the same missing recording
+ * share a single fetch. Recordings must be smaller than 2 GB.
+ */
+public class RecordingCache implements Closeable {
+
+    private static final Logger log = Logger.getLogger(RecordingCache.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int JOURNAL_MAGIC = 0x41465243;
+    private static final int VERSION = 1;
+    private static final int JOURNAL_HEADER_LENGTH = 8;
+    private static final byte PUT = 1;
+    private static final byte TOUCH = 2;
+    private static final byte REMOVE = 3;
+    private static final int HASH_LENGTH = 32;
+    private static final int MIN_COMPACT_RECORDS = 1000;
+    private static final int TOUCH_BATCH = 256;
+
+    private final File directory;
+    private final File objectDirectory;
+    private final File tmpDirectory;
+    private final File journalFile;
+    private final long maxBytes;
+    private final CacheStats stats = new CacheStats();
+    /** Access ordered: the least recently used entry comes first */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    /** The number of entries per content hash */
+    private final Map<String, Integer> references = new HashMap<String, Integer>();
+    /** The number of files being mapped per content hash */
+    private final Map<String, Integer> pins = new HashMap<String, Integer>();
+    /** Hashes without entries whose files are deleted once they are unpinned */
+    private final Set<String> deferredDeletes = new HashSet<String>();
+    /** Accessed recordings not in the journal yet, the least recent first */
+    private final Set<String> pendingTouches = new LinkedHashSet<String>();
+    private final ConcurrentHashMap<String, FutureTask<ByteBuffer>> fetching =
+        new ConcurrentHashMap<String, FutureTask<ByteBuffer>>();
+    private FileChannel journal;
+    private long journalRecordCount = 0;
+    private long totalBytes = 0;
+
+    /**
+     * Fetches a recording that is not in the cache, e.g. with the
+     * {@link com.askfast.askfastapi.util.RecordingDownloader}
+     */
+    public interface Fetcher {
+
+        /**
+         * @param recordingId
+         *            The id of the recording
+         * @param target
+         *            The file to store the recording in. It doesn't exist yet
+         * @throws Exception
+         *             The recording can't be fetched
+         */
+        public void fetch(String recordingId, File target) throws Exception;
+    }
+
+    private RecordingCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.objectDirectory = new File(directory, "objects");
+        this.tmpDirectory = new File(directory, "tmp");
+        this.journalFile = new File(directory, "journal");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the cache in the given directory, creating it when it doesn't
+     * exist, and rebuilds the index from its journal.
+     *
+     * @param directory
+     *            The cache directory, used by one cache at a time
+     * @param maxBytes
+     *            The maximum size of the cached recordings
+     * @return The opened cache
+     * @throws IOException
+     *             The directory can't be used or holds another journal
+     */
+    public static RecordingCache open(File directory, long maxBytes) throws IOException {
+
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        RecordingCache cache = new RecordingCache(directory, maxBytes);
+        try {
+            cache.load();
+            return cache;
+        }
+        catch (IOException e) {
+            cache.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the cached recording, fetching it first when it is missing.
+     *
+     * @param recordingId
+     *            The id of the recording
+     * @param fetcher
+     *            Fetches the recording when it is missing
+     * @return The bytes of the recording, mapped read only
+     * @throws Exception
+     *             Thrown by the fetcher, or the recording can't be stored
+     */
+    public ByteBuffer get(final String recordingId, final Fetcher fetcher) throws Exception {
+
+        ByteBuffer cached = getIfPresent(recordingId);
+        if (cached != null) {
+            return cached;
+        }
+        FutureTask<ByteBuffer> task = new FutureTask<ByteBuffer>(new Callable<ByteBuffer>() {
+
+            @Override
+            public ByteBuffer call() throws Exception {
+
+                return fetch(recordingId, fetcher);
+            }
+        });
+        FutureTask<ByteBuffer> running = fetching.putIfAbsent(recordingId, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            }
+            finally {
+                fetching.remove(recordingId, task);
+            }
+        }
+        try {
+            return running.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param recordingId
+     *            The id of the recording
+     * @return The bytes of the recording, mapped read only, or null when it
+     *         is not cached
+     * @throws IOException
+     *             The file of the recording can't be read
+     */
+    public ByteBuffer getIfPresent(String recordingId) throws IOException {
+
+        Entry entry;
+        synchronized (this) {
+            checkOpen();
+            entry = entries.get(recordingId);
+            if (entry == null) {
+                stats.recordMiss();
+                return null;
+            }
+            stats.recordHit();
+            pendingTouches.remove(recordingId);
+            pendingTouches.add(recordingId);
+            if (pendingTouches.size() >= TOUCH_BATCH) {
+                flushTouches();
+                compactIfNeeded();
+            }
+            pin(entry.hash);
+        }
+        return mapPinned(entry.hash, entry.length);
+    }
+
+    /**
+     * Moves the file into the cache as the recording with the given id,
+     * replacing the cached recording with that id, if any.
+     *
+     * @param recordingId
+     *            The id of the recording
+     * @param file
+     *            The file of the recording. It is moved, not copied
+     * @return The bytes of the recording, mapped read only
+     * @throws IOException
+     *             The file can't be moved into the cache
+     */
+    public ByteBuffer put(String recordingId, File file) throws IOException {
+
+        String hash = hash(file);
+        long length = file.length();
+        synchronized (this) {
+            checkOpen();
+            File objectFile = getObjectFile(hash);
+            // a file waiting for its unpin has the same content
+            if (references.containsKey(hash) || deferredDeletes.remove(hash)) {
+                Files.delete(file.toPath());
+            }
+            else {
+                objectFile.getParentFile().mkdirs();
+                move(file, objectFile);
+            }
+            Integer count = references.get(hash);
+            if (count == null) {
+                totalBytes += length;
+            }
+            references.put(hash, count != null ? count + 1 : 1);
+            // released after the new reference, so same content is kept
+            Entry previous = entries.remove(recordingId);
+            if (previous != null) {
+                release(previous);
+            }
+            entries.put(recordingId, new Entry(hash, length));
+            writeRecord(PUT, recordingId, new Entry(hash, length));
+            evict(recordingId);
+            compactIfNeeded();
+            pin(hash);
+        }
+        return mapPinned(hash, length);
+    }
+
+    /**
+     * @param recordingId
+     *            The id of the recording
+     * @return True if the recording was cached
+     * @throws IOException
+     *             Writing the journal failed
+     */
+    public synchronized boolean remove(String recordingId) throws IOException {
+
+        checkOpen();
+        Entry entry = entries.remove(recordingId);
+        if (entry == null) {
+            return false;
+        }
+        writeRecord(REMOVE, recordingId, null);
+        release(entry);
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * @param recordingId
+     *            The id of the recording
+     * @return True if the recording is cached. Doesn't count as an access
+     */
+    public synchronized boolean contains(String recordingId) {
+
+        return entries.containsKey(recordingId);
+    }
+
+    /**
+     * @return The number of cached recordings
+     */
+    public synchronized int size() {
+
+        return entries.size();
+    }
+
+    /**
+     * @return The size of the cached files. Recordings with the same content
+     *         are counted once
+     */
+    public synchronized long getTotalBytes() {
+
+        return totalBytes;
+    }
+
+    public long getMaxBytes() {
+
+        return maxBytes;
+    }
+
+    /**
+     * @return The hits, misses, fetches and evictions of the cache
+     */
+    public CacheStats getStats() {
+
+        return stats;
+    }
+
+    /**
+     * @return The directory of the cache
+     */
+    public File getDirectory() {
+
+        return directory;
+    }
+
+    /**
+     * Rewrites the journal with only the entries in the index.
+     *
+     * @throws IOException
+     *             Writing the journal failed
+     */
+    public synchronized void compact() throws IOException {
+
+        checkOpen();
+        File compacted = new File(directory, "journal.tmp");
+        FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putInt(JOURNAL_MAGIC).putInt(VERSION);
+            // least recently used first, so replaying restores the order
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                byte[] record = encodeRecord(PUT, entry.getKey(), entry.getValue());
+                if (buffer.remaining() < record.length) {
+                    buffer.flip();
+                    writeFully(out, buffer);
+                    buffer.clear();
+                }
+                if (record.length > buffer.capacity()) {
+                    writeFully(out, ByteBuffer.wrap(record));
+                }
+                else {
+                    buffer.put(record);
+                }
+            }
+            buffer.flip();
+            writeFully(out, buffer);
+            out.force(true);
+        }
+        finally {
+            out.close();
+        }
+        // the order of the entries holds the accesses
+        pendingTouches.clear();
+        journal.close();
+        try {
+            move(compacted, journalFile);
+            journalRecordCount = entries.size();
+        }
+        finally {
+            journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        if (journal != null) {
+            try {
+                flushTouches();
+            }
+            finally {
+                journal.close();
+                journal = null;
+            }
+        }
+    }
+
+    private ByteBuffer fetch(String recordingId, Fetcher fetcher) throws Exception {
+
+        // another thread may have stored it since the lookup
+        if (contains(recordingId)) {
+            ByteBuffer cached = getIfPresent(recordingId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        File target = File.createTempFile("fetch", ".tmp", tmpDirectory);
+        Files.delete(target.toPath());
+        long start = System.nanoTime();
+        try {
+            fetcher.fetch(recordingId, target);
+            if (!target.isFile()) {
+                throw new IOException("Fetcher didn't store recording " + recordingId);
+            }
+            ByteBuffer result = put(recordingId, target);
+            stats.recordLoadSuccess(System.nanoTime() - start);
+            return result;
+        }
+        catch (Exception e) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            throw e;
+        }
+        finally {
+            target.delete();
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the files fit in
+     * maxBytes. The entry just stored is kept, even when it doesn't fit on
+     * its own.
+     */
+    private void evict(String keep) throws IOException {
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            writeRecord(REMOVE, eldest.getKey(), null);
+            release(eldest.getValue());
+            stats.recordEviction();
+        }
+    }
+
+    /**
+     * Drops a reference to the file of the entry, deleting the file when it
+     * was the last one
+     */
+    private void release(Entry entry) {
+
+        Integer count = references.get(entry.hash);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            references.put(entry.hash, count - 1);
+            return;
+        }
+        references.remove(entry.hash);
+        totalBytes -= entry.length;
+        if (pins.containsKey(entry.hash)) {
+            deferredDeletes.add(entry.hash);
+        }
+        else {
+            deleteObjectFile(entry.hash);
+        }
+    }
+
+    private void deleteObjectFile(String hash) {
+
+        File objectFile = getObjectFile(hash);
+        if (!objectFile.delete() && objectFile.exists()) {
+            log.warning("Can't delete cached recording " + objectFile);
+        }
+    }
+
+    /**
+     * Keeps the file of the hash from being deleted until it is unpinned.
+     * Called under the lock
+     */
+    private void pin(String hash) {
+
+        Integer count = pins.get(hash);
+        pins.put(hash, count != null ? count + 1 : 1);
+    }
+
+    private synchronized void unpin(String hash) {
+
+        Integer count = pins.get(hash);
+        if (count != null && count > 1) {
+            pins.put(hash, count - 1);
+            return;
+        }
+        pins.remove(hash);
+        if (deferredDeletes.remove(hash)) {
+            deleteObjectFile(hash);
+        }
+    }
+
+    /**
+     * Maps the file of a pinned hash, outside the lock, and unpins it
+     */
+    private ByteBuffer mapPinned(String hash, long length) throws IOException {
+
+        try {
+            return map(getObjectFile(hash), length);
+        }
+        finally {
+            unpin(hash);
+        }
+    }
+
+    private void load() throws IOException {
+
+        objectDirectory.mkdirs();
+        tmpDirectory.mkdirs();
+        if (!objectDirectory.isDirectory() || !tmpDirectory.isDirectory()) {
+            throw new IOException("Can't create the cache directory " + directory);
+        }
+        deleteFiles(tmpDirectory);
+
+        boolean rewrite = true;
+        if (journalFile.isFile()) {
+            rewrite = replay();
+        }
+        // files without an entry were stored or evicted when the journal
+        // was cut off
+        File[] prefixDirectories = objectDirectory.listFiles();
+        for (File prefixDirectory : prefixDirectories != null ? prefixDirectories : new File[0]) {
+            File[] objectFiles = prefixDirectory.listFiles();
+            for (File objectFile : objectFiles != null ? objectFiles : new File[0]) {
+                if (!references.containsKey(objectFile.getName())) {
+                    objectFile.delete();
+                }
+            }
+            // only succeeds when no files are left
+            prefixDirectory.delete();
+        }
+        journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+        if (rewrite || totalBytes > maxBytes) {
+            evict(null);
+            compact();
+        }
+    }
+
+    /**
+     * Rebuilds the index from the journal
+     *
+     * @return True when the journal must be rewritten, because it was cut off
+     *         or refers to files that are gone
+     */
+    private boolean replay() throws IOException {
+
+        FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < JOURNAL_HEADER_LENGTH) {
+                return true;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != JOURNAL_MAGIC) {
+                throw new IOException(journalFile + " is not a recording cache journal");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported recording cache version: " + version);
+            }
+            Map<String, Entry> replayed = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+            boolean rewrite = false;
+            while (buffer.hasRemaining()) {
+                int recordStart = buffer.position();
+                try {
+                    byte type = buffer.get();
+                    byte[] id = new byte[buffer.getShort() & 0xffff];
+                    buffer.get(id);
+                    String recordingId = new String(id, UTF8);
+                    if (type == PUT) {
+                        byte[] hash = new byte[HASH_LENGTH];
+                        buffer.get(hash);
+                        long length = buffer.getLong();
+                        replayed.remove(recordingId);
+                        replayed.put(recordingId, new Entry(toHex(hash), length));
+                    }
+                    else if (type == TOUCH) {
+                        replayed.get(recordingId);
+                    }
+                    else if (type == REMOVE) {
+                        replayed.remove(recordingId);
+                    }
+                    else {
+                        throw new BufferUnderflowException();
+                    }
+                    journalRecordCount++;
+                }
+                catch (BufferUnderflowException e) {
+                    log.warning("Cut off the journal of " + directory + " at byte " + recordStart);
+                    rewrite = true;
+                    break;
+                }
+            }
+            for (Map.Entry<String, Entry> entry : replayed.entrySet()) {
+                Entry value = entry.getValue();
+                File objectFile = getObjectFile(value.hash);
+                if (!objectFile.isFile() || objectFile.length() != value.length) {
+                    rewrite = true;
+                    continue;
+                }
+                entries.put(entry.getKey(), value);
+                Integer count = references.get(value.hash);
+                if (count == null) {
+                    totalBytes += value.length;
+                }
+                references.put(value.hash, count != null ? count + 1 : 1);
+            }
+            return rewrite || journalRecordCount > Math.max(MIN_COMPACT_RECORDS, 4L * entries.size());
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+
+        if (journalRecordCount > Math.max(MIN_COMPACT_RECORDS, 4L * entries.size())) {
+            compact();
+        }
+    }
+
+    private void writeRecord(byte type, String recordingId, Entry entry) throws IOException {
+
+        // the accesses before the change, so the journal keeps the order
+        flushTouches();
+        writeFully(journal, ByteBuffer.wrap(encodeRecord(type, recordingId, entry)));
+        journalRecordCount++;
+    }
+
+    /**
+     * Appends the pending accesses to the journal in a single write
+     */
+    private void flushTouches() throws IOException {
+
+        if (pendingTouches.isEmpty()) {
+            return;
+        }
+        List<byte[]> records = new ArrayList<byte[]>(pendingTouches.size());
+        int length = 0;
+        for (String recordingId : pendingTouches) {
+            byte[] record = encodeRecord(TOUCH, recordingId, null);
+            records.add(record);
+            length += record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] record : records) {
+            buffer.put(record);
+        }
+        buffer.flip();
+        writeFully(journal, buffer);
+        journalRecordCount += records.size();
+        pendingTouches.clear();
+    }
+
+    private static byte[] encodeRecord(byte type, String recordingId, Entry entry) {
+
+        byte[] id = recordingId.getBytes(UTF8);
+        if (id.length > 0xffff) {
+            throw new IllegalArgumentException("recordingId too long");
+        }
+        ByteBuffer record = ByteBuffer.allocate(3 + id.length + (entry != null ? HASH_LENGTH + 8 : 0));
+        record.put(type).putShort((short) id.length).put(id);
+        if (entry != null) {
+            record.put(fromHex(entry.hash)).putLong(entry.length);
+        }
+        return record.array();
+    }
+
+    private File getObjectFile(String hash) {
+
+        return new File(new File(objectDirectory, hash.substring(0, 2)), hash);
+    }
+
+    private void checkOpen() throws IOException {
+
+        if (journal == null) {
+            throw new IOException("The recording cache is closed");
+        }
+    }
+
+    private static ByteBuffer map(File file, long length) throws IOException {
+
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Recordings of 2 GB and larger can't be mapped: " + file);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return The hex SHA-256 hash of the contents of the file
+     */
+    static String hash(File file) throws IOException {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            long chunk = 64L * 1024 * 1024;
+            for (long position = 0; position < size; position += chunk) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunk, size - position)));
+            }
+        }
+        finally {
+            channel.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte value : bytes) {
+            hex.append(Character.forDigit((value >> 4) & 0xf, 16)).append(Character.forDigit(value & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int index = 0; index < bytes.length; index++) {
+            bytes[index] = (byte) Integer.parseInt(hex.substring(index * 2, index * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static void move(File source, File target) throws IOException {
+
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void deleteFiles(File directory) {
+
+        File[] files = directory.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            file.delete();
+        }
+    }
+
+    /**
+     * The content hash and length of a cached recording
+     */
+    private static class Entry {
+
+        final String hash;
+        final long length;
+
+        Entry(String hash, long length) {
+            this.hash = hash;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package com.askfast.askfastapi.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.askfast.askfastapi.AskFastRestClient;
+import com.askfast.model.Recording;
+
+/**
+ * A local index of the {@link Recording Recordings} of an account, so they
+ * can be paged by creationTime and adapterId without scanning the whole list
+ * on every request. <br>
+ * The recordings are kept in an array sorted by creationTime and id, with a
+ * posting list of positions per adapterId. A time range is found with binary
+ * searches, so counting it and fetching a page at any offset takes
+ * O(log n), plus the size of the page. Recordings without a creationTime are
+ * sorted before all others. <br>
+ * {@link #refresh()} fetches the recordings from the source and compares them
+ * against the newest recording known. When the only changes are recordings
+ * newer than that one, they are appended to the arrays; any other change,
+ * e.g. a removed recording, rebuilds the index. Recordings are assumed not
+ * to change once created. <br>
+ * Lookups read an immutable snapshot and never wait for a refresh. The
+ * refresh can be run periodically with {@link #start(long)}.
+ */
+public class RecordingIndex {
+
+    private static final Logger log = Logger.getLogger(RecordingIndex.class.getName());
+
+    private static final Comparator<Recording> CREATION_ORDER = new Comparator<Recording>() {
+
+        @Override
+        public int compare(Recording left, Recording right) {
+
+            int result = Long.compare(getTime(left), getTime(right));
+            return result != 0 ? result : compareIds(left.getId(), right.getId());
+        }
+    };
+
+    private final Source source;
+    private volatile Snapshot snapshot = new Snapshot(new Recording[16], new long[16], 0,
+        new HashMap<String, Postings>(), new ConcurrentHashMap<String, Integer>());
+    private List<Recording> lastFetched = null;
+    private long appendCount = 0;
+    private long rebuildCount = 0;
+    private ScheduledExecutorService scheduler = null;
+
+    /**
+     * Fetches all the recordings of the indexed account
+     */
+    public interface Source {
+
+        /**
+         * @return All the recordings of the account
+         * @throws Exception
+         *             The recordings can't be fetched
+         */
+        public List<Recording> getRecordings() throws Exception;
+    }
+
+    /**
+     * @param source
+     *            Fetches the recordings to index
+     */
+    public RecordingIndex(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Indexes the recordings of an account, fetched with the client. The
+     * client fetches them with a conditional request and returns the same
+     * list object while the recordings don't change, so a refresh without
+     * changes costs a request but no indexing.
+     *
+     * @param client
+     *            The client fetching the recordings
+     * @param accountId
+     *            The accountId of the recordings
+     */
+    public RecordingIndex(final AskFastRestClient client, final String accountId) {
+        this(new Source() {
+
+            @Override
+            public List<Recording> getRecordings() {
+
+                return client.getRecordings(accountId);
+            }
+        });
+    }
+
+    /**
+     * Fetches the recordings and brings the index up to date.
+     *
+     * @return The number of recordings that were added
+     * @throws Exception
+     *             Thrown by the source
+     */
+    public int refresh() throws Exception {
+
+        return update(source.getRecordings());
+    }
+
+    /**
+     * Brings the index up to date with the given recordings, all the
+     * recordings of the account.
+     *
+     * @param recordings
+     *            All the recordings of the account
+     * @return The number of recordings that were added
+     */
+    public synchronized int update(List<Recording> recordings) {
+
+        if (recordings == null || recordings == lastFetched) {
+            return 0;
+        }
+        Snapshot current = snapshot;
+        Recording newest = current.size > 0 ? current.recordings[current.size - 1] : null;
+        List<Recording> newer = new ArrayList<Recording>();
+        int known = 0;
+        boolean appendOnly = true;
+        for (Recording recording : recordings) {
+            if (newest == null || CREATION_ORDER.compare(recording, newest) > 0) {
+                newer.add(recording);
+            }
+            else if (recording.getId() != null && current.positions.containsKey(recording.getId())) {
+                known++;
+            }
+            else {
+                // a recording older than the newest one we know, which we don't
+                appendOnly = false;
+                break;
+            }
+        }
+        int added;
+        if (appendOnly && known == current.size) {
+            Collections.sort(newer, CREATION_ORDER);
+            snapshot = current.append(newer);
+            added = newer.size();
+            if (added > 0) {
+                appendCount++;
+            }
+        }
+        else {
+            Snapshot rebuilt = Snapshot.build(recordings);
+            added = Math.max(0, rebuilt.size - current.size);
+            snapshot = rebuilt;
+            rebuildCount++;
+        }
+        lastFetched = recordings;
+        return added;
+    }
+
+    /**
+     * Refreshes the index every period on a daemon thread. Errors of a
+     * refresh are logged and the next refresh is tried as scheduled.
+     *
+     * @param periodMillis
+     *            The time between the end of a refresh and the start of the
+     *            next
+     */
+    public synchronized void start(long periodMillis) {
+
+        if (scheduler != null) {
+            throw new IllegalStateException("The index is refreshed already");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "askfast-recording-index");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try {
+                    refresh();
+                }
+                catch (Exception e) {
+                    log.log(Level.WARNING, "Refreshing the recording index failed", e);
+                }
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic refresh.
+     */
+    public synchronized void shutdown() {
+
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Returns a page of the recordings created in the time range, the newest
+     * first.
+     *
+     * @param adapterId
+     *            The adapterId of the recordings, or null for all adapters
+     * @param fromTime
+     *            The lowest creationTime, inclusive, or null
+     * @param toTime
+     *            The highest creationTime, inclusive, or null
+     * @param offset
+     *            The number of recordings to skip
+     * @param limit
+     *            The maximum number of recordings to return
+     * @return The recordings of the page
+     */
+    public List<Recording> getRecordings(String adapterId, Long fromTime, Long toTime, int offset, int limit) {
+
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit can't be negative");
+        }
+        Snapshot current = snapshot;
+        List<Recording> result = new ArrayList<Recording>();
+        if (adapterId == null) {
+            int low = current.lowerBound(fromTime);
+            int high = current.upperBound(toTime);
+            for (int position = high - 1 - offset; position >= low && result.size() < limit; position--) {
+                result.add(current.recordings[position]);
+            }
+            return result;
+        }
+        Postings postings = current.postings.get(adapterId);
+        if (postings == null) {
+            return result;
+        }
+        int low = postings.lowerBound(current, fromTime);
+        int high = postings.upperBound(current, toTime);
+        for (int index = high - 1 - offset; index >= low && result.size() < limit; index--) {
+            result.add(current.recordings[postings.positions[index]]);
+        }
+        return result;
+    }
+
+    /**
+     * @param adapterId
+     *            The adapterId of the recordings, or null for all adapters
+     * @param fromTime
+     *            The lowest creationTime, inclusive, or null
+     * @param toTime
+     *            The highest creationTime, inclusive, or null
+     * @return The number of recordings created in the time range
+     */
+    public int count(String adapterId, Long fromTime, Long toTime) {
+
+        Snapshot current = snapshot;
+        if (adapterId == null) {
+            return Math.max(0, current.upperBound(toTime) - current.lowerBound(fromTime));
+        }
+        Postings postings = current.postings.get(adapterId);
+        if (postings == null) {
+            return 0;
+        }
+        return Math.max(0, postings.upperBound(current, toTime) - postings.lowerBound(current, fromTime));
+    }
+
+    /**
+     * @param recordingId
+     *            The id of a recording
+     * @return The recording, or null when it is not indexed
+     */
+    public Recording getRecording(String recordingId) {
+
+        Snapshot current = snapshot;
+        Integer position = current.positions.get(recordingId);
+        // the positions are shared with newer snapshots, and may be beyond this one
+        return position != null && position < current.size ? current.recordings[position] : null;
+    }
+
+    /**
+     * @return The most recently created recording, or null when there are
+     *         none
+     */
+    public Recording getNewest() {
+
+        Snapshot current = snapshot;
+        return current.size > 0 ? current.recordings[current.size - 1] : null;
+    }
+
+    /**
+     * @return The number of indexed recordings
+     */
+    public int size() {
+
+        return snapshot.size;
+    }
+
+    /**
+     * @return The adapterIds of the indexed recordings
+     */
+    public List<String> getAdapterIds() {
+
+        return new ArrayList<String>(snapshot.postings.keySet());
+    }
+
+    /**
+     * @return The number of refreshes that only appended new recordings
+     */
+    public synchronized long getAppendCount() {
+
+        return appendCount;
+    }
+
+    /**
+     * @return The number of refreshes that rebuilt the index
+     */
+    public synchronized long getRebuildCount() {
+
+        return rebuildCount;
+    }
+
+    private static long getTime(Recording recording) {
+
+        return recording.getCreationTime() != null ? recording.getCreationTime() : Long.MIN_VALUE;
+    }
+
+    private static int compareIds(String left, String right) {
+
+        if (left == null) {
+            return right == null ? 0 : -1;
+        }
+        return right == null ? 1 : left.compareTo(right);
+    }
+
+    /**
+     * The index at one point in time. Appends write beyond the size of the
+     * current snapshot into the shared arrays, so the arrays of a snapshot
+     * never change below its size. The positions by id are shared as well, so
+     * an older snapshot may find the id of a recording appended after it; a
+     * position at or beyond the size is not part of the snapshot.
+     */
+    private static class Snapshot {
+
+        final Recording[] recordings;
+        final long[] times;
+        final int size;
+        final Map<String, Postings> postings;
+        final Map<String, Integer> positions;
+
+        Snapshot(Recording[] recordings, long[] times, int size, Map<String, Postings> postings,
+            Map<String, Integer> positions) {
+            this.recordings = recordings;
+            this.times = times;
+            this.size = size;
+            this.postings = postings;
+            this.positions = positions;
+        }
+
+        static Snapshot build(List<Recording> unsorted) {
+
+            Recording[] sorted = unsorted.toArray(new Recording[unsorted.size()]);
+            Arrays.sort(sorted, CREATION_ORDER);
+            Snapshot empty = new Snapshot(new Recording[Math.max(16, sorted.length)],
+                new long[Math.max(16, sorted.length)], 0, new HashMap<String, Postings>(),
+                new ConcurrentHashMap<String, Integer>());
+            return empty.append(Arrays.asList(sorted));
+        }
+
+        /**
+         * @param newer
+         *            Recordings newer than the newest of this snapshot, sorted
+         * @return A snapshot with the recordings appended
+         */
+        Snapshot append(List<Recording> newer) {
+
+            if (newer.isEmpty()) {
+                return this;
+            }
+            int newSize = size + newer.size();
+            Recording[] newRecordings = recordings;
+            long[] newTimes = times;
+            if (newSize > recordings.length) {
+                int capacity = Math.max(newSize, recordings.length + (recordings.length >> 1));
+                newRecordings = Arrays.copyOf(recordings, capacity);
+                newTimes = Arrays.copyOf(times, capacity);
+            }
+            Map<String, Postings> newPostings = new HashMap<String, Postings>(postings);
+            Map<String, List<Integer>> added = new HashMap<String, List<Integer>>();
+            int position = size;
+            for (Recording recording : newer) {
+                newRecordings[position] = recording;
+                newTimes[position] = getTime(recording);
+                if (recording.getId() != null) {
+                    positions.put(recording.getId(), position);
+                }
+                String adapterId = recording.getAdapterId();
+                if (adapterId != null) {
+                    List<Integer> adapterPositions = added.get(adapterId);
+                    if (adapterPositions == null) {
+                        adapterPositions = new ArrayList<Integer>();
+                        added.put(adapterId, adapterPositions);
+                    }
+                    adapterPositions.add(position);
+                }
+                position++;
+            }
+            for (Map.Entry<String, List<Integer>> entry : added.entrySet()) {
+                Postings current = newPostings.get(entry.getKey());
+                newPostings.put(entry.getKey(),
+                    (current != null ? current : Postings.EMPTY).append(entry.getValue()));
+            }
+            return new Snapshot(newRecordings, newTimes, newSize, newPostings, positions);
+        }
+
+        /**
+         * @return The first position with a time of at least fromTime
+         */
+        int lowerBound(Long fromTime) {
+
+            if (fromTime == null) {
+                return 0;
+            }
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (times[middle] < fromTime) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return The first position with a time above toTime
+         */
+        int upperBound(Long toTime) {
+
+            if (toTime == null) {
+                return size;
+            }
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (times[middle] <= toTime) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * The ascending positions of the recordings of one adapter. Shared
+     * between snapshots like their arrays.
+     */
+    private static class Postings {
+
+        static final Postings EMPTY = new Postings(new int[0], 0);
+
+        final int[] positions;
+        final int size;
+
+        Postings(int[] positions, int size) {
+            this.positions = positions;
+            this.size = size;
+        }
+
+        Postings append(List<Integer> added) {
+
+            int newSize = size + added.size();
+            int[] newPositions = positions;
+            if (newSize > positions.length) {
+                newPositions = Arrays.copyOf(positions, Math.max(newSize, positions.length + (positions.length >> 1)));
+            }
+            int index = size;
+            for (Integer position : added) {
+                newPositions[index++] = position;
+            }
+            return new Postings(newPositions, newSize);
+        }
+
+        int lowerBound(Snapshot snapshot, Long fromTime) {
+
+            if (fromTime == null) {
+                return 0;
+            }
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (snapshot.times[positions[middle]] < fromTime) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        int upperBound(Snapshot snapshot, Long toTime) {
+
+            if (toTime == null) {
+                return size;
+            }
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (snapshot.times[positions[middle]] <= toTime) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
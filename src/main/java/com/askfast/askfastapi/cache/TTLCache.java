@@ -0,0 +1,399 @@
+package com.askfast.askfastapi.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A size bounded, in-process cache where every entry lives for a fixed time
+ * to live (TTL). After the TTL has passed, an entry is still served for the
+ * duration of the stale window while it is refreshed in the background
+ * (stale-while-revalidate). Only when an entry is older than TTL + stale
+ * window, the caller waits for the loader. <br>
+ * When the cache is full, the least recently used entry is evicted. <br>
+ * A key is loaded by one caller at a time: callers asking for a key that is
+ * being loaded wait for that load instead of starting their own, and a
+ * background refresh isn't started while the key is being loaded. A load
+ * doesn't store its value when the key was written or invalidated while it
+ * was running, so a slow (background) load never overwrites a newer value.
+ * <br>
+ * Cached values are shared between callers, so they should not be modified.
+ *
+ * @param <K>
+ *            The type of the keys
+ * @param <V>
+ *            The type of the values
+ */
+public class TTLCache<K, V> {
+
+    private static final Logger log = Logger.getLogger(TTLCache.class.getName());
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final ExecutorService refreshExecutor;
+    private final CacheStats stats = new CacheStats();
+    private final Map<K, CacheEntry<V>> entries;
+    /**
+     * The running load per key. The map is concurrent and isn't guarded by a
+     * lock; the superseded flag of a load is set and checked under the entries
+     * lock, so a write can't slip in between the check and the store of a
+     * load.
+     */
+    private final ConcurrentMap<K, Load<V>> loading = new ConcurrentHashMap<K, Load<V>>();
+
+    /**
+     * Creates a cache which refreshes stale entries on its own daemon thread.
+     *
+     * @param maxSize
+     *            The maximum number of entries
+     * @param ttlMillis
+     *            The time an entry is considered fresh
+     * @param staleMillis
+     *            The time after the TTL during which the stale entry is served
+     *            while it is refreshed in the background. Use 0 to disable
+     *            stale-while-revalidate
+     */
+    public TTLCache(int maxSize, long ttlMillis, long staleMillis) {
+        this(maxSize, ttlMillis, staleMillis, Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "askfast-cache-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    /**
+     * Creates a cache which refreshes stale entries on the given executor.
+     *
+     * @param maxSize
+     *            The maximum number of entries
+     * @param ttlMillis
+     *            The time an entry is considered fresh
+     * @param staleMillis
+     *            The time after the TTL during which the stale entry is served
+     *            while it is refreshed in the background. Use 0 to disable
+     *            stale-while-revalidate
+     * @param refreshExecutor
+     *            The executor running the background refreshes
+     */
+    public TTLCache(int maxSize, long ttlMillis, long staleMillis, ExecutorService refreshExecutor) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        if (ttlMillis < 0 || staleMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis and staleMillis can't be negative");
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+        this.refreshExecutor = refreshExecutor;
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+
+                if (size() > TTLCache.this.maxSize) {
+                    stats.recordEviction();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the given key. A missing or fully expired
+     * value is loaded with the given loader, a stale value is returned
+     * immediately and refreshed in the background.
+     *
+     * @param key
+     *            The key to look up
+     * @param loader
+     *            Loads the value if it isn't cached or needs a refresh
+     * @return The (possibly stale) value
+     */
+    public V get(K key, CacheLoader<K, V> loader) {
+
+        CacheEntry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            long age = currentTimeMillis() - entry.loadedAt;
+            if (age < ttlMillis) {
+                stats.recordHit();
+                return entry.value;
+            }
+            if (age < ttlMillis + staleMillis) {
+                stats.recordStaleHit();
+                scheduleRefresh(key, loader);
+                return entry.value;
+            }
+        }
+        stats.recordMiss();
+        return load(key, loader);
+    }
+
+    /**
+     * Returns the cached value if it is present and not fully expired, without
+     * loading or refreshing it.
+     *
+     * @param key
+     *            The key to look up
+     * @return The cached value or {@code null}
+     */
+    public V getIfPresent(K key) {
+
+        CacheEntry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && currentTimeMillis() - entry.loadedAt < ttlMillis + staleMillis) {
+            return entry.value;
+        }
+        return null;
+    }
+
+    /**
+     * Stores a value, e.g. the result of an update call (write-through).
+     *
+     * @param key
+     *            The key
+     * @param value
+     *            The value. A {@code null} value invalidates the key
+     */
+    public void put(K key, V value) {
+
+        synchronized (entries) {
+            Load<V> running = loading.get(key);
+            if (running != null) {
+                running.superseded = true;
+            }
+            if (value != null) {
+                entries.put(key, new CacheEntry<V>(value, currentTimeMillis()));
+            }
+            else {
+                entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Removes the value for the given key, so the next lookup loads it again.
+     *
+     * @param key
+     *            The key to invalidate
+     */
+    public void invalidate(K key) {
+
+        put(key, null);
+    }
+
+    /**
+     * Removes all values from the cache.
+     */
+    public void invalidateAll() {
+
+        synchronized (entries) {
+            for (Load<V> running : loading.values()) {
+                running.superseded = true;
+            }
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return The number of entries, including the expired ones which haven't
+     *         been looked up since
+     */
+    public int size() {
+
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public CacheStats getStats() {
+
+        return stats;
+    }
+
+    public long getTtlMillis() {
+
+        return ttlMillis;
+    }
+
+    public long getStaleMillis() {
+
+        return staleMillis;
+    }
+
+    /**
+     * Stops the background refreshes. The cache can still be used, but stale
+     * entries will no longer be refreshed.
+     */
+    public void shutdown() {
+
+        refreshExecutor.shutdown();
+    }
+
+    protected long currentTimeMillis() {
+
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Loads the key, or waits for the load that is running already
+     */
+    private V load(K key, CacheLoader<K, V> loader) {
+
+        while (true) {
+            Load<V> load = new Load<V>();
+            Load<V> running = loading.putIfAbsent(key, load);
+            if (running == null) {
+                return run(key, loader, load);
+            }
+            if (running.await()) {
+                return running.getValue();
+            }
+            // the running load was never started, try again
+        }
+    }
+
+    private V run(K key, CacheLoader<K, V> loader, Load<V> load) {
+
+        long start = System.nanoTime();
+        V value = null;
+        RuntimeException error = null;
+        try {
+            value = loader.load(key);
+            stats.recordLoadSuccess(System.nanoTime() - start);
+        }
+        catch (RuntimeException e) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            error = e;
+        }
+        finally {
+            synchronized (entries) {
+                if (value != null && !load.superseded) {
+                    entries.put(key, new CacheEntry<V>(value, currentTimeMillis()));
+                }
+                loading.remove(key, load);
+            }
+            load.complete(value, error);
+        }
+        if (error != null) {
+            throw error;
+        }
+        return value;
+    }
+
+    private void scheduleRefresh(final K key, final CacheLoader<K, V> loader) {
+
+        final Load<V> load = new Load<V>();
+        if (loading.putIfAbsent(key, load) != null) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+                        TTLCache.this.run(key, loader, load);
+                    }
+                    catch (RuntimeException e) {
+                        log.log(Level.WARNING, "Background refresh failed for key: " + key, e);
+                    }
+                }
+            });
+            stats.recordRefresh();
+        }
+        catch (RejectedExecutionException e) {
+            loading.remove(key, load);
+            load.abandon();
+        }
+    }
+
+    /**
+     * A running load of a key, which other callers of the key wait for
+     */
+    private static class Load<V> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private V value;
+        private RuntimeException error;
+        private boolean started = true;
+        /** Set when the key was written or invalidated during the load */
+        volatile boolean superseded = false;
+
+        void complete(V value, RuntimeException error) {
+
+            this.value = value;
+            this.error = error;
+            done.countDown();
+        }
+
+        void abandon() {
+
+            started = false;
+            done.countDown();
+        }
+
+        /**
+         * @return False if the load was never started
+         */
+        boolean await() {
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return started;
+        }
+
+        V getValue() {
+
+            if (error != null) {
+                throw error;
+            }
+            return value;
+        }
+    }
+
+    private static class CacheEntry<V> {
+
+        final V value;
+        final long loadedAt;
+
+        CacheEntry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
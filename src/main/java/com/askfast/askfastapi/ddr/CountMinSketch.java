@@ -0,0 +1,263 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.askfast.askfastapi.util.Hashing;
+
+/**
+ * Estimates how often strings occur, e.g. the fromAddresses of ddrRecords, in
+ * a fixed amount of memory, and keeps track of the most frequent ones. <br>
+ * The counts are kept in depth rows of width counters. An estimate never
+ * undercounts, and overcounts by at most {@code e / width} of the total with a
+ * probability of {@code 1 - e^-depth}. Besides the counters the sketch keeps
+ * the topK strings with the highest estimates as heavy hitter candidates. <br>
+ * Sketches of the same width and depth can be merged and serialized with
+ * {@link #toBytes()}. Not thread safe.
+ */
+public class CountMinSketch {
+
+    public static final int DEFAULT_WIDTH = 2048;
+    public static final int DEFAULT_DEPTH = 5;
+    public static final int DEFAULT_TOP_K = 100;
+
+    private final int width;
+    private final int depth;
+    private final int topK;
+    private final long[][] counters;
+    private final Map<String, Long> candidates = new HashMap<String, Long>();
+    private long total = 0;
+
+    public CountMinSketch() {
+        this(DEFAULT_WIDTH, DEFAULT_DEPTH, DEFAULT_TOP_K);
+    }
+
+    /**
+     * @param width
+     *            The number of counters per row
+     * @param depth
+     *            The number of rows
+     * @param topK
+     *            The number of heavy hitters to keep track of
+     */
+    public CountMinSketch(int width, int depth, int topK) {
+        if (width <= 0 || depth <= 0 || topK < 0) {
+            throw new IllegalArgumentException("width and depth must be positive, topK can't be negative");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.topK = topK;
+        this.counters = new long[depth][width];
+    }
+
+    /**
+     * @param value
+     *            The value to count. Null is ignored
+     */
+    public void add(String value) {
+
+        add(value, 1);
+    }
+
+    /**
+     * @param value
+     *            The value to count. Null is ignored
+     * @param count
+     *            The number of occurrences to add
+     */
+    public void add(String value, long count) {
+
+        if (value == null) {
+            return;
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("count can't be negative");
+        }
+        long hash = Hashing.mix(Hashing.fnv1a(value));
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int column = getColumn(hash, row);
+            counters[row][column] += count;
+            estimate = Math.min(estimate, counters[row][column]);
+        }
+        total += count;
+        offer(value, estimate);
+    }
+
+    /**
+     * @param value
+     *            A value
+     * @return The estimated number of occurrences, never less than the real
+     *         number
+     */
+    public long estimate(String value) {
+
+        if (value == null) {
+            return 0;
+        }
+        long hash = Hashing.mix(Hashing.fnv1a(value));
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row][getColumn(hash, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * @return The heavy hitter candidates with their estimated counts, the
+     *         most frequent first
+     */
+    public List<Map.Entry<String, Long>> getHeavyHitters() {
+
+        List<Map.Entry<String, Long>> result = new ArrayList<Map.Entry<String, Long>>();
+        for (String value : candidates.keySet()) {
+            result.add(new AbstractMap.SimpleEntry<String, Long>(value, estimate(value)));
+        }
+        Collections.sort(result, new Comparator<Map.Entry<String, Long>>() {
+
+            @Override
+            public int compare(Map.Entry<String, Long> left, Map.Entry<String, Long> right) {
+
+                return right.getValue().compareTo(left.getValue());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return The total of all counts added
+     */
+    public long getTotal() {
+
+        return total;
+    }
+
+    /**
+     * Adds the counts of the other sketch to this one.
+     *
+     * @param other
+     *            A sketch of the same width and depth
+     */
+    public void merge(CountMinSketch other) {
+
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Can't merge sketches of different dimensions");
+        }
+        for (int row = 0; row < depth; row++) {
+            for (int column = 0; column < width; column++) {
+                counters[row][column] += other.counters[row][column];
+            }
+        }
+        total += other.total;
+        List<String> values = new ArrayList<String>(candidates.keySet());
+        values.addAll(other.candidates.keySet());
+        candidates.clear();
+        for (String value : values) {
+            offer(value, estimate(value));
+        }
+    }
+
+    /**
+     * @return The serialized sketch, see {@link #fromBytes(byte[])}
+     */
+    public byte[] toBytes() {
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            write(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param bytes
+     *            A sketch serialized with {@link #toBytes()}
+     * @return The sketch
+     * @throws IOException
+     *             The bytes are not a serialized sketch
+     */
+    public static CountMinSketch fromBytes(byte[] bytes) throws IOException {
+
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    void write(DataOutputStream out) throws IOException {
+
+        out.writeInt(width);
+        out.writeInt(depth);
+        out.writeInt(topK);
+        out.writeLong(total);
+        for (long[] row : counters) {
+            for (long counter : row) {
+                out.writeLong(counter);
+            }
+        }
+        out.writeInt(candidates.size());
+        for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    static CountMinSketch read(DataInputStream in) throws IOException {
+
+        CountMinSketch sketch = new CountMinSketch(in.readInt(), in.readInt(), in.readInt());
+        sketch.total = in.readLong();
+        for (long[] row : sketch.counters) {
+            for (int column = 0; column < row.length; column++) {
+                row[column] = in.readLong();
+            }
+        }
+        int size = in.readInt();
+        for (int index = 0; index < size; index++) {
+            sketch.candidates.put(in.readUTF(), in.readLong());
+        }
+        return sketch;
+    }
+
+    private void offer(String value, long estimate) {
+
+        if (topK == 0) {
+            return;
+        }
+        if (candidates.containsKey(value) || candidates.size() < topK) {
+            candidates.put(value, estimate);
+            return;
+        }
+        String lowest = null;
+        long lowestEstimate = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+            if (entry.getValue() < lowestEstimate) {
+                lowest = entry.getKey();
+                lowestEstimate = entry.getValue();
+            }
+        }
+        if (estimate > lowestEstimate) {
+            candidates.remove(lowest);
+            candidates.put(value, estimate);
+        }
+    }
+
+    /**
+     * Double hashing: the row is used to combine the two halves of the hash
+     */
+    private int getColumn(long hash, int row) {
+
+        int combined = (int) hash + row * (int) (hash >>> 32);
+        return (combined & Integer.MAX_VALUE) % width;
+    }
+}
@@ -0,0 +1,546 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Rolls up {@link DDRRecord DDRRecords} in a {@link DDRColumnStore}: groups
+ * them by any combination of {@link Dimension Dimensions} and optionally by a
+ * time bucket of their start, and computes the count, sum, min, max, average
+ * and, when enabled, percentiles of the {@link Measure Measures}. <br>
+ * The rows are split over a ForkJoinPool. Every task aggregates its rows into
+ * its own map of primitive accumulators, and the partial maps are merged when
+ * the tasks are joined.
+ *
+ * <pre>
+ * List&lt;DDRAggregator.Group&gt; costPerAdapterPerDay = new DDRAggregator()
+ *     .groupBy(Dimension.ADAPTER_ID).bucket(DDRAggregator.DAY_MILLIS, timeZone)
+ *     .measure(Measure.TOTAL_COST).aggregate(store);
+ * </pre>
+ */
+public class DDRAggregator {
+
+    public static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    public static final int DEFAULT_ROWS_PER_TASK = 16 * 1024;
+
+    private static final long NO_BUCKET = Long.MIN_VALUE;
+    private static final ForkJoinPool DEFAULT_POOL = new ForkJoinPool();
+
+    /**
+     * The fields a ddrRecord can be grouped by
+     */
+    public enum Dimension {
+        ADAPTER_ID, ACCOUNT_ID, FROM_ADDRESS, TO_ADDRESS, DDR_TYPE_ID, ADAPTER_TYPE, STATUS, ACCOUNT_TYPE;
+    }
+
+    /**
+     * The numeric fields of a ddrRecord. A ddrRecord without a duration is not
+     * counted for the DURATION measure
+     */
+    public enum Measure {
+        TOTAL_COST, QUANTITY, DURATION;
+    }
+
+    private final ForkJoinPool pool;
+    private Dimension[] dimensions = new Dimension[0];
+    private Measure[] measures = { Measure.TOTAL_COST };
+    private long bucketMillis = 0;
+    private TimeZone timeZone = TimeZone.getTimeZone("UTC");
+    private boolean keepValues = false;
+    private int rowsPerTask = DEFAULT_ROWS_PER_TASK;
+
+    /**
+     * Creates an aggregator running on a shared ForkJoinPool with a thread per
+     * processor.
+     */
+    public DDRAggregator() {
+        this(DEFAULT_POOL);
+    }
+
+    /**
+     * @param pool
+     *            The pool the aggregation runs on
+     */
+    public DDRAggregator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param dimensions
+     *            The dimensions to group by. None puts all rows in one group
+     * @return This aggregator
+     */
+    public DDRAggregator groupBy(Dimension... dimensions) {
+
+        this.dimensions = dimensions.clone();
+        return this;
+    }
+
+    /**
+     * Groups the rows by the bucket their start falls in, besides the
+     * dimensions. Rows without a start are left out.
+     *
+     * @param bucketMillis
+     *            The length of a bucket, e.g. {@link #DAY_MILLIS}
+     * @param timeZone
+     *            The time zone the buckets are aligned to. For day buckets,
+     *            the buckets start at midnight in this zone, so the days of a
+     *            daylight saving switch last 23 or 25 hours
+     * @return This aggregator
+     */
+    public DDRAggregator bucket(long bucketMillis, TimeZone timeZone) {
+
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("bucketMillis must be positive");
+        }
+        this.bucketMillis = bucketMillis;
+        this.timeZone = timeZone != null ? timeZone : TimeZone.getTimeZone("UTC");
+        return this;
+    }
+
+    /**
+     * @param measures
+     *            The measures to compute per group
+     * @return This aggregator
+     */
+    public DDRAggregator measure(Measure... measures) {
+
+        if (measures.length == 0) {
+            throw new IllegalArgumentException("At least one measure is needed");
+        }
+        this.measures = measures.clone();
+        return this;
+    }
+
+    /**
+     * Keeps all values per group so {@link Stats#getPercentile(double)} can be
+     * used. This takes 8 bytes per row per measure.
+     *
+     * @return This aggregator
+     */
+    public DDRAggregator withPercentiles() {
+
+        this.keepValues = true;
+        return this;
+    }
+
+    /**
+     * @param rowsPerTask
+     *            The number of rows below which a task stops splitting
+     * @return This aggregator
+     */
+    public DDRAggregator rowsPerTask(int rowsPerTask) {
+
+        if (rowsPerTask <= 0) {
+            throw new IllegalArgumentException("rowsPerTask must be positive");
+        }
+        this.rowsPerTask = rowsPerTask;
+        return this;
+    }
+
+    /**
+     * Aggregates the ddrRecords, loading them into a {@link DDRColumnStore}
+     * first.
+     *
+     * @param ddrRecords
+     *            The ddrRecords to aggregate
+     * @return The groups, ordered by bucket and then by their key
+     */
+    public List<Group> aggregate(Iterable<DDRRecord> ddrRecords) {
+
+        DDRColumnStore store = new DDRColumnStore();
+        store.addAll(ddrRecords);
+        return aggregate(store);
+    }
+
+    /**
+     * Aggregates all rows of the store. The store must not be changed while
+     * this runs.
+     *
+     * @param store
+     *            The ddrRecords to aggregate
+     * @return The groups, ordered by bucket and then by their key
+     */
+    public List<Group> aggregate(DDRColumnStore store) {
+
+        Map<GroupKey, Accumulator> accumulators = pool.invoke(new AggregateTask(store, 0, store.size()));
+        List<Group> groups = new ArrayList<Group>(accumulators.size());
+        for (Map.Entry<GroupKey, Accumulator> entry : accumulators.entrySet()) {
+            GroupKey key = entry.getKey();
+            List<Object> values = new ArrayList<Object>(dimensions.length);
+            for (int index = 0; index < dimensions.length; index++) {
+                values.add(store.decode(dimensions[index], key.codes[index]));
+            }
+            Map<Measure, Stats> stats = new HashMap<Measure, Stats>();
+            for (int index = 0; index < measures.length; index++) {
+                stats.put(measures[index], entry.getValue().toStats(index));
+            }
+            groups.add(new Group(Collections.unmodifiableList(values),
+                key.bucket != NO_BUCKET ? Long.valueOf(key.bucket) : null, stats));
+        }
+        Collections.sort(groups, GROUP_ORDER);
+        return groups;
+    }
+
+    /**
+     * The bucket is aligned in local time, and converted back with the offset
+     * at the start of the bucket rather than at the row, so the rows of a day
+     * with a daylight saving switch share one bucket
+     */
+    private long getBucket(long start) {
+
+        long local = start + timeZone.getOffset(start);
+        long localBucket = local - ((local % bucketMillis) + bucketMillis) % bucketMillis;
+        // probe with the largest offset, so a local time that occurs twice maps to its first occurrence
+        long probe = localBucket - timeZone.getRawOffset() - timeZone.getDSTSavings();
+        return localBucket - timeZone.getOffset(probe);
+    }
+
+    /**
+     * Aggregates a range of rows, splitting it in halves while it is larger
+     * than rowsPerTask
+     */
+    private class AggregateTask extends RecursiveTask<Map<GroupKey, Accumulator>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final DDRColumnStore store;
+        private final int from;
+        private final int to;
+
+        AggregateTask(DDRColumnStore store, int from, int to) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<GroupKey, Accumulator> compute() {
+
+            if (to - from > rowsPerTask) {
+                int middle = (from + to) >>> 1;
+                AggregateTask left = new AggregateTask(store, from, middle);
+                left.fork();
+                Map<GroupKey, Accumulator> right = new AggregateTask(store, middle, to).compute();
+                return merge(left.join(), right);
+            }
+            Map<GroupKey, Accumulator> accumulators = new HashMap<GroupKey, Accumulator>();
+            // the probe is reused for lookups, and only copied for new groups
+            GroupKey probe = new GroupKey(new int[dimensions.length], NO_BUCKET);
+            for (int row = from; row < to; row++) {
+                if (bucketMillis > 0) {
+                    long start = store.getStartValue(row);
+                    if (start == Long.MIN_VALUE) {
+                        continue;
+                    }
+                    probe.bucket = getBucket(start);
+                }
+                for (int index = 0; index < dimensions.length; index++) {
+                    probe.codes[index] = store.getCode(dimensions[index], row);
+                }
+                probe.rehash();
+                Accumulator accumulator = accumulators.get(probe);
+                if (accumulator == null) {
+                    accumulator = new Accumulator(measures.length, keepValues);
+                    accumulators.put(probe.copy(), accumulator);
+                }
+                for (int index = 0; index < measures.length; index++) {
+                    accumulator.add(index, store.getValue(measures[index], row));
+                }
+            }
+            return accumulators;
+        }
+
+        private Map<GroupKey, Accumulator> merge(Map<GroupKey, Accumulator> left, Map<GroupKey, Accumulator> right) {
+
+            if (left.size() < right.size()) {
+                Map<GroupKey, Accumulator> swap = left;
+                left = right;
+                right = swap;
+            }
+            for (Map.Entry<GroupKey, Accumulator> entry : right.entrySet()) {
+                Accumulator existing = left.get(entry.getKey());
+                if (existing == null) {
+                    left.put(entry.getKey(), entry.getValue());
+                }
+                else {
+                    existing.merge(entry.getValue());
+                }
+            }
+            return left;
+        }
+    }
+
+    /**
+     * The dimension codes and bucket of a group
+     */
+    private static class GroupKey {
+
+        final int[] codes;
+        long bucket;
+        private int hash;
+
+        GroupKey(int[] codes, long bucket) {
+            this.codes = codes;
+            this.bucket = bucket;
+            rehash();
+        }
+
+        void rehash() {
+
+            hash = 31 * Arrays.hashCode(codes) + (int) (bucket ^ (bucket >>> 32));
+        }
+
+        GroupKey copy() {
+
+            return new GroupKey(codes.clone(), bucket);
+        }
+
+        @Override
+        public int hashCode() {
+
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+
+            if (!(obj instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey other = (GroupKey) obj;
+            return bucket == other.bucket && Arrays.equals(codes, other.codes);
+        }
+    }
+
+    /**
+     * The running count, sum, min and max per measure
+     */
+    private static class Accumulator {
+
+        final long[] count;
+        final double[] sum;
+        final double[] min;
+        final double[] max;
+        final double[][] values;
+
+        Accumulator(int measureCount, boolean keepValues) {
+            count = new long[measureCount];
+            sum = new double[measureCount];
+            min = new double[measureCount];
+            max = new double[measureCount];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            values = keepValues ? new double[measureCount][8] : null;
+        }
+
+        void add(int measure, double value) {
+
+            if (Double.isNaN(value)) {
+                return;
+            }
+            if (values != null) {
+                if (count[measure] == values[measure].length) {
+                    values[measure] = Arrays.copyOf(values[measure], values[measure].length * 2);
+                }
+                values[measure][(int) count[measure]] = value;
+            }
+            count[measure]++;
+            sum[measure] += value;
+            if (value < min[measure]) {
+                min[measure] = value;
+            }
+            if (value > max[measure]) {
+                max[measure] = value;
+            }
+        }
+
+        void merge(Accumulator other) {
+
+            for (int measure = 0; measure < count.length; measure++) {
+                if (values != null) {
+                    int total = (int) (count[measure] + other.count[measure]);
+                    if (total > values[measure].length) {
+                        values[measure] = Arrays.copyOf(values[measure], total);
+                    }
+                    System.arraycopy(other.values[measure], 0, values[measure], (int) count[measure],
+                        (int) other.count[measure]);
+                }
+                count[measure] += other.count[measure];
+                sum[measure] += other.sum[measure];
+                min[measure] = Math.min(min[measure], other.min[measure]);
+                max[measure] = Math.max(max[measure], other.max[measure]);
+            }
+        }
+
+        Stats toStats(int measure) {
+
+            double[] sorted = null;
+            if (values != null) {
+                sorted = Arrays.copyOf(values[measure], (int) count[measure]);
+                Arrays.sort(sorted);
+            }
+            return new Stats(count[measure], sum[measure], min[measure], max[measure], sorted);
+        }
+    }
+
+    private static final Comparator<Group> GROUP_ORDER = new Comparator<Group>() {
+
+        @Override
+        public int compare(Group left, Group right) {
+
+            if (left.bucketStart != null && right.bucketStart != null) {
+                int result = left.bucketStart.compareTo(right.bucketStart);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return String.valueOf(left.key).compareTo(String.valueOf(right.key));
+        }
+    };
+
+    /**
+     * The rows sharing the same dimension values and bucket
+     */
+    public static class Group {
+
+        private final List<Object> key;
+        private final Long bucketStart;
+        private final Map<Measure, Stats> stats;
+
+        Group(List<Object> key, Long bucketStart, Map<Measure, Stats> stats) {
+            this.key = key;
+            this.bucketStart = bucketStart;
+            this.stats = stats;
+        }
+
+        /**
+         * @return The values of the dimensions, in the order they were given to
+         *         {@link DDRAggregator#groupBy(Dimension...)}. A value is null
+         *         for rows without it
+         */
+        public List<Object> getKey() {
+
+            return key;
+        }
+
+        /**
+         * @return The start of the time bucket, or null when not bucketed
+         */
+        public Long getBucketStart() {
+
+            return bucketStart;
+        }
+
+        /**
+         * @param measure
+         *            One of the aggregated measures
+         * @return The stats of the measure in this group
+         */
+        public Stats getStats(Measure measure) {
+
+            Stats result = stats.get(measure);
+            if (result == null) {
+                throw new IllegalArgumentException("Measure was not aggregated: " + measure);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+
+            return String.format("Group [key: %s, bucketStart: %s, stats: %s]", key, bucketStart, stats);
+        }
+    }
+
+    /**
+     * The aggregated values of a measure in a group
+     */
+    public static class Stats {
+
+        private final long count;
+        private final double sum;
+        private final double min;
+        private final double max;
+        private final double[] sortedValues;
+
+        Stats(long count, double sum, double min, double max, double[] sortedValues) {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+            this.sortedValues = sortedValues;
+        }
+
+        public long getCount() {
+
+            return count;
+        }
+
+        public double getSum() {
+
+            return sum;
+        }
+
+        /**
+         * @return The lowest value, or NaN when there are none
+         */
+        public double getMin() {
+
+            return count > 0 ? min : Double.NaN;
+        }
+
+        /**
+         * @return The highest value, or NaN when there are none
+         */
+        public double getMax() {
+
+            return count > 0 ? max : Double.NaN;
+        }
+
+        /**
+         * @return The average value, or NaN when there are none
+         */
+        public double getAverage() {
+
+            return count > 0 ? sum / count : Double.NaN;
+        }
+
+        /**
+         * @param percentile
+         *            Between 0 and 100, e.g. 95
+         * @return The value at the percentile, by the nearest rank method, or
+         *         NaN when there are no values
+         */
+        public double getPercentile(double percentile) {
+
+            if (sortedValues == null) {
+                throw new IllegalStateException("Percentiles are not kept, see DDRAggregator#withPercentiles");
+            }
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            if (sortedValues.length == 0) {
+                return Double.NaN;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * sortedValues.length);
+            return sortedValues[Math.max(0, rank - 1)];
+        }
+
+        @Override
+        public String toString() {
+
+            return String.format("Stats [count: %d, sum: %s, min: %s, max: %s]", count, sum, getMin(), getMax());
+        }
+    }
+}
@@ -0,0 +1,598 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import com.askfast.model.AccountType;
+import com.askfast.model.AdapterType;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.DDRRecord.CommunicationStatus;
+import com.askfast.util.RecordHandler;
+
+/**
+ * An append-only file of {@link DDRRecord DDRRecords}, so a process can reload
+ * ddr history from disk instead of fetching and parsing it again. <br>
+ * The file starts with a header (magic, version) followed by blocks. Every
+ * block has a header with its number of rows, the lowest and highest start of
+ * its rows and its length, followed by one column per field. Strings and enums
+ * are stored as codes into a dictionary local to the block. <br>
+ * Opening the archive only reads the block headers, which form the time index.
+ * Blocks are memory mapped when read, and blocks outside a requested time range
+ * are skipped. A block that was not completely written, e.g. after a crash, is
+ * cut off when the archive is opened. <br>
+ * Like {@link DDRColumnStore}, the sessionKeys, statusPerAddress,
+ * additionalInfo and childIds of a ddrRecord are not kept. Appends must come
+ * from one thread at a time.
+ */
+public class DDRArchive implements Closeable {
+
+    private static final Logger log = Logger.getLogger(DDRArchive.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int FILE_MAGIC = 0x41464444;
+    private static final int BLOCK_MAGIC = 0x44445242;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_LENGTH = 8;
+    private static final int BLOCK_HEADER_LENGTH = 28;
+    private static final long NULL_LONG = Long.MIN_VALUE;
+    private static final int STRING_COLUMN_COUNT = 10;
+
+    public static final int DEFAULT_ROWS_PER_BLOCK = 10000;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final List<Block> blocks = new ArrayList<Block>();
+    private long length;
+
+    private DDRArchive(File file) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Opens the archive at the given file, creating it when it doesn't exist.
+     *
+     * @param file
+     *            The archive file
+     * @return The opened archive
+     * @throws IOException
+     *             The file can't be opened or is not a ddr archive
+     */
+    public static DDRArchive open(File file) throws IOException {
+
+        DDRArchive archive = new DDRArchive(file);
+        try {
+            archive.readIndex();
+            return archive;
+        }
+        catch (IOException e) {
+            archive.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the ddrRecords as a single block.
+     *
+     * @param ddrRecords
+     *            The ddrRecords to append
+     * @throws IOException
+     *             Writing the block failed
+     */
+    public synchronized void append(List<DDRRecord> ddrRecords) throws IOException {
+
+        if (ddrRecords.isEmpty()) {
+            return;
+        }
+        BlockWriter writer = new BlockWriter(ddrRecords.size());
+        for (DDRRecord ddrRecord : ddrRecords) {
+            writer.add(ddrRecord);
+        }
+        byte[] body = writer.toByteArray();
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_LENGTH);
+        header.putInt(BLOCK_MAGIC).putInt(ddrRecords.size()).putLong(writer.minStart).putLong(writer.maxStart)
+            .putInt(body.length);
+        header.flip();
+
+        long position = length;
+        writeFully(ByteBuffer.wrap(body), position + BLOCK_HEADER_LENGTH);
+        // the header goes last, so a half written body is never indexed
+        writeFully(header, position);
+        length = position + BLOCK_HEADER_LENGTH + body.length;
+        blocks.add(new Block(position + BLOCK_HEADER_LENGTH, body.length, ddrRecords.size(), writer.minStart,
+            writer.maxStart));
+    }
+
+    /**
+     * Appends all the ddrRecords, in blocks of the given number of rows.
+     *
+     * @param ddrRecords
+     *            The ddrRecords to append, e.g. a {@link DDRRecordCursor}
+     * @param rowsPerBlock
+     *            The number of rows per block
+     * @return The number of ddrRecords appended
+     * @throws IOException
+     *             Writing a block failed
+     */
+    public int appendAll(Iterable<DDRRecord> ddrRecords, int rowsPerBlock) throws IOException {
+
+        if (rowsPerBlock <= 0) {
+            throw new IllegalArgumentException("rowsPerBlock must be positive");
+        }
+        int count = 0;
+        List<DDRRecord> block = new ArrayList<DDRRecord>(rowsPerBlock);
+        for (DDRRecord ddrRecord : ddrRecords) {
+            block.add(ddrRecord);
+            if (block.size() == rowsPerBlock) {
+                append(block);
+                count += block.size();
+                block.clear();
+            }
+        }
+        append(block);
+        return count + block.size();
+    }
+
+    /**
+     * Fetches all ddrRecords matching the query from the source and appends
+     * them to this archive.
+     *
+     * @param source
+     *            The source, e.g. the AskFastRestClient
+     * @param query
+     *            The filter
+     * @return The number of ddrRecords appended
+     * @throws IOException
+     *             Writing a block failed
+     */
+    public int importFrom(DDRRecordSource source, DDRQuery query) throws IOException {
+
+        DDRRecordCursor cursor = new DDRRecordCursor(source, query);
+        try {
+            return appendAll(cursor, DEFAULT_ROWS_PER_BLOCK);
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Hands all ddrRecords with a start in the given range to the handler, in
+     * the order they were appended.
+     *
+     * @param startTime
+     *            The lower bound, inclusive. {@code null} for no lower bound
+     * @param endTime
+     *            The upper bound, inclusive. {@code null} for no upper bound
+     * @param handler
+     *            Receives the ddrRecords
+     * @return The number of ddrRecords handled
+     * @throws Exception
+     *             Reading failed or thrown by the handler
+     */
+    public int read(Long startTime, Long endTime, RecordHandler<DDRRecord> handler) throws Exception {
+
+        boolean unbounded = startTime == null && endTime == null;
+        long from = startTime != null ? startTime : Long.MIN_VALUE + 1;
+        long to = endTime != null ? endTime : Long.MAX_VALUE;
+        int count = 0;
+        for (Block block : getBlocks()) {
+            if (!unbounded && (block.maxStart < from || block.minStart > to)) {
+                continue;
+            }
+            BlockReader reader = new BlockReader(block);
+            for (int row = 0; row < block.rowCount; row++) {
+                long start = reader.start[row];
+                if (unbounded || (start != NULL_LONG && start >= from && start <= to)) {
+                    handler.handle(reader.getRecord(row));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return All ddrRecords in the archive
+     * @throws IOException
+     *             Reading failed
+     */
+    public List<DDRRecord> readAll() throws IOException {
+
+        return read(null, null);
+    }
+
+    /**
+     * @param startTime
+     *            The lower bound, inclusive. {@code null} for no lower bound
+     * @param endTime
+     *            The upper bound, inclusive. {@code null} for no upper bound
+     * @return The ddrRecords with a start in the given range
+     * @throws IOException
+     *             Reading failed
+     */
+    public List<DDRRecord> read(Long startTime, Long endTime) throws IOException {
+
+        final List<DDRRecord> result = new ArrayList<DDRRecord>();
+        try {
+            read(startTime, endTime, new RecordHandler<DDRRecord>() {
+
+                @Override
+                public void handle(DDRRecord ddrRecord) {
+
+                    result.add(ddrRecord);
+                }
+            });
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Loads the ddrRecords with a start in the given range into a
+     * {@link DDRColumnStore}.
+     *
+     * @param startTime
+     *            The lower bound, inclusive. {@code null} for no lower bound
+     * @param endTime
+     *            The upper bound, inclusive. {@code null} for no upper bound
+     * @return A store with the ddrRecords
+     * @throws IOException
+     *             Reading failed
+     */
+    public DDRColumnStore load(Long startTime, Long endTime) throws IOException {
+
+        DDRColumnStore store = new DDRColumnStore();
+        try {
+            read(startTime, endTime, store);
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        store.trimToSize();
+        return store;
+    }
+
+    /**
+     * Forces the appended blocks to the storage device.
+     *
+     * @throws IOException
+     *             Syncing failed
+     */
+    public void force() throws IOException {
+
+        channel.force(false);
+    }
+
+    public File getFile() {
+
+        return file;
+    }
+
+    public synchronized int getBlockCount() {
+
+        return blocks.size();
+    }
+
+    /**
+     * @return The number of ddrRecords in the archive
+     */
+    public long getRecordCount() {
+
+        long count = 0;
+        for (Block block : getBlocks()) {
+            count += block.rowCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return The size of the archive file in bytes
+     */
+    public long getLength() {
+
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        randomAccessFile.close();
+    }
+
+    private synchronized List<Block> getBlocks() {
+
+        return new ArrayList<Block>(blocks);
+    }
+
+    private void readIndex() throws IOException {
+
+        long size = channel.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+            header.putInt(FILE_MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(header, 0);
+            length = FILE_HEADER_LENGTH;
+            return;
+        }
+        ByteBuffer header = readFully(0, FILE_HEADER_LENGTH, size);
+        if (header == null || header.getInt() != FILE_MAGIC) {
+            throw new IOException("Not a ddr archive: " + file);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported ddr archive version " + version + ": " + file);
+        }
+        long position = FILE_HEADER_LENGTH;
+        while (position < size) {
+            ByteBuffer blockHeader = readFully(position, BLOCK_HEADER_LENGTH, size);
+            if (blockHeader == null || blockHeader.getInt() != BLOCK_MAGIC) {
+                break;
+            }
+            int rowCount = blockHeader.getInt();
+            long minStart = blockHeader.getLong();
+            long maxStart = blockHeader.getLong();
+            int bodyLength = blockHeader.getInt();
+            if (position + BLOCK_HEADER_LENGTH + bodyLength > size) {
+                break;
+            }
+            blocks.add(new Block(position + BLOCK_HEADER_LENGTH, bodyLength, rowCount, minStart, maxStart));
+            position += BLOCK_HEADER_LENGTH + bodyLength;
+        }
+        if (position < size) {
+            log.warning(String.format("Cutting off %d bytes of an incomplete block from %s", size - position, file));
+            channel.truncate(position);
+        }
+        length = position;
+    }
+
+    private ByteBuffer readFully(long position, int count, long size) throws IOException {
+
+        if (position + count > size) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * The location and time range of a block. Its body is mapped on first use
+     */
+    private class Block {
+
+        final long offset;
+        final int length;
+        final int rowCount;
+        final long minStart;
+        final long maxStart;
+        private MappedByteBuffer body;
+
+        Block(long offset, int length, int rowCount, long minStart, long maxStart) {
+            this.offset = offset;
+            this.length = length;
+            this.rowCount = rowCount;
+            this.minStart = minStart;
+            this.maxStart = maxStart;
+        }
+
+        synchronized ByteBuffer getBody() throws IOException {
+
+            if (body == null) {
+                body = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+            return body.duplicate();
+        }
+    }
+
+    /**
+     * Collects the columns of a block. The string columns, in order: id,
+     * adapterId, accountId, fromAddress, toAddressString, ddrTypeId, parentId,
+     * adapterType, status, accountType
+     */
+    private static class BlockWriter {
+
+        final List<Map<String, Integer>> dictionaries = new ArrayList<Map<String, Integer>>();
+        final int[][] codes;
+        final int[] quantity;
+        final long[] start;
+        final long[] duration;
+        final double[] totalCost;
+        int size = 0;
+        long minStart = Long.MAX_VALUE;
+        long maxStart = Long.MIN_VALUE;
+
+        BlockWriter(int rowCount) {
+            for (int column = 0; column < STRING_COLUMN_COUNT; column++) {
+                dictionaries.add(new HashMap<String, Integer>());
+            }
+            codes = new int[STRING_COLUMN_COUNT][rowCount];
+            quantity = new int[rowCount];
+            start = new long[rowCount];
+            duration = new long[rowCount];
+            totalCost = new double[rowCount];
+        }
+
+        void add(DDRRecord ddrRecord) {
+
+            String[] values = { ddrRecord.getId(), ddrRecord.getAdapterId(), ddrRecord.getAccountId(),
+                ddrRecord.getFromAddress(), ddrRecord.getToAddressString(), ddrRecord.getDdrTypeId(),
+                ddrRecord.getParentId(), name(ddrRecord.getAdapterType()), name(ddrRecord.getStatus()),
+                name(ddrRecord.getAccountType()) };
+            for (int column = 0; column < STRING_COLUMN_COUNT; column++) {
+                codes[column][size] = encode(dictionaries.get(column), values[column]);
+            }
+            quantity[size] = ddrRecord.getQuantity();
+            if (ddrRecord.getStart() != null) {
+                start[size] = ddrRecord.getStart();
+                minStart = Math.min(minStart, ddrRecord.getStart());
+                maxStart = Math.max(maxStart, ddrRecord.getStart());
+            }
+            else {
+                start[size] = NULL_LONG;
+            }
+            duration[size] = ddrRecord.getDuration() != null ? ddrRecord.getDuration() : NULL_LONG;
+            totalCost[size] = ddrRecord.getTotalCost();
+            size++;
+        }
+
+        byte[] toByteArray() throws IOException {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (int column = 0; column < STRING_COLUMN_COUNT; column++) {
+                Map<String, Integer> dictionary = dictionaries.get(column);
+                String[] values = new String[dictionary.size()];
+                for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+                    values[entry.getValue()] = entry.getKey();
+                }
+                out.writeInt(values.length);
+                for (String value : values) {
+                    byte[] encoded = value.getBytes(UTF8);
+                    out.writeInt(encoded.length);
+                    out.write(encoded);
+                }
+                for (int row = 0; row < size; row++) {
+                    out.writeInt(codes[column][row]);
+                }
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeInt(quantity[row]);
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeLong(start[row]);
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeLong(duration[row]);
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeDouble(totalCost[row]);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private static int encode(Map<String, Integer> dictionary, String value) {
+
+            if (value == null) {
+                return -1;
+            }
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.put(value, code);
+            }
+            return code;
+        }
+
+        private static String name(Enum<?> value) {
+
+            return value != null ? value.name() : null;
+        }
+    }
+
+    /**
+     * Decodes the columns of a mapped block
+     */
+    private static class BlockReader {
+
+        final String[][] dictionaries = new String[STRING_COLUMN_COUNT][];
+        final int[][] codes;
+        final int[] quantity;
+        final long[] start;
+        final long[] duration;
+        final double[] totalCost;
+
+        BlockReader(Block block) throws IOException {
+            int rowCount = block.rowCount;
+            ByteBuffer body = block.getBody();
+            codes = new int[STRING_COLUMN_COUNT][rowCount];
+            for (int column = 0; column < STRING_COLUMN_COUNT; column++) {
+                String[] values = new String[body.getInt()];
+                for (int code = 0; code < values.length; code++) {
+                    byte[] encoded = new byte[body.getInt()];
+                    body.get(encoded);
+                    values[code] = new String(encoded, UTF8);
+                }
+                dictionaries[column] = values;
+                body.asIntBuffer().get(codes[column]);
+                body.position(body.position() + rowCount * 4);
+            }
+            quantity = new int[rowCount];
+            body.asIntBuffer().get(quantity);
+            body.position(body.position() + rowCount * 4);
+            start = new long[rowCount];
+            body.asLongBuffer().get(start);
+            body.position(body.position() + rowCount * 8);
+            duration = new long[rowCount];
+            body.asLongBuffer().get(duration);
+            body.position(body.position() + rowCount * 8);
+            totalCost = new double[rowCount];
+            body.asDoubleBuffer().get(totalCost);
+        }
+
+        DDRRecord getRecord(int row) {
+
+            DDRRecord ddrRecord = new DDRRecord();
+            ddrRecord.setId(value(0, row));
+            ddrRecord.setAdapterId(value(1, row));
+            ddrRecord.setAccountId(value(2, row));
+            ddrRecord.setFromAddress(value(3, row));
+            ddrRecord.setToAddressString(value(4, row));
+            ddrRecord.setDdrTypeId(value(5, row));
+            ddrRecord.setParentId(value(6, row));
+            String adapterType = value(7, row);
+            ddrRecord.setAdapterType(adapterType != null ? AdapterType.valueOf(adapterType) : null);
+            String status = value(8, row);
+            ddrRecord.setStatus(status != null ? CommunicationStatus.valueOf(status) : null);
+            String accountType = value(9, row);
+            ddrRecord.setAccountType(accountType != null ? AccountType.valueOf(accountType) : null);
+            ddrRecord.setQuantity(quantity[row]);
+            ddrRecord.setStart(start[row] != NULL_LONG ? start[row] : null);
+            ddrRecord.setDuration(duration[row] != NULL_LONG ? duration[row] : null);
+            ddrRecord.setTotalCost(totalCost[row]);
+            return ddrRecord;
+        }
+
+        private String value(int column, int row) {
+
+            int code = codes[column][row];
+            return code >= 0 ? dictionaries[column][code] : null;
+        }
+    }
+}
@@ -0,0 +1,587 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import com.askfast.model.AccountType;
+import com.askfast.model.AdapterType;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.DDRRecord.CommunicationStatus;
+import com.askfast.util.RecordHandler;
+
+/**
+ * Keeps {@link DDRRecord DDRRecords} in memory column by column, for analytics
+ * over large numbers of ddrRecords. Numbers are kept in primitive arrays,
+ * repeating strings (adapterId, accountId, fromAddress, ...) as int codes into
+ * a dictionary and enums as their ordinal. A row is only turned back into a
+ * DDRRecord when asked for with {@link #getRecord(int)}. <br>
+ * The sessionKeys, statusPerAddress, additionalInfo and childIds of a
+ * ddrRecord are not kept. <br>
+ * The store is filled by a single thread, e.g. as the handler of
+ * {@link com.askfast.askfastapi.AskFastRestClient#streamDDRRecords(DDRQuery, Integer, Integer, RecordHandler)}
+ * . It is not thread safe.
+ */
+public class DDRColumnStore implements RecordHandler<DDRRecord>, Iterable<DDRRecord> {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final long NULL_LONG = Long.MIN_VALUE;
+    private static final byte NULL_ORDINAL = -1;
+
+    private static final AdapterType[] ADAPTER_TYPES = AdapterType.values();
+    private static final CommunicationStatus[] STATUSES = CommunicationStatus.values();
+    private static final AccountType[] ACCOUNT_TYPES = AccountType.values();
+
+    private final StringDictionary adapterIds = new StringDictionary();
+    private final StringDictionary accountIds = new StringDictionary();
+    private final StringDictionary fromAddresses = new StringDictionary();
+    private final StringDictionary toAddresses = new StringDictionary();
+    private final StringDictionary ddrTypeIds = new StringDictionary();
+    private final StringDictionary parentIds = new StringDictionary();
+
+    private int size = 0;
+    private String[] idColumn;
+    private int[] adapterIdColumn;
+    private int[] accountIdColumn;
+    private int[] fromAddressColumn;
+    private int[] toAddressColumn;
+    private int[] ddrTypeIdColumn;
+    private int[] parentIdColumn;
+    private int[] quantityColumn;
+    private long[] startColumn;
+    private long[] durationColumn;
+    private double[] totalCostColumn;
+    private byte[] adapterTypeColumn;
+    private byte[] statusColumn;
+    private byte[] accountTypeColumn;
+
+    public DDRColumnStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity
+     *            The number of rows to allocate up front. The columns grow
+     *            when more rows are added
+     */
+    public DDRColumnStore(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity can't be negative");
+        }
+        allocate(initialCapacity);
+    }
+
+    /**
+     * Adds the ddrRecord as the last row.
+     *
+     * @param ddrRecord
+     *            The ddrRecord to add
+     * @return The index of the row
+     */
+    public int add(DDRRecord ddrRecord) {
+
+        if (size == idColumn.length) {
+            allocate(Math.max(DEFAULT_CAPACITY, idColumn.length * 2));
+        }
+        int row = size;
+        idColumn[row] = ddrRecord.getId();
+        adapterIdColumn[row] = adapterIds.encode(ddrRecord.getAdapterId());
+        accountIdColumn[row] = accountIds.encode(ddrRecord.getAccountId());
+        fromAddressColumn[row] = fromAddresses.encode(ddrRecord.getFromAddress());
+        toAddressColumn[row] = toAddresses.encode(ddrRecord.getToAddressString());
+        ddrTypeIdColumn[row] = ddrTypeIds.encode(ddrRecord.getDdrTypeId());
+        parentIdColumn[row] = parentIds.encode(ddrRecord.getParentId());
+        quantityColumn[row] = ddrRecord.getQuantity();
+        startColumn[row] = ddrRecord.getStart() != null ? ddrRecord.getStart() : NULL_LONG;
+        durationColumn[row] = ddrRecord.getDuration() != null ? ddrRecord.getDuration() : NULL_LONG;
+        totalCostColumn[row] = ddrRecord.getTotalCost();
+        adapterTypeColumn[row] = ordinal(ddrRecord.getAdapterType());
+        statusColumn[row] = ordinal(ddrRecord.getStatus());
+        accountTypeColumn[row] = ordinal(ddrRecord.getAccountType());
+        size++;
+        return row;
+    }
+
+    /**
+     * Adds all the given ddrRecords.
+     *
+     * @param ddrRecords
+     *            The ddrRecords to add
+     */
+    public void addAll(Iterable<DDRRecord> ddrRecords) {
+
+        for (DDRRecord ddrRecord : ddrRecords) {
+            add(ddrRecord);
+        }
+    }
+
+    @Override
+    public void handle(DDRRecord ddrRecord) {
+
+        add(ddrRecord);
+    }
+
+    /**
+     * @return The number of rows
+     */
+    public int size() {
+
+        return size;
+    }
+
+    /**
+     * Rebuilds the ddrRecord of the given row.
+     *
+     * @param row
+     *            The index of the row
+     * @return A new DDRRecord with the kept fields of the row
+     */
+    public DDRRecord getRecord(int row) {
+
+        checkRow(row);
+        DDRRecord ddrRecord = new DDRRecord();
+        ddrRecord.setId(idColumn[row]);
+        ddrRecord.setAdapterId(getAdapterId(row));
+        ddrRecord.setAccountId(getAccountId(row));
+        ddrRecord.setFromAddress(getFromAddress(row));
+        ddrRecord.setToAddressString(getToAddressString(row));
+        ddrRecord.setDdrTypeId(getDdrTypeId(row));
+        ddrRecord.setParentId(getParentId(row));
+        ddrRecord.setQuantity(quantityColumn[row]);
+        ddrRecord.setStart(getStart(row));
+        ddrRecord.setDuration(getDuration(row));
+        ddrRecord.setTotalCost(totalCostColumn[row]);
+        ddrRecord.setAdapterType(getAdapterType(row));
+        ddrRecord.setStatus(getStatus(row));
+        ddrRecord.setAccountType(getAccountType(row));
+        return ddrRecord;
+    }
+
+    /**
+     * @return The rows rebuilt as ddrRecords one at a time
+     */
+    @Override
+    public Iterator<DDRRecord> iterator() {
+
+        return new Iterator<DDRRecord>() {
+
+            private int row = 0;
+
+            @Override
+            public boolean hasNext() {
+
+                return row < size;
+            }
+
+            @Override
+            public DDRRecord next() {
+
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getRecord(row++);
+            }
+
+            @Override
+            public void remove() {
+
+                throw new UnsupportedOperationException("rows can't be removed");
+            }
+        };
+    }
+
+    public String getId(int row) {
+
+        checkRow(row);
+        return idColumn[row];
+    }
+
+    public String getAdapterId(int row) {
+
+        checkRow(row);
+        return adapterIds.decode(adapterIdColumn[row]);
+    }
+
+    public String getAccountId(int row) {
+
+        checkRow(row);
+        return accountIds.decode(accountIdColumn[row]);
+    }
+
+    public String getFromAddress(int row) {
+
+        checkRow(row);
+        return fromAddresses.decode(fromAddressColumn[row]);
+    }
+
+    public String getToAddressString(int row) {
+
+        checkRow(row);
+        return toAddresses.decode(toAddressColumn[row]);
+    }
+
+    public String getDdrTypeId(int row) {
+
+        checkRow(row);
+        return ddrTypeIds.decode(ddrTypeIdColumn[row]);
+    }
+
+    public String getParentId(int row) {
+
+        checkRow(row);
+        return parentIds.decode(parentIdColumn[row]);
+    }
+
+    public int getQuantity(int row) {
+
+        checkRow(row);
+        return quantityColumn[row];
+    }
+
+    public Long getStart(int row) {
+
+        checkRow(row);
+        return startColumn[row] != NULL_LONG ? startColumn[row] : null;
+    }
+
+    public Long getDuration(int row) {
+
+        checkRow(row);
+        return durationColumn[row] != NULL_LONG ? durationColumn[row] : null;
+    }
+
+    public double getTotalCost(int row) {
+
+        checkRow(row);
+        return totalCostColumn[row];
+    }
+
+    public AdapterType getAdapterType(int row) {
+
+        checkRow(row);
+        return adapterTypeColumn[row] != NULL_ORDINAL ? ADAPTER_TYPES[adapterTypeColumn[row]] : null;
+    }
+
+    public CommunicationStatus getStatus(int row) {
+
+        checkRow(row);
+        return statusColumn[row] != NULL_ORDINAL ? STATUSES[statusColumn[row]] : null;
+    }
+
+    public AccountType getAccountType(int row) {
+
+        checkRow(row);
+        return accountTypeColumn[row] != NULL_ORDINAL ? ACCOUNT_TYPES[accountTypeColumn[row]] : null;
+    }
+
+    /**
+     * @return The sum of the totalCost of all rows
+     */
+    public double sumTotalCost() {
+
+        double sum = 0;
+        for (int row = 0; row < size; row++) {
+            sum += totalCostColumn[row];
+        }
+        return sum;
+    }
+
+    /**
+     * @return The sum of the quantity of all rows
+     */
+    public long sumQuantity() {
+
+        long sum = 0;
+        for (int row = 0; row < size; row++) {
+            sum += quantityColumn[row];
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the totalCost of the rows with a start in the given range.
+     *
+     * @param startTime
+     *            The lower bound, inclusive
+     * @param endTime
+     *            The upper bound, inclusive
+     * @return The sum of the totalCost. Rows without a start are skipped
+     */
+    public double sumTotalCost(long startTime, long endTime) {
+
+        double sum = 0;
+        for (int row = 0; row < size; row++) {
+            long start = startColumn[row];
+            if (start != NULL_LONG && start >= startTime && start <= endTime) {
+                sum += totalCostColumn[row];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return The sum of the totalCost per adapterId. Rows without an
+     *         adapterId are summed under the {@code null} key
+     */
+    public Map<String, Double> getTotalCostPerAdapterId() {
+
+        return sumPerCode(adapterIds, adapterIdColumn);
+    }
+
+    /**
+     * @return The sum of the totalCost per accountId. Rows without an
+     *         accountId are summed under the {@code null} key
+     */
+    public Map<String, Double> getTotalCostPerAccountId() {
+
+        return sumPerCode(accountIds, accountIdColumn);
+    }
+
+    /**
+     * @return The sum of the totalCost per ddrTypeId. Rows without a
+     *         ddrTypeId are summed under the {@code null} key
+     */
+    public Map<String, Double> getTotalCostPerDdrTypeId() {
+
+        return sumPerCode(ddrTypeIds, ddrTypeIdColumn);
+    }
+
+    /**
+     * @return The number of rows per status. Rows without a status are
+     *         counted under the {@code null} key
+     */
+    public Map<CommunicationStatus, Integer> getCountPerStatus() {
+
+        int[] counts = new int[STATUSES.length + 1];
+        for (int row = 0; row < size; row++) {
+            counts[statusColumn[row] + 1]++;
+        }
+        Map<CommunicationStatus, Integer> result = new HashMap<CommunicationStatus, Integer>();
+        for (int index = 0; index < counts.length; index++) {
+            if (counts[index] > 0) {
+                result.put(index > 0 ? STATUSES[index - 1] : null, counts[index]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Shrinks the columns to the number of rows, to release the unused
+     * capacity once the store is filled.
+     */
+    public void trimToSize() {
+
+        if (idColumn.length != size) {
+            allocate(size);
+        }
+    }
+
+    /**
+     * @return A rough estimate of the bytes taken by the columns and
+     *         dictionaries, not counting the ddrRecord ids
+     */
+    public long getEstimatedColumnBytes() {
+
+        long bytes = (long) idColumn.length * (7 * 4 + 2 * 8 + 8 + 3);
+        bytes += adapterIds.getEstimatedBytes() + accountIds.getEstimatedBytes();
+        bytes += fromAddresses.getEstimatedBytes() + toAddresses.getEstimatedBytes();
+        bytes += ddrTypeIds.getEstimatedBytes() + parentIds.getEstimatedBytes();
+        return bytes;
+    }
+
+    private Map<String, Double> sumPerCode(StringDictionary dictionary, int[] column) {
+
+        // index 0 collects the rows without a value
+        double[] sums = new double[dictionary.size() + 1];
+        boolean[] seen = new boolean[sums.length];
+        for (int row = 0; row < size; row++) {
+            int index = column[row] + 1;
+            sums[index] += totalCostColumn[row];
+            seen[index] = true;
+        }
+        Map<String, Double> result = new HashMap<String, Double>();
+        for (int index = 0; index < sums.length; index++) {
+            if (seen[index]) {
+                result.put(dictionary.decode(index - 1), sums[index]);
+            }
+        }
+        return result;
+    }
+
+    private void allocate(int capacity) {
+
+        if (idColumn == null) {
+            idColumn = new String[capacity];
+            adapterIdColumn = new int[capacity];
+            accountIdColumn = new int[capacity];
+            fromAddressColumn = new int[capacity];
+            toAddressColumn = new int[capacity];
+            ddrTypeIdColumn = new int[capacity];
+            parentIdColumn = new int[capacity];
+            quantityColumn = new int[capacity];
+            startColumn = new long[capacity];
+            durationColumn = new long[capacity];
+            totalCostColumn = new double[capacity];
+            adapterTypeColumn = new byte[capacity];
+            statusColumn = new byte[capacity];
+            accountTypeColumn = new byte[capacity];
+        }
+        else {
+            idColumn = Arrays.copyOf(idColumn, capacity);
+            adapterIdColumn = Arrays.copyOf(adapterIdColumn, capacity);
+            accountIdColumn = Arrays.copyOf(accountIdColumn, capacity);
+            fromAddressColumn = Arrays.copyOf(fromAddressColumn, capacity);
+            toAddressColumn = Arrays.copyOf(toAddressColumn, capacity);
+            ddrTypeIdColumn = Arrays.copyOf(ddrTypeIdColumn, capacity);
+            parentIdColumn = Arrays.copyOf(parentIdColumn, capacity);
+            quantityColumn = Arrays.copyOf(quantityColumn, capacity);
+            startColumn = Arrays.copyOf(startColumn, capacity);
+            durationColumn = Arrays.copyOf(durationColumn, capacity);
+            totalCostColumn = Arrays.copyOf(totalCostColumn, capacity);
+            adapterTypeColumn = Arrays.copyOf(adapterTypeColumn, capacity);
+            statusColumn = Arrays.copyOf(statusColumn, capacity);
+            accountTypeColumn = Arrays.copyOf(accountTypeColumn, capacity);
+        }
+    }
+
+    private void checkRow(int row) {
+
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+        }
+    }
+
+    /**
+     * @return The dictionary code or enum ordinal of the dimension in the row,
+     *         -1 when it has no value
+     */
+    int getCode(DDRAggregator.Dimension dimension, int row) {
+
+        switch (dimension) {
+            case ADAPTER_ID:
+                return adapterIdColumn[row];
+            case ACCOUNT_ID:
+                return accountIdColumn[row];
+            case FROM_ADDRESS:
+                return fromAddressColumn[row];
+            case TO_ADDRESS:
+                return toAddressColumn[row];
+            case DDR_TYPE_ID:
+                return ddrTypeIdColumn[row];
+            case ADAPTER_TYPE:
+                return adapterTypeColumn[row];
+            case STATUS:
+                return statusColumn[row];
+            case ACCOUNT_TYPE:
+                return accountTypeColumn[row];
+            default:
+                throw new IllegalArgumentException("Unknown dimension: " + dimension);
+        }
+    }
+
+    /**
+     * @return The value behind a code returned by
+     *         {@link #getCode(DDRAggregator.Dimension, int)}
+     */
+    Object decode(DDRAggregator.Dimension dimension, int code) {
+
+        if (code < 0) {
+            return null;
+        }
+        switch (dimension) {
+            case ADAPTER_ID:
+                return adapterIds.decode(code);
+            case ACCOUNT_ID:
+                return accountIds.decode(code);
+            case FROM_ADDRESS:
+                return fromAddresses.decode(code);
+            case TO_ADDRESS:
+                return toAddresses.decode(code);
+            case DDR_TYPE_ID:
+                return ddrTypeIds.decode(code);
+            case ADAPTER_TYPE:
+                return ADAPTER_TYPES[code];
+            case STATUS:
+                return STATUSES[code];
+            case ACCOUNT_TYPE:
+                return ACCOUNT_TYPES[code];
+            default:
+                throw new IllegalArgumentException("Unknown dimension: " + dimension);
+        }
+    }
+
+    /**
+     * @return The start of the row, or {@link Long#MIN_VALUE} when it has none
+     */
+    long getStartValue(int row) {
+
+        return startColumn[row];
+    }
+
+    /**
+     * @return The value of the measure in the row, or NaN when it has none
+     */
+    double getValue(DDRAggregator.Measure measure, int row) {
+
+        switch (measure) {
+            case TOTAL_COST:
+                return totalCostColumn[row];
+            case QUANTITY:
+                return quantityColumn[row];
+            case DURATION:
+                return durationColumn[row] != NULL_LONG ? durationColumn[row] : Double.NaN;
+            default:
+                throw new IllegalArgumentException("Unknown measure: " + measure);
+        }
+    }
+
+    private static byte ordinal(Enum<?> value) {
+
+        return value != null ? (byte) value.ordinal() : NULL_ORDINAL;
+    }
+
+    /**
+     * Maps every distinct string to an int code, so a column only stores each
+     * value once. The code -1 stands for {@code null}.
+     */
+    static class StringDictionary {
+
+        private final Map<String, Integer> codes = new HashMap<String, Integer>();
+        private final List<String> values = new ArrayList<String>();
+        private long characters = 0;
+
+        int encode(String value) {
+
+            if (value == null) {
+                return -1;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+                characters += value.length();
+            }
+            return code;
+        }
+
+        String decode(int code) {
+
+            return code >= 0 ? values.get(code) : null;
+        }
+
+        int size() {
+
+            return values.size();
+        }
+
+        long getEstimatedBytes() {
+
+            // the string itself, its map entry and the list slot
+            return characters * 2 + values.size() * (40L + 32L + 16L + 8L);
+        }
+    }
+}
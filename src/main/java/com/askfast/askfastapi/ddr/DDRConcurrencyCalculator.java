@@ -0,0 +1,466 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Calculates how many communications were going on at the same time per
+ * adapter, from the start and duration of the {@link DDRRecord DDRRecords}. <br>
+ * Every ddrRecord becomes a start and an end event. The events are sorted per
+ * adapter and swept in time order, keeping the running number of open
+ * communications. An end and a start at the same moment don't overlap. <br>
+ * The ddrRecords don't have to be sorted. At most maxEventsInMemory events are
+ * held in memory: when more arrive, the events are sorted and written to a
+ * temporary file per adapter, and the files are merged while sweeping. So the
+ * ddrRecords can come straight from a {@link DDRRecordCursor}. <br>
+ * DdrRecords without a start or duration are skipped, and ddrRecords with a
+ * duration of zero are counted but never overlap.
+ */
+public class DDRConcurrencyCalculator {
+
+    private static final Logger log = Logger.getLogger(DDRConcurrencyCalculator.class.getName());
+
+    public static final int DEFAULT_MAX_EVENTS_IN_MEMORY = 1000000;
+
+    private final long bucketMillis;
+    private int maxEventsInMemory = DEFAULT_MAX_EVENTS_IN_MEMORY;
+    private TimeUnit durationUnit = TimeUnit.MILLISECONDS;
+    private File tempDirectory = null;
+
+    /**
+     * @param bucketMillis
+     *            The length of the buckets of the time series, e.g. a minute
+     */
+    public DDRConcurrencyCalculator(long bucketMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("bucketMillis must be positive");
+        }
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * Fetches all ddrRecords matching the query with a {@link DDRRecordCursor}
+     * and calculates their concurrency.
+     *
+     * @param source
+     *            The source, e.g. the AskFastRestClient
+     * @param query
+     *            The filter, e.g. the call adapters and a date range
+     * @return The concurrency per adapterId
+     * @throws IOException
+     *             Spilling events to disk failed
+     */
+    public Map<String, AdapterConcurrency> calculate(DDRRecordSource source, DDRQuery query) throws IOException {
+
+        DDRRecordCursor cursor = new DDRRecordCursor(source, query);
+        try {
+            return calculate(cursor);
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param ddrRecords
+     *            The ddrRecords, in any order
+     * @return The concurrency per adapterId
+     * @throws IOException
+     *             Spilling events to disk failed
+     */
+    public Map<String, AdapterConcurrency> calculate(Iterable<DDRRecord> ddrRecords) throws IOException {
+
+        Map<String, EventList> events = new HashMap<String, EventList>();
+        Map<String, List<File>> runs = new HashMap<String, List<File>>();
+        Map<String, Integer> recordCounts = new HashMap<String, Integer>();
+        int eventsInMemory = 0;
+        try {
+            for (DDRRecord ddrRecord : ddrRecords) {
+                if (ddrRecord.getStart() == null || ddrRecord.getDuration() == null) {
+                    continue;
+                }
+                String adapterId = ddrRecord.getAdapterId();
+                EventList adapterEvents = events.get(adapterId);
+                if (adapterEvents == null) {
+                    adapterEvents = new EventList();
+                    events.put(adapterId, adapterEvents);
+                }
+                Integer count = recordCounts.get(adapterId);
+                recordCounts.put(adapterId, count != null ? count + 1 : 1);
+                long start = ddrRecord.getStart();
+                long end = start + durationUnit.toMillis(ddrRecord.getDuration());
+                if (end <= start) {
+                    continue;
+                }
+                adapterEvents.add(toEvent(start, true));
+                adapterEvents.add(toEvent(end, false));
+                eventsInMemory += 2;
+                if (eventsInMemory >= maxEventsInMemory) {
+                    spill(events, runs);
+                    eventsInMemory = 0;
+                }
+            }
+
+            Map<String, AdapterConcurrency> result = new HashMap<String, AdapterConcurrency>();
+            for (Map.Entry<String, Integer> entry : recordCounts.entrySet()) {
+                String adapterId = entry.getKey();
+                List<EventSource> sources = new ArrayList<EventSource>();
+                List<File> files = runs.get(adapterId);
+                if (files != null) {
+                    for (File file : files) {
+                        sources.add(new FileEventSource(file));
+                    }
+                }
+                EventList adapterEvents = events.get(adapterId);
+                if (adapterEvents != null && adapterEvents.size > 0) {
+                    adapterEvents.sort();
+                    sources.add(adapterEvents);
+                }
+                try {
+                    result.put(adapterId, sweep(adapterId, entry.getValue(), sources));
+                }
+                finally {
+                    for (EventSource eventSource : sources) {
+                        eventSource.close();
+                    }
+                }
+            }
+            return result;
+        }
+        finally {
+            for (List<File> files : runs.values()) {
+                for (File file : files) {
+                    if (!file.delete()) {
+                        log.warning("Failed to delete " + file);
+                    }
+                }
+            }
+        }
+    }
+
+    public long getBucketMillis() {
+
+        return bucketMillis;
+    }
+
+    public int getMaxEventsInMemory() {
+
+        return maxEventsInMemory;
+    }
+
+    /**
+     * @param maxEventsInMemory
+     *            The number of events, two per ddrRecord, held in memory before
+     *            they are written to temporary files
+     */
+    public void setMaxEventsInMemory(int maxEventsInMemory) {
+
+        if (maxEventsInMemory < 2) {
+            throw new IllegalArgumentException("maxEventsInMemory must be at least 2");
+        }
+        this.maxEventsInMemory = maxEventsInMemory;
+    }
+
+    public TimeUnit getDurationUnit() {
+
+        return durationUnit;
+    }
+
+    /**
+     * @param durationUnit
+     *            The unit of the ddrRecord duration. Milliseconds by default
+     */
+    public void setDurationUnit(TimeUnit durationUnit) {
+
+        this.durationUnit = durationUnit;
+    }
+
+    public File getTempDirectory() {
+
+        return tempDirectory;
+    }
+
+    /**
+     * @param tempDirectory
+     *            The directory for the temporary files. The system default
+     *            when null
+     */
+    public void setTempDirectory(File tempDirectory) {
+
+        this.tempDirectory = tempDirectory;
+    }
+
+    private void spill(Map<String, EventList> events, Map<String, List<File>> runs) throws IOException {
+
+        for (Map.Entry<String, EventList> entry : events.entrySet()) {
+            EventList adapterEvents = entry.getValue();
+            if (adapterEvents.size == 0) {
+                continue;
+            }
+            adapterEvents.sort();
+            File file = File.createTempFile("ddr-concurrency", ".events", tempDirectory);
+            List<File> files = runs.get(entry.getKey());
+            if (files == null) {
+                files = new ArrayList<File>();
+                runs.put(entry.getKey(), files);
+            }
+            files.add(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                for (int index = 0; index < adapterEvents.size; index++) {
+                    out.writeLong(adapterEvents.values[index]);
+                }
+            }
+            finally {
+                out.close();
+            }
+            adapterEvents.clear();
+        }
+    }
+
+    private AdapterConcurrency sweep(String adapterId, int recordCount, List<EventSource> sources)
+        throws IOException {
+
+        PriorityQueue<EventSource> queue = new PriorityQueue<EventSource>(Math.max(1, sources.size()));
+        for (EventSource source : sources) {
+            if (source.advance()) {
+                queue.add(source);
+            }
+        }
+        TreeMap<Long, Integer> maxPerBucket = new TreeMap<Long, Integer>();
+        int level = 0;
+        int peak = 0;
+        Long peakTime = null;
+        long bucket = Long.MIN_VALUE;
+        int bucketMax = 0;
+        while (!queue.isEmpty()) {
+            EventSource source = queue.poll();
+            long event = source.current;
+            if (source.advance()) {
+                queue.add(source);
+            }
+            long time = event >> 1;
+            long eventBucket = time - ((time % bucketMillis) + bucketMillis) % bucketMillis;
+            if (eventBucket != bucket) {
+                if (bucket != Long.MIN_VALUE) {
+                    putBucket(maxPerBucket, bucket, bucketMax);
+                    // the buckets without events keep the running level
+                    if (level > 0) {
+                        for (long between = bucket + bucketMillis; between < eventBucket; between += bucketMillis) {
+                            maxPerBucket.put(between, level);
+                        }
+                    }
+                }
+                bucket = eventBucket;
+                // the level is only carried when no events change it at the bucket start
+                bucketMax = time > eventBucket ? level : 0;
+            }
+            level += (event & 1) == 1 ? 1 : -1;
+            if (level > bucketMax) {
+                bucketMax = level;
+            }
+            if (level > peak) {
+                peak = level;
+                peakTime = time;
+            }
+        }
+        if (bucket != Long.MIN_VALUE) {
+            putBucket(maxPerBucket, bucket, bucketMax);
+        }
+        return new AdapterConcurrency(adapterId, recordCount, peak, peakTime,
+            Collections.unmodifiableSortedMap(maxPerBucket));
+    }
+
+    private static void putBucket(Map<Long, Integer> maxPerBucket, long bucket, int max) {
+
+        if (max > 0) {
+            maxPerBucket.put(bucket, max);
+        }
+    }
+
+    /**
+     * An event is the time shifted left by one, with the lowest bit set for a
+     * start, so sorting puts ends before starts at the same moment
+     */
+    private static long toEvent(long time, boolean start) {
+
+        return (time << 1) | (start ? 1 : 0);
+    }
+
+    /**
+     * A sorted run of events, read one at a time
+     */
+    private static abstract class EventSource implements Comparable<EventSource> {
+
+        long current;
+
+        /**
+         * @return False when there are no more events
+         */
+        abstract boolean advance() throws IOException;
+
+        void close() throws IOException {}
+
+        @Override
+        public int compareTo(EventSource other) {
+
+            return current < other.current ? -1 : (current == other.current ? 0 : 1);
+        }
+    }
+
+    /**
+     * The events still in memory
+     */
+    private static class EventList extends EventSource {
+
+        long[] values = new long[16];
+        int size = 0;
+        private int position = 0;
+
+        void add(long event) {
+
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = event;
+        }
+
+        void sort() {
+
+            Arrays.sort(values, 0, size);
+        }
+
+        void clear() {
+
+            values = new long[16];
+            size = 0;
+        }
+
+        @Override
+        boolean advance() {
+
+            if (position == size) {
+                return false;
+            }
+            current = values[position++];
+            return true;
+        }
+    }
+
+    /**
+     * The events spilled to a file
+     */
+    private static class FileEventSource extends EventSource {
+
+        private final DataInputStream in;
+
+        FileEventSource(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+
+            try {
+                current = in.readLong();
+                return true;
+            }
+            catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        void close() throws IOException {
+
+            in.close();
+        }
+    }
+
+    /**
+     * The concurrency of a single adapter
+     */
+    public static class AdapterConcurrency {
+
+        private final String adapterId;
+        private final int recordCount;
+        private final int peak;
+        private final Long peakTime;
+        private final SortedMap<Long, Integer> maxPerBucket;
+
+        AdapterConcurrency(String adapterId, int recordCount, int peak, Long peakTime,
+            SortedMap<Long, Integer> maxPerBucket) {
+            this.adapterId = adapterId;
+            this.recordCount = recordCount;
+            this.peak = peak;
+            this.peakTime = peakTime;
+            this.maxPerBucket = maxPerBucket;
+        }
+
+        public String getAdapterId() {
+
+            return adapterId;
+        }
+
+        /**
+         * @return The number of ddrRecords of the adapter with a start and
+         *         duration
+         */
+        public int getRecordCount() {
+
+            return recordCount;
+        }
+
+        /**
+         * @return The highest number of simultaneous communications
+         */
+        public int getPeak() {
+
+            return peak;
+        }
+
+        /**
+         * @return The first moment the peak was reached, or null without
+         *         ddrRecords
+         */
+        public Long getPeakTime() {
+
+            return peakTime;
+        }
+
+        /**
+         * @return The highest number of simultaneous communications per bucket
+         *         start. Buckets without any communication are left out
+         */
+        public SortedMap<Long, Integer> getMaxPerBucket() {
+
+            return maxPerBucket;
+        }
+
+        @Override
+        public String toString() {
+
+            return String.format("AdapterConcurrency [adapterId: %s, records: %d, peak: %d, peakTime: %s]",
+                adapterId, recordCount, peak, peakTime);
+        }
+    }
+}
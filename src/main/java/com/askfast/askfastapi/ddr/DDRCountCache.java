@@ -0,0 +1,280 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import com.askfast.askfastapi.cache.CacheLoader;
+import com.askfast.askfastapi.cache.CacheStats;
+import com.askfast.askfastapi.cache.TTLCache;
+import com.askfast.model.DDRRecord;
+
+/**
+ * A {@link DDRRecordSource} that caches the {@link DDRRecord} counts of
+ * another source. <br>
+ * The time range of a count is split at bucket boundaries (UTC days by
+ * default), keyed by the normalized filter and the range of the piece. A whole
+ * bucket that ended more than settleMillis ago is closed: its count can't
+ * change anymore and is cached until evicted. The rest of the range from the
+ * first bucket that isn't closed, up to the endTime, is counted as one open
+ * piece and cached for openTtlMillis only. So a dashboard polling the count of
+ * the last month asks the server for the recent days only, once the past days
+ * are cached. A closed piece that is only part of a bucket, at the edges of
+ * the range, is counted every time, so a rolling window doesn't fill the
+ * cache with pieces that are never asked again. <br>
+ * The first count of a range takes a request per closed bucket. Counts
+ * without a startTime or endTime can't be split and are cached as a whole
+ * with the open TTL. The ddrRecords themselves are not cached.
+ */
+public class DDRCountCache implements DDRRecordSource {
+
+    public static final long DEFAULT_BUCKET_MILLIS = 24 * 60 * 60 * 1000L;
+    public static final long DEFAULT_SETTLE_MILLIS = 60 * 60 * 1000L;
+    public static final long DEFAULT_OPEN_TTL_MILLIS = 10 * 1000L;
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final DDRRecordSource source;
+    private final long bucketMillis;
+    private final long settleMillis;
+    private final TTLCache<CountKey, Integer> closedCounts;
+    private final TTLCache<CountKey, Integer> openCounts;
+
+    /**
+     * Creates a cache with daily buckets, settled after an hour, and a 10
+     * second TTL for the open bucket.
+     *
+     * @param source
+     *            The source of the counts, e.g. the AskFastRestClient
+     */
+    public DDRCountCache(DDRRecordSource source) {
+        this(source, DEFAULT_BUCKET_MILLIS, DEFAULT_SETTLE_MILLIS, DEFAULT_OPEN_TTL_MILLIS, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param source
+     *            The source of the counts, e.g. the AskFastRestClient
+     * @param bucketMillis
+     *            The length of the buckets, aligned to the epoch
+     * @param settleMillis
+     *            How long after its end a bucket can still change, e.g.
+     *            because ddrRecords are stored when a call ends
+     * @param openTtlMillis
+     *            How long the count of a bucket that can still change is
+     *            cached
+     * @param maxSize
+     *            The maximum number of cached counts, per kind
+     */
+    public DDRCountCache(DDRRecordSource source, long bucketMillis, long settleMillis, long openTtlMillis,
+        int maxSize) {
+        if (bucketMillis <= 0 || settleMillis < 0 || openTtlMillis < 0) {
+            throw new IllegalArgumentException("bucketMillis must be positive, the other times can't be negative");
+        }
+        this.source = source;
+        this.bucketMillis = bucketMillis;
+        this.settleMillis = settleMillis;
+        this.closedCounts = new TTLCache<CountKey, Integer>(maxSize, Long.MAX_VALUE / 2, 0);
+        this.openCounts = new TTLCache<CountKey, Integer>(maxSize, openTtlMillis, 0);
+    }
+
+    @Override
+    public List<DDRRecord> getDDRRecords(DDRQuery query, Integer offset, Integer limit) throws Exception {
+
+        return source.getDDRRecords(query, offset, limit);
+    }
+
+    @Override
+    public Integer getDDRRecordCount(DDRQuery query) throws Exception {
+
+        DDRQuery filter = query != null ? query : new DDRQuery();
+        String filterKey = getFilterKey(filter);
+        Long startTime = filter.getStartTime();
+        Long endTime = filter.getEndTime();
+        if (startTime == null || endTime == null) {
+            return count(openCounts, new CountKey(filterKey, startTime, endTime), filter);
+        }
+        long settled = currentTimeMillis() - settleMillis;
+        int total = 0;
+        long pieceStart = startTime;
+        while (pieceStart <= endTime) {
+            long bucketStart = pieceStart - ((pieceStart % bucketMillis) + bucketMillis) % bucketMillis;
+            long bucketEnd = bucketStart > Long.MAX_VALUE - bucketMillis ? Long.MAX_VALUE
+                : bucketStart + bucketMillis - 1;
+            long pieceEnd = Math.min(endTime, bucketEnd);
+            if (pieceEnd >= settled) {
+                // the rest of the range can still change, however many buckets it spans
+                total += count(openCounts, new CountKey(filterKey, pieceStart, endTime), filter);
+                break;
+            }
+            if (pieceStart == bucketStart && pieceEnd == bucketEnd) {
+                total += count(closedCounts, new CountKey(filterKey, pieceStart, pieceEnd), filter);
+            }
+            else {
+                total += fetchCount(filter, pieceStart, pieceEnd);
+            }
+            pieceStart = pieceEnd + 1;
+        }
+        return total;
+    }
+
+    /**
+     * Forgets all cached counts, e.g. after ddrRecords were recalculated.
+     */
+    public void invalidateAll() {
+
+        closedCounts.invalidateAll();
+        openCounts.invalidateAll();
+    }
+
+    /**
+     * @return The hits and misses of the counts of closed buckets
+     */
+    public CacheStats getClosedStats() {
+
+        return closedCounts.getStats();
+    }
+
+    /**
+     * @return The hits and misses of the counts of open buckets
+     */
+    public CacheStats getOpenStats() {
+
+        return openCounts.getStats();
+    }
+
+    /**
+     * Stops the refresh threads of the caches.
+     */
+    public void shutdown() {
+
+        closedCounts.shutdown();
+        openCounts.shutdown();
+    }
+
+    /**
+     * @return The current time in milliseconds, overridable for tests
+     */
+    protected long currentTimeMillis() {
+
+        return System.currentTimeMillis();
+    }
+
+    private Integer count(TTLCache<CountKey, Integer> cache, CountKey key, final DDRQuery filter) throws Exception {
+
+        try {
+            Integer count = cache.get(key, new CacheLoader<CountKey, Integer>() {
+
+                @Override
+                public Integer load(CountKey key) {
+
+                    try {
+                        return fetchCount(filter, key.startTime, key.endTime);
+                    }
+                    catch (RuntimeException e) {
+                        throw e;
+                    }
+                    catch (Exception e) {
+                        throw new CountException(e);
+                    }
+                }
+            });
+            return count != null ? count : 0;
+        }
+        catch (CountException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Counts a piece at the source, without the cache
+     */
+    private int fetchCount(DDRQuery filter, Long startTime, Long endTime) throws Exception {
+
+        DDRQuery piece = filter.copy();
+        piece.setStartTime(startTime);
+        piece.setEndTime(endTime);
+        Integer count = source.getDDRRecordCount(piece);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * The filter fields that change the count, with collections sorted so the
+     * same filter in a different order shares the cache
+     */
+    static String getFilterKey(DDRQuery query) {
+
+        StringBuilder key = new StringBuilder();
+        key.append(sorted(query.getAdapterIds())).append('|');
+        key.append(sorted(query.getAdapterTypes())).append('|');
+        key.append(query.getFromAddress()).append('|');
+        key.append(query.getTypeId()).append('|');
+        key.append(query.getStatus()).append('|');
+        String sessionKeys = query.getDelimitedSessionKeys();
+        List<String> splitSessionKeys = null;
+        if (sessionKeys != null) {
+            splitSessionKeys = new ArrayList<String>();
+            for (String sessionKey : sessionKeys.split(",")) {
+                splitSessionKeys.add(sessionKey.trim());
+            }
+        }
+        key.append(sorted(splitSessionKeys));
+        return key.toString();
+    }
+
+    private static List<String> sorted(Collection<String> values) {
+
+        if (values == null) {
+            return null;
+        }
+        List<String> sorted = new ArrayList<String>(values);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Carries a checked exception of the source through the CacheLoader
+     */
+    private static class CountException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        CountException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * A filter with the time range of a piece
+     */
+    private static class CountKey {
+
+        final String filterKey;
+        final Long startTime;
+        final Long endTime;
+
+        CountKey(String filterKey, Long startTime, Long endTime) {
+            this.filterKey = filterKey;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        @Override
+        public int hashCode() {
+
+            int hash = filterKey.hashCode();
+            hash = 31 * hash + (startTime != null ? startTime.hashCode() : 0);
+            return 31 * hash + (endTime != null ? endTime.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+
+            if (!(obj instanceof CountKey)) {
+                return false;
+            }
+            CountKey other = (CountKey) obj;
+            return filterKey.equals(other.filterKey)
+                && (startTime == null ? other.startTime == null : startTime.equals(other.startTime))
+                && (endTime == null ? other.endTime == null : endTime.equals(other.endTime));
+        }
+    }
+}
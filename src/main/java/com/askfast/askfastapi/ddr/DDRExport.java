@@ -0,0 +1,89 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.File;
+import java.util.Arrays;
+import com.askfast.askfastapi.AskFastRestClient;
+import com.askfast.askfastapi.ddr.DDRExporter.Format;
+
+/**
+ * Command line entry point exporting the ddrRecords of an account to a file:
+ *
+ * <pre>
+ * java -cp askfast-api-java.jar com.askfast.askfastapi.ddr.DDRExport accountId refreshToken output.csv.gz \
+ *     --format csv --gzip --from 1420070400000 --to 1422748800000 --adapterIds id1,id2
+ * </pre>
+ *
+ * Options: --format csv|ndjson (by the file extension when left out), --gzip
+ * (also when the file ends with .gz), --from and --to in epoch milliseconds,
+ * --adapterIds, --adapterTypes, --pageSize and --endpoint.
+ */
+public class DDRExport {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 3) {
+            System.err.println("Usage: DDRExport accountId refreshToken outputFile [--format csv|ndjson] [--gzip] "
+                + "[--from millis] [--to millis] [--adapterIds id,id] [--adapterTypes type,type] [--pageSize n] "
+                + "[--endpoint url]");
+            System.exit(1);
+        }
+        File file = new File(args[2]);
+        String name = file.getName().toLowerCase();
+        boolean gzip = name.endsWith(".gz");
+        Format format = name.contains(".ndjson") || name.contains(".json") ? Format.NDJSON : Format.CSV;
+        DDRQuery query = new DDRQuery();
+        int pageSize = DEFAULT_PAGE_SIZE;
+        String endpoint = null;
+        for (int index = 3; index < args.length; index++) {
+            String option = args[index];
+            if ("--gzip".equals(option)) {
+                gzip = true;
+                continue;
+            }
+            if (index + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++index];
+            if ("--format".equals(option)) {
+                format = Format.getByName(value);
+                if (format == null) {
+                    throw new IllegalArgumentException("Unknown format: " + value);
+                }
+            }
+            else if ("--from".equals(option)) {
+                query.setStartTime(Long.parseLong(value));
+            }
+            else if ("--to".equals(option)) {
+                query.setEndTime(Long.parseLong(value));
+            }
+            else if ("--adapterIds".equals(option)) {
+                query.setAdapterIds(Arrays.asList(value.split(",")));
+            }
+            else if ("--adapterTypes".equals(option)) {
+                query.setAdapterTypes(Arrays.asList(value.split(",")));
+            }
+            else if ("--pageSize".equals(option)) {
+                pageSize = Integer.parseInt(value);
+            }
+            else if ("--endpoint".equals(option)) {
+                endpoint = value;
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+
+        AskFastRestClient client = new AskFastRestClient(args[0], args[1], null, endpoint);
+        DDRExporter exporter = DDRExporter.open(file, format, gzip);
+        try {
+            client.streamAllDDRRecords(query, pageSize, exporter);
+        }
+        finally {
+            exporter.close();
+        }
+        System.out.println(String.format("Exported %d ddrRecords to %s in %d ms, %.0f rows/sec",
+            exporter.getRowCount(), file, exporter.getElapsedMillis(), exporter.getRowsPerSecond()));
+    }
+}
@@ -0,0 +1,349 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import com.askfast.model.DDRRecord;
+import com.askfast.util.RecordHandler;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes {@link DDRRecord DDRRecords} one by one as CSV rows or NDJSON lines,
+ * so an export of millions of ddrRecords takes constant memory when it is fed
+ * by
+ * {@link com.askfast.askfastapi.AskFastRestClient#streamAllDDRRecords(DDRQuery, int, RecordHandler)}
+ * . <br>
+ * The statusPerAddress and additionalInfo maps are flattened: nested keys are
+ * joined with dots, e.g. {@code additionalInfo.trial.credits}. In NDJSON every
+ * flattened key becomes a field, in CSV each map becomes a single column of
+ * {@code key=value} pairs separated by semicolons, as the columns of a CSV file
+ * are fixed by its header. <br>
+ * Close the exporter to flush the buffer and finish the gzip stream.
+ */
+public class DDRExporter implements RecordHandler<DDRRecord>, Closeable {
+
+    private static final Logger log = Logger.getLogger(DDRExporter.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long LOG_INTERVAL = 100000;
+
+    static final String[] CSV_COLUMNS = { "id", "adapterId", "adapterType", "accountId", "accountType",
+        "fromAddress", "toAddressString", "ddrTypeId", "quantity", "start", "duration", "status", "totalCost",
+        "parentId", "childIds", "sessionKeys", "statusPerAddress", "additionalInfo" };
+
+    /**
+     * The output formats
+     */
+    public enum Format {
+        CSV, NDJSON;
+
+        /**
+         * @param name
+         *            The name, in any case
+         * @return The format, or null when unknown
+         */
+        public static Format getByName(String name) {
+
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Writer writer;
+    private final Format format;
+    private final JsonGenerator generator;
+    private final long startNanos = System.nanoTime();
+    private long rowCount = 0;
+    private boolean closed = false;
+
+    /**
+     * @param out
+     *            The stream to write to. It is closed with the exporter
+     * @param format
+     *            The output format
+     * @throws IOException
+     *             Writing the CSV header failed
+     */
+    public DDRExporter(OutputStream out, Format format) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, UTF8), BUFFER_SIZE);
+        this.format = format;
+        if (format == Format.NDJSON) {
+            generator = new JsonFactory().createGenerator(writer);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        }
+        else {
+            generator = null;
+            writeCsvRow(CSV_COLUMNS);
+        }
+    }
+
+    /**
+     * Opens an exporter writing to a file through a FileChannel.
+     *
+     * @param file
+     *            The file to write. It is replaced when it exists
+     * @param format
+     *            The output format
+     * @param gzip
+     *            True to gzip the output
+     * @return The exporter
+     * @throws IOException
+     *             The file can't be opened
+     */
+    public static DDRExporter open(File file, Format format, boolean gzip) throws IOException {
+
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        OutputStream out = Channels.newOutputStream(fileOutputStream.getChannel());
+        try {
+            if (gzip) {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            }
+            return new DDRExporter(out, format);
+        }
+        catch (IOException e) {
+            out.close();
+            fileOutputStream.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void handle(DDRRecord ddrRecord) throws IOException {
+
+        if (format == Format.NDJSON) {
+            writeJson(ddrRecord);
+        }
+        else {
+            String[] row = { ddrRecord.getId(), ddrRecord.getAdapterId(), toString(ddrRecord.getAdapterType()),
+                ddrRecord.getAccountId(), toString(ddrRecord.getAccountType()), ddrRecord.getFromAddress(),
+                ddrRecord.getToAddressString(), ddrRecord.getDdrTypeId(), toString(ddrRecord.getQuantity()),
+                toString(ddrRecord.getStart()), toString(ddrRecord.getDuration()), toString(ddrRecord.getStatus()),
+                toString(ddrRecord.getTotalCost()), ddrRecord.getParentId(), join(ddrRecord.getChildIds()),
+                join(ddrRecord.getSessionKeys()), toPairs(flatten(ddrRecord.getStatusPerAddress())),
+                toPairs(flatten(ddrRecord.getAdditionalInfo())) };
+            writeCsvRow(row);
+        }
+        rowCount++;
+        if (rowCount % LOG_INTERVAL == 0) {
+            log.info(String.format("Exported %d ddrRecords, %.0f rows/sec", rowCount, getRowsPerSecond()));
+        }
+    }
+
+    public Format getFormat() {
+
+        return format;
+    }
+
+    /**
+     * @return The number of ddrRecords written
+     */
+    public long getRowCount() {
+
+        return rowCount;
+    }
+
+    /**
+     * @return The milliseconds since the exporter was created
+     */
+    public long getElapsedMillis() {
+
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return The average number of ddrRecords written per second
+     */
+    public double getRowsPerSecond() {
+
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? rowCount * 1e9 / elapsed : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (generator != null) {
+            generator.close();
+        }
+        writer.close();
+    }
+
+    private void writeJson(DDRRecord ddrRecord) throws IOException {
+
+        generator.writeStartObject();
+        writeField("_id", ddrRecord.getId());
+        writeField("adapterId", ddrRecord.getAdapterId());
+        writeField("adapterType", ddrRecord.getAdapterType());
+        writeField("accountId", ddrRecord.getAccountId());
+        writeField("accountType", ddrRecord.getAccountType());
+        writeField("fromAddress", ddrRecord.getFromAddress());
+        writeField("toAddressString", ddrRecord.getToAddressString());
+        writeField("ddrTypeId", ddrRecord.getDdrTypeId());
+        writeField("quantity", ddrRecord.getQuantity());
+        writeField("start", ddrRecord.getStart());
+        writeField("duration", ddrRecord.getDuration());
+        writeField("status", ddrRecord.getStatus());
+        writeField("totalCost", ddrRecord.getTotalCost());
+        writeField("parentId", ddrRecord.getParentId());
+        writeArray("childIds", ddrRecord.getChildIds());
+        writeArray("sessionKeys", ddrRecord.getSessionKeys());
+        for (Map.Entry<String, Object> entry : flatten(ddrRecord.getStatusPerAddress()).entrySet()) {
+            writeField("statusPerAddress." + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Object> entry : flatten(ddrRecord.getAdditionalInfo()).entrySet()) {
+            writeField("additionalInfo." + entry.getKey(), entry.getValue());
+        }
+        generator.writeEndObject();
+        generator.flush();
+        writer.write('\n');
+    }
+
+    private void writeField(String name, Object value) throws IOException {
+
+        if (value == null) {
+            return;
+        }
+        generator.writeFieldName(name);
+        if (value instanceof Number) {
+            if (value instanceof Double || value instanceof Float) {
+                generator.writeNumber(((Number) value).doubleValue());
+            }
+            else {
+                generator.writeNumber(((Number) value).longValue());
+            }
+        }
+        else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        }
+        else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    private void writeArray(String name, Collection<String> values) throws IOException {
+
+        if (values == null) {
+            return;
+        }
+        generator.writeArrayFieldStart(name);
+        for (String value : values) {
+            generator.writeString(value);
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeCsvRow(String[] values) throws IOException {
+
+        for (int index = 0; index < values.length; index++) {
+            if (index > 0) {
+                writer.write(',');
+            }
+            String value = values[index];
+            if (value == null) {
+                continue;
+            }
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+                || value.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            }
+            else {
+                writer.write(value);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Flattens nested maps and lists into dotted keys, e.g.
+     * {@code {"a": {"b": [1, 2]}}} becomes {@code a.b.0=1, a.b.1=2}
+     */
+    static Map<String, Object> flatten(Map<String, ?> map) {
+
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        if (map != null) {
+            flatten(null, map, result);
+        }
+        return result;
+    }
+
+    private static void flatten(String prefix, Object value, Map<String, Object> result) {
+
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                flatten(prefix != null ? prefix + "." + key : key, entry.getValue(), result);
+            }
+        }
+        else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            for (int index = 0; index < list.size(); index++) {
+                flatten(prefix != null ? prefix + "." + index : String.valueOf(index), list.get(index), result);
+            }
+        }
+        else if (prefix != null) {
+            result.put(prefix, value);
+        }
+    }
+
+    private static String toPairs(Map<String, Object> flattened) {
+
+        if (flattened.isEmpty()) {
+            return null;
+        }
+        StringBuilder pairs = new StringBuilder();
+        for (Map.Entry<String, Object> entry : flattened.entrySet()) {
+            if (pairs.length() > 0) {
+                pairs.append(';');
+            }
+            pairs.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return pairs.toString();
+    }
+
+    private static String join(Collection<String> values) {
+
+        if (values == null) {
+            return null;
+        }
+        StringBuilder joined = new StringBuilder();
+        for (Iterator<String> iterator = values.iterator(); iterator.hasNext();) {
+            joined.append(iterator.next());
+            if (iterator.hasNext()) {
+                joined.append('|');
+            }
+        }
+        return joined.toString();
+    }
+
+    private static String toString(Object value) {
+
+        return value != null ? value.toString() : null;
+    }
+}
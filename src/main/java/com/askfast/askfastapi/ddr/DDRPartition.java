@@ -0,0 +1,112 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import com.askfast.model.DDRRecord;
+
+/**
+ * A part of a {@link DDRQuery}, narrowed down to a time slice and a group of
+ * adapters, which is fetched independently by the {@link ParallelDDRFetcher}.
+ * The partition remembers how far it got, so a failed fetch is resumed from
+ * the failed page instead of from the start.
+ */
+public class DDRPartition {
+
+    private final DDRQuery query;
+    private final int expectedCount;
+    private final List<DDRRecord> records = new ArrayList<DDRRecord>();
+    private int nextOffset = 0;
+    private int attempts = 0;
+    private boolean done = false;
+    private Exception lastError = null;
+
+    DDRPartition(DDRQuery query, int expectedCount) {
+        this.query = query;
+        this.expectedCount = expectedCount;
+    }
+
+    /**
+     * @return The query of this partition
+     */
+    public DDRQuery getQuery() {
+
+        return query;
+    }
+
+    /**
+     * @return The number of ddrRecords the server counted for this partition
+     *         when the work was planned
+     */
+    public int getExpectedCount() {
+
+        return expectedCount;
+    }
+
+    /**
+     * @return A copy of the ddrRecords fetched so far, so it can be read while
+     *         the partition is still being fetched
+     */
+    public synchronized List<DDRRecord> getRecords() {
+
+        return Collections.unmodifiableList(new ArrayList<DDRRecord>(records));
+    }
+
+    /**
+     * @return The offset of the next page to fetch
+     */
+    public synchronized int getNextOffset() {
+
+        return nextOffset;
+    }
+
+    /**
+     * @return The number of times fetching this partition was started
+     */
+    public synchronized int getAttempts() {
+
+        return attempts;
+    }
+
+    /**
+     * @return True when the last page of this partition was fetched
+     */
+    public synchronized boolean isDone() {
+
+        return done;
+    }
+
+    /**
+     * @return The error of the last failed attempt, or {@code null}
+     */
+    public synchronized Exception getLastError() {
+
+        return lastError;
+    }
+
+    synchronized void startAttempt() {
+
+        attempts++;
+        lastError = null;
+    }
+
+    synchronized void addPage(List<DDRRecord> page, boolean last) {
+
+        records.addAll(page);
+        nextOffset += page.size();
+        done = last;
+    }
+
+    synchronized void fail(Exception error) {
+
+        lastError = error;
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format("DDRPartition [startTime: %s, endTime: %s, adapterIds: %s, fetched: %d/%d, done: %s]",
+            query.getStartTime(), query.getEndTime(), query.getAdapterIds(), getNextOffset(), expectedCount,
+            isDone());
+    }
+}
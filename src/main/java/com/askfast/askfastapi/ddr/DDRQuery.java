@@ -0,0 +1,175 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import com.askfast.model.DDRRecord;
+
+/**
+ * The filter of a {@link DDRRecord} request, holding all parameters of
+ * {@link com.askfast.askfastapi.AskFastRestClient#getDDRRecords} except the
+ * offset and limit. Every parameter is optional.
+ */
+public class DDRQuery {
+
+    private Collection<String> adapterIds = null;
+    private Collection<String> adapterTypes = null;
+    private String fromAddress = null;
+    private String typeId = null;
+    private String status = null;
+    private Long startTime = null;
+    private Long endTime = null;
+    private String delimitedSessionKeys = null;
+    private Boolean shouldGenerateCosts = null;
+    private Boolean shouldIncludeServiceCosts = null;
+
+    public DDRQuery() {}
+
+    /**
+     * Creates a query for a date range
+     *
+     * @param startTime
+     *            Fetch ddrRecords from this timestamp
+     * @param endTime
+     *            Fetch ddrRecords till this timestamp
+     */
+    public DDRQuery(Long startTime, Long endTime) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /**
+     * @return A copy of this query which can be narrowed down without changing
+     *         this one
+     */
+    public DDRQuery copy() {
+
+        DDRQuery copy = new DDRQuery(startTime, endTime);
+        copy.adapterIds = adapterIds != null ? new ArrayList<String>(adapterIds) : null;
+        copy.adapterTypes = adapterTypes != null ? new ArrayList<String>(adapterTypes) : null;
+        copy.fromAddress = fromAddress;
+        copy.typeId = typeId;
+        copy.status = status;
+        copy.delimitedSessionKeys = delimitedSessionKeys;
+        copy.shouldGenerateCosts = shouldGenerateCosts;
+        copy.shouldIncludeServiceCosts = shouldIncludeServiceCosts;
+        return copy;
+    }
+
+    public Collection<String> getAdapterIds() {
+
+        return adapterIds;
+    }
+
+    /**
+     * @param adapterIds
+     *            The list of adapterIds for which ddrRecords must be fetched
+     */
+    public void setAdapterIds(Collection<String> adapterIds) {
+
+        this.adapterIds = adapterIds;
+    }
+
+    public Collection<String> getAdapterTypes() {
+
+        return adapterTypes;
+    }
+
+    /**
+     * @param adapterTypes
+     *            Fetch ddrRecords based on the channel used
+     */
+    public void setAdapterTypes(Collection<String> adapterTypes) {
+
+        this.adapterTypes = adapterTypes;
+    }
+
+    public String getFromAddress() {
+
+        return fromAddress;
+    }
+
+    public void setFromAddress(String fromAddress) {
+
+        this.fromAddress = fromAddress;
+    }
+
+    public String getTypeId() {
+
+        return typeId;
+    }
+
+    /**
+     * @param typeId
+     *            Fetch ddrRecords based on the type of cost attached. E.g.
+     *            incoming, outgoing, tts processing etc
+     */
+    public void setTypeId(String typeId) {
+
+        this.typeId = typeId;
+    }
+
+    public String getStatus() {
+
+        return status;
+    }
+
+    public void setStatus(String status) {
+
+        this.status = status;
+    }
+
+    public Long getStartTime() {
+
+        return startTime;
+    }
+
+    public void setStartTime(Long startTime) {
+
+        this.startTime = startTime;
+    }
+
+    public Long getEndTime() {
+
+        return endTime;
+    }
+
+    public void setEndTime(Long endTime) {
+
+        this.endTime = endTime;
+    }
+
+    public String getDelimitedSessionKeys() {
+
+        return delimitedSessionKeys;
+    }
+
+    /**
+     * @param delimitedSessionKeys
+     *            Fetch ddrRecords based on the sessionKeys generated per
+     *            communication address.
+     */
+    public void setDelimitedSessionKeys(String delimitedSessionKeys) {
+
+        this.delimitedSessionKeys = delimitedSessionKeys;
+    }
+
+    public Boolean getShouldGenerateCosts() {
+
+        return shouldGenerateCosts;
+    }
+
+    public void setShouldGenerateCosts(Boolean shouldGenerateCosts) {
+
+        this.shouldGenerateCosts = shouldGenerateCosts;
+    }
+
+    public Boolean getShouldIncludeServiceCosts() {
+
+        return shouldIncludeServiceCosts;
+    }
+
+    public void setShouldIncludeServiceCosts(Boolean shouldIncludeServiceCosts) {
+
+        this.shouldIncludeServiceCosts = shouldIncludeServiceCosts;
+    }
+}
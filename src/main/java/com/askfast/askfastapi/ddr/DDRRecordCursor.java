@@ -0,0 +1,289 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Iterates over all {@link DDRRecord DDRRecords} matching a {@link DDRQuery},
+ * fetching them page by page. A background thread fetches the next pages while
+ * the current one is consumed, buffering at most {@code maxBufferedPages}
+ * pages. <br>
+ * The iteration ends at the first empty page, so a server that returns less
+ * than {@code pageSize} ddrRecords per page is paged through completely. <br>
+ * A failed fetch is thrown from {@link #hasNext()} or {@link #next()} as an
+ * IllegalStateException wrapping the cause. Close the cursor when stopping
+ * before the end, so the background thread stops fetching. A cursor that is
+ * abandoned without closing stops its thread once it is garbage collected.
+ *
+ * <pre>
+ * DDRRecordCursor cursor = client.iterateDDRRecords(query, 1000, 2);
+ * try {
+ *     while (cursor.hasNext()) {
+ *         DDRRecord ddrRecord = cursor.next();
+ *     }
+ * }
+ * finally {
+ *     cursor.close();
+ * }
+ * </pre>
+ */
+public class DDRRecordCursor implements Iterator<DDRRecord>, Iterable<DDRRecord>, Closeable {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int DEFAULT_MAX_BUFFERED_PAGES = 2;
+    /** How often a fetcher waiting for room in the buffer checks its cursor */
+    private static final long CONSUMER_CHECK_MILLIS = 500;
+
+    private final Fetcher fetcher;
+    private final Thread fetcherThread;
+    private long waitTime = 0;
+
+    private Iterator<DDRRecord> current = Collections.<DDRRecord> emptyList().iterator();
+    private boolean finished = false;
+
+    /**
+     * Creates a cursor with the default page size and buffer.
+     *
+     * @param source
+     *            The source of the pages
+     * @param query
+     *            The filter
+     */
+    public DDRRecordCursor(DDRRecordSource source, DDRQuery query) {
+        this(source, query, DEFAULT_PAGE_SIZE, DEFAULT_MAX_BUFFERED_PAGES);
+    }
+
+    /**
+     * Creates a cursor and starts fetching the first pages in the background.
+     *
+     * @param source
+     *            The source of the pages
+     * @param query
+     *            The filter. It is copied, so it can be reused afterwards
+     * @param pageSize
+     *            The number of ddrRecords fetched per request
+     * @param maxBufferedPages
+     *            The number of fetched pages that may wait to be consumed
+     */
+    public DDRRecordCursor(DDRRecordSource source, DDRQuery query, int pageSize, int maxBufferedPages) {
+        if (pageSize <= 0 || maxBufferedPages <= 0) {
+            throw new IllegalArgumentException("pageSize and maxBufferedPages must be positive");
+        }
+        this.fetcher = new Fetcher(this, source, query != null ? query.copy() : new DDRQuery(), pageSize,
+            maxBufferedPages);
+        this.fetcherThread = new Thread(fetcher, "askfast-ddr-cursor");
+        this.fetcherThread.setDaemon(true);
+        this.fetcherThread.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        while (!current.hasNext()) {
+            if (finished) {
+                return false;
+            }
+            Page page = takePage();
+            if (page.error != null) {
+                finished = true;
+                throw new IllegalStateException("Failed to fetch ddrRecords at offset " + page.offset, page.error);
+            }
+            finished = page.last;
+            current = page.records.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public DDRRecord next() {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void remove() {
+
+        throw new UnsupportedOperationException("ddrRecords can't be removed");
+    }
+
+    /**
+     * @return This cursor, so it can be used in a for-each loop. It can only be
+     *         iterated once
+     */
+    @Override
+    public Iterator<DDRRecord> iterator() {
+
+        return this;
+    }
+
+    /**
+     * Stops the background fetching and drops the buffered pages.
+     */
+    @Override
+    public void close() {
+
+        fetcher.closed = true;
+        finished = true;
+        current = Collections.<DDRRecord> emptyList().iterator();
+        fetcherThread.interrupt();
+        fetcher.pages.clear();
+    }
+
+    public int getPageSize() {
+
+        return fetcher.pageSize;
+    }
+
+    public long getFetchedPageCount() {
+
+        return fetcher.fetchedPageCount.get();
+    }
+
+    public long getFetchedRecordCount() {
+
+        return fetcher.fetchedRecordCount.get();
+    }
+
+    /**
+     * @return The total time the background thread spent fetching pages, in
+     *         milliseconds
+     */
+    public long getFetchTimeMillis() {
+
+        return TimeUnit.NANOSECONDS.toMillis(fetcher.fetchTime.get());
+    }
+
+    /**
+     * @return The total time the consumer waited for a page to arrive, in
+     *         milliseconds. Close to zero when prefetching keeps up
+     */
+    public long getWaitTimeMillis() {
+
+        return TimeUnit.NANOSECONDS.toMillis(waitTime);
+    }
+
+    private Page takePage() {
+
+        long start = System.nanoTime();
+        try {
+            return fetcher.pages.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while waiting for ddrRecords", e);
+        }
+        finally {
+            waitTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Fetches the pages on the background thread. It only holds a weak
+     * reference to the cursor, so it notices when the cursor is abandoned.
+     */
+    private static class Fetcher implements Runnable {
+
+        final WeakReference<DDRRecordCursor> consumer;
+        final DDRRecordSource source;
+        final DDRQuery query;
+        final int pageSize;
+        final BlockingQueue<Page> pages;
+        final AtomicLong fetchedPageCount = new AtomicLong();
+        final AtomicLong fetchedRecordCount = new AtomicLong();
+        final AtomicLong fetchTime = new AtomicLong();
+        volatile boolean closed = false;
+
+        Fetcher(DDRRecordCursor consumer, DDRRecordSource source, DDRQuery query, int pageSize,
+            int maxBufferedPages) {
+            this.consumer = new WeakReference<DDRRecordCursor>(consumer);
+            this.source = source;
+            this.query = query;
+            this.pageSize = pageSize;
+            this.pages = new ArrayBlockingQueue<Page>(maxBufferedPages);
+        }
+
+        @Override
+        public void run() {
+
+            int offset = 0;
+            try {
+                while (isConsumed()) {
+                    List<DDRRecord> records;
+                    long start = System.nanoTime();
+                    try {
+                        records = source.getDDRRecords(query, offset, pageSize);
+                    }
+                    catch (Exception e) {
+                        put(new Page(Collections.<DDRRecord> emptyList(), offset, true, e));
+                        return;
+                    }
+                    finally {
+                        fetchTime.addAndGet(System.nanoTime() - start);
+                    }
+                    if (records == null) {
+                        records = Collections.emptyList();
+                    }
+                    fetchedPageCount.incrementAndGet();
+                    fetchedRecordCount.addAndGet(records.size());
+                    // the server may cap a page below the pageSize, only an empty page is the end
+                    boolean last = records.isEmpty();
+                    if (!put(new Page(records, offset, last, null)) || last) {
+                        return;
+                    }
+                    offset += records.size();
+                }
+            }
+            catch (InterruptedException e) {
+                // closed by the consumer
+            }
+        }
+
+        /**
+         * Waits for room in the buffer as long as the cursor is in use
+         *
+         * @return False if the cursor was closed or abandoned
+         */
+        private boolean put(Page page) throws InterruptedException {
+
+            while (isConsumed()) {
+                if (pages.offer(page, CONSUMER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isConsumed() {
+
+            return !closed && consumer.get() != null;
+        }
+    }
+
+    private static class Page {
+
+        final List<DDRRecord> records;
+        final int offset;
+        final boolean last;
+        final Exception error;
+
+        Page(List<DDRRecord> records, int offset, boolean last, Exception error) {
+            this.records = records;
+            this.offset = offset;
+            this.last = last;
+            this.error = error;
+        }
+    }
+}
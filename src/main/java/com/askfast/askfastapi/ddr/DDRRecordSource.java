@@ -0,0 +1,37 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.List;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Something that serves pages of {@link DDRRecord DDRRecords}, typically the
+ * {@link com.askfast.askfastapi.AskFastRestClient}.
+ */
+public interface DDRRecordSource {
+
+    /**
+     * Returns a page of ddrRecords matching the query.
+     *
+     * @param query
+     *            The filter
+     * @param offset
+     *            Skip the given number of ddrRecords
+     * @param limit
+     *            Limit the fetch
+     * @return A page of ddrRecords
+     * @throws Exception
+     *             Error in ddr fetching
+     */
+    public List<DDRRecord> getDDRRecords(DDRQuery query, Integer offset, Integer limit) throws Exception;
+
+    /**
+     * Returns the number of ddrRecords matching the query.
+     *
+     * @param query
+     *            The filter
+     * @return Total number of ddrs for the filter passed
+     * @throws Exception
+     *             Error in ddr fetching
+     */
+    public Integer getDDRRecordCount(DDRQuery query) throws Exception;
+}
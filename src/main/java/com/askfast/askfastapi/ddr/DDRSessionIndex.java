@@ -0,0 +1,385 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import com.askfast.askfastapi.util.Hashing;
+import com.askfast.model.DDRRecord;
+import com.askfast.util.RecordHandler;
+
+/**
+ * Finds the {@link DDRRecord DDRRecords} of a conversation without scanning:
+ * the rows of a {@link DDRColumnStore} are indexed by id, by sessionKey and by
+ * parentId as they are added. <br>
+ * The indexes are open addressing hash tables of 64 bit string hashes to
+ * chains of row numbers, held in primitive arrays, so they take about 30 bytes
+ * per indexed key instead of the map entries, boxed integers and strings of a
+ * HashMap. Lookups by id and parentId are checked against the store, a lookup
+ * by sessionKey relies on the 64 bit hash alone since the store doesn't keep
+ * the sessionKeys. The conversation tree follows the parentIds of the
+ * children; the childIds of a ddrRecord are not used. <br>
+ * Like the store, the index is filled by one thread and is not thread safe.
+ */
+public class DDRSessionIndex implements RecordHandler<DDRRecord> {
+
+    private final DDRColumnStore store;
+    private final LongIntMultiMap rowsById = new LongIntMultiMap();
+    private final LongIntMultiMap rowsBySessionKey = new LongIntMultiMap();
+    private final LongIntMultiMap rowsByParentId = new LongIntMultiMap();
+
+    public DDRSessionIndex() {
+        this(new DDRColumnStore());
+    }
+
+    /**
+     * @param store
+     *            An empty store the ddrRecords are added to
+     */
+    public DDRSessionIndex(DDRColumnStore store) {
+        if (store.size() > 0) {
+            throw new IllegalArgumentException("The store must be empty, the index is built while adding");
+        }
+        this.store = store;
+    }
+
+    /**
+     * Adds the ddrRecord to the store and indexes it.
+     *
+     * @param ddrRecord
+     *            The ddrRecord to add
+     * @return The row of the ddrRecord in the store
+     */
+    public int add(DDRRecord ddrRecord) {
+
+        int row = store.add(ddrRecord);
+        if (ddrRecord.getId() != null) {
+            rowsById.put(Hashing.fnv1a(ddrRecord.getId()), row);
+        }
+        if (ddrRecord.getParentId() != null) {
+            rowsByParentId.put(Hashing.fnv1a(ddrRecord.getParentId()), row);
+        }
+        if (ddrRecord.getSessionKeys() != null) {
+            for (String sessionKey : new HashSet<String>(ddrRecord.getSessionKeys())) {
+                rowsBySessionKey.put(Hashing.fnv1a(sessionKey), row);
+            }
+        }
+        return row;
+    }
+
+    @Override
+    public void handle(DDRRecord ddrRecord) {
+
+        add(ddrRecord);
+    }
+
+    /**
+     * @return The number of distinct sessionKeys indexed
+     */
+    public int getSessionKeyCount() {
+
+        return rowsBySessionKey.keyCount();
+    }
+
+    /**
+     * @param ddrRecords
+     *            The ddrRecords to add
+     */
+    public void addAll(Iterable<DDRRecord> ddrRecords) {
+
+        for (DDRRecord ddrRecord : ddrRecords) {
+            add(ddrRecord);
+        }
+    }
+
+    public DDRColumnStore getStore() {
+
+        return store;
+    }
+
+    /**
+     * @param id
+     *            The id of a ddrRecord
+     * @return The row of the ddrRecord, or -1 when it is not indexed
+     */
+    public int getRow(String id) {
+
+        long hash = Hashing.fnv1a(id);
+        for (int entry = rowsById.first(hash); entry >= 0; entry = rowsById.next(entry)) {
+            int row = rowsById.row(entry);
+            if (id.equals(store.getId(row))) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param sessionKey
+     *            A sessionKey
+     * @return The rows of the ddrRecords with the sessionKey, in the order they
+     *         were added
+     */
+    public int[] getRowsBySessionKey(String sessionKey) {
+
+        return collect(rowsBySessionKey, Hashing.fnv1a(sessionKey), null);
+    }
+
+    /**
+     * @param parentId
+     *            The id of a ddrRecord
+     * @return The rows of the ddrRecords with the given parentId, in the order
+     *         they were added
+     */
+    public int[] getChildRows(String parentId) {
+
+        return collect(rowsByParentId, Hashing.fnv1a(parentId), parentId);
+    }
+
+    /**
+     * Finds the whole conversation a ddrRecord is part of: its root, found by
+     * following the parentIds, and all ddrRecords below the root.
+     *
+     * @param id
+     *            The id of any ddrRecord in the conversation
+     * @return The rows of the conversation, the root first and then level by
+     *         level. Empty when the id is not indexed
+     */
+    public int[] getConversationRows(String id) {
+
+        int row = getRow(id);
+        if (row < 0) {
+            return new int[0];
+        }
+        return collectTree(findRoot(row));
+    }
+
+    /**
+     * Finds the conversations of all ddrRecords with the sessionKey.
+     *
+     * @param sessionKey
+     *            A sessionKey
+     * @return The rows of the conversations, each root first and then level by
+     *         level
+     */
+    public int[] getConversationRowsBySessionKey(String sessionKey) {
+
+        Set<Integer> roots = new LinkedHashSet<Integer>();
+        for (int row : getRowsBySessionKey(sessionKey)) {
+            roots.add(findRoot(row));
+        }
+        IntList rows = new IntList();
+        for (int root : roots) {
+            rows.addAll(collectTree(root));
+        }
+        return rows.toArray();
+    }
+
+    /**
+     * @param id
+     *            The id of any ddrRecord in the conversation
+     * @return The ddrRecords of the conversation, see
+     *         {@link #getConversationRows(String)}
+     */
+    public List<DDRRecord> getConversation(String id) {
+
+        return toRecords(getConversationRows(id));
+    }
+
+    /**
+     * @param sessionKey
+     *            A sessionKey
+     * @return The ddrRecords of the conversations, see
+     *         {@link #getConversationRowsBySessionKey(String)}
+     */
+    public List<DDRRecord> getConversationBySessionKey(String sessionKey) {
+
+        return toRecords(getConversationRowsBySessionKey(sessionKey));
+    }
+
+    private int findRoot(int row) {
+
+        // guards against parentId cycles
+        Set<Integer> visited = new HashSet<Integer>();
+        while (visited.add(row)) {
+            String parentId = store.getParentId(row);
+            int parent = parentId != null ? getRow(parentId) : -1;
+            if (parent < 0) {
+                return row;
+            }
+            row = parent;
+        }
+        return row;
+    }
+
+    private int[] collectTree(int root) {
+
+        IntList rows = new IntList();
+        Set<Integer> visited = new HashSet<Integer>();
+        rows.add(root);
+        visited.add(root);
+        for (int index = 0; index < rows.size; index++) {
+            String id = store.getId(rows.values[index]);
+            if (id == null) {
+                continue;
+            }
+            for (int child : getChildRows(id)) {
+                if (visited.add(child)) {
+                    rows.add(child);
+                }
+            }
+        }
+        return rows.toArray();
+    }
+
+    private int[] collect(LongIntMultiMap map, long hash, String parentId) {
+
+        IntList rows = new IntList();
+        for (int entry = map.first(hash); entry >= 0; entry = map.next(entry)) {
+            int row = map.row(entry);
+            if (parentId == null || parentId.equals(store.getParentId(row))) {
+                rows.add(row);
+            }
+        }
+        // the chains are newest first
+        int[] result = rows.toArray();
+        for (int left = 0, right = result.length - 1; left < right; left++, right--) {
+            int swap = result[left];
+            result[left] = result[right];
+            result[right] = swap;
+        }
+        return result;
+    }
+
+    private List<DDRRecord> toRecords(int[] rows) {
+
+        List<DDRRecord> ddrRecords = new ArrayList<DDRRecord>(rows.length);
+        for (int row : rows) {
+            ddrRecords.add(store.getRecord(row));
+        }
+        return ddrRecords;
+    }
+
+    /**
+     * A growable int array
+     */
+    private static class IntList {
+
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(int[] added) {
+
+            for (int value : added) {
+                add(value);
+            }
+        }
+
+        int[] toArray() {
+
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * Maps long keys to chains of int rows. The table holds the key and the
+     * newest entry per key, the entries hold the row and the next (older)
+     * entry of the chain.
+     */
+    static class LongIntMultiMap {
+
+        private static final int EMPTY = -1;
+
+        private long[] keys = new long[16];
+        private int[] heads = newHeads(16);
+        private int keyCount = 0;
+        private int[] entryRows = new int[16];
+        private int[] entryNext = new int[16];
+        private int entryCount = 0;
+
+        void put(long key, int row) {
+
+            if (entryCount == entryRows.length) {
+                entryRows = Arrays.copyOf(entryRows, entryCount * 2);
+                entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+            }
+            int slot = find(key);
+            if (heads[slot] == EMPTY) {
+                keys[slot] = key;
+                keyCount++;
+            }
+            int entry = entryCount++;
+            entryRows[entry] = row;
+            entryNext[entry] = heads[slot];
+            heads[slot] = entry;
+            if (keyCount * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+        }
+
+        /**
+         * @return The newest entry of the key, or -1
+         */
+        int first(long key) {
+
+            return heads[find(key)];
+        }
+
+        int next(int entry) {
+
+            return entryNext[entry];
+        }
+
+        int row(int entry) {
+
+            return entryRows[entry];
+        }
+
+        int keyCount() {
+
+            return keyCount;
+        }
+
+        private int find(long key) {
+
+            int mask = keys.length - 1;
+            int slot = (int) (key ^ (key >>> 32)) & mask;
+            while (heads[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash(int capacity) {
+
+            long[] oldKeys = keys;
+            int[] oldHeads = heads;
+            keys = new long[capacity];
+            heads = newHeads(capacity);
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldHeads[slot] != EMPTY) {
+                    int target = find(oldKeys[slot]);
+                    keys[target] = oldKeys[slot];
+                    heads[target] = oldHeads[slot];
+                }
+            }
+        }
+
+        private static int[] newHeads(int capacity) {
+
+            int[] heads = new int[capacity];
+            Arrays.fill(heads, EMPTY);
+            return heads;
+        }
+    }
+}
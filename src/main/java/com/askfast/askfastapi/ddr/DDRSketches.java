@@ -0,0 +1,265 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.DDRRecord.CommunicationStatus;
+import com.askfast.util.RecordHandler;
+
+/**
+ * Approximate analytics over a stream of {@link DDRRecord DDRRecords} in a
+ * fixed amount of memory:
+ * <ul>
+ * <li>the distinct recipients, in total and per adapterId, with a
+ * {@link HyperLogLog}. The recipients are the keys of the statusPerAddress, or
+ * the toAddressString when there are none</li>
+ * <li>the most frequent fromAddresses and adapterIds with a
+ * {@link CountMinSketch}</li>
+ * <li>the exact number of recipients per status</li>
+ * </ul>
+ * Feed one instance per thread or partition and {@link #merge(DDRSketches)}
+ * them afterwards, or store them with {@link #toBytes()} to merge later. Not
+ * thread safe.
+ */
+public class DDRSketches implements RecordHandler<DDRRecord> {
+
+    private static final int VERSION = 1;
+    private static final CommunicationStatus[] STATUSES = CommunicationStatus.values();
+
+    private final int precision;
+    private final int exactLimit;
+    private final HyperLogLog recipients;
+    private final Map<String, HyperLogLog> recipientsPerAdapter = new HashMap<String, HyperLogLog>();
+    private final CountMinSketch fromAddresses;
+    private final CountMinSketch adapterIds;
+    private final long[] statusCounts = new long[STATUSES.length];
+    private long recordCount = 0;
+
+    public DDRSketches() {
+        this(HyperLogLog.DEFAULT_PRECISION, HyperLogLog.DEFAULT_EXACT_LIMIT);
+    }
+
+    /**
+     * @param precision
+     *            The precision of the distinct counts, see
+     *            {@link HyperLogLog#HyperLogLog(int, int)}
+     * @param exactLimit
+     *            The number of distinct recipients counted exactly before
+     *            switching to the sketch
+     */
+    public DDRSketches(int precision, int exactLimit) {
+        this.precision = precision;
+        this.exactLimit = exactLimit;
+        this.recipients = new HyperLogLog(precision, exactLimit);
+        this.fromAddresses = new CountMinSketch();
+        this.adapterIds = new CountMinSketch();
+    }
+
+    @Override
+    public void handle(DDRRecord ddrRecord) {
+
+        recordCount++;
+        fromAddresses.add(ddrRecord.getFromAddress());
+        adapterIds.add(ddrRecord.getAdapterId());
+        HyperLogLog adapterRecipients = null;
+        if (ddrRecord.getAdapterId() != null) {
+            adapterRecipients = recipientsPerAdapter.get(ddrRecord.getAdapterId());
+            if (adapterRecipients == null) {
+                adapterRecipients = new HyperLogLog(precision, exactLimit);
+                recipientsPerAdapter.put(ddrRecord.getAdapterId(), adapterRecipients);
+            }
+        }
+        Map<String, CommunicationStatus> statusPerAddress = ddrRecord.getStatusPerAddress();
+        if (statusPerAddress != null && !statusPerAddress.isEmpty()) {
+            for (Map.Entry<String, CommunicationStatus> entry : statusPerAddress.entrySet()) {
+                addRecipient(entry.getKey(), adapterRecipients);
+                if (entry.getValue() != null) {
+                    statusCounts[entry.getValue().ordinal()]++;
+                }
+            }
+        }
+        else {
+            addRecipient(ddrRecord.getToAddressString(), adapterRecipients);
+            if (ddrRecord.getStatus() != null) {
+                statusCounts[ddrRecord.getStatus().ordinal()]++;
+            }
+        }
+    }
+
+    /**
+     * @return The number of ddrRecords handled
+     */
+    public long getRecordCount() {
+
+        return recordCount;
+    }
+
+    /**
+     * @return The number of distinct recipients over all ddrRecords
+     */
+    public long getDistinctRecipients() {
+
+        return recipients.cardinality();
+    }
+
+    /**
+     * @param adapterId
+     *            An adapterId
+     * @return The number of distinct recipients of the adapter
+     */
+    public long getDistinctRecipients(String adapterId) {
+
+        HyperLogLog adapterRecipients = recipientsPerAdapter.get(adapterId);
+        return adapterRecipients != null ? adapterRecipients.cardinality() : 0;
+    }
+
+    /**
+     * @return The adapterIds seen
+     */
+    public Set<String> getAdapterIds() {
+
+        return new LinkedHashSet<String>(recipientsPerAdapter.keySet());
+    }
+
+    /**
+     * @return The counts of the fromAddresses, see
+     *         {@link CountMinSketch#getHeavyHitters()}
+     */
+    public CountMinSketch getFromAddresses() {
+
+        return fromAddresses;
+    }
+
+    /**
+     * @return The counts of the adapterIds, see
+     *         {@link CountMinSketch#getHeavyHitters()}
+     */
+    public CountMinSketch getAdapterIdCounts() {
+
+        return adapterIds;
+    }
+
+    /**
+     * @return The number of recipients per status
+     */
+    public Map<CommunicationStatus, Long> getStatusCounts() {
+
+        Map<CommunicationStatus, Long> result = new HashMap<CommunicationStatus, Long>();
+        for (int index = 0; index < STATUSES.length; index++) {
+            if (statusCounts[index] > 0) {
+                result.put(STATUSES[index], statusCounts[index]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the counts of the other sketches to these.
+     *
+     * @param other
+     *            Sketches of the same precision
+     */
+    public void merge(DDRSketches other) {
+
+        recordCount += other.recordCount;
+        recipients.merge(other.recipients);
+        for (Map.Entry<String, HyperLogLog> entry : other.recipientsPerAdapter.entrySet()) {
+            HyperLogLog adapterRecipients = recipientsPerAdapter.get(entry.getKey());
+            if (adapterRecipients == null) {
+                adapterRecipients = new HyperLogLog(precision, exactLimit);
+                recipientsPerAdapter.put(entry.getKey(), adapterRecipients);
+            }
+            adapterRecipients.merge(entry.getValue());
+        }
+        fromAddresses.merge(other.fromAddresses);
+        adapterIds.merge(other.adapterIds);
+        for (int index = 0; index < statusCounts.length; index++) {
+            statusCounts[index] += other.statusCounts[index];
+        }
+    }
+
+    /**
+     * @return The serialized sketches, see {@link #fromBytes(byte[])}
+     */
+    public byte[] toBytes() {
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(VERSION);
+            out.writeInt(precision);
+            out.writeInt(exactLimit);
+            out.writeLong(recordCount);
+            recipients.write(out);
+            out.writeInt(recipientsPerAdapter.size());
+            for (Map.Entry<String, HyperLogLog> entry : recipientsPerAdapter.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+            fromAddresses.write(out);
+            adapterIds.write(out);
+            // by name, so the counts survive a change in the statuses
+            out.writeInt(STATUSES.length);
+            for (int index = 0; index < STATUSES.length; index++) {
+                out.writeUTF(STATUSES[index].name());
+                out.writeLong(statusCounts[index]);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param bytes
+     *            Sketches serialized with {@link #toBytes()}
+     * @return The sketches
+     * @throws IOException
+     *             The bytes are not serialized sketches
+     */
+    public static DDRSketches fromBytes(byte[] bytes) throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported sketches version: " + version);
+        }
+        DDRSketches sketches = new DDRSketches(in.readInt(), in.readInt());
+        sketches.recordCount = in.readLong();
+        sketches.recipients.merge(HyperLogLog.read(in));
+        int adapterCount = in.readInt();
+        for (int index = 0; index < adapterCount; index++) {
+            sketches.recipientsPerAdapter.put(in.readUTF(), HyperLogLog.read(in));
+        }
+        sketches.fromAddresses.merge(CountMinSketch.read(in));
+        sketches.adapterIds.merge(CountMinSketch.read(in));
+        int statusCount = in.readInt();
+        for (int index = 0; index < statusCount; index++) {
+            String name = in.readUTF();
+            long count = in.readLong();
+            for (CommunicationStatus status : STATUSES) {
+                if (status.name().equals(name)) {
+                    sketches.statusCounts[status.ordinal()] = count;
+                }
+            }
+        }
+        return sketches;
+    }
+
+    private void addRecipient(String address, HyperLogLog adapterRecipients) {
+
+        recipients.add(address);
+        if (adapterRecipients != null) {
+            adapterRecipients.add(address);
+        }
+    }
+}
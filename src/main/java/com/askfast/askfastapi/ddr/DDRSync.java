@@ -0,0 +1,328 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import com.askfast.askfastapi.ddr.DDRSyncCheckpoint.Watermark;
+import com.askfast.model.DDRRecord;
+import com.askfast.util.RecordHandler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Fetches only the {@link DDRRecord DDRRecords} that are new or changed since
+ * the previous run. <br>
+ * Per account and adapter a {@link Watermark} keeps the newest start and id
+ * seen. A run fetches from that start minus an overlap window, so ddrRecords
+ * that arrive late or still change (status, totalCost) are picked up, and
+ * passes a fetched ddrRecord to the handler only when it wasn't seen before or
+ * its status or totalCost changed. A ddrRecord without a start is not covered
+ * by the watermark, so its fingerprint is kept until it gets a start. <br>
+ * The checkpoint is written to a local file after a successful run, by writing
+ * a temporary file and moving it in place. When the handler or a fetch fails,
+ * the checkpoint is not advanced and the next run delivers the same
+ * ddrRecords again.
+ */
+public class DDRSync {
+
+    private static final Logger log = Logger.getLogger(DDRSync.class.getName());
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String ALL_ADAPTERS = "*";
+    /** The start in the fingerprint of a ddrRecord without a start */
+    private static final long NO_START = Long.MIN_VALUE;
+
+    public static final long DEFAULT_OVERLAP_MILLIS = 60 * 60 * 1000L;
+
+    private final DDRRecordSource source;
+    private final String accountId;
+    private final File checkpointFile;
+    private DDRSyncCheckpoint checkpoint;
+    private long overlapMillis = DEFAULT_OVERLAP_MILLIS;
+    private int pageSize = DDRRecordCursor.DEFAULT_PAGE_SIZE;
+
+    /**
+     * @param source
+     *            The source of the ddrRecords, e.g. the AskFastRestClient
+     * @param accountId
+     *            The account the source fetches for, used to keep the
+     *            watermarks of several accounts in one checkpoint file
+     * @param checkpointFile
+     *            The file the checkpoint is loaded from and stored to
+     * @throws IOException
+     *             The existing checkpoint file can't be read
+     */
+    public DDRSync(DDRRecordSource source, String accountId, File checkpointFile) throws IOException {
+        this.source = source;
+        this.accountId = accountId;
+        this.checkpointFile = checkpointFile;
+        this.checkpoint = checkpointFile.exists() ? objectMapper.readValue(checkpointFile, DDRSyncCheckpoint.class)
+            : new DDRSyncCheckpoint();
+    }
+
+    /**
+     * Fetches the new and changed ddrRecords matching the query. When the
+     * query has adapterIds, every adapter is synced with its own watermark.
+     *
+     * @param query
+     *            The filter. Its startTime is only used on the first run
+     * @param handler
+     *            Receives the new and changed ddrRecords
+     * @return The counts of this run
+     * @throws Exception
+     *             Fetching, the handler or storing the checkpoint failed
+     */
+    public synchronized Result sync(DDRQuery query, RecordHandler<DDRRecord> handler) throws Exception {
+
+        DDRQuery base = query != null ? query.copy() : new DDRQuery();
+        Collection<String> adapterIds = base.getAdapterIds();
+        List<String> keys = new ArrayList<String>();
+        List<DDRQuery> queries = new ArrayList<DDRQuery>();
+        if (adapterIds == null || adapterIds.isEmpty()) {
+            keys.add(getKey(ALL_ADAPTERS));
+            queries.add(base);
+        }
+        else {
+            for (String adapterId : adapterIds) {
+                DDRQuery adapterQuery = base.copy();
+                adapterQuery.setAdapterIds(Collections.singletonList(adapterId));
+                keys.add(getKey(adapterId));
+                queries.add(adapterQuery);
+            }
+        }
+
+        // work on a copy, so a failed run leaves the checkpoint untouched
+        DDRSyncCheckpoint next = objectMapper.readValue(objectMapper.writeValueAsBytes(checkpoint),
+            DDRSyncCheckpoint.class);
+        Result result = new Result();
+        for (int index = 0; index < keys.size(); index++) {
+            Watermark watermark = next.getWatermarks().get(keys.get(index));
+            if (watermark == null) {
+                watermark = new Watermark();
+                next.getWatermarks().put(keys.get(index), watermark);
+            }
+            sync(queries.get(index), watermark, handler, result);
+        }
+        store(next);
+        checkpoint = next;
+        log.info(String.format("Synced ddrRecords of account %s: %s", accountId, result));
+        return result;
+    }
+
+    /**
+     * @return The current checkpoint. Don't change it
+     */
+    public synchronized DDRSyncCheckpoint getCheckpoint() {
+
+        return checkpoint;
+    }
+
+    /**
+     * Forgets all watermarks, so the next run fetches everything again.
+     *
+     * @throws IOException
+     *             Storing the empty checkpoint failed
+     */
+    public synchronized void reset() throws IOException {
+
+        DDRSyncCheckpoint empty = new DDRSyncCheckpoint();
+        store(empty);
+        checkpoint = empty;
+    }
+
+    public long getOverlapMillis() {
+
+        return overlapMillis;
+    }
+
+    /**
+     * @param overlapMillis
+     *            How far before the watermark a run starts fetching, to pick up
+     *            late and changed ddrRecords
+     */
+    public void setOverlapMillis(long overlapMillis) {
+
+        if (overlapMillis < 0) {
+            throw new IllegalArgumentException("overlapMillis can't be negative");
+        }
+        this.overlapMillis = overlapMillis;
+    }
+
+    public int getPageSize() {
+
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.pageSize = pageSize;
+    }
+
+    private void sync(DDRQuery query, Watermark watermark, RecordHandler<DDRRecord> handler, Result result)
+        throws Exception {
+
+        if (watermark.getStart() != null) {
+            long from = watermark.getStart() - overlapMillis;
+            if (query.getStartTime() == null || query.getStartTime() < from) {
+                query.setStartTime(from);
+            }
+        }
+        Map<String, String> fingerprints = watermark.getFingerprints();
+        DDRRecordCursor cursor = new DDRRecordCursor(source, query, pageSize, DDRRecordCursor.DEFAULT_MAX_BUFFERED_PAGES);
+        try {
+            while (cursor.hasNext()) {
+                DDRRecord ddrRecord = cursor.next();
+                if (ddrRecord.getId() == null) {
+                    handler.handle(ddrRecord);
+                    result.newCount++;
+                    continue;
+                }
+                String fingerprint = getFingerprint(ddrRecord);
+                String previous = fingerprints.get(ddrRecord.getId());
+                if (fingerprint.equals(previous)) {
+                    result.unchangedCount++;
+                    continue;
+                }
+                handler.handle(ddrRecord);
+                if (previous == null) {
+                    result.newCount++;
+                }
+                else {
+                    result.updatedCount++;
+                }
+                fingerprints.put(ddrRecord.getId(), fingerprint);
+                if (isNewer(ddrRecord, watermark)) {
+                    watermark.setStart(ddrRecord.getStart());
+                    watermark.setId(ddrRecord.getId());
+                }
+            }
+        }
+        catch (IllegalStateException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        finally {
+            cursor.close();
+        }
+        prune(watermark);
+    }
+
+    private void prune(Watermark watermark) {
+
+        if (watermark.getStart() == null) {
+            return;
+        }
+        long oldest = watermark.getStart() - overlapMillis;
+        Iterator<String> iterator = watermark.getFingerprints().values().iterator();
+        while (iterator.hasNext()) {
+            long start = getStart(iterator.next());
+            // without a start the fingerprint is the only thing that keeps it from being delivered again
+            if (start != NO_START && start < oldest) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void store(DDRSyncCheckpoint checkpoint) throws IOException {
+
+        Path target = checkpointFile.getAbsoluteFile().toPath();
+        Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            objectMapper.writeValue(temporary.toFile(), checkpoint);
+            try {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private String getKey(String adapterId) {
+
+        return (accountId != null ? accountId : "") + "/" + adapterId;
+    }
+
+    private static boolean isNewer(DDRRecord ddrRecord, Watermark watermark) {
+
+        if (ddrRecord.getStart() == null) {
+            return false;
+        }
+        if (watermark.getStart() == null || ddrRecord.getStart() > watermark.getStart()) {
+            return true;
+        }
+        return ddrRecord.getStart().equals(watermark.getStart())
+            && (watermark.getId() == null || ddrRecord.getId().compareTo(watermark.getId()) > 0);
+    }
+
+    /**
+     * The start is part of the fingerprint, so old fingerprints can be pruned
+     */
+    private static String getFingerprint(DDRRecord ddrRecord) {
+
+        return (ddrRecord.getStart() != null ? ddrRecord.getStart() : NO_START) + "|" + ddrRecord.getStatus()
+            + "|" + ddrRecord.getTotalCost();
+    }
+
+    private static long getStart(String fingerprint) {
+
+        return Long.parseLong(fingerprint.substring(0, fingerprint.indexOf('|')));
+    }
+
+    /**
+     * The counts of a single {@link DDRSync#sync(DDRQuery, RecordHandler)} run
+     */
+    public static class Result {
+
+        private int newCount = 0;
+        private int updatedCount = 0;
+        private int unchangedCount = 0;
+
+        /**
+         * @return The number of ddrRecords seen for the first time
+         */
+        public int getNewCount() {
+
+            return newCount;
+        }
+
+        /**
+         * @return The number of ddrRecords of which the status or totalCost
+         *         changed
+         */
+        public int getUpdatedCount() {
+
+            return updatedCount;
+        }
+
+        /**
+         * @return The number of ddrRecords fetched again without changes
+         */
+        public int getUnchangedCount() {
+
+            return unchangedCount;
+        }
+
+        @Override
+        public String toString() {
+
+            return String.format("new: %d, updated: %d, unchanged: %d", newCount, updatedCount, unchangedCount);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.HashMap;
+import java.util.Map;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * The state of a {@link DDRSync}, stored as json between runs. It holds a
+ * {@link Watermark} per account and adapter.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DDRSyncCheckpoint {
+
+    private Map<String, Watermark> watermarks = new HashMap<String, Watermark>();
+
+    public Map<String, Watermark> getWatermarks() {
+
+        return watermarks;
+    }
+
+    public void setWatermarks(Map<String, Watermark> watermarks) {
+
+        this.watermarks = watermarks != null ? watermarks : new HashMap<String, Watermark>();
+    }
+
+    /**
+     * The newest ddrRecord seen, by start and id, together with the
+     * fingerprints of the ddrRecords in the overlap window before it, so
+     * records that are fetched again are only passed on when their status or
+     * totalCost changed.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Watermark {
+
+        private Long start = null;
+        private String id = null;
+        private Map<String, String> fingerprints = new HashMap<String, String>();
+
+        public Long getStart() {
+
+            return start;
+        }
+
+        public void setStart(Long start) {
+
+            this.start = start;
+        }
+
+        public String getId() {
+
+            return id;
+        }
+
+        public void setId(String id) {
+
+            this.id = id;
+        }
+
+        public Map<String, String> getFingerprints() {
+
+            return fingerprints;
+        }
+
+        public void setFingerprints(Map<String, String> fingerprints) {
+
+            this.fingerprints = fingerprints != null ? fingerprints : new HashMap<String, String>();
+        }
+    }
+}
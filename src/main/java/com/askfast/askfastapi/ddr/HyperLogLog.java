@@ -0,0 +1,242 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import com.askfast.askfastapi.util.Hashing;
+
+/**
+ * Counts distinct strings, e.g. the recipients of ddrRecords, in a fixed
+ * amount of memory. <br>
+ * While fewer than exactLimit distinct values are added, they are kept in a set
+ * and counted exactly. Beyond that the set is replaced by 2^precision registers
+ * of a HyperLogLog sketch, with a standard error of about
+ * {@code 1.04 / sqrt(2^precision)}: 0.8% at the default precision of 14, which
+ * takes 16 kB. <br>
+ * Sketches of the same precision can be merged, e.g. to combine the counts of
+ * several threads or partitions, and serialized with {@link #toBytes()}. Not
+ * thread safe.
+ */
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 14;
+    public static final int DEFAULT_EXACT_LIMIT = 1000;
+
+    private final int precision;
+    private final int exactLimit;
+    private Set<String> exact = new HashSet<String>();
+    private byte[] registers = null;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION, DEFAULT_EXACT_LIMIT);
+    }
+
+    /**
+     * @param precision
+     *            The number of bits used to pick a register, between 4 and 18
+     * @param exactLimit
+     *            The number of distinct values counted exactly. 0 to always
+     *            use the sketch
+     */
+    public HyperLogLog(int precision, int exactLimit) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("precision must be between 4 and 18");
+        }
+        if (exactLimit < 0) {
+            throw new IllegalArgumentException("exactLimit can't be negative");
+        }
+        this.precision = precision;
+        this.exactLimit = exactLimit;
+        if (exactLimit == 0) {
+            toSketch();
+        }
+    }
+
+    /**
+     * @param value
+     *            The value to count. Null is ignored
+     */
+    public void add(String value) {
+
+        if (value == null) {
+            return;
+        }
+        if (registers == null) {
+            exact.add(value);
+            if (exact.size() > exactLimit) {
+                toSketch();
+            }
+        }
+        else {
+            addHash(Hashing.mix(Hashing.fnv1a(value)));
+        }
+    }
+
+    /**
+     * @return The number of distinct values added, exact while
+     *         {@link #isExact()}
+     */
+    public long cardinality() {
+
+        if (registers == null) {
+            return exact.size();
+        }
+        int count = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = getAlpha(count) * count * count / sum;
+        if (estimate <= 2.5 * count && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = count * Math.log((double) count / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return True while the values are counted exactly
+     */
+    public boolean isExact() {
+
+        return registers == null;
+    }
+
+    public int getPrecision() {
+
+        return precision;
+    }
+
+    /**
+     * Adds the values of the other sketch to this one.
+     *
+     * @param other
+     *            A sketch of the same precision
+     */
+    public void merge(HyperLogLog other) {
+
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Can't merge precision " + other.precision + " into " + precision);
+        }
+        if (other.registers == null) {
+            for (String value : other.exact) {
+                add(value);
+            }
+            return;
+        }
+        toSketch();
+        for (int index = 0; index < registers.length; index++) {
+            if (other.registers[index] > registers[index]) {
+                registers[index] = other.registers[index];
+            }
+        }
+    }
+
+    /**
+     * @return The serialized sketch, see {@link #fromBytes(byte[])}
+     */
+    public byte[] toBytes() {
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            write(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param bytes
+     *            A sketch serialized with {@link #toBytes()}
+     * @return The sketch
+     * @throws IOException
+     *             The bytes are not a serialized sketch
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) throws IOException {
+
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    void write(DataOutputStream out) throws IOException {
+
+        out.writeByte(precision);
+        out.writeInt(exactLimit);
+        out.writeBoolean(registers == null);
+        if (registers == null) {
+            out.writeInt(exact.size());
+            for (String value : exact) {
+                out.writeUTF(value);
+            }
+        }
+        else {
+            out.write(registers);
+        }
+    }
+
+    static HyperLogLog read(DataInputStream in) throws IOException {
+
+        int precision = in.readByte();
+        int exactLimit = in.readInt();
+        HyperLogLog sketch = new HyperLogLog(precision, exactLimit);
+        if (in.readBoolean()) {
+            int size = in.readInt();
+            for (int index = 0; index < size; index++) {
+                sketch.exact.add(in.readUTF());
+            }
+        }
+        else {
+            sketch.toSketch();
+            in.readFully(sketch.registers);
+        }
+        return sketch;
+    }
+
+    private void toSketch() {
+
+        if (registers != null) {
+            return;
+        }
+        registers = new byte[1 << precision];
+        for (String value : exact) {
+            addHash(Hashing.mix(Hashing.fnv1a(value)));
+        }
+        exact = null;
+    }
+
+    private void addHash(long hash) {
+
+        int index = (int) (hash >>> (64 - precision));
+        // the position of the first set bit after the index bits
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    private static double getAlpha(int count) {
+
+        switch (count) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / count);
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Fetches all {@link DDRRecord DDRRecords} of a (large) {@link DDRQuery} with
+ * several concurrent requests. The query is split into
+ * {@link DDRPartition partitions}: the adapterIds are split into groups, and
+ * the time window of every group is split into slices based on the number of
+ * ddrRecords the server counts for it. At most {@code maxConcurrency}
+ * partitions are fetched at the same time. <br>
+ * Neighbouring slices share their boundary millisecond, so no ddrRecord is
+ * lost whether the server treats the endTime as inclusive or exclusive. The
+ * fetched ddrRecords are merged in start time order without duplicates. A
+ * partition that still fails after {@code maxAttempts} is reported in the
+ * {@link Result}, which can resume just the failed partitions.
+ *
+ * <pre>
+ * ParallelDDRFetcher fetcher = new ParallelDDRFetcher(client, 8);
+ * ParallelDDRFetcher.Result result = fetcher.fetch(query);
+ * while (!result.isComplete()) {
+ *     result.resume();
+ * }
+ * List&lt;DDRRecord&gt; ddrRecords = result.getRecords();
+ * </pre>
+ */
+public class ParallelDDRFetcher {
+
+    private static final Logger log = Logger.getLogger(ParallelDDRFetcher.class.getName());
+
+    /**
+     * Orders ddrRecords by start time, ddrRecords without a start time first
+     */
+    public static final Comparator<DDRRecord> START_TIME_ORDER = new Comparator<DDRRecord>() {
+
+        @Override
+        public int compare(DDRRecord first, DDRRecord second) {
+
+            long firstStart = first.getStart() != null ? first.getStart() : Long.MIN_VALUE;
+            long secondStart = second.getStart() != null ? second.getStart() : Long.MIN_VALUE;
+            return firstStart < secondStart ? -1 : (firstStart == secondStart ? 0 : 1);
+        }
+    };
+
+    private final DDRRecordSource source;
+    private final int maxConcurrency;
+    private int pageSize = DDRRecordCursor.DEFAULT_PAGE_SIZE;
+    private int recordsPerPartition = 10000;
+    private int adapterIdsPerPartition = 20;
+    private int maxAttempts = 3;
+
+    /**
+     * @param source
+     *            The source of the ddrRecords, typically the
+     *            {@link com.askfast.askfastapi.AskFastRestClient}
+     * @param maxConcurrency
+     *            The maximum number of concurrent requests
+     */
+    public ParallelDDRFetcher(DDRRecordSource source, int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        this.source = source;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Plans the partitions of the query and fetches them.
+     *
+     * @param query
+     *            The filter. If it has both a startTime and endTime, the time
+     *            window is split into slices
+     * @return The result, which may contain failed partitions
+     * @throws Exception
+     *             If the partitions couldn't be planned
+     */
+    public Result fetch(DDRQuery query) throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrency);
+        try {
+            List<DDRPartition> partitions = plan(query, executor);
+            fetchPartitions(partitions, executor);
+            return new Result(partitions);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Splits the query into partitions, counting the ddrRecords of every
+     * group of adapters to decide in how many time slices it is split.
+     *
+     * @param query
+     *            The filter
+     * @return The partitions, none of them fetched yet
+     * @throws Exception
+     *             If a count failed
+     */
+    public List<DDRPartition> plan(DDRQuery query) throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrency);
+        try {
+            return plan(query, executor);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetches the partitions that aren't done yet, resuming each one from its
+     * next offset.
+     *
+     * @param partitions
+     *            The partitions to fetch
+     */
+    public void fetch(List<DDRPartition> partitions) {
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrency);
+        try {
+            fetchPartitions(partitions, executor);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public int getPageSize() {
+
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+
+        this.pageSize = pageSize;
+    }
+
+    public int getRecordsPerPartition() {
+
+        return recordsPerPartition;
+    }
+
+    /**
+     * @param recordsPerPartition
+     *            The number of ddrRecords a time slice should roughly contain
+     */
+    public void setRecordsPerPartition(int recordsPerPartition) {
+
+        this.recordsPerPartition = recordsPerPartition;
+    }
+
+    public int getAdapterIdsPerPartition() {
+
+        return adapterIdsPerPartition;
+    }
+
+    /**
+     * @param adapterIdsPerPartition
+     *            The number of adapterIds queried together
+     */
+    public void setAdapterIdsPerPartition(int adapterIdsPerPartition) {
+
+        this.adapterIdsPerPartition = adapterIdsPerPartition;
+    }
+
+    public int getMaxAttempts() {
+
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts
+     *            The number of times a partition is tried per fetch before it
+     *            is reported as failed
+     */
+    public void setMaxAttempts(int maxAttempts) {
+
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Merges the ddrRecords of the partitions in start time order, skipping
+     * ddrRecords whose id was already seen.
+     *
+     * @param partitions
+     *            The fetched partitions
+     * @return The merged ddrRecords
+     */
+    public static List<DDRRecord> merge(List<DDRPartition> partitions) {
+
+        PriorityQueue<PartitionHead> heads = new PriorityQueue<PartitionHead>(Math.max(1, partitions.size()));
+        int total = 0;
+        for (DDRPartition partition : partitions) {
+            List<DDRRecord> records = new ArrayList<DDRRecord>(partition.getRecords());
+            Collections.sort(records, START_TIME_ORDER);
+            total += records.size();
+            if (!records.isEmpty()) {
+                heads.add(new PartitionHead(records));
+            }
+        }
+
+        List<DDRRecord> merged = new ArrayList<DDRRecord>(total);
+        Set<String> seenIds = new HashSet<String>(total * 2);
+        while (!heads.isEmpty()) {
+            PartitionHead head = heads.poll();
+            DDRRecord ddrRecord = head.records.get(head.index++);
+            if (ddrRecord.getId() == null || seenIds.add(ddrRecord.getId())) {
+                merged.add(ddrRecord);
+            }
+            if (head.index < head.records.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    private List<DDRPartition> plan(DDRQuery query, ExecutorService executor) throws Exception {
+
+        final List<DDRQuery> groupQueries = new ArrayList<DDRQuery>();
+        if (query.getAdapterIds() != null && query.getAdapterIds().size() > adapterIdsPerPartition) {
+            List<String> adapterIds = new ArrayList<String>(query.getAdapterIds());
+            for (int from = 0; from < adapterIds.size(); from += adapterIdsPerPartition) {
+                DDRQuery groupQuery = query.copy();
+                groupQuery.setAdapterIds(new ArrayList<String>(
+                    adapterIds.subList(from, Math.min(adapterIds.size(), from + adapterIdsPerPartition))));
+                groupQueries.add(groupQuery);
+            }
+        }
+        else {
+            groupQueries.add(query.copy());
+        }
+
+        List<Future<Integer>> counts = new ArrayList<Future<Integer>>();
+        for (final DDRQuery groupQuery : groupQueries) {
+            counts.add(executor.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+
+                    return source.getDDRRecordCount(groupQuery);
+                }
+            }));
+        }
+
+        List<DDRPartition> partitions = new ArrayList<DDRPartition>();
+        for (int index = 0; index < groupQueries.size(); index++) {
+            Integer count = getCount(counts.get(index));
+            if (count == null || count <= 0) {
+                continue;
+            }
+            partitions.addAll(splitTimeWindow(groupQueries.get(index), count));
+        }
+        log.info(String.format("Planned %d ddr partitions for %d adapter groups", partitions.size(),
+            groupQueries.size()));
+        return partitions;
+    }
+
+    private List<DDRPartition> splitTimeWindow(DDRQuery groupQuery, int count) {
+
+        Long startTime = groupQuery.getStartTime();
+        Long endTime = groupQuery.getEndTime();
+        int slices = (count + recordsPerPartition - 1) / recordsPerPartition;
+        if (startTime == null || endTime == null || slices <= 1 || endTime - startTime < slices) {
+            return Collections.singletonList(new DDRPartition(groupQuery, count));
+        }
+
+        List<DDRPartition> partitions = new ArrayList<DDRPartition>(slices);
+        long sliceLength = (endTime - startTime) / slices;
+        for (int slice = 0; slice < slices; slice++) {
+            DDRQuery sliceQuery = groupQuery.copy();
+            long sliceStart = startTime + slice * sliceLength;
+            sliceQuery.setStartTime(sliceStart);
+            // the next slice starts at this end; the merge drops what both fetch
+            sliceQuery.setEndTime(slice == slices - 1 ? endTime : sliceStart + sliceLength);
+            partitions.add(new DDRPartition(sliceQuery, count / slices));
+        }
+        return partitions;
+    }
+
+    private void fetchPartitions(List<DDRPartition> partitions, ExecutorService executor) {
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final DDRPartition partition : partitions) {
+            if (partition.isDone()) {
+                continue;
+            }
+            futures.add(executor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    fetchPartition(partition);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException e) {
+                log.log(Level.SEVERE, "Unexpected error while fetching a ddr partition", e.getCause());
+            }
+        }
+    }
+
+    private void fetchPartition(DDRPartition partition) {
+
+        for (int attempt = 0; attempt < maxAttempts && !partition.isDone(); attempt++) {
+            partition.startAttempt();
+            try {
+                while (!partition.isDone()) {
+                    List<DDRRecord> page = source.getDDRRecords(partition.getQuery(), partition.getNextOffset(),
+                        pageSize);
+                    if (page == null) {
+                        page = Collections.emptyList();
+                    }
+                    // the server may cap its pages below pageSize, only an empty page is the end
+                    partition.addPage(page, page.isEmpty());
+                }
+            }
+            catch (Exception e) {
+                partition.fail(e);
+                log.warning(String.format("Fetching %s failed: %s", partition, e.getMessage()));
+            }
+        }
+    }
+
+    private static Integer getCount(Future<Integer> count) throws Exception {
+
+        try {
+            return count.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static class PartitionHead implements Comparable<PartitionHead> {
+
+        final List<DDRRecord> records;
+        int index = 0;
+
+        PartitionHead(List<DDRRecord> records) {
+            this.records = records;
+        }
+
+        @Override
+        public int compareTo(PartitionHead other) {
+
+            return START_TIME_ORDER.compare(records.get(index), other.records.get(other.index));
+        }
+    }
+
+    /**
+     * The partitions of a parallel fetch
+     */
+    public class Result {
+
+        private final List<DDRPartition> partitions;
+
+        Result(List<DDRPartition> partitions) {
+            this.partitions = partitions;
+        }
+
+        /**
+         * @return True if all partitions were fetched
+         */
+        public boolean isComplete() {
+
+            return getFailedPartitions().isEmpty();
+        }
+
+        public List<DDRPartition> getPartitions() {
+
+            return partitions;
+        }
+
+        /**
+         * @return The partitions that could not be fetched completely
+         */
+        public List<DDRPartition> getFailedPartitions() {
+
+            List<DDRPartition> failed = new ArrayList<DDRPartition>();
+            for (DDRPartition partition : partitions) {
+                if (!partition.isDone()) {
+                    failed.add(partition);
+                }
+            }
+            return failed;
+        }
+
+        /**
+         * Fetches the failed partitions again, each from the page it failed on.
+         *
+         * @return True if all partitions are fetched now
+         */
+        public boolean resume() {
+
+            fetch(getFailedPartitions());
+            return isComplete();
+        }
+
+        /**
+         * @return The ddrRecords of all partitions in start time order without
+         *         duplicates. Check {@link #isComplete()} first, failed
+         *         partitions only contribute the pages fetched so far
+         */
+        public List<DDRRecord> getRecords() {
+
+            return merge(partitions);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import com.askfast.askfastapi.util.Hashing;
+import com.askfast.askfastapi.ddr.DDRSessionIndex.LongIntMultiMap;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.Recording;
+import com.askfast.util.RecordHandler;
+
+/**
+ * Joins {@link Recording Recordings} to the {@link DDRRecord DDRRecords} they
+ * were made in, by the ddrId of the recording and the id of the ddrRecord. <br>
+ * The recordings, normally the smaller side, are indexed once in a hash table
+ * of 64 bit id hashes to positions held in primitive arrays. The ddrRecords
+ * are then streamed through the index in batches, e.g. from a
+ * {@link DDRRecordCursor}, so only the recordings and a bounded number of
+ * batches are in memory. With more than one thread the batches are probed in
+ * parallel and the handler is called from several threads at once. <br>
+ * A join can be repeated with other ddrRecords; the recordings that were
+ * matched by any of the joins are tracked.
+ */
+public class RecordingJoin {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final Recording[] recordings;
+    private final LongIntMultiMap index = new LongIntMultiMap();
+    private final AtomicIntegerArray matched;
+    private boolean matchAdapterId = false;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Indexes the recordings by their ddrId. Recordings without a ddrId never
+     * match.
+     *
+     * @param recordings
+     *            The recordings to join
+     */
+    public RecordingJoin(Collection<Recording> recordings) {
+        this.recordings = recordings.toArray(new Recording[recordings.size()]);
+        this.matched = new AtomicIntegerArray(this.recordings.length);
+        for (int position = 0; position < this.recordings.length; position++) {
+            String ddrId = this.recordings[position].getDdrId();
+            if (ddrId != null) {
+                index.put(Hashing.fnv1a(ddrId), position);
+            }
+        }
+    }
+
+    /**
+     * Joins the ddrRecords on the calling thread.
+     *
+     * @param ddrRecords
+     *            The ddrRecords to join
+     * @param handler
+     *            Receives a match per recording of a ddrRecord
+     * @return The number of matches
+     * @throws Exception
+     *             Thrown by the handler
+     */
+    public long join(Iterable<DDRRecord> ddrRecords, RecordHandler<Match> handler) throws Exception {
+
+        return join(ddrRecords, 1, handler);
+    }
+
+    /**
+     * Joins the ddrRecords, probing batches of them on the given number of
+     * threads. The ddrRecords are read on the calling thread; at most two
+     * batches per thread wait to be probed.
+     *
+     * @param ddrRecords
+     *            The ddrRecords to join
+     * @param threads
+     *            The number of threads probing the index
+     * @param handler
+     *            Receives a match per recording of a ddrRecord. It must be
+     *            thread safe when more than one thread is used
+     * @return The number of matches
+     * @throws Exception
+     *             The first error thrown by the handler. The remaining
+     *             batches are skipped
+     */
+    public long join(Iterable<DDRRecord> ddrRecords, int threads, final RecordHandler<Match> handler)
+        throws Exception {
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        final AtomicLong matchCount = new AtomicLong();
+        if (threads == 1) {
+            for (DDRRecord ddrRecord : ddrRecords) {
+                matchCount.addAndGet(probe(ddrRecord, handler));
+            }
+            return matchCount.get();
+        }
+
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        final Semaphore pending = new Semaphore(threads * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "askfast-recording-join-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<DDRRecord> batch = new ArrayList<DDRRecord>(batchSize);
+            for (DDRRecord ddrRecord : ddrRecords) {
+                if (error.get() != null) {
+                    break;
+                }
+                batch.add(ddrRecord);
+                if (batch.size() == batchSize) {
+                    submit(executor, pending, batch, handler, matchCount, error);
+                    batch = new ArrayList<DDRRecord>(batchSize);
+                }
+            }
+            if (!batch.isEmpty() && error.get() == null) {
+                submit(executor, pending, batch, handler, matchCount, error);
+            }
+        }
+        finally {
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the submitted batches
+            }
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return matchCount.get();
+    }
+
+    /**
+     * @param ddrId
+     *            The id of a ddrRecord
+     * @return The recordings made in the ddrRecord
+     */
+    public List<Recording> getRecordings(String ddrId) {
+
+        List<Recording> result = new ArrayList<Recording>();
+        for (int entry = index.first(Hashing.fnv1a(ddrId)); entry >= 0; entry = index.next(entry)) {
+            Recording recording = recordings[index.row(entry)];
+            if (ddrId.equals(recording.getDdrId())) {
+                result.add(0, recording);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The recordings that did not match any ddrRecord so far
+     */
+    public List<Recording> getUnmatchedRecordings() {
+
+        List<Recording> result = new ArrayList<Recording>();
+        for (int position = 0; position < recordings.length; position++) {
+            if (matched.get(position) == 0) {
+                result.add(recordings[position]);
+            }
+        }
+        return result;
+    }
+
+    public boolean isMatchAdapterId() {
+
+        return matchAdapterId;
+    }
+
+    /**
+     * @param matchAdapterId
+     *            True to also require the adapterId of the recording and the
+     *            ddrRecord to be equal, when both have one
+     */
+    public void setMatchAdapterId(boolean matchAdapterId) {
+
+        this.matchAdapterId = matchAdapterId;
+    }
+
+    public int getBatchSize() {
+
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    private void submit(ExecutorService executor, final Semaphore pending, final List<DDRRecord> batch,
+        final RecordHandler<Match> handler, final AtomicLong matchCount, final AtomicReference<Exception> error)
+        throws InterruptedException {
+
+        pending.acquire();
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try {
+                    for (DDRRecord ddrRecord : batch) {
+                        if (error.get() != null) {
+                            return;
+                        }
+                        matchCount.addAndGet(probe(ddrRecord, handler));
+                    }
+                }
+                catch (Exception e) {
+                    error.compareAndSet(null, e);
+                }
+                finally {
+                    pending.release();
+                }
+            }
+        });
+    }
+
+    private int probe(DDRRecord ddrRecord, RecordHandler<Match> handler) throws Exception {
+
+        String id = ddrRecord.getId();
+        if (id == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int entry = index.first(Hashing.fnv1a(id)); entry >= 0; entry = index.next(entry)) {
+            int position = index.row(entry);
+            Recording recording = recordings[position];
+            if (!id.equals(recording.getDdrId())) {
+                continue;
+            }
+            if (matchAdapterId && recording.getAdapterId() != null && ddrRecord.getAdapterId() != null
+                && !recording.getAdapterId().equals(ddrRecord.getAdapterId())) {
+                continue;
+            }
+            matched.set(position, 1);
+            handler.handle(new Match(ddrRecord, recording));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A recording with the ddrRecord it was made in
+     */
+    public static class Match {
+
+        private final DDRRecord ddrRecord;
+        private final Recording recording;
+
+        Match(DDRRecord ddrRecord, Recording recording) {
+            this.ddrRecord = ddrRecord;
+            this.recording = recording;
+        }
+
+        public DDRRecord getDDRRecord() {
+
+            return ddrRecord;
+        }
+
+        public Recording getRecording() {
+
+            return recording;
+        }
+    }
+}
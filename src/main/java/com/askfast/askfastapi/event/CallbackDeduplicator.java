@@ -0,0 +1,307 @@
+package com.askfast.askfastapi.event;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import com.askfast.askfastapi.model.AnswerPost;
+import com.askfast.askfastapi.model.DialogCallback;
+import com.askfast.askfastapi.model.EventPost;
+import com.askfast.askfastapi.util.Hashing;
+
+/**
+ * Recognizes callbacks the platform posted again, e.g. after a timeout, so a
+ * delivery isn't counted twice. A callback is remembered by a 64 bit
+ * fingerprint of its question_id, responder and event, or answer, for at
+ * least half the window and at most the whole window. <br>
+ * The fingerprints are kept in two fixed size tables that are filled without
+ * locking: the current one, and the previous one that is only read. When the
+ * current table is half a window old or holds capacity fingerprints, it
+ * becomes the previous one and the old previous one is dropped, so the memory
+ * stays bounded; with more than capacity callbacks per half window that
+ * shortens the window. A table has at least twice as many slots as
+ * fingerprints, so the probe sequences stay short. Two different callbacks
+ * have the same fingerprint with a chance of about 1 in 2^64 / capacity.
+ */
+public class CallbackDeduplicator {
+
+    public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+
+    private static final long EMPTY = 0;
+    private static final long REMOVED = Long.MIN_VALUE;
+
+    private final long rotateMillis;
+    private final int capacity;
+    private final int tableSize;
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong rotationCount = new AtomicLong();
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    /**
+     * A deduplicator with a window of {@link #DEFAULT_WINDOW_MILLIS} for
+     * {@link #DEFAULT_CAPACITY} callbacks per half window
+     */
+    public CallbackDeduplicator() {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param windowMillis
+     *            How long a callback is remembered
+     * @param capacity
+     *            The number of callbacks remembered per half window. Takes
+     *            32 to 64 bytes per callback
+     */
+    public CallbackDeduplicator(long windowMillis, int capacity) {
+        if (windowMillis < 2 || capacity < 1 || capacity > 1 << 28) {
+            throw new IllegalArgumentException("Invalid window or capacity: " + windowMillis + ", " + capacity);
+        }
+        this.rotateMillis = windowMillis / 2;
+        this.capacity = capacity;
+        this.tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.current = new Generation(tableSize, capacity, currentTimeMillis());
+    }
+
+    /**
+     * Remembers the event
+     *
+     * @return True if the event was seen before within the window
+     */
+    public boolean isDuplicate(EventPost event) {
+
+        return isDuplicate(fingerprint(event));
+    }
+
+    /**
+     * Remembers the answer
+     *
+     * @return True if the answer was seen before within the window
+     */
+    public boolean isDuplicate(AnswerPost answer) {
+
+        return isDuplicate(fingerprint(answer));
+    }
+
+    /**
+     * Remembers the answer or event
+     *
+     * @return True if it was seen before within the window
+     */
+    public boolean isDuplicate(DialogCallback callback) {
+
+        return isDuplicate(fingerprint(callback));
+    }
+
+    /**
+     * Remembers the fingerprint
+     *
+     * @param fingerprint
+     *            See {@link #fingerprint(EventPost)}
+     * @return True if the fingerprint was seen before within the window
+     */
+    public boolean isDuplicate(long fingerprint) {
+
+        fingerprint = normalize(fingerprint);
+        while (true) {
+            Generation current = this.current;
+            Generation previous = this.previous;
+            if (currentTimeMillis() - current.createdAt >= rotateMillis) {
+                rotate(current);
+                continue;
+            }
+            int added = current.add(fingerprint, previous);
+            if (added == Generation.FULL) {
+                rotate(current);
+                continue;
+            }
+            if (added == Generation.PRESENT) {
+                duplicateCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Forgets a fingerprint, e.g. when handling the callback failed and the
+     * platform should be able to post it again
+     */
+    public void forget(long fingerprint) {
+
+        fingerprint = normalize(fingerprint);
+        Generation previous = this.previous;
+        current.remove(fingerprint);
+        if (previous != null) {
+            previous.remove(fingerprint);
+        }
+    }
+
+    /**
+     * @return The fingerprint of the question_id, responder and event
+     */
+    public static long fingerprint(EventPost event) {
+
+        long hash = hash(Hashing.FNV_OFFSET, "event");
+        hash = hash(hash, event.getQuestion_id());
+        hash = hash(hash, event.getResponder());
+        return Hashing.mix(hash(hash, event.getEvent()));
+    }
+
+    /**
+     * @return The fingerprint of the question_id, responder, answer_id and
+     *         answer_text
+     */
+    public static long fingerprint(AnswerPost answer) {
+
+        long hash = hash(Hashing.FNV_OFFSET, "answer");
+        hash = hash(hash, answer.getQuestion_id());
+        hash = hash(hash, answer.getResponder());
+        hash = hash(hash, answer.getAnswer_id());
+        return Hashing.mix(hash(hash, answer.getAnswer_text()));
+    }
+
+    public static long fingerprint(DialogCallback callback) {
+
+        return callback.isEvent() ? fingerprint(callback.getEvent()) : fingerprint(callback.getAnswer());
+    }
+
+    /**
+     * @return Number of duplicates recognized
+     */
+    public long getDuplicateCount() {
+
+        return duplicateCount.get();
+    }
+
+    /**
+     * @return Number of times the current table was replaced
+     */
+    public long getRotationCount() {
+
+        return rotationCount.get();
+    }
+
+    protected long currentTimeMillis() {
+
+        return System.currentTimeMillis();
+    }
+
+    private void rotate(Generation expected) {
+
+        synchronized (this) {
+            if (current == expected) {
+                long now = currentTimeMillis();
+                // after a quiet period the current table may be older than the window already
+                previous = now - expected.createdAt < rotateMillis * 2 ? expected : null;
+                current = new Generation(tableSize, capacity, now);
+                rotationCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * FNV-1a of the chars of a field, followed by a separator, so the fields
+     * can't shift into each other
+     */
+    private static long hash(long hash, String field) {
+
+        if (field != null) {
+            hash = Hashing.fnv1a(hash, field);
+        }
+        return Hashing.fnv1a(hash, field != null ? 0xffff : 0xfffe);
+    }
+
+    private static long normalize(long fingerprint) {
+
+        return fingerprint == EMPTY || fingerprint == REMOVED ? 1 : fingerprint;
+    }
+
+    /**
+     * An open addressing table of fingerprints, filled with compare and set
+     */
+    private static class Generation {
+
+        static final int ADDED = 0;
+        static final int PRESENT = 1;
+        static final int FULL = 2;
+
+        final AtomicLongArray slots;
+        final int mask;
+        final int capacity;
+        final long createdAt;
+        /** The fingerprints added, and the slots reserved for them */
+        final AtomicInteger count = new AtomicInteger();
+
+        Generation(int size, int capacity, long createdAt) {
+            this.slots = new AtomicLongArray(size);
+            this.mask = size - 1;
+            this.capacity = capacity;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * @param previous
+         *            Checked before the fingerprint is added, or null
+         */
+        int add(long fingerprint, Generation previous) {
+
+            if (previous != null && previous.contains(fingerprint)) {
+                return PRESENT;
+            }
+            int index = (int) fingerprint & mask;
+            for (int probe = 0; probe <= mask; probe++) {
+                int slot = (index + probe) & mask;
+                long value = slots.get(slot);
+                if (value == EMPTY) {
+                    // the slot is reserved first, so a table never holds more than capacity
+                    if (count.incrementAndGet() > capacity) {
+                        return FULL;
+                    }
+                    if (slots.compareAndSet(slot, EMPTY, fingerprint)) {
+                        return ADDED;
+                    }
+                    count.decrementAndGet();
+                    value = slots.get(slot);
+                }
+                if (value == fingerprint) {
+                    return PRESENT;
+                }
+            }
+            return FULL;
+        }
+
+        boolean contains(long fingerprint) {
+
+            int index = (int) fingerprint & mask;
+            for (int probe = 0; probe <= mask; probe++) {
+                long value = slots.get((index + probe) & mask);
+                if (value == fingerprint) {
+                    return true;
+                }
+                if (value == EMPTY) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        void remove(long fingerprint) {
+
+            int index = (int) fingerprint & mask;
+            for (int probe = 0; probe <= mask; probe++) {
+                int slot = (index + probe) & mask;
+                long value = slots.get(slot);
+                if (value == fingerprint) {
+                    // the slot stays taken, so the fingerprints after it are still found
+                    slots.compareAndSet(slot, fingerprint, REMOVED);
+                    return;
+                }
+                if (value == EMPTY) {
+                    return;
+                }
+            }
+        }
+    }
+}
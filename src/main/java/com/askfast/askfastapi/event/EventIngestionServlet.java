@@ -0,0 +1,79 @@
+package com.askfast.askfastapi.event;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.askfast.askfastapi.model.DialogCallback;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * The event callback of dialogs with a lot of events, e.g. SMS campaigns. A
+ * POSTed {@link com.askfast.askfastapi.model.EventPost} is queued in the
+ * {@link EventIngestor} and acknowledged with an empty 200 right away; it is
+ * processed later, so a slow handler never holds the callback connection.
+ * When the ingestor rejects the event the response is a 503, so the platform
+ * posts it again. <br>
+ * Use the url of this servlet as the callback of the events, e.g.
+ * {@code askFast.addEvent(EventType.delivered, "/events")}.
+ */
+public abstract class EventIngestionServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = Logger.getLogger(EventIngestionServlet.class.getName());
+
+    private EventIngestor ingestor;
+
+    @Override
+    public void init() throws ServletException {
+
+        ingestor = createIngestor();
+        ingestor.start();
+    }
+
+    @Override
+    public void destroy() {
+
+        ingestor.close();
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+        DialogCallback callback;
+        try {
+            callback = DialogCallback.read(req.getInputStream());
+        }
+        catch (JsonProcessingException e) {
+            log.log(Level.WARNING, "Ignoring an event that is not JSON", e);
+            callback = null;
+        }
+        if (callback == null || !callback.isEvent()) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        if (!ingestor.offer(callback.getEvent())
+            && (ingestor.getOverflowPolicy() == EventIngestor.OverflowPolicy.REJECT || !ingestor.isAccepting())) {
+            resp.setHeader("Retry-After", "1");
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentLength(0);
+    }
+
+    /**
+     * @return The ingestor to queue the events in, with the handler that
+     *         processes them. It is started in {@link #init()} and closed in
+     *         {@link #destroy()}
+     */
+    protected abstract EventIngestor createIngestor();
+
+    public EventIngestor getIngestor() {
+
+        return ingestor;
+    }
+}
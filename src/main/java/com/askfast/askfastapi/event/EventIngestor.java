@@ -0,0 +1,419 @@
+package com.askfast.askfastapi.event;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.askfast.askfastapi.model.EventPost;
+
+/**
+ * Takes in {@link EventPost}s faster than they can be processed one by one,
+ * e.g. the delivered and read events of a large SMS campaign. An event is
+ * queued in a bounded buffer and the callback acknowledged right away; worker
+ * threads take the events from the buffer in batches and hand them to the
+ * {@link BatchHandler}. <br>
+ * When the handler can't keep up and the buffer is full, the
+ * {@link OverflowPolicy} decides what gives. With
+ * {@link OverflowPolicy#REJECT} the {@link EventIngestionServlet} responds with
+ * a 503, so the platform posts the event again later. <br>
+ * With a {@link #setDeduplicator deduplicator}, the workers leave out the
+ * events the platform posted again. That happens after the buffer, so an event
+ * that was rejected is still processed when it is posted again.
+ */
+public class EventIngestor implements Closeable {
+
+    private static final Logger log = Logger.getLogger(EventIngestor.class.getName());
+    /**
+     * How long an idle worker waits at most; an offer wakes it up right away,
+     * this is only a safety net
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public static final int DEFAULT_CAPACITY = 65536;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * What to do with an event when the buffer is full
+     */
+    public enum OverflowPolicy {
+        /** Don't take the event, so the callback is answered with a 503 */
+        REJECT,
+        /** Acknowledge the event, but drop it */
+        DROP_NEWEST,
+        /** Drop the oldest queued event to make room */
+        DROP_OLDEST
+    }
+
+    /**
+     * Processes the events, on one of the worker threads
+     */
+    public interface BatchHandler {
+
+        /**
+         * @param events
+         *            The events in the order they were queued, at most the
+         *            batch size. The list is reused after the call
+         * @throws Exception
+         *             The batch is logged and counted as failed; the events
+         *             are not retried
+         */
+        void handle(List<EventPost> events) throws Exception;
+    }
+
+    private final BatchHandler handler;
+    private final RingBuffer<EventPost> buffer;
+    private final int batchSize;
+    private final int workerCount;
+    private final OverflowPolicy overflowPolicy;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final Queue<Thread> idleWorkers = new ConcurrentLinkedQueue<Thread>();
+    /** The offers in progress, the shutdown waits for them before the last drain */
+    private final AtomicInteger offering = new AtomicInteger();
+    private volatile boolean accepting;
+    private volatile boolean running;
+    private volatile CallbackDeduplicator deduplicator;
+
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong failedBatchCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    /**
+     * An ingestor with a buffer of {@link #DEFAULT_CAPACITY}, batches of
+     * {@link #DEFAULT_BATCH_SIZE}, one worker, rejecting events when full
+     */
+    public EventIngestor(BatchHandler handler) {
+        this(handler, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, 1, OverflowPolicy.REJECT);
+    }
+
+    /**
+     * @param handler
+     *            Processes the batches
+     * @param capacity
+     *            The number of events the buffer holds, rounded up to a power
+     *            of two
+     * @param batchSize
+     *            The maximum number of events per batch. A worker doesn't wait
+     *            for a batch to fill up
+     * @param workerCount
+     *            The number of threads calling the handler
+     * @param overflowPolicy
+     *            What to do when the buffer is full
+     */
+    public EventIngestor(BatchHandler handler, int capacity, int batchSize, int workerCount,
+        OverflowPolicy overflowPolicy) {
+        if (handler == null || overflowPolicy == null) {
+            throw new IllegalArgumentException("An ingestor needs a handler and an overflow policy");
+        }
+        if (batchSize < 1 || workerCount < 1) {
+            throw new IllegalArgumentException("batchSize and workerCount must be positive");
+        }
+        this.handler = handler;
+        this.buffer = new RingBuffer<EventPost>(capacity);
+        this.batchSize = batchSize;
+        this.workerCount = workerCount;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Starts the workers and accepts events
+     */
+    public synchronized void start() {
+
+        if (running) {
+            throw new IllegalStateException("The ingestor is started already");
+        }
+        running = true;
+        accepting = true;
+        for (int number = 0; number < workerCount; number++) {
+            Thread worker = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    work();
+                }
+            }, "askfast-event-ingestor-" + number);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Queues an event for processing, without waiting
+     *
+     * @param event
+     *            The posted event
+     * @return False if the event was not queued, because the buffer is full
+     *         and the policy is not {@link OverflowPolicy#DROP_OLDEST}, or the
+     *         ingestor is not running
+     */
+    public boolean offer(EventPost event) {
+
+        offering.incrementAndGet();
+        try {
+            if (!accepting) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            while (!buffer.offer(event)) {
+                if (overflowPolicy == OverflowPolicy.REJECT) {
+                    rejectedCount.incrementAndGet();
+                    return false;
+                }
+                if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                    droppedCount.incrementAndGet();
+                    return false;
+                }
+                if (buffer.poll() != null) {
+                    droppedCount.incrementAndGet();
+                }
+            }
+            queuedCount.incrementAndGet();
+            Thread idleWorker = idleWorkers.poll();
+            if (idleWorker != null) {
+                LockSupport.unpark(idleWorker);
+            }
+            return true;
+        }
+        finally {
+            offering.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param deduplicator
+     *            Recognizes the events posted again, or null to process every
+     *            event
+     */
+    public void setDeduplicator(CallbackDeduplicator deduplicator) {
+
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * Stops taking events, and waits until the queued events are processed
+     *
+     * @param timeout
+     *            The maximum time to wait for the workers
+     * @param unit
+     *            The unit of the timeout
+     * @return False if the workers did not finish in time
+     * @throws InterruptedException
+     *             Interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<Thread> stopping;
+        synchronized (this) {
+            accepting = false;
+            // an offer that saw accepting before it changed queues its event before the last drain
+            while (offering.get() > 0) {
+                if (System.nanoTime() - deadline > 0) {
+                    return false;
+                }
+                Thread.yield();
+            }
+            running = false;
+            stopping = new ArrayList<Thread>(workers);
+            workers.clear();
+        }
+        for (Thread worker : stopping) {
+            LockSupport.unpark(worker);
+        }
+        for (Thread worker : stopping) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            worker.join(remaining);
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        // events queued after the workers last looked at the buffer
+        List<EventPost> batch = new ArrayList<EventPost>(batchSize);
+        while (buffer.drainTo(batch, batchSize) > 0) {
+            process(batch);
+        }
+        return true;
+    }
+
+    /**
+     * Shuts down, waiting up to 10 seconds for the queued events
+     */
+    @Override
+    public void close() {
+
+        try {
+            if (!shutdown(10, TimeUnit.SECONDS)) {
+                log.warning("Closed the event ingestor with " + buffer.size() + " events left");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return True between the start and the shutdown
+     */
+    public boolean isAccepting() {
+
+        return accepting;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+
+        return overflowPolicy;
+    }
+
+    /**
+     * @return The number of events waiting for a worker
+     */
+    public int getQueueSize() {
+
+        return buffer.size();
+    }
+
+    public int getCapacity() {
+
+        return buffer.capacity();
+    }
+
+    /**
+     * @return Number of events queued
+     */
+    public long getQueuedCount() {
+
+        return queuedCount.get();
+    }
+
+    /**
+     * @return Number of events dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+
+        return droppedCount.get();
+    }
+
+    /**
+     * @return Number of events not taken, because the buffer was full or the
+     *         ingestor was not running
+     */
+    public long getRejectedCount() {
+
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return Number of events handed to the handler, including failed
+     *         batches
+     */
+    public long getProcessedCount() {
+
+        return processedCount.get();
+    }
+
+    /**
+     * @return Number of events left out as duplicates
+     */
+    public long getDuplicateCount() {
+
+        return duplicateCount.get();
+    }
+
+    public long getBatchCount() {
+
+        return batchCount.get();
+    }
+
+    public long getFailedBatchCount() {
+
+        return failedBatchCount.get();
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format("queued: %d, processed: %d, batches: %d, failedBatches: %d, dropped: %d, rejected: %d, "
+            + "duplicates: %d, queueSize: %d", getQueuedCount(), getProcessedCount(), getBatchCount(),
+            getFailedBatchCount(), getDroppedCount(), getRejectedCount(), getDuplicateCount(), getQueueSize());
+    }
+
+    private void work() {
+
+        Thread worker = Thread.currentThread();
+        List<EventPost> batch = new ArrayList<EventPost>(batchSize);
+        while (true) {
+            if (buffer.drainTo(batch, batchSize) > 0) {
+                process(batch);
+            }
+            else if (running) {
+                idleWorkers.add(worker);
+                // an offer before the add didn't see this worker, but left its event in the buffer
+                if (buffer.size() == 0 && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idleWorkers.remove(worker);
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    private void process(List<EventPost> batch) {
+
+        removeDuplicates(batch);
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            handler.handle(batch);
+        }
+        catch (Exception e) {
+            failedBatchCount.incrementAndGet();
+            log.log(Level.WARNING, "Processing a batch of " + batch.size() + " events failed", e);
+        }
+        finally {
+            processedCount.addAndGet(batch.size());
+            batchCount.incrementAndGet();
+            batch.clear();
+        }
+    }
+
+    /**
+     * Leaves out the duplicates in place, keeping the order
+     */
+    private void removeDuplicates(List<EventPost> batch) {
+
+        CallbackDeduplicator deduplicator = this.deduplicator;
+        if (deduplicator == null) {
+            return;
+        }
+        int kept = 0;
+        for (int index = 0; index < batch.size(); index++) {
+            EventPost event = batch.get(index);
+            if (!deduplicator.isDuplicate(event)) {
+                batch.set(kept++, event);
+            }
+        }
+        if (kept < batch.size()) {
+            duplicateCount.addAndGet(batch.size() - kept);
+            batch.subList(kept, batch.size()).clear();
+        }
+    }
+}
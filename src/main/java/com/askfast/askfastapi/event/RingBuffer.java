@@ -0,0 +1,127 @@
+package com.askfast.askfastapi.event;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue for many producers and many consumers that doesn't lock.
+ * Every slot has a sequence number that tells whether it is free for the
+ * producer at a position, or filled for the consumer at a position; a
+ * producer or consumer claims its position with a compare and set.
+ */
+class RingBuffer<E> {
+
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            Rounded up to a power of two of at least 2; with a single slot
+     *            a filled slot can't be told from a free one of the next round
+     */
+    RingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Math.max(2, Integer.highestOneBit(capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        elements = new AtomicReferenceArray<E>(size);
+        sequences = new AtomicLongArray(size);
+        for (int index = 0; index < size; index++) {
+            sequences.set(index, index);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * @return False if the buffer is full
+     */
+    boolean offer(E element) {
+
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            }
+            else if (difference < 0) {
+                // the slot still holds the element of the previous round
+                return false;
+            }
+            else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return The oldest element, or null if the buffer is empty
+     */
+    E poll() {
+
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = elements.get(index);
+                    elements.set(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            }
+            else if (difference < 0) {
+                return null;
+            }
+            else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Moves up to max elements to the collection
+     *
+     * @return The number of elements moved
+     */
+    int drainTo(Collection<? super E> collection, int max) {
+
+        int count = 0;
+        E element;
+        while (count < max && (element = poll()) != null) {
+            collection.add(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of elements, an estimate while producers and
+     *         consumers are active
+     */
+    int size() {
+
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    int capacity() {
+
+        return mask + 1;
+    }
+}
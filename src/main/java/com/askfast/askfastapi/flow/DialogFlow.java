@@ -0,0 +1,276 @@
+package com.askfast.askfastapi.flow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import com.askfast.askfastapi.model.EventPost.EventType;
+
+/**
+ * Declares a dialog as a graph of questions, instead of building every
+ * question per request in a chain of if statements. The nodes are the
+ * questions, the edges are the answers and events leading to the next node.
+ * The flow is declared once, e.g. in the init of a servlet, and
+ * {@link #compile() compiled} into a {@link DialogRouter} that renders the
+ * question for every callback:
+ *
+ * <pre>
+ * DialogFlow flow = new DialogFlow("/party");
+ * flow.ask("start", "Are you coming to my bday party?")
+ *     .addAnswer("yes", "Yup", "accepted")
+ *     .addAnswer("no", "Nope", "declined");
+ * flow.say("accepted", "Thanks for your accepting!");
+ * flow.say("declined", "Thanks for your reply!");
+ * router = flow.compile();
+ * </pre>
+ *
+ * The callbacks are sent to the path of the flow, with the node and the
+ * answer or event as query parameters, see {@link DialogRouter#handle}. The
+ * first declared node is where the dialog starts.
+ */
+public class DialogFlow {
+
+    private static final Logger log = Logger.getLogger(DialogFlow.class.getName());
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    /**
+     * The answerId of the callback of a node with a {@link DialogNode#next
+     * next} node
+     */
+    public static final String NEXT = "next";
+    public static final String NODE_PARAM = "node";
+    public static final String ANSWER_PARAM = "answer";
+    public static final String EVENT_PARAM = "event";
+
+    private final String path;
+    private final Map<String, DialogNode> nodes = new LinkedHashMap<String, DialogNode>();
+    private String startNode;
+
+    /**
+     * @param path
+     *            The path the flow is served on, e.g. the servlet path. A
+     *            relative path is prefixed with the host of the request
+     */
+    public DialogFlow(String path) {
+        if (path == null || path.isEmpty()) {
+            throw new IllegalArgumentException("A dialog flow needs a path");
+        }
+        this.path = path;
+    }
+
+    /**
+     * Adds a statement, see {@link com.askfast.askfastapi.AskFast#say(String)}
+     *
+     * @param id
+     *            The node id, unique within the flow
+     * @param text
+     *            Either a string value (TTS in case of a phonecall) or a url to
+     *            an audio file
+     * @return The node, to add edges to
+     */
+    public DialogNode say(String id, String text) {
+
+        return addNode(new DialogNode(id, DialogNode.Type.SAY, text, null));
+    }
+
+    /**
+     * Adds a question. It is a closed question when answers are added, else an
+     * open question that continues with the next node.
+     *
+     * @param id
+     *            The node id, unique within the flow
+     * @param text
+     *            Either a string value (TTS in case of a phonecall) or a url to
+     *            an audio file
+     * @return The node, to add edges to
+     */
+    public DialogNode ask(String id, String text) {
+
+        return addNode(new DialogNode(id, DialogNode.Type.ASK, text, null));
+    }
+
+    /**
+     * Adds a redirect, see
+     * {@link com.askfast.askfastapi.AskFast#redirect(List, String, String, String)}
+     *
+     * @param id
+     *            The node id, unique within the flow
+     * @param to
+     *            The phonenumbers, clients or urls to redirect to
+     * @param text
+     *            Played out before the redirect, or null
+     * @return The node, to add edges to
+     */
+    public DialogNode redirect(String id, Collection<String> to, String text) {
+
+        return addNode(new DialogNode(id, DialogNode.Type.REDIRECT, text, new ArrayList<String>(to)));
+    }
+
+    /**
+     * Adds a redirect to a single address
+     */
+    public DialogNode redirect(String id, String to, String text) {
+
+        return redirect(id, Arrays.asList(to), text);
+    }
+
+    /**
+     * Adds a conference, see
+     * {@link com.askfast.askfastapi.AskFast#conference(String, String)}
+     */
+    public DialogNode conference(String id, String text) {
+
+        return addNode(new DialogNode(id, DialogNode.Type.CONFERENCE, text, null));
+    }
+
+    /**
+     * Adds the end of the dialog, see
+     * {@link com.askfast.askfastapi.AskFast#exit(String)}
+     */
+    public DialogNode exit(String id, String text) {
+
+        return addNode(new DialogNode(id, DialogNode.Type.EXIT, text, null));
+    }
+
+    /**
+     * @param id
+     *            The node the dialog starts with, instead of the first declared
+     *            one
+     */
+    public void setStartNode(String id) {
+
+        startNode = id;
+    }
+
+    public String getStartNode() {
+
+        return startNode;
+    }
+
+    public String getPath() {
+
+        return path;
+    }
+
+    /**
+     * Validates the flow and compiles it into a router. The flow can still be
+     * changed and compiled again; the router does not change with it.
+     *
+     * @return The router serving this flow
+     * @throws IllegalStateException
+     *             Listing every edge to an unknown node and every node
+     *             missing its edges
+     */
+    public DialogRouter compile() {
+
+        List<String> problems = validate();
+        if (!problems.isEmpty()) {
+            throw new IllegalStateException("Invalid dialog flow " + path + ": " + problems);
+        }
+        Set<String> unreachable = new HashSet<String>(nodes.keySet());
+        unreachable.removeAll(getReachable());
+        if (!unreachable.isEmpty()) {
+            log.warning("Nodes not reachable from " + startNode + " in " + path + ": " + unreachable);
+        }
+        return new DialogRouter(path, startNode, nodes.values());
+    }
+
+    private DialogNode addNode(DialogNode node) {
+
+        checkId(node.getId());
+        if (nodes.containsKey(node.getId())) {
+            throw new IllegalArgumentException("Duplicate node id: " + node.getId());
+        }
+        nodes.put(node.getId(), node);
+        if (startNode == null) {
+            startNode = node.getId();
+        }
+        return node;
+    }
+
+    private List<String> validate() {
+
+        List<String> problems = new ArrayList<String>();
+        if (nodes.isEmpty()) {
+            problems.add("no nodes");
+        }
+        else if (!nodes.containsKey(startNode)) {
+            problems.add("unknown start node " + startNode);
+        }
+        for (DialogNode node : nodes.values()) {
+            if (node.getType() == DialogNode.Type.ASK && node.getAnswers().isEmpty() && node.getNext() == null) {
+                problems.add(node.getId() + " asks without answers or a next node");
+            }
+            if (!node.getAnswers().isEmpty() && node.getNext() != null) {
+                problems.add(node.getId() + " has both answers and a next node");
+            }
+            checkTarget(node, node.getNext(), problems);
+            for (String[] answer : node.getAnswers().values()) {
+                checkTarget(node, answer[1], problems);
+            }
+            for (String target : node.getEvents().values()) {
+                checkTarget(node, target, problems);
+            }
+        }
+        return problems;
+    }
+
+    private void checkTarget(DialogNode node, String target, List<String> problems) {
+
+        if (target != null && !nodes.containsKey(target)) {
+            problems.add(node.getId() + " leads to unknown node " + target);
+        }
+    }
+
+    private Set<String> getReachable() {
+
+        Set<String> reachable = new HashSet<String>();
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.add(startNode);
+        while (!pending.isEmpty()) {
+            String id = pending.poll();
+            if (id == null || !reachable.add(id)) {
+                continue;
+            }
+            DialogNode node = nodes.get(id);
+            if (node.getNext() != null) {
+                pending.add(node.getNext());
+            }
+            for (String[] answer : node.getAnswers().values()) {
+                pending.add(answer[1]);
+            }
+            pending.addAll(node.getEvents().values());
+        }
+        return reachable;
+    }
+
+    static void checkId(String id) {
+
+        if (id == null || !ID_PATTERN.matcher(id).matches()) {
+            throw new IllegalArgumentException("Ids may only contain letters, digits, '_', '.' and '-': " + id);
+        }
+    }
+
+    static String getAnswerURL(String path, String node, String answerId) {
+
+        return getNodeURL(path, node) + "&" + ANSWER_PARAM + "=" + answerId;
+    }
+
+    static String getEventURL(String path, String node, EventType eventType) {
+
+        return getNodeURL(path, node) + "&" + EVENT_PARAM + "=" + eventType.name();
+    }
+
+    private static String getNodeURL(String path, String node) {
+
+        return path + (path.indexOf('?') < 0 ? "?" : "&") + NODE_PARAM + "=" + node;
+    }
+}
@@ -0,0 +1,342 @@
+package com.askfast.askfastapi.flow;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.askfast.askfastapi.model.Answer;
+import com.askfast.askfastapi.model.EventCallback;
+import com.askfast.askfastapi.model.MediaProperty;
+import com.askfast.askfastapi.model.MediaProperty.MediaPropertyKey;
+import com.askfast.askfastapi.model.MediaProperty.MediumType;
+import com.askfast.askfastapi.model.Question;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Loads the {@link DialogFlow}s of a directory, one per json file, and
+ * reloads them when the files change, so the text of a dialog can be changed
+ * without a redeploy. A file holds the questions of a flow in the
+ * {@link Question} format, where the callbacks of the answers and events are
+ * the ids of the next questions:
+ *
+ * <pre>
+ * {"path": "/party",
+ *  "questions": [
+ *   {"question_id": "start", "type": "closed", "question_text": "Are you coming?",
+ *    "answers": [{"answer_id": "yes", "answer_text": "Yup", "callback": "thanks"}],
+ *    "event_callbacks": [{"event": "timeout", "callback": "start"}]},
+ *   {"question_id": "thanks", "type": "comment", "question_text": "Thanks!"}]}
+ * </pre>
+ *
+ * The first question is where the dialog starts, unless a "start" is given.
+ * The path defaults to /name, for a file name.json. An open question, comment,
+ * referral or conference continues with the callback of its first answer. <br>
+ * A flow is compiled when its file changed, on the thread that reloads, and
+ * swapped in as a whole; requests keep rendering the previous version in the
+ * meantime. A file that doesn't compile keeps the previous version of its
+ * flow, see {@link #getErrors()}.
+ */
+public class DialogFlowLoader implements Closeable {
+
+    private static final Logger log = Logger.getLogger(DialogFlowLoader.class.getName());
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String EXTENSION = ".json";
+
+    /**
+     * How long the directory must be unchanged before a reload, so a file
+     * that is being written is read once it's complete
+     */
+    public static final long SETTLE_MILLIS = 200;
+
+    private final Path directory;
+    private final Map<String, byte[]> contents = new HashMap<String, byte[]>();
+    private volatile Map<String, DialogRouter> routers = Collections.emptyMap();
+    private volatile Map<String, String> errors = Collections.emptyMap();
+    private volatile long version;
+    private WatchService watchService;
+    private Thread watcher;
+
+    /**
+     * @param directory
+     *            The directory with the json files
+     */
+    public DialogFlowLoader(File directory) {
+        this.directory = directory.toPath();
+    }
+
+    /**
+     * Loads the flows and reloads them whenever a file in the directory
+     * changes, on a daemon thread
+     *
+     * @throws IOException
+     *             The directory can't be read or watched
+     */
+    public synchronized void start() throws IOException {
+
+        if (watcher != null) {
+            throw new IllegalStateException("The loader is started already");
+        }
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+        reload();
+        final WatchService watchService = this.watchService;
+        watcher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                watch(watchService);
+            }
+        }, "askfast-flow-loader");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stops watching the directory. The loaded flows stay available.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+
+        if (watchService != null) {
+            watchService.close();
+            watcher.interrupt();
+            watchService = null;
+            watcher = null;
+        }
+    }
+
+    /**
+     * Compiles the flows of the files that changed since the last reload, and
+     * drops the flows of removed files
+     *
+     * @return The number of flows that were swapped in or dropped
+     * @throws IOException
+     *             The directory can't be listed
+     */
+    public synchronized int reload() throws IOException {
+
+        Map<String, byte[]> found = new HashMap<String, byte[]>();
+        Set<String> unreadable = new HashSet<String>();
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION);
+        try {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                name = name.substring(0, name.length() - EXTENSION.length());
+                try {
+                    found.put(name, Files.readAllBytes(file));
+                }
+                catch (IOException e) {
+                    // removed while listing, or not readable yet; the flow stays until the next event retries
+                    log.log(Level.FINE, "Skipping " + file, e);
+                    unreadable.add(name);
+                }
+            }
+        }
+        finally {
+            files.close();
+        }
+
+        Map<String, DialogRouter> newRouters = new HashMap<String, DialogRouter>(routers);
+        Map<String, String> newErrors = new HashMap<String, String>(errors);
+        int changed = 0;
+        for (Map.Entry<String, byte[]> file : found.entrySet()) {
+            String name = file.getKey();
+            if (Arrays.equals(file.getValue(), contents.get(name))) {
+                continue;
+            }
+            contents.put(name, file.getValue());
+            try {
+                newRouters.put(name, parse(name, file.getValue()).compile());
+                newErrors.remove(name);
+                changed++;
+            }
+            catch (Exception e) {
+                log.warning("Keeping the previous version of dialog flow " + name + ": " + e.getMessage());
+                newErrors.put(name, String.valueOf(e.getMessage()));
+            }
+        }
+        for (String name : new ArrayList<String>(contents.keySet())) {
+            if (!found.containsKey(name) && !unreadable.contains(name)) {
+                contents.remove(name);
+                newErrors.remove(name);
+                if (newRouters.remove(name) != null) {
+                    changed++;
+                }
+            }
+        }
+        routers = Collections.unmodifiableMap(newRouters);
+        errors = Collections.unmodifiableMap(newErrors);
+        if (changed > 0) {
+            version++;
+        }
+        return changed;
+    }
+
+    /**
+     * @param name
+     *            The file name of the flow, without .json
+     * @return The current version of the flow, or null
+     */
+    public DialogRouter getRouter(String name) {
+
+        return routers.get(name);
+    }
+
+    /**
+     * @return The current flows by name, a snapshot that doesn't change with
+     *         later reloads
+     */
+    public Map<String, DialogRouter> getRouters() {
+
+        return routers;
+    }
+
+    /**
+     * @return Why the current file of a flow failed to compile, by name
+     */
+    public Map<String, String> getErrors() {
+
+        return errors;
+    }
+
+    /**
+     * @return The number of reloads that changed a flow
+     */
+    public long getVersion() {
+
+        return version;
+    }
+
+    /**
+     * Reads a flow from the json of a file
+     *
+     * @param name
+     *            The name of the flow, the default path
+     * @param json
+     *            The contents of the file
+     * @return The flow, to be compiled
+     * @throws IOException
+     *             The json can't be read as a flow
+     */
+    static DialogFlow parse(String name, byte[] json) throws IOException {
+
+        JsonNode tree = MAPPER.readTree(json);
+        if (tree == null || !tree.path("questions").isArray()) {
+            throw new IOException("A dialog flow needs a list of questions");
+        }
+        DialogFlow flow = new DialogFlow(tree.path("path").asText("/" + name));
+        for (JsonNode node : tree.get("questions")) {
+            addNode(flow, MAPPER.treeToValue(node, Question.class));
+        }
+        if (tree.hasNonNull("start")) {
+            flow.setStartNode(tree.get("start").asText());
+        }
+        return flow;
+    }
+
+    private static void addNode(DialogFlow flow, Question question) throws IOException {
+
+        String id = question.getQuestion_id();
+        String type = question.getType();
+        String text = question.getQuestion_text();
+        List<Answer> answers = question.getAnswers() != null ? question.getAnswers() : new ArrayList<Answer>();
+        DialogNode node;
+        if (Question.QUESTION_TYPE_CLOSED.equals(type)) {
+            node = flow.ask(id, text);
+            for (Answer answer : answers) {
+                node.addAnswer(answer.getAnswer_id(), answer.getAnswer_text(), answer.getCallback());
+            }
+            answers = Collections.emptyList();
+        }
+        else if (Question.QUESTION_TYPE_OPEN.equals(type)) {
+            node = flow.ask(id, text);
+        }
+        else if (Question.QUESTION_TYPE_VOICE_RECORDING.equals(type)) {
+            node = flow.ask(id, text).addMediaProperty(MediumType.BROADSOFT, MediaPropertyKey.TYPE,
+                Question.QUESTION_TYPE_VOICE_RECORDING);
+        }
+        else if (Question.QUESTION_TYPE_COMMENT.equals(type)) {
+            node = flow.say(id, text);
+        }
+        else if (Question.QUESTION_TYPE_REFERRAL.equals(type)) {
+            if (question.getUrl() == null || question.getUrl().isEmpty()) {
+                throw new IOException("Referral " + id + " has no url");
+            }
+            node = flow.redirect(id, question.getUrl(), text);
+        }
+        else if (Question.QUESTION_TYPE_CONFERENCE.equals(type)) {
+            node = flow.conference(id, text);
+        }
+        else if (Question.QUESTION_TYPE_EXIT.equals(type)) {
+            node = flow.exit(id, text);
+        }
+        else {
+            throw new IOException("Question " + id + " has an unsupported type: " + type);
+        }
+        if (!answers.isEmpty()) {
+            node.next(answers.get(0).getCallback());
+        }
+        if (question.getEvent_callbacks() != null) {
+            for (EventCallback event : question.getEvent_callbacks()) {
+                node.addEvent(event.getEvent(), event.getCallback());
+            }
+        }
+        if (question.getMediaProperties() != null) {
+            for (MediaProperty mediaProperty : question.getMediaProperties()) {
+                for (Map.Entry<MediaPropertyKey, String> property : mediaProperty.getProperties().entrySet()) {
+                    node.addMediaProperty(mediaProperty.getMedium(), property.getKey(), property.getValue());
+                }
+            }
+        }
+    }
+
+    private void watch(WatchService watchService) {
+
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                // wait until the directory is quiet, editors write in steps
+                do {
+                    key.pollEvents();
+                    if (!key.reset()) {
+                        log.warning("Stopped watching " + directory + ", it is no longer accessible");
+                        return;
+                    }
+                }
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+                try {
+                    reload();
+                }
+                catch (IOException e) {
+                    log.log(Level.WARNING, "Reloading the dialog flows of " + directory + " failed", e);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+}
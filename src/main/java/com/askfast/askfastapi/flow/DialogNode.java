@@ -0,0 +1,193 @@
+package com.askfast.askfastapi.flow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.askfast.askfastapi.AskFast;
+import com.askfast.askfastapi.model.EventPost.EventType;
+import com.askfast.askfastapi.model.MediaProperty.MediaPropertyKey;
+import com.askfast.askfastapi.model.MediaProperty.MediumType;
+
+/**
+ * A question in a {@link DialogFlow}. Created by the flow; the methods add the
+ * edges to the next nodes and return this node, so a node is declared in one
+ * statement:
+ *
+ * <pre>
+ * flow.ask("start", "Are you coming to my bday party?")
+ *     .addAnswer("yes", "Yup", "accepted")
+ *     .addAnswer("no", "Nope", "declined")
+ *     .addEvent(EventType.timeout, "start");
+ * </pre>
+ */
+public class DialogNode {
+
+    enum Type {
+        SAY, ASK, REDIRECT, CONFERENCE, EXIT
+    }
+
+    private final String id;
+    private final Type type;
+    private final String text;
+    private final List<String> addresses;
+    private final Map<String, String[]> answers = new LinkedHashMap<String, String[]>();
+    private final Map<EventType, String> events = new EnumMap<EventType, String>(EventType.class);
+    private final List<Object[]> mediaProperties = new ArrayList<Object[]>();
+    private String next;
+
+    DialogNode(String id, Type type, String text, List<String> addresses) {
+        this.id = id;
+        this.type = type;
+        this.text = text;
+        this.addresses = addresses;
+    }
+
+    /**
+     * Adds an answer to a closed question
+     *
+     * @param answerId
+     *            Identifies the answer in the callback url, unique within the
+     *            node
+     * @param answer
+     *            Either a string value (TTS in case of a phonecall) or a url to
+     *            an audio file, which explains this answer
+     * @param target
+     *            The id of the node to continue with
+     * @return This node
+     */
+    public DialogNode addAnswer(String answerId, String answer, String target) {
+
+        if (type != Type.ASK) {
+            throw new IllegalStateException("Only questions have answers, node: " + id);
+        }
+        DialogFlow.checkId(answerId);
+        if (DialogFlow.NEXT.equals(answerId)) {
+            throw new IllegalArgumentException("The answerId " + DialogFlow.NEXT + " is reserved, node: " + id);
+        }
+        if (answers.containsKey(answerId)) {
+            throw new IllegalArgumentException("Duplicate answerId " + answerId + " in node: " + id);
+        }
+        answers.put(answerId, new String[] { answer, target });
+        return this;
+    }
+
+    /**
+     * Sets the node to continue with after a statement, an open question, a
+     * redirect or a conference
+     *
+     * @param target
+     *            The id of the next node
+     * @return This node
+     */
+    public DialogNode next(String target) {
+
+        if (type == Type.EXIT) {
+            throw new IllegalStateException("An exit has no next node, node: " + id);
+        }
+        next = target;
+        return this;
+    }
+
+    /**
+     * Adds an event callback
+     *
+     * @param eventType
+     *            Type of the event
+     * @param target
+     *            The id of the node rendered as the response to the event
+     * @return This node
+     */
+    public DialogNode addEvent(EventType eventType, String target) {
+
+        events.put(eventType, target);
+        return this;
+    }
+
+    /**
+     * Adds a communication channel specific property, see
+     * {@link AskFast#addMediaProperty(MediumType, MediaPropertyKey, String)}
+     *
+     * @return This node
+     */
+    public DialogNode addMediaProperty(MediumType mediumType, MediaPropertyKey propertyKey, String value) {
+
+        mediaProperties.add(new Object[] { mediumType, propertyKey, value });
+        return this;
+    }
+
+    public String getId() {
+
+        return id;
+    }
+
+    Type getType() {
+
+        return type;
+    }
+
+    String getNext() {
+
+        return next;
+    }
+
+    /**
+     * @return The answer text and target node per answerId, in declaration
+     *         order
+     */
+    Map<String, String[]> getAnswers() {
+
+        return Collections.unmodifiableMap(answers);
+    }
+
+    Map<EventType, String> getEvents() {
+
+        return Collections.unmodifiableMap(events);
+    }
+
+    /**
+     * Builds the question of this node
+     *
+     * @param askFast
+     *            A new instance to build the question in
+     * @param path
+     *            The path of the flow, to which the callbacks are sent
+     */
+    void apply(AskFast askFast, String path) {
+
+        String nextURL = next != null ? DialogFlow.getAnswerURL(path, id, DialogFlow.NEXT) : null;
+        switch (type) {
+            case SAY:
+                askFast.say(text, nextURL);
+                break;
+            case ASK:
+                if (answers.isEmpty()) {
+                    askFast.ask(text, nextURL);
+                }
+                else {
+                    askFast.ask(text, "");
+                    for (Map.Entry<String, String[]> answer : answers.entrySet()) {
+                        askFast.addAnswer(answer.getValue()[0], DialogFlow.getAnswerURL(path, id, answer.getKey()));
+                    }
+                }
+                break;
+            case REDIRECT:
+                askFast.redirect(addresses, text, nextURL, null);
+                break;
+            case CONFERENCE:
+                askFast.conference(text, nextURL);
+                break;
+            case EXIT:
+                askFast.exit(text);
+                break;
+        }
+        for (Map.Entry<EventType, String> event : events.entrySet()) {
+            askFast.addEvent(event.getKey(), DialogFlow.getEventURL(path, id, event.getKey()));
+        }
+        for (Object[] property : mediaProperties) {
+            askFast.addMediaProperty((MediumType) property[0], (MediaPropertyKey) property[1], (String) property[2]);
+        }
+    }
+}
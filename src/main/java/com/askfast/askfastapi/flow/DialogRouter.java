@@ -0,0 +1,240 @@
+package com.askfast.askfastapi.flow;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.askfast.askfastapi.AskFast;
+import com.askfast.askfastapi.model.EventPost.EventType;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * A compiled {@link DialogFlow}. Every node is linked to the nodes its answers
+ * and events lead to, so a callback is routed with a lookup of the node and
+ * one of the answer or event, whatever the size of the flow. The question of
+ * every node is serialized once; rendering only fills in the host of the
+ * request and a new question id. The answer ids are generated once per node,
+ * as they only need to be unique within the question. <br>
+ * A router is immutable and can be shared by all request threads.
+ */
+public class DialogRouter {
+
+    private static final String BASE_MARKER = "\u0001base\u0001";
+    private static final String ID_MARKER = "\u0001id\u0001";
+
+    private final String startNode;
+    private final Map<String, Route> routes;
+
+    DialogRouter(String path, String startNode, Collection<DialogNode> nodes) {
+        this.startNode = startNode;
+        this.routes = new HashMap<String, Route>(nodes.size() * 4 / 3 + 1);
+        for (DialogNode node : nodes) {
+            routes.put(node.getId(), new Route(node.getId(), compileTemplate(node, path)));
+        }
+        for (DialogNode node : nodes) {
+            Route route = routes.get(node.getId());
+            for (Map.Entry<String, String[]> answer : node.getAnswers().entrySet()) {
+                route.answers.put(answer.getKey(), routes.get(answer.getValue()[1]));
+            }
+            if (node.getNext() != null) {
+                route.answers.put(DialogFlow.NEXT, routes.get(node.getNext()));
+            }
+            for (Map.Entry<EventType, String> event : node.getEvents().entrySet()) {
+                route.events.put(event.getKey(), routes.get(event.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Responds to a callback of the flow with the question of the next node.
+     * Without a node parameter the dialog starts at the start node.
+     *
+     * @param req
+     *            A GET or POST to the path of the flow
+     * @param resp
+     *            Gets the question, or a 404 when the node, answer or event is
+     *            not part of the flow
+     * @return False if there was no node to render
+     * @throws IOException
+     *             Writing the response failed
+     */
+    public boolean handle(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+
+        Route target;
+        String node = req.getParameter(DialogFlow.NODE_PARAM);
+        if (node == null) {
+            target = routes.get(startNode);
+        }
+        else {
+            target = getTarget(routes.get(node), req.getParameter(DialogFlow.ANSWER_PARAM),
+                req.getParameter(DialogFlow.EVENT_PARAM));
+        }
+        if (target == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return false;
+        }
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        PrintWriter writer = resp.getWriter();
+        writer.write(target.template.render(AskFast.getHost(req)));
+        writer.flush();
+        writer.close();
+        return true;
+    }
+
+    /**
+     * @param node
+     *            The node that was answered
+     * @param answerId
+     *            The answerId, or {@link DialogFlow#NEXT}
+     * @return The id of the node the answer leads to, or null
+     */
+    public String route(String node, String answerId) {
+
+        Route target = getTarget(routes.get(node), answerId, null);
+        return target != null ? target.id : null;
+    }
+
+    /**
+     * @param node
+     *            The node the event happened in
+     * @param eventType
+     *            The type of the event
+     * @return The id of the node the event leads to, or null
+     */
+    public String routeEvent(String node, EventType eventType) {
+
+        Route route = routes.get(node);
+        Route target = route != null ? route.events.get(eventType) : null;
+        return target != null ? target.id : null;
+    }
+
+    /**
+     * @param node
+     *            The node to render
+     * @param baseURL
+     *            The host prefixed to relative urls, or null
+     * @return The question JSON with a new question id, or null for an
+     *         unknown node
+     */
+    public String render(String node, String baseURL) {
+
+        Route route = routes.get(node);
+        return route != null ? route.template.render(baseURL) : null;
+    }
+
+    public String getStartNode() {
+
+        return startNode;
+    }
+
+    public int size() {
+
+        return routes.size();
+    }
+
+    private static Route getTarget(Route route, String answerId, String event) {
+
+        if (route == null) {
+            return null;
+        }
+        if (event == null) {
+            return answerId != null ? route.answers.get(answerId) : null;
+        }
+        try {
+            return route.events.get(EventType.valueOf(event));
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Template compileTemplate(DialogNode node, String path) {
+
+        AskFast askFast = new AskFast(BASE_MARKER);
+        askFast.getQuestion().setQuestion_id(ID_MARKER);
+        node.apply(askFast, path);
+        return new Template(askFast.render());
+    }
+
+    private static String quote(String value) {
+
+        return new String(JsonStringEncoder.getInstance().quoteAsString(value));
+    }
+
+    private static class Route {
+
+        private final String id;
+        private final Template template;
+        private final Map<String, Route> answers = new HashMap<String, Route>();
+        private final Map<EventType, Route> events = new EnumMap<EventType, Route>(EventType.class);
+
+        Route(String id, Template template) {
+            this.id = id;
+            this.template = template;
+        }
+    }
+
+    /**
+     * The serialized question of a node, split where the baseURL and the
+     * question id go
+     */
+    private static class Template {
+
+        private static final String QUOTED_BASE = quote(BASE_MARKER);
+        private static final String QUOTED_ID = quote(ID_MARKER);
+
+        private final String[] fragments;
+        /** Per gap between the fragments, true for the baseURL, false for the id */
+        private final boolean[] bases;
+        private final int length;
+
+        Template(String json) {
+            List<String> fragments = new ArrayList<String>();
+            List<Boolean> bases = new ArrayList<Boolean>();
+            int start = 0;
+            while (true) {
+                int base = json.indexOf(QUOTED_BASE, start);
+                int id = json.indexOf(QUOTED_ID, start);
+                if (base < 0 && id < 0) {
+                    break;
+                }
+                boolean isBase = id < 0 || (base >= 0 && base < id);
+                int end = isBase ? base : id;
+                fragments.add(json.substring(start, end));
+                bases.add(isBase);
+                start = end + (isBase ? QUOTED_BASE : QUOTED_ID).length();
+            }
+            fragments.add(json.substring(start));
+            this.fragments = fragments.toArray(new String[fragments.size()]);
+            this.bases = new boolean[bases.size()];
+            int length = 0;
+            for (int index = 0; index < this.bases.length; index++) {
+                this.bases[index] = bases.get(index);
+            }
+            for (String fragment : this.fragments) {
+                length += fragment.length();
+            }
+            this.length = length;
+        }
+
+        String render(String baseURL) {
+
+            String base = baseURL != null ? quote(baseURL) : "";
+            String id = UUID.randomUUID().toString();
+            StringBuilder json = new StringBuilder(length + bases.length * Math.max(base.length(), id.length()));
+            json.append(fragments[0]);
+            for (int index = 0; index < bases.length; index++) {
+                json.append(bases[index] ? base : id).append(fragments[index + 1]);
+            }
+            return json.toString();
+        }
+    }
+}
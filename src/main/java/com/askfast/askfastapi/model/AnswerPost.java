@@ -3,12 +3,15 @@ package com.askfast.askfastapi.model;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.servlet.http.HttpServletRequest;
 import com.askfast.model.ModelBase;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class AnswerPost extends ModelBase {
 
+    private static final Logger log = Logger.getLogger(AnswerPost.class.getName());
+
     String dialog_id;
     String question_id;
     String answer_id;
@@ -21,15 +24,21 @@ public class AnswerPost extends ModelBase {
     public AnswerPost() {
     }
 
+    /**
+     * @param req
+     *            A POST to an answer callback
+     * @return The answer, or null if the body can't be read. To tell answers
+     *         and events apart, use {@link DialogCallback#read(InputStream)}
+     */
     public static AnswerPost createInstance(HttpServletRequest req) {
 
         AnswerPost ap = null;
         try {
             InputStream is = req.getInputStream();
-            ObjectMapper om = new ObjectMapper();
-            ap = om.readValue(is, AnswerPost.class);
+            ap = DialogCallback.READER.readValue(is, AnswerPost.class);
         }
         catch (Exception e) {
+            log.log(Level.WARNING, "Reading the answer failed", e);
         }
         return ap;
     }
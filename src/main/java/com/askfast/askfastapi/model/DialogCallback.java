@@ -0,0 +1,121 @@
+package com.askfast.askfastapi.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import com.askfast.askfastapi.model.EventPost.EventType;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The body POSTed to a dialog callback, parsed once: either an
+ * {@link AnswerPost} to an answer callback, or an {@link EventPost} to an
+ * event callback.
+ */
+public class DialogCallback {
+
+    /**
+     * Shared by all callbacks. Unknown properties are ignored, so a field
+     * added to the posts doesn't break the parsing
+     */
+    static final ObjectMapper READER = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final AnswerPost answer;
+    private final EventPost event;
+    private final EventType eventType;
+
+    private DialogCallback(AnswerPost answer, EventPost event) {
+        this.answer = answer;
+        this.event = event;
+        this.eventType = event != null ? getEventType(event.getEvent()) : null;
+    }
+
+    /**
+     * @param in
+     *            The body of the callback
+     * @return The callback, or null for an empty body
+     * @throws IOException
+     *             The body can't be read, or isn't a JSON object
+     */
+    public static DialogCallback read(InputStream in) throws IOException {
+
+        JsonParser parser = READER.getFactory().createParser(in);
+        JsonNode body;
+        try {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+            body = READER.readTree(parser);
+        }
+        finally {
+            parser.close();
+        }
+        if (body == null || !body.isObject()) {
+            throw new JsonMappingException("A dialog callback must be a JSON object");
+        }
+        if (body.has("event")) {
+            return new DialogCallback(null, READER.treeToValue(body, EventPost.class));
+        }
+        return new DialogCallback(READER.treeToValue(body, AnswerPost.class), null);
+    }
+
+    /**
+     * @param event
+     *            The event of an {@link EventPost}
+     * @return The type, or null if it is unknown
+     */
+    public static EventType getEventType(String event) {
+
+        if (event == null) {
+            return null;
+        }
+        try {
+            return EventType.valueOf(event);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public boolean isEvent() {
+
+        return event != null;
+    }
+
+    /**
+     * @return The answer, or null for an event
+     */
+    public AnswerPost getAnswer() {
+
+        return answer;
+    }
+
+    /**
+     * @return The event, or null for an answer
+     */
+    public EventPost getEvent() {
+
+        return event;
+    }
+
+    /**
+     * @return The type of the event, or null for an answer or an unknown event
+     */
+    public EventType getEventType() {
+
+        return eventType;
+    }
+
+    public String getQuestionId() {
+
+        return answer != null ? answer.getQuestion_id() : event.getQuestion_id();
+    }
+
+    public String getResponder() {
+
+        return answer != null ? answer.getResponder() : event.getResponder();
+    }
+}
@@ -1,6 +1,10 @@
 
 package com.askfast.askfastapi.model;
 
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
 import com.askfast.model.ModelBase;
 
 
@@ -8,6 +12,7 @@ import com.askfast.model.ModelBase;
 
 public class EventPost extends ModelBase
 {
+    private static final Logger log = Logger.getLogger( EventPost.class.getName() );
 
     private String responder;
     private String question_id;
@@ -34,6 +39,26 @@ public class EventPost extends ModelBase
         this.extras = extras;
     }
 
+    /**
+     * @param req
+     *            A POST to an event callback
+     * @return The event, or null if the body can't be read
+     */
+    public static EventPost createInstance( HttpServletRequest req )
+    {
+        EventPost ep = null;
+        try
+        {
+            InputStream is = req.getInputStream();
+            ep = DialogCallback.READER.readValue( is, EventPost.class );
+        }
+        catch ( Exception e )
+        {
+            log.log( Level.WARNING, "Reading the event failed", e );
+        }
+        return ep;
+    }
+
     public String getResponder()
     {
         return responder;
@@ -47,6 +47,34 @@ public class Question extends ModelBase{
 		this.event_callbacks = new ArrayList<EventCallback>();
 	}
 	
+	/**
+	 * Clears this question so it can be reused for another response, keeping
+	 * the allocated answer and event callback lists
+	 * 
+	 * @param id
+	 *            The id of the new question
+	 */
+	public void reset(String id) {
+		this.setQuestion_id(id);
+		this.setQuestion_text("");
+		this.setType("");
+		this.url = null;
+		this.media_properties = null;
+		this.preferred_language = "nl";
+		if (this.answers != null) {
+			this.answers.clear();
+		}
+		else {
+			this.answers = new ArrayList<Answer>();
+		}
+		if (this.event_callbacks != null) {
+			this.event_callbacks.clear();
+		}
+		else {
+			this.event_callbacks = new ArrayList<EventCallback>();
+		}
+	}
+	
 	public void addAnswer(Answer answer) {
 		this.answers.add(answer);
 	}
@@ -0,0 +1,63 @@
+package com.askfast.askfastapi.util;
+
+/**
+ * The 64 bit string hashes shared by the in-memory indexes, sketches and
+ * deduplicators: FNV-1a over the chars of a string, and the MurmurHash3
+ * finalizer to mix the bits when all of them have to depend on all chars,
+ * e.g. when the high or low bits are used as an index.
+ */
+public final class Hashing {
+
+    public static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    public static final long FNV_PRIME = 0x100000001b3L;
+
+    private Hashing() {
+    }
+
+    /**
+     * @return 64 bit FNV-1a over the chars of the string
+     */
+    public static long fnv1a(String value) {
+
+        return fnv1a(FNV_OFFSET, value);
+    }
+
+    /**
+     * Continues an FNV-1a hash over the chars of the string
+     *
+     * @param hash
+     *            The hash so far, or {@link #FNV_OFFSET}
+     * @param value
+     *            The string to add
+     * @return The hash including the string
+     */
+    public static long fnv1a(long hash, String value) {
+
+        for (int index = 0; index < value.length(); index++) {
+            hash = fnv1a(hash, value.charAt(index));
+        }
+        return hash;
+    }
+
+    /**
+     * Continues an FNV-1a hash with a single value, e.g. a char or a
+     * separator
+     */
+    public static long fnv1a(long hash, int value) {
+
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * @return The hash with its bits mixed by the MurmurHash3 finalizer
+     */
+    public static long mix(long hash) {
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,336 @@
+package com.askfast.askfastapi.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+/**
+ * Downloads binary files, e.g. the audio of recordings, straight to disk. <br>
+ * Unlike {@link HttpUtil#get(String)} the body is never turned into a String
+ * or held in memory: the response stream is transferred into a FileChannel
+ * with {@link FileChannel#transferFrom}. A download is written to a
+ * {@code .part} file next to the target, which is moved into place once the
+ * body is complete. When a {@code .part} file is left behind by an
+ * interrupted download, the next download of the same target asks the server
+ * for the missing bytes only with a Range request. Servers that ignore the
+ * range are read from the start again, and so is a {@code .part} file that
+ * the server rejects the range of without telling its total length. <br>
+ * {@link #downloadAll(Map, int)} downloads many files in parallel, with at
+ * most maxConcurrency downloads at a time.
+ */
+public class RecordingDownloader {
+
+    private static final Logger log = Logger.getLogger(RecordingDownloader.class.getName());
+
+    public static final String PART_SUFFIX = ".part";
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
+
+    private final OkHttpClient client;
+    private final Map<String, String> headers;
+
+    public RecordingDownloader() {
+        this(new OkHttpClient(), null);
+    }
+
+    /**
+     * @param client
+     *            The client performing the requests
+     * @param headers
+     *            Optional headers added to every request, e.g. an
+     *            Authorization header
+     */
+    public RecordingDownloader(OkHttpClient client, Map<String, String> headers) {
+        this.client = client;
+        this.headers = headers != null ? new HashMap<String, String>(headers) : new HashMap<String, String>();
+    }
+
+    /**
+     * Downloads the url to the target file. If the target exists already it
+     * is not downloaded again.
+     *
+     * @param url
+     *            The url of the file
+     * @param target
+     *            The file to store the body in
+     * @return The outcome of the download
+     * @throws IOException
+     *             Errors in connecting to the url, an unexpected response or
+     *             a body that ended early. The bytes received so far are kept
+     *             to resume from
+     */
+    public Download download(String url, File target) throws IOException {
+
+        if (target.isFile()) {
+            return new Download(url, target, target.length(), 0, null);
+        }
+        File part = new File(target.getPath() + PART_SUFFIX);
+        long offset = part.isFile() ? part.length() : 0;
+
+        Request.Builder builder = new Request.Builder().url(url);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        // byte ranges are only meaningful on the unencoded body
+        builder.header("Accept-Encoding", "identity");
+        if (offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
+        }
+        Response response = client.newCall(builder.build()).execute();
+        ResponseBody body = response.body();
+        boolean restart = false;
+        try {
+            if (offset > 0 && response.code() == 416) {
+                long total = parseContentRange(response.header("Content-Range"), 2);
+                if (total < 0) {
+                    // without the total it's unknown whether the part file is complete
+                    restart = true;
+                }
+                else if (total != offset) {
+                    throw new IOException("Can't resume " + url + ": " + offset + " bytes downloaded of " + total);
+                }
+            }
+            else if (offset > 0 && response.code() == 206) {
+                long start = parseContentRange(response.header("Content-Range"), 0);
+                if (start != offset) {
+                    throw new IOException("Can't resume " + url + ": asked for byte " + offset + ", received " +
+                        response.header("Content-Range"));
+                }
+                transfer(url, body, part, offset);
+            }
+            else if (response.code() == 200) {
+                offset = 0;
+                transfer(url, body, part, 0);
+            }
+            else {
+                throw new IOException("Download of " + url + " failed: " + response.code() + " " +
+                    response.message());
+            }
+        }
+        finally {
+            body.close();
+        }
+        if (restart) {
+            log.info("Downloading " + url + " again, the server didn't say how long it is");
+            Files.delete(part.toPath());
+            return download(url, target);
+        }
+        move(part, target);
+        return new Download(url, target, target.length(), offset, null);
+    }
+
+    /**
+     * Downloads the urls to their files, at most maxConcurrency at a time. A
+     * failed download doesn't stop the others; its error is in its
+     * {@link Download}.
+     *
+     * @param downloads
+     *            The target file per url
+     * @param maxConcurrency
+     *            The maximum number of simultaneous downloads
+     * @return The outcome per download, in the order of the map
+     * @throws InterruptedException
+     *             Interrupted while waiting for the downloads
+     */
+    public List<Download> downloadAll(Map<String, File> downloads, int maxConcurrency)
+        throws InterruptedException {
+
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        List<Download> result = new ArrayList<Download>(downloads.size());
+        if (downloads.isEmpty()) {
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrency, downloads.size()),
+            new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+
+                    Thread thread = new Thread(runnable, "askfast-download-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try {
+            List<Future<Download>> futures = new ArrayList<Future<Download>>(downloads.size());
+            for (final Map.Entry<String, File> entry : downloads.entrySet()) {
+                futures.add(executor.submit(new Callable<Download>() {
+
+                    @Override
+                    public Download call() {
+
+                        try {
+                            return download(entry.getKey(), entry.getValue());
+                        }
+                        catch (IOException e) {
+                            log.log(Level.WARNING, "Download of " + entry.getKey() + " failed", e);
+                            return new Download(entry.getKey(), entry.getValue(), 0, 0, e);
+                        }
+                    }
+                }));
+            }
+            for (Future<Download> future : futures) {
+                try {
+                    result.add(future.get());
+                }
+                catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return result;
+        }
+        finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Appends the body to the part file from the offset on. The transfer
+     * stops at the end of the body; a body shorter than its Content-Length
+     * fails, leaving the bytes received in the part file.
+     */
+    private void transfer(String url, ResponseBody body, File part, long offset) throws IOException {
+
+        long expected = body.contentLength();
+        ReadableByteChannel in = Channels.newChannel(body.byteStream());
+        FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            out.truncate(offset);
+            long position = offset;
+            long transferred;
+            while ((transferred = out.transferFrom(in, position, TRANSFER_CHUNK)) > 0) {
+                position += transferred;
+            }
+            out.force(false);
+            if (expected >= 0 && position - offset != expected) {
+                throw new IOException("Download of " + url + " ended after " + (position - offset) + " of " +
+                    expected + " bytes");
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void move(File part, File target) throws IOException {
+
+        try {
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @param contentRange
+     *            A Content-Range header: {@code bytes start-end/total}, or
+     *            with an asterisk instead of the range on a 416 response
+     * @param field
+     *            0 for the start, 2 for the total
+     * @return The field, or -1 when it is missing or unknown
+     */
+    static long parseContentRange(String contentRange, int field) {
+
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        String[] parts = contentRange.substring("bytes ".length()).trim().split("[-/]");
+        String value = field == 2 ? parts[parts.length - 1] : parts[0];
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The outcome of a download
+     */
+    public static class Download {
+
+        private final String url;
+        private final File file;
+        private final long length;
+        private final long resumedFrom;
+        private final IOException error;
+
+        Download(String url, File file, long length, long resumedFrom, IOException error) {
+            this.url = url;
+            this.file = file;
+            this.length = length;
+            this.resumedFrom = resumedFrom;
+            this.error = error;
+        }
+
+        public String getUrl() {
+
+            return url;
+        }
+
+        public File getFile() {
+
+            return file;
+        }
+
+        /**
+         * @return The length of the downloaded file
+         */
+        public long getLength() {
+
+            return length;
+        }
+
+        /**
+         * @return The number of bytes that were already downloaded by an
+         *         earlier attempt, 0 when the download started from scratch
+         */
+        public long getResumedFrom() {
+
+            return resumedFrom;
+        }
+
+        /**
+         * @return The error of a failed download, or null
+         */
+        public IOException getError() {
+
+            return error;
+        }
+
+        public boolean isSuccessful() {
+
+            return error == null;
+        }
+    }
+}
@@ -18,9 +18,17 @@ import retrofit.http.POST;
 import retrofit.http.PUT;
 import retrofit.http.Path;
 import retrofit.http.Query;
+import retrofit.http.Streaming;
 
 public interface AskFastRestService {
 
+    /**
+     * The path of the audio of a recording. The platform serves the audio of
+     * every recording as wav on this path, whatever the filename or
+     * contentType of the recording says
+     */
+    public static final String RECORDING_AUDIO_PATH = "/account/{accountId}/recording/{recordingId}.wav";
+
     // Starting a dialog
     @POST("/startDialog")
     public Result startDialog(@Body DialogRequest req);
@@ -29,6 +37,13 @@ public interface AskFastRestService {
     @GET("/adapter")
     public Set<Adapter> getAdapters(@Query("type") String type);
 
+    /**
+     * {@link #getAdapters(String)} without converting the body, for a
+     * {@link ConditionalClient}
+     */
+    @GET("/adapter")
+    public Response fetchAdapters(@Query("type") String type);
+
     // Adapter calls        
     @GET("/adapter/{adapterId}")
     public Adapter getAdapter(@Path("adapterId") String adapterId);
@@ -49,6 +64,13 @@ public interface AskFastRestService {
     @GET("/dialog")
     public Set<Dialog> getDialogs();
 
+    /**
+     * {@link #getDialogs()} without converting the body, for a
+     * {@link ConditionalClient}
+     */
+    @GET("/dialog")
+    public Response fetchDialogs();
+
     @GET("/dialog/{dialogId}")
     public Dialog getDialog(@Path("dialogId") String dialogId);
 
@@ -81,6 +103,17 @@ public interface AskFastRestService {
     @GET("/account/{accountId}/recording")
     public List<Recording> getRecordings(@Path("accountId") String accountId);
 
+    /**
+     * {@link #getRecordings(String)} without converting the body, for a
+     * {@link ConditionalClient}
+     */
+    @GET("/account/{accountId}/recording")
+    public Response fetchRecordings(@Path("accountId") String accountId);
+
+    @Streaming
+    @GET(RECORDING_AUDIO_PATH)
+    public Response getRecordingAudio(@Path("accountId") String accountId, @Path("recordingId") String recordingId);
+
     // ----------------------------------------------DDR calls ----------------------------------------------
     /**
      * Returns a list of {@link DDRRecord DDRRecords} based on the give
@@ -124,6 +157,53 @@ public interface AskFastRestService {
         @Query("shouldGenerateCosts") Boolean shouldGenerateCosts,
         @Query("shouldIncludeServiceCosts") Boolean shouldIncludeServiceCosts);
 
+    /**
+     * Same as
+     * {@link #getDDRRecords(String, String, String, String, String, Long, Long, String, Integer, Integer, Boolean, Boolean)}
+     * , but returns the raw response without reading its body into memory, so
+     * it can be parsed incrementally with
+     * {@link JacksonConverter#readValues(java.io.InputStream, Class, RecordHandler)}
+     * . Make sure to close the body stream.
+     * 
+     * @param delimitedAdapterIds
+     *            The list of adapterIds for which ddrRecords must be fetched
+     * @param delimitedAdapterTypes
+     *            Fetch ddrRecords based on the channel used
+     * @param fromAddress
+     *            Fetch ddrRecords based on the fromAddress
+     * @param typeId
+     *            Fetch ddrRecords based on the type of cost attached. E.g.
+     *            incoming, outgoing, tts processing etc
+     * @param status
+     *            Fetch ddrRecords based on the status of the communication
+     * @param startTime
+     *            Fetch ddrRecords based on a date range
+     * @param endTime
+     *            Fetch ddrRecords based on a date range
+     * @param delimitedSessionKeys
+     *            Fetch ddrRecords based on the sessionKeys generated per
+     *            communication address.
+     * @param offset
+     *            Skip the given number of ddrRecords
+     * @param limit
+     *            Limit the fetch
+     * @param shouldGenerateCosts
+     *            Force recalculating the costs for the communication or event
+     * @param shouldIncludeServiceCosts
+     *            Force recalculating the service costs for the communication or
+     *            event
+     * @return The response with a streaming body
+     */
+    @Streaming
+    @GET("/ddr")
+    public Response streamDDRRecords(@Query("adapterIds") String delimitedAdapterIds,
+        @Query("adapterTypes") String delimitedAdapterTypes, @Query("fromAddress") String fromAddress,
+        @Query("typeId") String typeId, @Query("status") String status, @Query("startTime") Long startTime,
+        @Query("endTime") Long endTime, @Query("sessionKeys") String delimitedSessionKeys,
+        @Query("offset") Integer offset, @Query("limit") Integer limit,
+        @Query("shouldGenerateCosts") Boolean shouldGenerateCosts,
+        @Query("shouldIncludeServiceCosts") Boolean shouldIncludeServiceCosts);
+
     /**
      * A faster fetch of the aggregation of all quantities in the
      * {@link DDRRecord#getQuantity()} based on the filtering criteria given
@@ -0,0 +1,285 @@
+package com.askfast.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import retrofit.RetrofitError;
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedInput;
+
+/**
+ * A Retrofit {@link Client} that turns repeated GET requests into conditional
+ * requests. For every url it remembers the body and the validators
+ * ({@code ETag} and {@code Last-Modified}) of the last response and sends the
+ * validators as {@code If-None-Match} and {@code If-Modified-Since}. A
+ * {@code 304 Not Modified} answer is handed to Retrofit as a {@code 200} with
+ * the earlier body, linked to the object parsed from it. <br>
+ * When the server doesn't send validators, a digest of the response body is
+ * compared with the previous one, and an identical body is linked to the
+ * earlier object too. <br>
+ * Retrofit wraps a body before handing it to the {@link Converter}, so the
+ * link is only seen by {@link #convert(Response, Type, Converter)}: declare
+ * the call with a {@link Response} return type and convert the response with
+ * it, which returns the earlier object without parsing anything. Calls that
+ * are converted by Retrofit are parsed as usual. <br>
+ * The parsed objects are shared between calls, so they should not be
+ * modified.
+ */
+public class ConditionalClient implements Client {
+
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    private final Client delegate;
+    private final ConcurrentMap<String, Validators> validators = new ConcurrentHashMap<String, Validators>();
+    private final AtomicLong notModifiedCount = new AtomicLong();
+    private final AtomicLong unchangedBodyCount = new AtomicLong();
+    private final AtomicLong changedBodyCount = new AtomicLong();
+
+    /**
+     * @param delegate
+     *            The client performing the actual HTTP requests
+     */
+    public ConditionalClient(Client delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+
+        if (!"GET".equals(request.getMethod())) {
+            return delegate.execute(request);
+        }
+
+        String url = request.getUrl();
+        Validators known = validators.get(url);
+        if (known != null) {
+            List<Header> headers = new ArrayList<Header>(request.getHeaders());
+            if (known.etag != null) {
+                headers.add(new Header("If-None-Match", known.etag));
+            }
+            if (known.lastModified != null) {
+                headers.add(new Header("If-Modified-Since", known.lastModified));
+            }
+            request = new Request(request.getMethod(), url, headers, request.getBody());
+        }
+
+        Response response = delegate.execute(request);
+        if (response.getStatus() == 304 && known != null) {
+            notModifiedCount.incrementAndGet();
+            return new Response(response.getUrl(), 200, "OK", response.getHeaders(),
+                new ValidatedTypedInput(known.mimeType, known.bytes, known));
+        }
+        if (response.getStatus() < 200 || response.getStatus() >= 300 || response.getBody() == null) {
+            return response;
+        }
+
+        TypedInput body = response.getBody();
+        byte[] bytes = readBytes(body);
+        byte[] digest = digest(bytes);
+        if (known != null && Arrays.equals(known.digest, digest)) {
+            unchangedBodyCount.incrementAndGet();
+            return new Response(response.getUrl(), response.getStatus(), response.getReason(), response.getHeaders(),
+                new ValidatedTypedInput(body.mimeType(), bytes, known));
+        }
+
+        changedBodyCount.incrementAndGet();
+        Validators updated = new Validators(getHeader(response, "ETag"), getHeader(response, "Last-Modified"),
+            body.mimeType(), bytes, digest);
+        validators.put(url, updated);
+        return new Response(response.getUrl(), response.getStatus(), response.getReason(), response.getHeaders(),
+            new ValidatedTypedInput(body.mimeType(), bytes, updated));
+    }
+
+    /**
+     * Converts the body of a response of this client, reusing the object
+     * parsed from an earlier identical response
+     *
+     * @param response
+     *            A response returned by a call with a {@link Response} return
+     *            type
+     * @param type
+     *            The type to convert the body to
+     * @param converter
+     *            Parses a body that wasn't parsed before
+     * @return The converted body
+     * @throws RetrofitError
+     *             The body couldn't be converted
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T convert(Response response, Type type, Converter converter) {
+
+        TypedInput body = response.getBody();
+        try {
+            if (!(body instanceof ValidatedTypedInput)) {
+                return (T) converter.fromBody(body, type);
+            }
+            ValidatedTypedInput validatedBody = (ValidatedTypedInput) body;
+            Object value = validatedBody.getCachedValue(type);
+            if (value == null) {
+                value = converter.fromBody(validatedBody, type);
+                validatedBody.cacheValue(type, value);
+            }
+            return (T) value;
+        }
+        catch (ConversionException e) {
+            throw RetrofitError.conversionError(response.getUrl(), response, converter, type, e);
+        }
+    }
+
+    /**
+     * Forgets all validators and parsed objects, so the next requests are
+     * unconditional.
+     */
+    public void clear() {
+
+        validators.clear();
+    }
+
+    /**
+     * @return Number of requests answered with a {@code 304 Not Modified}
+     */
+    public long getNotModifiedCount() {
+
+        return notModifiedCount.get();
+    }
+
+    /**
+     * @return Number of responses whose body was identical to the previous one
+     */
+    public long getUnchangedBodyCount() {
+
+        return unchangedBodyCount.get();
+    }
+
+    /**
+     * @return Number of responses which had to be parsed
+     */
+    public long getChangedBodyCount() {
+
+        return changedBodyCount.get();
+    }
+
+    private static String getHeader(Response response, String name) {
+
+        for (Header header : response.getHeaders()) {
+            if (header.getName() != null && header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readBytes(TypedInput body) throws IOException {
+
+        if (body instanceof TypedByteArray) {
+            return ((TypedByteArray) body).getBytes();
+        }
+        InputStream in = body.in();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length() > 0 ? (int) body.length() : 4096);
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1;) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static byte[] digest(byte[] bytes) {
+
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM).digest(bytes);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * The validators and body of the last response for a url, and the object
+     * that was parsed from it.
+     */
+    static class Validators {
+
+        final String etag;
+        final String lastModified;
+        final String mimeType;
+        /** Handed out again on a 304, for calls that are converted by Retrofit */
+        final byte[] bytes;
+        final byte[] digest;
+        private volatile ParsedValue parsedValue;
+
+        Validators(String etag, String lastModified, String mimeType, byte[] bytes, byte[] digest) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.mimeType = mimeType;
+            this.bytes = bytes;
+            this.digest = digest;
+        }
+
+        Object getValue(Type type) {
+
+            ParsedValue value = parsedValue;
+            return value != null && value.type.equals(type) ? value.value : null;
+        }
+
+        void setValue(Type type, Object value) {
+
+            parsedValue = new ParsedValue(type, value);
+        }
+    }
+
+    private static class ParsedValue {
+
+        final Type type;
+        final Object value;
+
+        ParsedValue(Type type, Object value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A response body linked to the {@link Validators} of its url, to reuse or
+     * store the parsed object. Being a TypedByteArray, Retrofit returns it
+     * unwrapped to calls with a {@link Response} return type.
+     */
+    static class ValidatedTypedInput extends TypedByteArray {
+
+        private final Validators validators;
+
+        ValidatedTypedInput(String mimeType, byte[] bytes, Validators validators) {
+            super(mimeType != null ? mimeType : "application/json", bytes);
+            this.validators = validators;
+        }
+
+        Object getCachedValue(Type type) {
+
+            return validators.getValue(type);
+        }
+
+        void cacheValue(Type type, Object value) {
+
+            validators.setValue(type, value);
+        }
+    }
+}
@@ -9,25 +9,30 @@ public class JSONUtil
 {
 //    private static final Logger log = Logger.getLogger( JSONUtil.class.getName() );
 
+    /**
+     * Shared, as an ObjectMapper is thread safe once configured and costly to
+     * create for every question rendered
+     */
+    private static final ObjectMapper READER = new ObjectMapper();
+    private static final ObjectMapper WRITER = new ObjectMapper().setSerializationInclusion( Include.NON_NULL );
+
     public static <T> T deserialize( String jsonString, Class<T> DeserializeClass )
     throws Exception
     {
         T deserializedEntity = null;
         if ( jsonString != null && !jsonString.isEmpty() )
         {
-            deserializedEntity = new ObjectMapper().readValue( jsonString, DeserializeClass );
+            deserializedEntity = READER.readValue( jsonString, DeserializeClass );
         }
         return deserializedEntity;
     }
 
     public static String serialize( Object objectToBeSerialized ) throws Exception
     {
-        ObjectMapper oMapper = new ObjectMapper();
-        oMapper.setSerializationInclusion( Include.NON_NULL );
         String result = null;
-        if ( oMapper.canSerialize( objectToBeSerialized.getClass() ) )
+        if ( WRITER.canSerialize( objectToBeSerialized.getClass() ) )
         {
-            result = oMapper.writeValueAsString( objectToBeSerialized );
+            result = WRITER.writeValueAsString( objectToBeSerialized );
         }
         return result;
     }
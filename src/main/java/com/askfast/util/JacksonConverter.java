@@ -1,12 +1,15 @@
 package com.askfast.util;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 import retrofit.converter.ConversionException;
@@ -52,6 +55,54 @@ public class JacksonConverter implements Converter {
         }
     }
 
+    /**
+     * Parses a JSON array from the stream one element at a time, handing
+     * every element to the handler as soon as it is parsed. Only a single
+     * element is kept in memory, unlike {@link #fromBody(TypedInput, Type)}
+     * which parses the whole array into a list. A single object instead of an
+     * array is handled as an array with one element. The stream is not closed.
+     *
+     * @param in
+     *            The stream containing the JSON array
+     * @param type
+     *            The type of the elements
+     * @param handler
+     *            Receives the elements
+     * @return The number of elements handled
+     * @throws Exception
+     *             If the stream couldn't be parsed, or the handler failed
+     */
+    public <T> int readValues(InputStream in, Class<T> type, RecordHandler<T> handler) throws Exception {
+
+        JsonParser parser = objectMapper.getFactory().createParser(in);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        try {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                return 0;
+            }
+            if (token == JsonToken.START_OBJECT) {
+                handler.handle(objectMapper.readValue(parser, type));
+                return 1;
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new JsonParseException("Expected a JSON array but found: " + token, parser.getCurrentLocation());
+            }
+            int count = 0;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    throw new JsonParseException("Unexpected end of the JSON array", parser.getCurrentLocation());
+                }
+                handler.handle(objectMapper.readValue(parser, type));
+                count++;
+            }
+            return count;
+        }
+        finally {
+            parser.close();
+        }
+    }
+
     @Override
     public TypedOutput toBody(Object object) {
         try {
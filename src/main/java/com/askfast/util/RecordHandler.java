@@ -0,0 +1,22 @@
+package com.askfast.util;
+
+/**
+ * Receives records one at a time, e.g. while they are being parsed from a
+ * response or read from a store, so they don't all have to be kept in memory.
+ *
+ * @param <T>
+ *            The type of the records
+ */
+public interface RecordHandler<T> {
+
+    /**
+     * Handles a single record.
+     *
+     * @param record
+     *            The record
+     * @throws Exception
+     *             Stops the producer of the records, which passes the
+     *             exception on
+     */
+    public void handle(T record) throws Exception;
+}
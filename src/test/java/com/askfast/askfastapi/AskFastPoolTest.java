@@ -0,0 +1,119 @@
+package com.askfast.askfastapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.askfastapi.model.Answer;
+import com.askfast.askfastapi.model.EventPost.EventType;
+import com.askfast.askfastapi.model.MediaProperty.MediaPropertyKey;
+import com.askfast.askfastapi.model.MediaProperty.MediumType;
+import com.askfast.askfastapi.model.Question;
+
+/**
+ * Tests that pooled {@link AskFast} instances are reset between requests and
+ * not shared between threads
+ */
+public class AskFastPoolTest {
+
+    @Test
+    public void resetClearsQuestionTest() {
+
+        AskFastPool pool = new AskFastPool("accountId", "refreshToken");
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("session", "1");
+        AskFast askFast = pool.acquire("http://first.example.com", params);
+        String firstId = askFast.getQuestionId();
+        askFast.ask("Any plans?", "/answer");
+        askFast.addAnswer("Yes", "/yes");
+        askFast.addEvent(EventType.hangup, "/hangup");
+        askFast.addMediaProperty(MediumType.BROADSOFT, MediaPropertyKey.TIMEOUT, "10");
+        askFast.redirect("0612345678");
+        askFast.setPreferredLanguage("en");
+
+        AskFast reused = pool.acquire("http://second.example.com", null);
+        Question question = reused.getQuestion();
+
+        Assert.assertSame(askFast, reused);
+        Assert.assertEquals("accountId", reused.getAccountID());
+        Assert.assertNotEquals(firstId, reused.getQuestionId());
+        Assert.assertTrue(question.getAnswers().isEmpty());
+        Assert.assertTrue(question.getEvent_callbacks().isEmpty());
+        Assert.assertNull(question.getMediaProperties());
+        Assert.assertNull(question.getUrl());
+        Assert.assertEquals("nl", question.getPreferred_language());
+        Assert.assertTrue(reused.getParams().isEmpty());
+        Assert.assertEquals("http://second.example.com/next", reused.formatURL("/next"));
+        // the caller's map is not touched by the reset
+        Assert.assertEquals("1", params.get("session"));
+        // a fresh instance renders the same
+        Question fresh = new AskFast("http://second.example.com").getQuestion();
+        fresh.setQuestion_id(reused.getQuestionId());
+        Assert.assertEquals(fresh.toJSON(), reused.render());
+    }
+
+    @Test
+    public void threadsGetOwnInstancesTest() throws Exception {
+
+        final AskFastPool pool = new AskFastPool();
+        final int threads = 8;
+        final int requestsPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Set<String>>> futures = new ArrayList<Future<Set<String>>>();
+            for (int thread = 0; thread < threads; thread++) {
+                final int threadNumber = thread;
+                futures.add(executor.submit(new Callable<Set<String>>() {
+
+                    @Override
+                    public Set<String> call() {
+
+                        Set<String> questionIds = new HashSet<String>();
+                        for (int request = 0; request < requestsPerThread; request++) {
+                            String marker = threadNumber + "-" + request;
+                            Map<String, String> params = Collections.singletonMap("request", marker);
+                            AskFast askFast = pool.acquire("http://host" + threadNumber + ".example.com", params);
+                            askFast.ask("Question " + marker, "");
+                            int answerCount = request % 4;
+                            for (int answer = 0; answer < answerCount; answer++) {
+                                askFast.addAnswer("Answer " + marker, "/answer");
+                            }
+                            if (request % 3 == 0) {
+                                askFast.addEvent(EventType.hangup, "/hangup");
+                            }
+                            Question question = Question.fromJson(askFast.render());
+
+                            Assert.assertEquals("text://Question " + marker, question.getQuestion_text());
+                            Assert.assertEquals(answerCount, question.getAnswers().size());
+                            for (Answer answer : question.getAnswers()) {
+                                Assert.assertEquals("text://Answer " + marker, answer.getAnswer_text());
+                                Assert.assertEquals("http://host" + threadNumber + ".example.com/answer?request=" +
+                                    marker, answer.getCallback());
+                            }
+                            Assert.assertEquals(request % 3 == 0 ? 1 : 0, question.getEvent_callbacks().size());
+                            questionIds.add(question.getQuestion_id());
+                        }
+                        return questionIds;
+                    }
+                }));
+            }
+            Set<String> questionIds = new HashSet<String>();
+            for (Future<Set<String>> future : futures) {
+                questionIds.addAll(future.get());
+            }
+            Assert.assertEquals(threads * requestsPerThread, questionIds.size());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
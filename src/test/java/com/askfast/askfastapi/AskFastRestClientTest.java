@@ -173,6 +173,19 @@ public class AskFastRestClientTest extends TestFramework {
         }
     }
     
+    @Test
+    public void getRecordingUrlTest() {
+
+        AskFastRestClient client = new AskFastRestClient("account 1", null, null, "https://api.example.com");
+        Recording recording = new Recording();
+        recording.setId("recording/1");
+        Assert.assertEquals("https://api.example.com/account/account%201/recording/recording%2F1.wav",
+            client.getRecordingUrl(recording));
+        recording.setAccountId("account2");
+        Assert.assertEquals("https://api.example.com/account/account2/recording/recording%2F1.wav",
+            client.getRecordingUrl(recording));
+    }
+
     private boolean isNullOrEmpty(String text) {
         return text == null || text.isEmpty();
     }
@@ -0,0 +1,292 @@
+package com.askfast.askfastapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.askfastapi.model.AnswerPost;
+import com.askfast.askfastapi.model.EventPost;
+import com.askfast.askfastapi.model.Question;
+
+/**
+ * Tests that the {@link AsyncDialogServlet} releases the container thread and
+ * renders the question once the handler completes
+ */
+public class AsyncDialogServletTest {
+
+    /**
+     * A container that records what the servlet does with the request
+     */
+    private static class Exchange {
+
+        private final String body;
+        private final StringWriter output = new StringWriter();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile int status = HttpServletResponse.SC_OK;
+        private volatile long timeout;
+        private volatile AsyncListener listener;
+        private volatile int completions;
+        private HttpServletResponse response;
+        private AsyncContext context;
+
+        Exchange(String body) {
+            this.body = body;
+        }
+
+        HttpServletRequest createRequest() {
+
+            response = proxy(HttpServletResponse.class, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+
+                    if (method.getName().equals("getWriter")) {
+                        return new PrintWriter(output);
+                    }
+                    if (method.getName().equals("sendError")) {
+                        status = (Integer) args[0];
+                    }
+                    return null;
+                }
+            });
+            context = proxy(AsyncContext.class, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+
+                    if (method.getName().equals("getResponse")) {
+                        return response;
+                    }
+                    if (method.getName().equals("setTimeout")) {
+                        timeout = (Long) args[0];
+                    }
+                    else if (method.getName().equals("addListener")) {
+                        listener = (AsyncListener) args[0];
+                    }
+                    else if (method.getName().equals("complete")) {
+                        completions++;
+                        completed.countDown();
+                    }
+                    return null;
+                }
+            });
+            final InputStream in = new ByteArrayInputStream(body.getBytes());
+            return proxy(HttpServletRequest.class, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+
+                    String name = method.getName();
+                    if (name.equals("isAsyncSupported")) {
+                        return true;
+                    }
+                    if (name.equals("getInputStream")) {
+                        return new ServletInputStream() {
+
+                            @Override
+                            public int read() throws IOException {
+
+                                return in.read();
+                            }
+                        };
+                    }
+                    if (name.equals("startAsync")) {
+                        return context;
+                    }
+                    if (name.equals("getScheme")) {
+                        return "http";
+                    }
+                    if (name.equals("getServerName")) {
+                        return "dialog.example.com";
+                    }
+                    if (name.equals("getServerPort")) {
+                        return 80;
+                    }
+                    return null;
+                }
+            });
+        }
+
+        void fireTimeout() throws IOException {
+
+            listener.onTimeout(new AsyncEvent(context));
+        }
+
+        boolean awaitCompletion() throws InterruptedException {
+
+            return completed.await(5, TimeUnit.SECONDS);
+        }
+
+        Question getQuestion() {
+
+            return Question.fromJson(output.toString());
+        }
+
+        HttpServletResponse getResponse() {
+
+            return response;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+
+        return (T) Proxy.newProxyInstance(AsyncDialogServletTest.class.getClassLoader(), new Class<?>[] { type },
+            handler);
+    }
+
+    /**
+     * Completes answers from another thread, after the container thread
+     * returned
+     */
+    private static class DeferredServlet extends AsyncDialogServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile DialogResponse pending;
+
+        @Override
+        protected void onAnswer(final AnswerPost answer, final AskFast askFast, final DialogResponse response) {
+
+            pending = response;
+            new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+                        release.await();
+                        askFast.say("You said " + answer.getAnswer_text(), "/next");
+                        response.complete();
+                    }
+                    catch (InterruptedException e) {
+                        response.fail(e);
+                    }
+                }
+            }).start();
+        }
+
+        @Override
+        protected void onEvent(EventPost event, AskFast askFast, DialogResponse response) {
+
+            askFast.say("Event " + event.getEvent());
+            response.complete();
+        }
+
+        @Override
+        protected AskFast onTimeout(AskFast askFast) {
+
+            askFast.say("Please hold on");
+            return askFast;
+        }
+    }
+
+    @Test
+    public void completesAnswerFromAnotherThreadTest() throws Exception {
+
+        DeferredServlet servlet = new DeferredServlet();
+        servlet.setTimeoutMillis(2500);
+        Exchange exchange = new Exchange("{\"answer_text\":\"yes\",\"question_id\":\"q1\",\"extra\":1}");
+
+        servlet.doPost(exchange.createRequest(), exchange.getResponse());
+
+        // the container thread is back before the question is known
+        Assert.assertEquals(0, exchange.completions);
+        Assert.assertEquals(2500, exchange.timeout);
+        servlet.release.countDown();
+        Assert.assertTrue(exchange.awaitCompletion());
+
+        Question question = exchange.getQuestion();
+        Assert.assertEquals("text://You said yes", question.getQuestion_text());
+        Assert.assertEquals("http://dialog.example.com/next", question.getAnswers().get(0).getCallback());
+        Assert.assertFalse(servlet.pending.complete());
+        Assert.assertEquals(1, exchange.completions);
+    }
+
+    @Test
+    public void routesEventsTest() throws Exception {
+
+        DeferredServlet servlet = new DeferredServlet();
+        Exchange exchange = new Exchange("{\"event\":\"hangup\",\"question_id\":\"q1\"}");
+
+        servlet.doPost(exchange.createRequest(), exchange.getResponse());
+
+        Assert.assertEquals(1, exchange.completions);
+        Assert.assertEquals("text://Event hangup", exchange.getQuestion().getQuestion_text());
+    }
+
+    @Test
+    public void rendersFallbackOnTimeoutTest() throws Exception {
+
+        DeferredServlet servlet = new DeferredServlet();
+        Exchange exchange = new Exchange("{\"answer_text\":\"yes\"}");
+
+        servlet.doPost(exchange.createRequest(), exchange.getResponse());
+        exchange.fireTimeout();
+
+        Assert.assertEquals("text://Please hold on", exchange.getQuestion().getQuestion_text());
+        Assert.assertTrue(servlet.pending.isDone());
+        // the late answer is dropped
+        servlet.release.countDown();
+        Thread.sleep(100);
+        Assert.assertEquals(1, exchange.completions);
+    }
+
+    @Test
+    public void failsOnHandlerExceptionTest() throws Exception {
+
+        AsyncDialogServlet servlet = new AsyncDialogServlet() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void onAnswer(AnswerPost answer, AskFast askFast, DialogResponse response) throws Exception {
+
+                throw new IOException("backend down");
+            }
+        };
+        Exchange exchange = new Exchange("");
+
+        servlet.doPost(exchange.createRequest(), exchange.getResponse());
+        exchange.fireTimeout();
+
+        Assert.assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, exchange.status);
+        Assert.assertEquals(1, exchange.completions);
+    }
+
+    @Test
+    public void respondsUnavailableOnTimeoutTest() throws Exception {
+
+        AsyncDialogServlet servlet = new AsyncDialogServlet() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void onAnswer(AnswerPost answer, AskFast askFast, DialogResponse response) {
+
+            }
+        };
+        Exchange exchange = new Exchange("{}");
+
+        servlet.doPost(exchange.createRequest(), exchange.getResponse());
+        exchange.fireTimeout();
+
+        Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, exchange.status);
+        Assert.assertEquals(1, exchange.completions);
+    }
+}
@@ -0,0 +1,205 @@
+package com.askfast.askfastapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.askfastapi.event.CallbackDeduplicator;
+import com.askfast.askfastapi.model.DialogCallback;
+import com.askfast.askfastapi.model.EventPost.EventType;
+import com.askfast.askfastapi.model.Question;
+
+/**
+ * Tests the parsing, routing and stats of the
+ * {@link CallbackDispatcherServlet}
+ */
+public class CallbackDispatcherServletTest {
+
+    /**
+     * Says the given text, and which question the callback was about
+     */
+    private static class SayHandler implements CallbackDispatcherServlet.Handler {
+
+        private final String text;
+
+        SayHandler(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void handle(DialogCallback callback, AskFast askFast) {
+
+            askFast.say(text + " " + callback.getQuestionId());
+        }
+    }
+
+    private static CallbackDispatcherServlet createServlet() {
+
+        CallbackDispatcherServlet servlet = new CallbackDispatcherServlet();
+        servlet.addAnswerHandler("menu", new SayHandler("Menu"));
+        servlet.addAnswerHandler("menu", "1", new SayHandler("Option 1 of"));
+        servlet.addEventHandler(EventType.hangup, new SayHandler("Hangup of"));
+        servlet.addEventHandler("menu", EventType.timeout, new SayHandler("Timeout of"));
+        return servlet;
+    }
+
+    /**
+     * Posts the body, with ' for ", and returns the status or the rendered
+     * question text
+     */
+    private static String post(CallbackDispatcherServlet servlet, String body) throws IOException {
+
+        final InputStream in = new ByteArrayInputStream(body.replace('\'', '"').getBytes("UTF-8"));
+        HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+            CallbackDispatcherServletTest.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+            new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+
+                    String name = method.getName();
+                    if (name.equals("getInputStream")) {
+                        return new ServletInputStream() {
+
+                            @Override
+                            public int read() throws IOException {
+
+                                return in.read();
+                            }
+                        };
+                    }
+                    if (name.equals("getScheme")) {
+                        return "http";
+                    }
+                    if (name.equals("getServerName")) {
+                        return "dialog.example.com";
+                    }
+                    if (name.equals("getServerPort")) {
+                        return 80;
+                    }
+                    return null;
+                }
+            });
+        final StringWriter output = new StringWriter();
+        final int[] status = new int[] { HttpServletResponse.SC_OK };
+        HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+            CallbackDispatcherServletTest.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+            new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+
+                    if (method.getName().equals("getWriter")) {
+                        return new PrintWriter(output);
+                    }
+                    if (method.getName().equals("sendError")) {
+                        status[0] = (Integer) args[0];
+                    }
+                    return null;
+                }
+            });
+        servlet.doPost(request, response);
+        if (status[0] != HttpServletResponse.SC_OK) {
+            return String.valueOf(status[0]);
+        }
+        return Question.fromJson(output.toString()).getQuestion_text();
+    }
+
+    @Test
+    public void routesMostSpecificHandlerTest() throws Exception {
+
+        CallbackDispatcherServlet servlet = createServlet();
+
+        Assert.assertEquals("text://Option 1 of menu",
+            post(servlet, "{'question_id': 'menu', 'answer_id': '1', 'answer_text': 'yes'}"));
+        Assert.assertEquals("text://Menu menu", post(servlet, "{'question_id': 'menu', 'answer_id': '2'}"));
+        Assert.assertEquals("text://Menu menu", post(servlet, "{'question_id': 'menu', 'answer_text': 'open'}"));
+        Assert.assertEquals("text://Timeout of menu",
+            post(servlet, "{'question_id': 'menu', 'event': 'timeout', 'responder': 'tel:0612345678'}"));
+        Assert.assertEquals("text://Hangup of other", post(servlet, "{'question_id': 'other', 'event': 'hangup'}"));
+        // fields added to the posts later are ignored
+        Assert.assertEquals("text://Menu menu", post(servlet, "{'question_id': 'menu', 'new_field': true}"));
+    }
+
+    @Test
+    public void reportsUnroutedCallbacksTest() throws Exception {
+
+        CallbackDispatcherServlet servlet = createServlet();
+
+        Assert.assertEquals("404", post(servlet, "{'question_id': 'unknown', 'answer_id': '1'}"));
+        Assert.assertEquals("404", post(servlet, "{'question_id': 'menu', 'event': 'unknownEvent'}"));
+        Assert.assertEquals("400", post(servlet, "not json"));
+        Assert.assertEquals("400", post(servlet, ""));
+        Assert.assertEquals("400", post(servlet, "['menu']"));
+        Assert.assertEquals(2, servlet.getUnroutedCount());
+
+        servlet.setDefaultHandler(new SayHandler("Default for"));
+        Assert.assertEquals("text://Default for unknown", post(servlet, "{'question_id': 'unknown'}"));
+        Assert.assertEquals("text://Default for menu", post(servlet, "{'question_id': 'menu', 'event': 'new'}"));
+    }
+
+    @Test
+    public void countsPerRouteTest() throws Exception {
+
+        CallbackDispatcherServlet servlet = createServlet();
+        servlet.addAnswerHandler("broken", new CallbackDispatcherServlet.Handler() {
+
+            @Override
+            public void handle(DialogCallback callback, AskFast askFast) throws Exception {
+
+                throw new IOException("backend down");
+            }
+        });
+
+        for (int count = 0; count < 3; count++) {
+            post(servlet, "{'question_id': 'menu', 'answer_id': '1'}");
+        }
+        Assert.assertEquals("500", post(servlet, "{'question_id': 'broken'}"));
+
+        CallbackStats option = servlet.getStats().get("answer/menu/1");
+        Assert.assertEquals(3, option.getCount());
+        Assert.assertEquals(0, option.getErrorCount());
+        Assert.assertTrue(option.getMaxTimeMillis() >= option.getAverageTimeMillis());
+        Assert.assertEquals(1, servlet.getStats().get("answer/broken").getErrorCount());
+        Assert.assertEquals(0, servlet.getStats().get("event/hangup").getCount());
+    }
+
+    @Test
+    public void acknowledgesDuplicateEventsTest() throws Exception {
+
+        CallbackDispatcherServlet servlet = createServlet();
+        servlet.setDeduplicator(new CallbackDeduplicator());
+        final int[] failures = new int[] { 1 };
+        servlet.addEventHandler("retry", EventType.hangup, new CallbackDispatcherServlet.Handler() {
+
+            @Override
+            public void handle(DialogCallback callback, AskFast askFast) throws Exception {
+
+                if (failures[0]-- > 0) {
+                    throw new IOException("backend down");
+                }
+                askFast.say("Handled");
+            }
+        });
+
+        String hangup = "{'question_id': 'other', 'event': 'hangup', 'responder': 'tel:0612345678'}";
+        Assert.assertEquals("text://Hangup of other", post(servlet, hangup));
+        Assert.assertEquals("", post(servlet, hangup));
+        Assert.assertEquals(1, servlet.getStats().get("event/hangup").getCount());
+        // answers are handled again, the platform needs the next question
+        Assert.assertEquals("text://Menu menu", post(servlet, "{'question_id': 'menu', 'answer_id': '2'}"));
+        Assert.assertEquals("text://Menu menu", post(servlet, "{'question_id': 'menu', 'answer_id': '2'}"));
+        // a failed event is handled when it is posted again
+        Assert.assertEquals("500", post(servlet, "{'question_id': 'retry', 'event': 'hangup'}"));
+        Assert.assertEquals("text://Handled", post(servlet, "{'question_id': 'retry', 'event': 'hangup'}"));
+    }
+}
@@ -0,0 +1,308 @@
+package com.askfast.askfastapi.cache;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the fetching, eviction, journal replay and concurrency of the
+ * {@link RecordingCache}
+ */
+public class RecordingCacheTest {
+
+    private File directory;
+
+    /**
+     * Writes 100 bytes derived from the recording id, or the shared audio
+     */
+    private static class CountingFetcher implements RecordingCache.Fetcher {
+
+        final AtomicInteger fetches = new AtomicInteger();
+        volatile CountDownLatch gate = null;
+
+        @Override
+        public void fetch(String recordingId, File target) throws Exception {
+
+            fetches.incrementAndGet();
+            if (gate != null) {
+                gate.await();
+            }
+            Files.write(target.toPath(), getAudio(recordingId));
+        }
+    }
+
+    private static byte[] getAudio(String recordingId) {
+
+        byte[] audio = new byte[100];
+        Arrays.fill(audio, (byte) (recordingId.startsWith("shared") ? 0 : recordingId.hashCode()));
+        return audio;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+
+        directory = Files.createTempDirectory("recording-cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void fetchesOnceTest() throws Exception {
+
+        CountingFetcher fetcher = new CountingFetcher();
+        RecordingCache cache = RecordingCache.open(directory, 1000);
+        Assert.assertArrayEquals(getAudio("a"), toArray(cache.get("a", fetcher)));
+        Assert.assertArrayEquals(getAudio("a"), toArray(cache.get("a", fetcher)));
+
+        Assert.assertEquals(1, fetcher.fetches.get());
+        Assert.assertEquals(1, cache.getStats().getHitCount());
+        Assert.assertEquals(1, cache.getStats().getLoadSuccessCount());
+        Assert.assertEquals(100, cache.getTotalBytes());
+        Assert.assertEquals(0, new File(directory, "tmp").list().length);
+        cache.close();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedTest() throws Exception {
+
+        CountingFetcher fetcher = new CountingFetcher();
+        RecordingCache cache = RecordingCache.open(directory, 250);
+        cache.get("a", fetcher);
+        cache.get("b", fetcher);
+        cache.get("a", fetcher);
+        ByteBuffer b = cache.getIfPresent("b");
+        cache.get("a", fetcher);
+        cache.get("c", fetcher);
+
+        Assert.assertTrue(cache.contains("a"));
+        Assert.assertFalse(cache.contains("b"));
+        Assert.assertTrue(cache.contains("c"));
+        Assert.assertEquals(200, cache.getTotalBytes());
+        Assert.assertEquals(1, cache.getStats().getEvictionCount());
+        // a buffer handed out before the eviction can still be read
+        Assert.assertArrayEquals(getAudio("b"), toArray(b));
+        cache.close();
+    }
+
+    @Test
+    public void keepsRecordingLargerThanBudgetTest() throws Exception {
+
+        RecordingCache cache = RecordingCache.open(directory, 50);
+        cache.get("a", new CountingFetcher());
+        cache.get("b", new CountingFetcher());
+
+        Assert.assertFalse(cache.contains("a"));
+        Assert.assertTrue(cache.contains("b"));
+        cache.close();
+    }
+
+    @Test
+    public void rebuildsIndexFromJournalTest() throws Exception {
+
+        CountingFetcher fetcher = new CountingFetcher();
+        RecordingCache cache = RecordingCache.open(directory, 300);
+        cache.get("a", fetcher);
+        cache.get("b", fetcher);
+        cache.get("c", fetcher);
+        cache.get("a", fetcher);
+        cache.remove("c");
+        cache.close();
+
+        cache = RecordingCache.open(directory, 300);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(200, cache.getTotalBytes());
+        Assert.assertFalse(cache.contains("c"));
+        Assert.assertArrayEquals(getAudio("a"), toArray(cache.get("a", fetcher)));
+        Assert.assertEquals(3, fetcher.fetches.get());
+
+        // "b" is the least recently used, also after the replay
+        cache.get("d", fetcher);
+        cache.get("e", fetcher);
+        Assert.assertFalse(cache.contains("b"));
+        Assert.assertTrue(cache.contains("a"));
+        cache.close();
+    }
+
+    @Test
+    public void cutsOffPartialJournalRecordTest() throws Exception {
+
+        CountingFetcher fetcher = new CountingFetcher();
+        RecordingCache cache = RecordingCache.open(directory, 1000);
+        cache.get("a", fetcher);
+        cache.get("b", fetcher);
+        cache.close();
+
+        File journal = new File(directory, "journal");
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        }
+        finally {
+            file.close();
+        }
+
+        cache = RecordingCache.open(directory, 1000);
+        Assert.assertTrue(cache.contains("a"));
+        Assert.assertFalse(cache.contains("b"));
+        // the file of "b" had no entry left and is removed
+        Assert.assertEquals(100, cache.getTotalBytes());
+        Assert.assertEquals(1, new File(directory, "objects").listFiles().length);
+        cache.get("b", fetcher);
+        cache.close();
+
+        cache = RecordingCache.open(directory, 1000);
+        Assert.assertEquals(2, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void sharesIdenticalContentTest() throws Exception {
+
+        CountingFetcher fetcher = new CountingFetcher();
+        RecordingCache cache = RecordingCache.open(directory, 1000);
+        cache.get("shared-1", fetcher);
+        cache.get("shared-2", fetcher);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(100, cache.getTotalBytes());
+        cache.remove("shared-1");
+        Assert.assertArrayEquals(getAudio("shared-2"), toArray(cache.getIfPresent("shared-2")));
+        cache.remove("shared-2");
+        Assert.assertEquals(0, cache.getTotalBytes());
+        cache.close();
+    }
+
+    @Test
+    public void compactsJournalTest() throws Exception {
+
+        CountingFetcher fetcher = new CountingFetcher();
+        RecordingCache cache = RecordingCache.open(directory, 1000);
+        cache.get("a", fetcher);
+        for (int index = 0; index < 5000; index++) {
+            cache.getIfPresent("a");
+        }
+        Assert.assertTrue(new File(directory, "journal").length() < 1000 * 8);
+        cache.close();
+
+        cache = RecordingCache.open(directory, 1000);
+        Assert.assertTrue(cache.contains("a"));
+        cache.close();
+    }
+
+    @Test
+    public void journalsAccessesInBatchesTest() throws Exception {
+
+        CountingFetcher fetcher = new CountingFetcher();
+        RecordingCache cache = RecordingCache.open(directory, 200);
+        cache.get("a", fetcher);
+        cache.get("b", fetcher);
+        File journal = new File(directory, "journal");
+        long length = journal.length();
+        for (int index = 0; index < 100; index++) {
+            Assert.assertNotNull(cache.getIfPresent("a"));
+        }
+        Assert.assertEquals(length, journal.length());
+        cache.close();
+        Assert.assertTrue(journal.length() > length);
+
+        // "b" is the least recently used, also after the replay
+        cache = RecordingCache.open(directory, 200);
+        cache.get("c", fetcher);
+        Assert.assertFalse(cache.contains("b"));
+        Assert.assertTrue(cache.contains("a"));
+        cache.close();
+    }
+
+    @Test
+    public void concurrentGetsShareFetchTest() throws Exception {
+
+        final CountingFetcher fetcher = new CountingFetcher();
+        fetcher.gate = new CountDownLatch(1);
+        final RecordingCache cache = RecordingCache.open(directory, 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ByteBuffer>> futures = new ArrayList<Future<ByteBuffer>>();
+            for (int index = 0; index < 4; index++) {
+                futures.add(executor.submit(new Callable<ByteBuffer>() {
+
+                    @Override
+                    public ByteBuffer call() throws Exception {
+
+                        return cache.get("a", fetcher);
+                    }
+                }));
+            }
+            Thread.sleep(100);
+            fetcher.gate.countDown();
+            for (Future<ByteBuffer> future : futures) {
+                Assert.assertArrayEquals(getAudio("a"), toArray(future.get()));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1, fetcher.fetches.get());
+        cache.close();
+    }
+
+    @Test
+    public void failedFetchIsNotCachedTest() throws Exception {
+
+        RecordingCache cache = RecordingCache.open(directory, 1000);
+        try {
+            cache.get("a", new RecordingCache.Fetcher() {
+
+                @Override
+                public void fetch(String recordingId, File target) throws Exception {
+
+                    throw new IllegalStateException("offline");
+                }
+            });
+            Assert.fail("The error of the fetcher must be thrown");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertEquals("offline", e.getMessage());
+        }
+        Assert.assertFalse(cache.contains("a"));
+        Assert.assertEquals(1, cache.getStats().getLoadFailureCount());
+        cache.get("a", new CountingFetcher());
+        Assert.assertTrue(cache.contains("a"));
+        cache.close();
+    }
+}
@@ -0,0 +1,271 @@
+package com.askfast.askfastapi.cache;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.askfastapi.AskFastRestClient;
+import com.askfast.model.Recording;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the range queries, paging and incremental refresh of the
+ * {@link RecordingIndex}
+ */
+public class RecordingIndexTest {
+
+    private static Recording createRecording(String id, String adapterId, Long creationTime) {
+
+        Recording recording = new Recording();
+        recording.setId(id);
+        recording.setAdapterId(adapterId);
+        recording.setCreationTime(creationTime);
+        return recording;
+    }
+
+    /**
+     * 1000 recordings, one per second from time 0, alternating between two
+     * adapters, in random order
+     */
+    private static List<Recording> createRecordings() {
+
+        List<Recording> recordings = new ArrayList<Recording>();
+        for (int index = 0; index < 1000; index++) {
+            recordings.add(createRecording("r" + index, index % 2 == 0 ? "even" : "odd", index * 1000L));
+        }
+        Collections.shuffle(recordings, new Random(43));
+        return recordings;
+    }
+
+    private static List<String> getIds(List<Recording> recordings) {
+
+        List<String> ids = new ArrayList<String>();
+        for (Recording recording : recordings) {
+            ids.add(recording.getId());
+        }
+        return ids;
+    }
+
+    private static RecordingIndex createIndex(final List<List<Recording>> fetches) {
+
+        return new RecordingIndex(new RecordingIndex.Source() {
+
+            @Override
+            public List<Recording> getRecordings() {
+
+                return fetches.remove(0);
+            }
+        });
+    }
+
+    @Test
+    public void pagesTimeRangeNewestFirstTest() {
+
+        RecordingIndex index = new RecordingIndex((RecordingIndex.Source) null);
+        index.update(createRecordings());
+
+        Assert.assertEquals(1000, index.size());
+        Assert.assertEquals("r999", index.getNewest().getId());
+        Assert.assertEquals(11, index.count(null, 10000L, 20000L));
+        Assert.assertEquals(Arrays.asList("r20", "r19", "r18"),
+            getIds(index.getRecordings(null, 10000L, 20000L, 0, 3)));
+        Assert.assertEquals(Arrays.asList("r11", "r10"),
+            getIds(index.getRecordings(null, 10000L, 20000L, 9, 3)));
+        Assert.assertTrue(index.getRecordings(null, 10000L, 20000L, 11, 3).isEmpty());
+        Assert.assertEquals(1000, index.count(null, null, null));
+        Assert.assertEquals(0, index.count(null, 2000000L, null));
+    }
+
+    @Test
+    public void pagesPerAdapterTest() {
+
+        RecordingIndex index = new RecordingIndex((RecordingIndex.Source) null);
+        index.update(createRecordings());
+
+        Assert.assertEquals(6, index.count("even", 10000L, 20000L));
+        Assert.assertEquals(5, index.count("odd", 10000L, 20000L));
+        Assert.assertEquals(Arrays.asList("r16", "r14"),
+            getIds(index.getRecordings("even", 10000L, 20000L, 2, 2)));
+        Assert.assertEquals(Arrays.asList("r999"), getIds(index.getRecordings("odd", null, null, 0, 1)));
+        Assert.assertEquals(0, index.count("unknown", null, null));
+        Assert.assertTrue(index.getRecordings("unknown", null, null, 0, 10).isEmpty());
+    }
+
+    @Test
+    public void appendsNewerRecordingsTest() throws Exception {
+
+        List<Recording> first = createRecordings();
+        List<Recording> second = new ArrayList<Recording>(first);
+        second.add(createRecording("r1001", "odd", 1001000L));
+        second.add(0, createRecording("r1000", "even", 1000000L));
+        List<List<Recording>> fetches = new ArrayList<List<Recording>>();
+        fetches.add(first);
+        fetches.add(second);
+        fetches.add(second);
+        RecordingIndex index = createIndex(fetches);
+
+        Assert.assertEquals(1000, index.refresh());
+        Assert.assertEquals(2, index.refresh());
+        // the same list again, as returned after a conditional request
+        Assert.assertEquals(0, index.refresh());
+
+        Assert.assertEquals(2, index.getAppendCount());
+        Assert.assertEquals(0, index.getRebuildCount());
+        Assert.assertEquals(1002, index.size());
+        Assert.assertEquals("r1001", index.getNewest().getId());
+        Assert.assertEquals(Arrays.asList("r1000", "r998"),
+            getIds(index.getRecordings("even", 998000L, null, 0, 10)));
+        Assert.assertEquals("r1000", index.getRecording("r1000").getId());
+    }
+
+    @Test
+    public void rebuildsOnRemovalTest() {
+
+        List<Recording> recordings = createRecordings();
+        RecordingIndex index = new RecordingIndex((RecordingIndex.Source) null);
+        index.update(recordings);
+
+        List<Recording> removed = new ArrayList<Recording>(recordings);
+        for (int position = removed.size() - 1; position >= 0; position--) {
+            if ("r500".equals(removed.get(position).getId())) {
+                removed.remove(position);
+            }
+        }
+        removed.add(createRecording("r1000", "even", 1000000L));
+        Assert.assertEquals(0, index.update(removed));
+
+        Assert.assertEquals(1, index.getRebuildCount());
+        Assert.assertEquals(1000, index.size());
+        Assert.assertNull(index.getRecording("r500"));
+        Assert.assertEquals(Arrays.asList("r502", "r498"),
+            getIds(index.getRecordings("even", 498000L, 502000L, 0, 10)));
+    }
+
+    @Test
+    public void rebuildsOnOlderRecordingTest() {
+
+        RecordingIndex index = new RecordingIndex((RecordingIndex.Source) null);
+        List<Recording> recordings = createRecordings();
+        index.update(recordings);
+
+        List<Recording> withOlder = new ArrayList<Recording>(recordings);
+        withOlder.add(createRecording("late", "odd", 500L));
+        Assert.assertEquals(1, index.update(withOlder));
+
+        Assert.assertEquals(1, index.getRebuildCount());
+        Assert.assertEquals(Arrays.asList("late", "r0"), getIds(index.getRecordings(null, 0L, 999L, 0, 10)));
+    }
+
+    @Test
+    public void missingCreationTimeSortsFirstTest() {
+
+        RecordingIndex index = new RecordingIndex((RecordingIndex.Source) null);
+        List<Recording> recordings = new ArrayList<Recording>();
+        recordings.add(createRecording("a", "x", 1L));
+        recordings.add(createRecording("b", null, null));
+        index.update(recordings);
+        List<Recording> page = index.getRecordings(null, null, null, 0, 10);
+
+        recordings = new ArrayList<Recording>(recordings);
+        recordings.add(createRecording("c", "x", 2L));
+        index.update(recordings);
+
+        Assert.assertEquals(Arrays.asList("a", "b"), getIds(page));
+        Assert.assertEquals(Arrays.asList("c", "a", "b"), getIds(index.getRecordings(null, null, null, 0, 10)));
+        Assert.assertEquals(Arrays.asList("c", "a"), getIds(index.getRecordings("x", null, null, 0, 10)));
+    }
+
+    @Test
+    public void findsByIdWhileAppendingTest() throws Exception {
+
+        final RecordingIndex index = new RecordingIndex((RecordingIndex.Source) null);
+        final List<Recording> recordings = new ArrayList<Recording>();
+        final int count = 3000;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread reader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try {
+                    while (index.size() < count) {
+                        // the recording that is appended next, and the one before it
+                        int size = index.size();
+                        index.getRecording("r" + size);
+                        Recording last = index.getRecording("r" + (size - 1));
+                        Assert.assertTrue(size == 0 || last != null);
+                    }
+                }
+                catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        reader.start();
+        for (int number = 0; number < count; number++) {
+            recordings.add(createRecording("r" + number, "x", (long) number));
+            // a new list every time, so the index doesn't skip it as already fetched
+            index.update(new ArrayList<Recording>(recordings));
+        }
+        reader.join();
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(count, index.size());
+    }
+
+    @Test
+    public void clientReturnsSameListWhileUnchangedTest() throws Exception {
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/account/account/recording", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                }
+                else {
+                    byte[] body = "[{\"id\":\"r1\",\"creationTime\":1000}]".getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            AskFastRestClient client = new AskFastRestClient("account", null, "token",
+                "http://127.0.0.1:" + server.getAddress().getPort());
+            List<Recording> first = client.getRecordings();
+            List<Recording> second = client.getRecordings();
+            // the same object, so the index skips comparing it
+            Assert.assertSame(first, second);
+            Assert.assertEquals(1, client.getConditionalClient().getNotModifiedCount());
+            try {
+                first.clear();
+                Assert.fail("The recordings should be unmodifiable");
+            }
+            catch (UnsupportedOperationException e) {
+                // expected
+            }
+
+            RecordingIndex index = new RecordingIndex(client, "account");
+            Assert.assertEquals(1, index.refresh());
+            Assert.assertEquals(0, index.refresh());
+            Assert.assertEquals(1, index.size());
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.askfast.askfastapi.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the expiry, stale-while-revalidate and eviction behaviour of the
+ * {@link TTLCache}
+ */
+public class TTLCacheTest {
+
+    /**
+     * A cache with a clock that is moved manually
+     */
+    private static class ManualClockCache extends TTLCache<String, String> {
+
+        long now = 0;
+
+        ManualClockCache(int maxSize, long ttlMillis, long staleMillis, ExecutorService executor) {
+            super(maxSize, ttlMillis, staleMillis, executor);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+
+            return now;
+        }
+    }
+
+    private static class CountingLoader implements CacheLoader<String, String> {
+
+        final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public String load(String key) {
+
+            return key + "-" + loads.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void freshStaleAndExpiredLookupsTest() throws Exception {
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ManualClockCache cache = new ManualClockCache(10, 100, 100, executor);
+        CountingLoader loader = new CountingLoader();
+
+        Assert.assertEquals("a-1", cache.get("a", loader));
+        cache.now = 50;
+        Assert.assertEquals("a-1", cache.get("a", loader));
+
+        // stale: the old value is returned and a refresh is scheduled
+        cache.now = 150;
+        Assert.assertEquals("a-1", cache.get("a", loader));
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals("a-2", cache.get("a", loader));
+
+        // fully expired: the caller waits for the loader
+        cache.now = 1000;
+        Assert.assertEquals("a-3", cache.get("a", loader));
+
+        CacheStats stats = cache.getStats();
+        Assert.assertEquals(2, stats.getHitCount());
+        Assert.assertEquals(1, stats.getStaleHitCount());
+        Assert.assertEquals(2, stats.getMissCount());
+        Assert.assertEquals(3, stats.getLoadCount());
+        Assert.assertEquals(0.6, stats.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedTest() {
+
+        ManualClockCache cache = new ManualClockCache(2, 1000, 0, Executors.newSingleThreadExecutor());
+        CountingLoader loader = new CountingLoader();
+        cache.get("a", loader);
+        cache.get("b", loader);
+        cache.get("a", loader);
+        cache.get("c", loader);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNotNull(cache.getIfPresent("a"));
+        Assert.assertNull(cache.getIfPresent("b"));
+        Assert.assertEquals(1, cache.getStats().getEvictionCount());
+        cache.shutdown();
+    }
+
+    @Test
+    public void writeThroughAndInvalidateTest() {
+
+        ManualClockCache cache = new ManualClockCache(10, 1000, 0, Executors.newSingleThreadExecutor());
+        CountingLoader loader = new CountingLoader();
+        cache.get("a", loader);
+        cache.put("a", "updated");
+        Assert.assertEquals("updated", cache.get("a", loader));
+
+        cache.invalidate("a");
+        Assert.assertEquals("a-2", cache.get("a", loader));
+        cache.shutdown();
+    }
+
+    @Test
+    public void writeOfOtherKeyKeepsLoadTest() throws Exception {
+
+        ManualClockCache cache = new ManualClockCache(10, 1000, 0, Executors.newSingleThreadExecutor());
+        BlockingLoader loader = new BlockingLoader();
+        Thread thread = startGet(cache, "a", loader);
+        Assert.assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+
+        cache.put("b", "written");
+        loader.release.countDown();
+        thread.join(5000);
+        Assert.assertEquals("a-1", cache.getIfPresent("a"));
+        Assert.assertEquals("written", cache.getIfPresent("b"));
+        cache.shutdown();
+    }
+
+    @Test
+    public void writeDuringLoadWinsTest() throws Exception {
+
+        ManualClockCache cache = new ManualClockCache(10, 1000, 0, Executors.newSingleThreadExecutor());
+        BlockingLoader loader = new BlockingLoader();
+        Thread thread = startGet(cache, "a", loader);
+        Assert.assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+
+        cache.put("a", "written");
+        loader.release.countDown();
+        thread.join(5000);
+        Assert.assertEquals("written", cache.getIfPresent("a"));
+        cache.shutdown();
+    }
+
+    @Test
+    public void concurrentLoadsOfKeyAreCoalescedTest() throws Exception {
+
+        ManualClockCache cache = new ManualClockCache(10, 1000, 0, Executors.newSingleThreadExecutor());
+        BlockingLoader loader = new BlockingLoader();
+        final List<String> values = Collections.synchronizedList(new ArrayList<String>());
+        Thread first = startGet(cache, "a", loader, values);
+        Assert.assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        Thread second = startGet(cache, "a", loader, values);
+        // waits for the load of the first caller
+        long deadline = System.currentTimeMillis() + 5000;
+        while (second.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        loader.release.countDown();
+        first.join(5000);
+        second.join(5000);
+        Assert.assertEquals(Arrays.asList("a-1", "a-1"), values);
+        Assert.assertEquals(1, loader.loads.get());
+        Assert.assertEquals(1, cache.getStats().getLoadCount());
+        cache.shutdown();
+    }
+
+    /**
+     * Blocks every load until it is released
+     */
+    private static class BlockingLoader extends CountingLoader {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public String load(String key) {
+
+            started.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return super.load(key);
+        }
+    }
+
+    private static Thread startGet(TTLCache<String, String> cache, String key, CacheLoader<String, String> loader) {
+
+        return startGet(cache, key, loader, new ArrayList<String>());
+    }
+
+    private static Thread startGet(final TTLCache<String, String> cache, final String key,
+        final CacheLoader<String, String> loader, final List<String> values) {
+
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                values.add(cache.get(key, loader));
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,173 @@
+package com.askfast.askfastapi.ddr;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.askfastapi.ddr.DDRAggregator.Dimension;
+import com.askfast.askfastapi.ddr.DDRAggregator.Group;
+import com.askfast.askfastapi.ddr.DDRAggregator.Measure;
+import com.askfast.model.AdapterType;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Tests the grouping, bucketing and stats of the {@link DDRAggregator}. Run
+ * {@link #main(String[])} to benchmark it on synthetic ddrRecords
+ */
+public class DDRAggregatorTest {
+
+    private static final String[] TYPES = { "incoming", "outgoing", "tts" };
+
+    private static DDRColumnStore createStore(int count) {
+
+        DDRColumnStore store = new DDRColumnStore(count);
+        DDRRecord ddrRecord = new DDRRecord();
+        for (int index = 0; index < count; index++) {
+            ddrRecord.setId("ddr" + index);
+            ddrRecord.setAdapterId("adapter" + (index % 10));
+            ddrRecord.setDdrTypeId(TYPES[index % TYPES.length]);
+            ddrRecord.setAdapterType(index % 2 == 0 ? AdapterType.CALL : AdapterType.SMS);
+            ddrRecord.setQuantity(1 + index % 4);
+            ddrRecord.setStart(index * 60 * 1000L);
+            ddrRecord.setDuration(index % 2 == 0 ? (long) (index % 100) : null);
+            ddrRecord.setTotalCost((index % 100) / 100.0);
+            store.add(ddrRecord);
+        }
+        return store;
+    }
+
+    @Test
+    public void matchesSequentialLoopTest() {
+
+        DDRColumnStore store = createStore(100000);
+        List<Group> groups = new DDRAggregator().groupBy(Dimension.ADAPTER_ID, Dimension.ADAPTER_TYPE)
+            .measure(Measure.TOTAL_COST, Measure.QUANTITY, Measure.DURATION).rowsPerTask(1000).aggregate(store);
+        Assert.assertEquals(10, groups.size());
+
+        Group group = groups.get(0);
+        Assert.assertEquals(Arrays.<Object> asList("adapter0", AdapterType.CALL), group.getKey());
+        double cost = 0;
+        long quantity = 0;
+        double duration = 0;
+        for (int row = 0; row < store.size(); row++) {
+            if ("adapter0".equals(store.getAdapterId(row))) {
+                cost += store.getTotalCost(row);
+                quantity += store.getQuantity(row);
+                duration += store.getDuration(row);
+            }
+        }
+        Assert.assertEquals(10000, group.getStats(Measure.TOTAL_COST).getCount());
+        Assert.assertEquals(cost, group.getStats(Measure.TOTAL_COST).getSum(), 0.0001);
+        Assert.assertEquals(quantity, group.getStats(Measure.QUANTITY).getSum(), 0.0001);
+        Assert.assertEquals(duration / 10000, group.getStats(Measure.DURATION).getAverage(), 0.0001);
+        Assert.assertEquals(0.0, group.getStats(Measure.TOTAL_COST).getMin(), 0.0);
+        Assert.assertEquals(0.9, group.getStats(Measure.TOTAL_COST).getMax(), 0.0001);
+
+        // the sms rows have no duration
+        Assert.assertEquals(0, groups.get(1).getStats(Measure.DURATION).getCount());
+        Assert.assertTrue(Double.isNaN(groups.get(1).getStats(Measure.DURATION).getAverage()));
+    }
+
+    @Test
+    public void bucketsPerDayWithPercentilesTest() {
+
+        // one ddrRecord per minute for three days
+        DDRColumnStore store = createStore(3 * 24 * 60);
+        List<Group> groups = new DDRAggregator().groupBy(Dimension.DDR_TYPE_ID)
+            .bucket(DDRAggregator.DAY_MILLIS, TimeZone.getTimeZone("UTC")).withPercentiles().rowsPerTask(100)
+            .aggregate(store);
+        Assert.assertEquals(9, groups.size());
+        Assert.assertEquals(Long.valueOf(0), groups.get(0).getBucketStart());
+        Assert.assertEquals(Long.valueOf(DDRAggregator.DAY_MILLIS), groups.get(3).getBucketStart());
+        Assert.assertEquals(480, groups.get(0).getStats(Measure.TOTAL_COST).getCount());
+        double median = groups.get(0).getStats(Measure.TOTAL_COST).getPercentile(50);
+        Assert.assertTrue(median > 0.4 && median < 0.6);
+        Assert.assertEquals(groups.get(0).getStats(Measure.TOTAL_COST).getMax(),
+            groups.get(0).getStats(Measure.TOTAL_COST).getPercentile(100), 0.0);
+
+        // midnight in Amsterdam is at 23:00 UTC in winter
+        groups = new DDRAggregator().bucket(DDRAggregator.DAY_MILLIS, TimeZone.getTimeZone("Europe/Amsterdam"))
+            .aggregate(store);
+        Assert.assertEquals(Long.valueOf(-DDRAggregator.HOUR_MILLIS), groups.get(0).getBucketStart());
+        Assert.assertEquals(23 * 60, groups.get(0).getStats(Measure.TOTAL_COST).getCount());
+    }
+
+    @Test
+    public void bucketsDaylightSavingDaysTest() throws Exception {
+
+        TimeZone amsterdam = TimeZone.getTimeZone("Europe/Amsterdam");
+        DDRColumnStore store = new DDRColumnStore(16);
+        // the clock moves from 02:00 to 03:00 on March 30 2025, and from 03:00 to 02:00 on October 26
+        for (String start : new String[] { "2025-03-29T23:30", "2025-03-30T10:00", "2025-03-30T21:30",
+            "2025-03-30T22:30", "2025-10-25T22:30", "2025-10-26T00:30", "2025-10-26T01:30", "2025-10-26T22:30" }) {
+            DDRRecord ddrRecord = new DDRRecord();
+            ddrRecord.setStart(utc(start));
+            ddrRecord.setTotalCost(1.0);
+            store.add(ddrRecord);
+        }
+        List<Group> groups = new DDRAggregator().bucket(DDRAggregator.DAY_MILLIS, amsterdam).aggregate(store);
+
+        Assert.assertEquals(3, groups.size());
+        Assert.assertEquals(Long.valueOf(utc("2025-03-29T23:00")), groups.get(0).getBucketStart());
+        Assert.assertEquals(3, groups.get(0).getStats(Measure.TOTAL_COST).getCount());
+        Assert.assertEquals(Long.valueOf(utc("2025-03-30T22:00")), groups.get(1).getBucketStart());
+        Assert.assertEquals(Long.valueOf(utc("2025-10-25T22:00")), groups.get(2).getBucketStart());
+        // the 25 hour day ends at 23:00 UTC
+        Assert.assertEquals(4, groups.get(2).getStats(Measure.TOTAL_COST).getCount());
+
+        // 02:30 occurs twice on October 26, both are in the bucket of the first 02:00
+        store = new DDRColumnStore(2);
+        for (String start : new String[] { "2025-10-26T00:30", "2025-10-26T01:30" }) {
+            DDRRecord ddrRecord = new DDRRecord();
+            ddrRecord.setStart(utc(start));
+            store.add(ddrRecord);
+        }
+        groups = new DDRAggregator().bucket(DDRAggregator.HOUR_MILLIS, amsterdam).aggregate(store);
+        Assert.assertEquals(1, groups.size());
+        Assert.assertEquals(Long.valueOf(utc("2025-10-26T00:00")), groups.get(0).getBucketStart());
+    }
+
+    private static long utc(String time) throws Exception {
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.parse(time).getTime();
+    }
+
+    /**
+     * Compares a single threaded loop with the aggregator on 10M synthetic
+     * ddrRecords
+     */
+    public static void main(String[] args) {
+
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        DDRColumnStore store = createStore(count);
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            Map<String, Double> sums = new HashMap<String, Double>();
+            for (int row = 0; row < store.size(); row++) {
+                String adapterId = store.getAdapterId(row);
+                Double sum = sums.get(adapterId);
+                sums.put(adapterId, (sum != null ? sum : 0) + store.getTotalCost(row));
+            }
+            long sequential = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            new DDRAggregator().groupBy(Dimension.ADAPTER_ID).aggregate(store);
+            long parallel = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            new DDRAggregator().groupBy(Dimension.ADAPTER_ID, Dimension.DDR_TYPE_ID)
+                .bucket(DDRAggregator.DAY_MILLIS, null).measure(Measure.TOTAL_COST, Measure.DURATION)
+                .aggregate(store);
+            long bucketed = System.nanoTime() - start;
+            System.out.println(String.format(
+                "%d ddrRecords, cost per adapter loop: %d ms, aggregator: %d ms, per adapter, type and day: %d ms",
+                count, sequential / 1000000, parallel / 1000000, bucketed / 1000000));
+        }
+    }
+}
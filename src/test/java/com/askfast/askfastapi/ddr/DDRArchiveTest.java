@@ -0,0 +1,123 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.askfast.model.AdapterType;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.DDRRecord.CommunicationStatus;
+
+/**
+ * Tests writing, reopening and time range reads of the {@link DDRArchive}
+ */
+public class DDRArchiveTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+
+        file = File.createTempFile("ddr", ".archive");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+
+        file.delete();
+    }
+
+    private static List<DDRRecord> createDDRRecords(int from, int to) {
+
+        List<DDRRecord> ddrRecords = new ArrayList<DDRRecord>();
+        for (int index = from; index < to; index++) {
+            DDRRecord ddrRecord = new DDRRecord();
+            ddrRecord.setId("ddr" + index);
+            ddrRecord.setAdapterId("adapter" + (index % 4));
+            ddrRecord.setFromAddress("+3160000000" + (index % 10));
+            ddrRecord.setQuantity(1);
+            ddrRecord.setStart(1000L * index);
+            ddrRecord.setTotalCost(0.1);
+            ddrRecord.setAdapterType(AdapterType.SMS);
+            ddrRecord.setStatus(CommunicationStatus.SENT);
+            ddrRecords.add(ddrRecord);
+        }
+        return ddrRecords;
+    }
+
+    @Test
+    public void reopensAppendedBlocksTest() throws Exception {
+
+        DDRArchive archive = DDRArchive.open(file);
+        archive.appendAll(createDDRRecords(0, 250), 100);
+        archive.close();
+
+        archive = DDRArchive.open(file);
+        try {
+            Assert.assertEquals(3, archive.getBlockCount());
+            Assert.assertEquals(250, archive.getRecordCount());
+            List<DDRRecord> ddrRecords = archive.readAll();
+            Assert.assertEquals(250, ddrRecords.size());
+            DDRRecord ddrRecord = ddrRecords.get(123);
+            Assert.assertEquals("ddr123", ddrRecord.getId());
+            Assert.assertEquals("adapter3", ddrRecord.getAdapterId());
+            Assert.assertEquals("+31600000003", ddrRecord.getFromAddress());
+            Assert.assertEquals(Long.valueOf(123000), ddrRecord.getStart());
+            Assert.assertNull(ddrRecord.getDuration());
+            Assert.assertNull(ddrRecord.getAccountType());
+            Assert.assertEquals(AdapterType.SMS, ddrRecord.getAdapterType());
+            Assert.assertEquals(CommunicationStatus.SENT, ddrRecord.getStatus());
+
+            archive.append(createDDRRecords(250, 260));
+            Assert.assertEquals(260, archive.load(null, null).size());
+        }
+        finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void readsTimeRangeTest() throws Exception {
+
+        DDRArchive archive = DDRArchive.open(file);
+        try {
+            archive.appendAll(createDDRRecords(0, 1000), 100);
+            List<DDRRecord> ddrRecords = archive.read(150000L, 249000L);
+            Assert.assertEquals(100, ddrRecords.size());
+            Assert.assertEquals("ddr150", ddrRecords.get(0).getId());
+            Assert.assertEquals(10.0, archive.load(null, 99000L).sumTotalCost(), 0.0001);
+        }
+        finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void cutsOffIncompleteBlockTest() throws Exception {
+
+        DDRArchive archive = DDRArchive.open(file);
+        archive.append(createDDRRecords(0, 10));
+        long length = archive.getLength();
+        archive.append(createDDRRecords(10, 20));
+        archive.close();
+
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(truncated.length() - 5);
+        truncated.close();
+
+        archive = DDRArchive.open(file);
+        try {
+            Assert.assertEquals(1, archive.getBlockCount());
+            Assert.assertEquals(length, file.length());
+            Assert.assertEquals(10, archive.readAll().size());
+        }
+        finally {
+            archive.close();
+        }
+    }
+}
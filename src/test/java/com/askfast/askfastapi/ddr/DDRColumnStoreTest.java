@@ -0,0 +1,96 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.model.AccountType;
+import com.askfast.model.AdapterType;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.DDRRecord.CommunicationStatus;
+
+/**
+ * Tests the encoding, row reconstruction and scans of the
+ * {@link DDRColumnStore}
+ */
+public class DDRColumnStoreTest {
+
+    private static DDRRecord createDDRRecord(int index) {
+
+        DDRRecord ddrRecord = new DDRRecord();
+        ddrRecord.setId("ddr" + index);
+        ddrRecord.setAdapterId("adapter" + (index % 3));
+        ddrRecord.setAccountId("account" + (index % 2));
+        ddrRecord.setFromAddress("+31600000000");
+        ddrRecord.setDdrTypeId("outgoing");
+        ddrRecord.setQuantity(index % 5);
+        ddrRecord.setStart(1000L * index);
+        ddrRecord.setDuration(index % 2 == 0 ? 60000L : null);
+        ddrRecord.setTotalCost(0.25);
+        ddrRecord.setAdapterType(AdapterType.CALL);
+        ddrRecord.setStatus(index % 2 == 0 ? CommunicationStatus.FINISHED : CommunicationStatus.MISSED);
+        ddrRecord.setAccountType(AccountType.PRE_PAID);
+        return ddrRecord;
+    }
+
+    @Test
+    public void rebuildsRowsTest() {
+
+        DDRColumnStore store = new DDRColumnStore(2);
+        for (int index = 0; index < 10; index++) {
+            store.add(createDDRRecord(index));
+        }
+        DDRRecord empty = new DDRRecord();
+        store.add(empty);
+        Assert.assertEquals(11, store.size());
+
+        DDRRecord ddrRecord = store.getRecord(4);
+        Assert.assertEquals("ddr4", ddrRecord.getId());
+        Assert.assertEquals("adapter1", ddrRecord.getAdapterId());
+        Assert.assertEquals("account0", ddrRecord.getAccountId());
+        Assert.assertEquals(Integer.valueOf(4), ddrRecord.getQuantity());
+        Assert.assertEquals(Long.valueOf(4000), ddrRecord.getStart());
+        Assert.assertEquals(Long.valueOf(60000), ddrRecord.getDuration());
+        Assert.assertEquals(AdapterType.CALL, ddrRecord.getAdapterType());
+        Assert.assertEquals(CommunicationStatus.FINISHED, ddrRecord.getStatus());
+        Assert.assertEquals(AccountType.PRE_PAID, ddrRecord.getAccountType());
+        Assert.assertNull(store.getDuration(5));
+
+        DDRRecord rebuilt = store.getRecord(10);
+        Assert.assertNull(rebuilt.getId());
+        Assert.assertNull(rebuilt.getAdapterId());
+        Assert.assertNull(rebuilt.getStart());
+        Assert.assertNull(rebuilt.getStatus());
+        Assert.assertNull(rebuilt.getAdapterType());
+        Assert.assertEquals(0.0, rebuilt.getTotalCost(), 0.0);
+    }
+
+    @Test
+    public void scansColumnsTest() {
+
+        DDRColumnStore store = new DDRColumnStore();
+        for (int index = 0; index < 12; index++) {
+            store.handle(createDDRRecord(index));
+        }
+        store.trimToSize();
+
+        Assert.assertEquals(3.0, store.sumTotalCost(), 0.0001);
+        Assert.assertEquals(1.0, store.sumTotalCost(0, 3000), 0.0001);
+        Map<String, Double> perAdapter = store.getTotalCostPerAdapterId();
+        Assert.assertEquals(3, perAdapter.size());
+        Assert.assertEquals(1.0, perAdapter.get("adapter0"), 0.0001);
+        Map<CommunicationStatus, Integer> perStatus = store.getCountPerStatus();
+        Assert.assertEquals(Integer.valueOf(6), perStatus.get(CommunicationStatus.MISSED));
+
+        int count = 0;
+        for (DDRRecord ddrRecord : store) {
+            Assert.assertEquals("ddr" + count++, ddrRecord.getId());
+        }
+        Assert.assertEquals(12, count);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsUnknownRowTest() {
+
+        new DDRColumnStore().getRecord(0);
+    }
+}
@@ -0,0 +1,82 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.askfastapi.ddr.DDRConcurrencyCalculator.AdapterConcurrency;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Tests the sweep and spilling of the {@link DDRConcurrencyCalculator}
+ */
+public class DDRConcurrencyCalculatorTest {
+
+    private static DDRRecord createCall(String adapterId, long start, Long duration) {
+
+        DDRRecord ddrRecord = new DDRRecord();
+        ddrRecord.setAdapterId(adapterId);
+        ddrRecord.setStart(start);
+        ddrRecord.setDuration(duration);
+        return ddrRecord;
+    }
+
+    @Test
+    public void calculatesPeaksPerAdapterTest() throws Exception {
+
+        List<DDRRecord> ddrRecords = new ArrayList<DDRRecord>();
+        ddrRecords.add(createCall("a", 30000, 10000L));
+        ddrRecords.add(createCall("a", 0, 20000L));
+        ddrRecords.add(createCall("a", 5000, 20000L));
+        // starts when the first call ends, so no overlap with it
+        ddrRecords.add(createCall("a", 20000, 1000L));
+        ddrRecords.add(createCall("a", 200000, 0L));
+        ddrRecords.add(createCall("b", 1000, 100000L));
+        ddrRecords.add(createCall("b", 1000, null));
+
+        Map<String, AdapterConcurrency> result = new DDRConcurrencyCalculator(10000).calculate(ddrRecords);
+        AdapterConcurrency a = result.get("a");
+        Assert.assertEquals(5, a.getRecordCount());
+        Assert.assertEquals(2, a.getPeak());
+        Assert.assertEquals(Long.valueOf(5000), a.getPeakTime());
+        SortedMap<Long, Integer> buckets = a.getMaxPerBucket();
+        Assert.assertEquals(Integer.valueOf(2), buckets.get(0L));
+        Assert.assertEquals(Integer.valueOf(2), buckets.get(10000L));
+        Assert.assertEquals(Integer.valueOf(2), buckets.get(20000L));
+        Assert.assertEquals(Integer.valueOf(1), buckets.get(30000L));
+        Assert.assertNull(buckets.get(40000L));
+
+        AdapterConcurrency b = result.get("b");
+        Assert.assertEquals(1, b.getRecordCount());
+        Assert.assertEquals(1, b.getPeak());
+        // the buckets between the start and the end carry the open call
+        Assert.assertEquals(11, b.getMaxPerBucket().size());
+    }
+
+    @Test
+    public void spilledEventsMatchInMemoryTest() throws Exception {
+
+        Random random = new Random(42);
+        List<DDRRecord> ddrRecords = new ArrayList<DDRRecord>();
+        for (int count = 0; count < 5000; count++) {
+            ddrRecords.add(createCall("adapter" + random.nextInt(3), random.nextInt(3600) * 1000L,
+                (1 + random.nextInt(300)) * 1000L));
+        }
+        DDRConcurrencyCalculator inMemory = new DDRConcurrencyCalculator(60000);
+        DDRConcurrencyCalculator spilling = new DDRConcurrencyCalculator(60000);
+        spilling.setMaxEventsInMemory(100);
+
+        Map<String, AdapterConcurrency> expected = inMemory.calculate(ddrRecords);
+        Map<String, AdapterConcurrency> actual = spilling.calculate(ddrRecords);
+        Assert.assertEquals(3, actual.size());
+        for (String adapterId : expected.keySet()) {
+            Assert.assertEquals(expected.get(adapterId).getPeak(), actual.get(adapterId).getPeak());
+            Assert.assertEquals(expected.get(adapterId).getPeakTime(), actual.get(adapterId).getPeakTime());
+            Assert.assertEquals(expected.get(adapterId).getMaxPerBucket(), actual.get(adapterId).getMaxPerBucket());
+        }
+        Assert.assertTrue(expected.get("adapter0").getPeak() > 10);
+    }
+}
@@ -0,0 +1,152 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Tests the bucketing and caching of the {@link DDRCountCache}
+ */
+public class DDRCountCacheTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+
+    /**
+     * Has a ddrRecord every hour and counts the count requests
+     */
+    static class HourlySource implements DDRRecordSource {
+
+        final List<DDRQuery> countQueries = new ArrayList<DDRQuery>();
+
+        @Override
+        public List<DDRRecord> getDDRRecords(DDRQuery query, Integer offset, Integer limit) {
+
+            return new ArrayList<DDRRecord>();
+        }
+
+        @Override
+        public synchronized Integer getDDRRecordCount(DDRQuery query) throws Exception {
+
+            if ("fail".equals(query.getFromAddress())) {
+                throw new Exception("Count failed");
+            }
+            countQueries.add(query);
+            long from = query.getStartTime() != null ? query.getStartTime() : 0;
+            long to = query.getEndTime() != null ? query.getEndTime() : 10 * DAY;
+            int count = 0;
+            for (long start = 0; start <= 10 * DAY; start += HOUR) {
+                if (start >= from && start <= to) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * A cache at a fixed moment: day 10, 12:00
+     */
+    static DDRCountCache createCache(DDRRecordSource source) {
+
+        return createCache(source, HOUR);
+    }
+
+    static DDRCountCache createCache(DDRRecordSource source, long settleMillis) {
+
+        return new DDRCountCache(source, DAY, settleMillis, 0, 100) {
+
+            @Override
+            protected long currentTimeMillis() {
+
+                return 10 * DAY + 12 * HOUR;
+            }
+        };
+    }
+
+    @Test
+    public void countsOnlyOpenBucketAgainTest() throws Exception {
+
+        HourlySource source = new HourlySource();
+        DDRCountCache cache = createCache(source);
+        DDRQuery query = new DDRQuery(DAY / 2, 10 * DAY + 12 * HOUR);
+        query.setAdapterIds(Arrays.asList("b", "a"));
+
+        int expected = source.getDDRRecordCount(query);
+        source.countQueries.clear();
+        Assert.assertEquals(expected, cache.getDDRRecordCount(query).intValue());
+        // the half first day, nine whole days and today
+        Assert.assertEquals(11, source.countQueries.size());
+        Assert.assertEquals(Long.valueOf(DAY - 1), source.countQueries.get(0).getEndTime());
+
+        DDRQuery reordered = new DDRQuery(DAY / 2, 10 * DAY + 12 * HOUR);
+        reordered.setAdapterIds(Arrays.asList("a", "b"));
+        Assert.assertEquals(expected, cache.getDDRRecordCount(reordered).intValue());
+        // the half first day isn't cached, the nine whole days are
+        Assert.assertEquals(13, source.countQueries.size());
+        Assert.assertEquals(Long.valueOf(DAY / 2), source.countQueries.get(11).getStartTime());
+        Assert.assertEquals(Long.valueOf(10 * DAY), source.countQueries.get(12).getStartTime());
+        Assert.assertEquals(9, cache.getClosedStats().getHitCount());
+
+        cache.getDDRRecordCount(new DDRQuery(2 * DAY, 3 * DAY - 1));
+        Assert.assertEquals(14, source.countQueries.size());
+        cache.shutdown();
+    }
+
+    @Test
+    public void countsOpenTailOnceTest() throws Exception {
+
+        HourlySource source = new HourlySource();
+        // days 7 to 10 can still change
+        DDRCountCache cache = createCache(source, 3 * DAY);
+        DDRQuery query = new DDRQuery(0L, 10 * DAY + 12 * HOUR);
+        int expected = source.getDDRRecordCount(query);
+        source.countQueries.clear();
+
+        Assert.assertEquals(expected, cache.getDDRRecordCount(query).intValue());
+        Assert.assertEquals(8, source.countQueries.size());
+        DDRQuery tail = source.countQueries.get(7);
+        Assert.assertEquals(Long.valueOf(7 * DAY), tail.getStartTime());
+        Assert.assertEquals(Long.valueOf(10 * DAY + 12 * HOUR), tail.getEndTime());
+
+        Assert.assertEquals(expected, cache.getDDRRecordCount(query).intValue());
+        Assert.assertEquals(9, source.countQueries.size());
+        cache.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void countsFarFutureEndTimeTest() throws Exception {
+
+        HourlySource source = new HourlySource();
+        DDRCountCache cache = createCache(source);
+        DDRQuery query = new DDRQuery(9 * DAY, Long.MAX_VALUE);
+        int expected = source.getDDRRecordCount(query);
+        source.countQueries.clear();
+
+        Assert.assertEquals(expected, cache.getDDRRecordCount(query).intValue());
+        // day 9, and from day 10 on
+        Assert.assertEquals(2, source.countQueries.size());
+        Assert.assertEquals(Long.valueOf(Long.MAX_VALUE), source.countQueries.get(1).getEndTime());
+        cache.shutdown();
+    }
+
+    @Test
+    public void passesSourceErrorsTest() throws Exception {
+
+        DDRCountCache cache = createCache(new HourlySource());
+        DDRQuery query = new DDRQuery(0L, DAY);
+        query.setFromAddress("fail");
+        try {
+            cache.getDDRRecordCount(query);
+            Assert.fail("The count error should be thrown");
+        }
+        catch (Exception e) {
+            Assert.assertEquals("Count failed", e.getMessage());
+        }
+        Assert.assertEquals(241, cache.getDDRRecordCount(new DDRQuery()).intValue());
+        cache.shutdown();
+    }
+}
@@ -0,0 +1,135 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.askfastapi.AskFastRestClient;
+import com.askfast.askfastapi.ddr.DDRExporter.Format;
+import com.askfast.model.AdapterType;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.DDRRecord.CommunicationStatus;
+import com.askfast.util.RecordHandler;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests the CSV and NDJSON output of the {@link DDRExporter}
+ */
+public class DDRExporterTest {
+
+    private static DDRRecord createDDRRecord() {
+
+        DDRRecord ddrRecord = new DDRRecord();
+        ddrRecord.setId("1");
+        ddrRecord.setAdapterId("adapter");
+        ddrRecord.setAdapterType(AdapterType.CALL);
+        ddrRecord.setFromAddress("+31600000000");
+        ddrRecord.setDdrTypeId("outgoing, \"premium\"");
+        ddrRecord.setQuantity(2);
+        ddrRecord.setStart(1000L);
+        ddrRecord.setTotalCost(0.5);
+        ddrRecord.setStatus(CommunicationStatus.FINISHED);
+        ddrRecord.setSessionKeys(Arrays.asList("s1", "s2"));
+        Map<String, CommunicationStatus> statusPerAddress = new LinkedHashMap<String, CommunicationStatus>();
+        statusPerAddress.put("+31611111111", CommunicationStatus.FINISHED);
+        statusPerAddress.put("+31622222222", CommunicationStatus.MISSED);
+        ddrRecord.setStatusPerAddress(statusPerAddress);
+        Map<String, Object> trial = new HashMap<String, Object>();
+        trial.put("credits", 3);
+        Map<String, Object> additionalInfo = new LinkedHashMap<String, Object>();
+        additionalInfo.put("trial", trial);
+        additionalInfo.put("tags", Arrays.asList("a", "b"));
+        ddrRecord.setAdditionalInfo(additionalInfo);
+        return ddrRecord;
+    }
+
+    @Test
+    public void writesCsvTest() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DDRExporter exporter = new DDRExporter(out, Format.CSV);
+        exporter.handle(createDDRRecord());
+        exporter.handle(new DDRRecord());
+        exporter.close();
+
+        String[] lines = out.toString("UTF-8").split("\r\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertTrue(lines[0].startsWith("id,adapterId,adapterType,"));
+        Assert.assertEquals("1,adapter,CALL,,,+31600000000,,\"outgoing, \"\"premium\"\"\",2,1000,,FINISHED,0.5,,,s1|s2,"
+            + "+31611111111=FINISHED;+31622222222=MISSED,trial.credits=3;tags.0=a;tags.1=b", lines[1]);
+        Assert.assertEquals(",,,,,,,,0,,,,0.0,,,,,", lines[2]);
+        Assert.assertEquals(2, exporter.getRowCount());
+    }
+
+    @Test
+    public void exportsPagesCappedByServerTest() throws Exception {
+
+        // serves at most 3 of the 10 ddrRecords per page
+        AskFastRestClient client = new AskFastRestClient("account", null, "token", "http://localhost") {
+
+            @Override
+            public int streamDDRRecords(DDRQuery query, Integer offset, Integer limit,
+                RecordHandler<DDRRecord> handler) throws Exception {
+
+                int count = 0;
+                for (int index = offset; index < Math.min(10, offset + Math.min(limit, 3)); index++) {
+                    DDRRecord ddrRecord = new DDRRecord();
+                    ddrRecord.setId("ddr" + index);
+                    handler.handle(ddrRecord);
+                    count++;
+                }
+                return count;
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DDRExporter exporter = new DDRExporter(out, Format.NDJSON);
+        Assert.assertEquals(10, client.streamAllDDRRecords(new DDRQuery(), 5, exporter));
+        exporter.close();
+        Assert.assertEquals(10, exporter.getRowCount());
+        Assert.assertEquals(10, out.toString("UTF-8").split("\n").length);
+    }
+
+    @Test
+    public void writesGzippedNdjsonTest() throws Exception {
+
+        File file = File.createTempFile("ddr", ".ndjson.gz");
+        try {
+            DDRExporter exporter = DDRExporter.open(file, Format.NDJSON, true);
+            exporter.handle(createDDRRecord());
+            exporter.handle(createDDRRecord());
+            exporter.close();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                new FileInputStream(file)), "UTF-8"));
+            try {
+                ObjectMapper objectMapper = new ObjectMapper();
+                JsonNode json = objectMapper.readTree(reader.readLine());
+                Assert.assertEquals("1", json.get("_id").asText());
+                Assert.assertEquals(1000, json.get("start").asLong());
+                Assert.assertEquals(0.5, json.get("totalCost").asDouble(), 0.0);
+                Assert.assertEquals("MISSED", json.get("statusPerAddress.+31622222222").asText());
+                Assert.assertEquals(3, json.get("additionalInfo.trial.credits").asInt());
+                Assert.assertEquals("b", json.get("additionalInfo.tags.1").asText());
+                Assert.assertEquals(2, json.get("sessionKeys").size());
+                Assert.assertFalse(json.has("duration"));
+                Assert.assertNotNull(reader.readLine());
+                Assert.assertNull(reader.readLine());
+            }
+            finally {
+                reader.close();
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
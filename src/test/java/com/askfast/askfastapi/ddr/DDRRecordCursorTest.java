@@ -0,0 +1,148 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Tests the paging of the {@link DDRRecordCursor}
+ */
+public class DDRRecordCursorTest {
+
+    /**
+     * Serves a fixed number of generated ddrRecords, optionally failing at a
+     * given offset
+     */
+    static class FakeDDRRecordSource implements DDRRecordSource {
+
+        final int total;
+        int failAtOffset = -1;
+        int maxPageSize = Integer.MAX_VALUE;
+        int requests = 0;
+        Thread fetcher;
+
+        FakeDDRRecordSource(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public synchronized List<DDRRecord> getDDRRecords(DDRQuery query, Integer offset, Integer limit)
+            throws Exception {
+
+            requests++;
+            fetcher = Thread.currentThread();
+            if (offset == failAtOffset) {
+                throw new Exception("Failed at " + offset);
+            }
+            List<DDRRecord> page = new ArrayList<DDRRecord>();
+            for (int i = offset; i < Math.min(total, offset + Math.min(limit, maxPageSize)); i++) {
+                DDRRecord ddrRecord = new DDRRecord();
+                ddrRecord.setId("ddr" + i);
+                ddrRecord.setStart((long) i);
+                page.add(ddrRecord);
+            }
+            return page;
+        }
+
+        @Override
+        public Integer getDDRRecordCount(DDRQuery query) throws Exception {
+
+            return total;
+        }
+    }
+
+    @Test
+    public void iteratesAllPagesTest() {
+
+        FakeDDRRecordSource source = new FakeDDRRecordSource(2500);
+        DDRRecordCursor cursor = new DDRRecordCursor(source, new DDRQuery(), 1000, 1);
+        int count = 0;
+        for (DDRRecord ddrRecord : cursor) {
+            Assert.assertEquals("ddr" + count, ddrRecord.getId());
+            count++;
+        }
+        Assert.assertEquals(2500, count);
+        // the empty fourth page marks the end
+        Assert.assertEquals(4, cursor.getFetchedPageCount());
+        Assert.assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void exactMultipleOfPageSizeTest() {
+
+        FakeDDRRecordSource source = new FakeDDRRecordSource(2000);
+        DDRRecordCursor cursor = new DDRRecordCursor(source, null, 1000, 2);
+        int count = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            count++;
+        }
+        Assert.assertEquals(2000, count);
+        // the empty third page marks the end
+        Assert.assertEquals(3, cursor.getFetchedPageCount());
+    }
+
+    @Test
+    public void failedPageIsThrownTest() {
+
+        FakeDDRRecordSource source = new FakeDDRRecordSource(2500);
+        source.failAtOffset = 1000;
+        DDRRecordCursor cursor = new DDRRecordCursor(source, null, 1000, 2);
+        int count = 0;
+        try {
+            while (cursor.hasNext()) {
+                cursor.next();
+                count++;
+            }
+            Assert.fail("The failed page should be thrown");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertEquals("Failed at 1000", e.getCause().getMessage());
+        }
+        Assert.assertEquals(1000, count);
+    }
+
+    @Test
+    public void pagesCappedByServerTest() {
+
+        FakeDDRRecordSource source = new FakeDDRRecordSource(2500);
+        source.maxPageSize = 300;
+        DDRRecordCursor cursor = new DDRRecordCursor(source, null, 1000, 2);
+        int count = 0;
+        for (DDRRecord ddrRecord : cursor) {
+            Assert.assertEquals("ddr" + count, ddrRecord.getId());
+            count++;
+        }
+        Assert.assertEquals(2500, count);
+        Assert.assertEquals(10, cursor.getFetchedPageCount());
+    }
+
+    @Test
+    public void abandonedCursorStopsFetchingTest() throws Exception {
+
+        FakeDDRRecordSource source = new FakeDDRRecordSource(100000);
+        readFirst(source);
+        Thread fetcher;
+        synchronized (source) {
+            fetcher = source.fetcher;
+        }
+        // the fetcher waits for room in the buffer until the cursor is collected
+        long deadline = System.currentTimeMillis() + 10000;
+        while (fetcher.isAlive() && System.currentTimeMillis() < deadline) {
+            System.gc();
+            fetcher.join(100);
+        }
+        Assert.assertFalse(fetcher.isAlive());
+    }
+
+    /**
+     * Reads a ddrRecord and drops the cursor without closing it
+     */
+    private static void readFirst(FakeDDRRecordSource source) {
+
+        DDRRecordCursor cursor = new DDRRecordCursor(source, null, 100, 1);
+        Assert.assertEquals("ddr0", cursor.next().getId());
+    }
+}
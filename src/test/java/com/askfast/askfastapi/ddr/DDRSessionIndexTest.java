@@ -0,0 +1,77 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Tests the lookups and conversation trees of the {@link DDRSessionIndex}
+ */
+public class DDRSessionIndexTest {
+
+    private static DDRRecord createDDRRecord(String id, String parentId, String... sessionKeys) {
+
+        DDRRecord ddrRecord = new DDRRecord();
+        ddrRecord.setId(id);
+        ddrRecord.setParentId(parentId);
+        if (sessionKeys.length > 0) {
+            ddrRecord.setSessionKeys(Arrays.asList(sessionKeys));
+        }
+        return ddrRecord;
+    }
+
+    private static List<String> getIds(List<DDRRecord> ddrRecords) {
+
+        List<String> ids = new ArrayList<String>();
+        for (DDRRecord ddrRecord : ddrRecords) {
+            ids.add(ddrRecord.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void findsConversationTreeTest() {
+
+        DDRSessionIndex index = new DDRSessionIndex();
+        // a child can arrive before its parent
+        index.add(createDDRRecord("tts", "call", "session1"));
+        index.add(createDDRRecord("call", null, "session1", "session2"));
+        index.add(createDDRRecord("leg1", "call", "session2"));
+        index.add(createDDRRecord("leg2", "call"));
+        index.add(createDDRRecord("leg1-tts", "leg1"));
+        index.add(createDDRRecord("other", null, "session3"));
+
+        Assert.assertEquals(1, index.getRow("call"));
+        Assert.assertEquals(-1, index.getRow("unknown"));
+        Assert.assertArrayEquals(new int[] { 0, 2, 3 }, index.getChildRows("call"));
+        Assert.assertArrayEquals(new int[] { 0, 1 }, index.getRowsBySessionKey("session1"));
+        Assert.assertEquals(3, index.getSessionKeyCount());
+
+        List<String> conversation = getIds(index.getConversation("leg1-tts"));
+        Assert.assertEquals(Arrays.asList("call", "tts", "leg1", "leg2", "leg1-tts"), conversation);
+        Assert.assertEquals(conversation, getIds(index.getConversationBySessionKey("session2")));
+        Assert.assertEquals(Arrays.asList("other"), getIds(index.getConversationBySessionKey("session3")));
+        Assert.assertTrue(index.getConversation("unknown").isEmpty());
+    }
+
+    @Test
+    public void handlesManyKeysAndCyclesTest() {
+
+        DDRSessionIndex index = new DDRSessionIndex();
+        for (int count = 0; count < 100000; count++) {
+            index.add(createDDRRecord("ddr" + count, count % 10 == 0 ? null : "ddr" + (count - count % 10),
+                "session" + (count / 10)));
+        }
+        index.add(createDDRRecord("a", "b"));
+        index.add(createDDRRecord("b", "a"));
+
+        Assert.assertEquals(100001, index.getRow("b"));
+        Assert.assertEquals(10, index.getConversation("ddr54321").size());
+        Assert.assertEquals("ddr54320", index.getConversation("ddr54321").get(0).getId());
+        Assert.assertEquals(10, index.getConversationRowsBySessionKey("session5432").length);
+        Assert.assertEquals(2, index.getConversation("a").size());
+    }
+}
@@ -0,0 +1,96 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.DDRRecord.CommunicationStatus;
+
+/**
+ * Tests the {@link HyperLogLog}, {@link CountMinSketch} and the
+ * {@link DDRSketches} built on them
+ */
+public class DDRSketchesTest {
+
+    @Test
+    public void hyperLogLogEstimatesDistinctCountTest() throws Exception {
+
+        HyperLogLog small = new HyperLogLog();
+        for (int index = 0; index < 500; index++) {
+            small.add("+316" + (index % 400));
+        }
+        Assert.assertTrue(small.isExact());
+        Assert.assertEquals(400, small.cardinality());
+
+        HyperLogLog left = new HyperLogLog();
+        HyperLogLog right = new HyperLogLog();
+        for (int index = 0; index < 100000; index++) {
+            left.add("+316" + index);
+            right.add("+316" + (index + 50000));
+        }
+        Assert.assertFalse(left.isExact());
+        Assert.assertEquals(100000, left.cardinality(), 3000);
+
+        HyperLogLog restored = HyperLogLog.fromBytes(left.toBytes());
+        Assert.assertEquals(left.cardinality(), restored.cardinality());
+        restored.merge(right);
+        restored.merge(small);
+        Assert.assertEquals(150000, restored.cardinality(), 4500);
+    }
+
+    @Test
+    public void countMinSketchFindsHeavyHittersTest() throws Exception {
+
+        CountMinSketch sketch = new CountMinSketch(1024, 4, 3);
+        for (int index = 0; index < 20000; index++) {
+            sketch.add("rare" + index);
+            if (index % 10 == 0) {
+                sketch.add("heavy1");
+            }
+            if (index % 20 == 0) {
+                sketch.add("heavy2");
+            }
+        }
+        Assert.assertTrue(sketch.estimate("heavy1") >= 2000);
+        Assert.assertTrue(sketch.estimate("heavy1") < 2200);
+
+        CountMinSketch restored = CountMinSketch.fromBytes(sketch.toBytes());
+        restored.merge(sketch);
+        List<Map.Entry<String, Long>> heavyHitters = restored.getHeavyHitters();
+        Assert.assertEquals("heavy1", heavyHitters.get(0).getKey());
+        Assert.assertEquals("heavy2", heavyHitters.get(1).getKey());
+        Assert.assertTrue(restored.estimate("heavy1") >= 4000);
+        Assert.assertEquals(2 * sketch.getTotal(), restored.getTotal());
+    }
+
+    @Test
+    public void mergesSerializedDDRSketchesTest() throws Exception {
+
+        DDRSketches first = new DDRSketches();
+        DDRSketches second = new DDRSketches();
+        for (int index = 0; index < 3000; index++) {
+            DDRRecord ddrRecord = new DDRRecord();
+            ddrRecord.setAdapterId("adapter" + (index % 2));
+            ddrRecord.setFromAddress(index % 3 == 0 ? "+31600000000" : "+3161" + index);
+            ddrRecord.setStatusPerAddress(Collections.singletonMap("+3162" + (index % 1500),
+                index % 4 == 0 ? CommunicationStatus.MISSED : CommunicationStatus.FINISHED));
+            (index < 1500 ? first : second).handle(ddrRecord);
+        }
+        DDRRecord sms = new DDRRecord();
+        sms.setToAddressString("+31630000000");
+        sms.setStatus(CommunicationStatus.SENT);
+        second.handle(sms);
+
+        DDRSketches merged = DDRSketches.fromBytes(first.toBytes());
+        merged.merge(DDRSketches.fromBytes(second.toBytes()));
+        Assert.assertEquals(3001, merged.getRecordCount());
+        Assert.assertEquals(1501, merged.getDistinctRecipients(), 45);
+        Assert.assertEquals(750, merged.getDistinctRecipients("adapter0"));
+        Assert.assertEquals("+31600000000", merged.getFromAddresses().getHeavyHitters().get(0).getKey());
+        Map<CommunicationStatus, Long> statusCounts = merged.getStatusCounts();
+        Assert.assertEquals(Long.valueOf(750), statusCounts.get(CommunicationStatus.MISSED));
+        Assert.assertEquals(Long.valueOf(1), statusCounts.get(CommunicationStatus.SENT));
+    }
+}
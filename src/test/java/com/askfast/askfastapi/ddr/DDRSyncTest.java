@@ -0,0 +1,195 @@
+package com.askfast.askfastapi.ddr;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.DDRRecord.CommunicationStatus;
+import com.askfast.util.RecordHandler;
+
+/**
+ * Tests the watermarks and change detection of the {@link DDRSync}
+ */
+public class DDRSyncTest {
+
+    /**
+     * Serves the ddrRecords in its list with a start from the query startTime,
+     * and those without a start
+     */
+    static class ListSource implements DDRRecordSource {
+
+        final List<DDRRecord> ddrRecords = new ArrayList<DDRRecord>();
+        final List<Long> requestedStartTimes = new ArrayList<Long>();
+
+        @Override
+        public synchronized List<DDRRecord> getDDRRecords(DDRQuery query, Integer offset, Integer limit) {
+
+            if (offset == 0) {
+                requestedStartTimes.add(query.getStartTime());
+            }
+            List<DDRRecord> matching = new ArrayList<DDRRecord>();
+            for (DDRRecord ddrRecord : ddrRecords) {
+                if ((query.getStartTime() == null || ddrRecord.getStart() == null
+                    || ddrRecord.getStart() >= query.getStartTime())
+                    && (query.getAdapterIds() == null || query.getAdapterIds().contains(ddrRecord.getAdapterId()))) {
+                    matching.add(copy(ddrRecord));
+                }
+            }
+            return new ArrayList<DDRRecord>(matching.subList(Math.min(offset, matching.size()),
+                Math.min(offset + limit, matching.size())));
+        }
+
+        @Override
+        public Integer getDDRRecordCount(DDRQuery query) {
+
+            return ddrRecords.size();
+        }
+
+        void add(String id, String adapterId, long start) {
+
+            DDRRecord ddrRecord = new DDRRecord();
+            ddrRecord.setId(id);
+            ddrRecord.setAdapterId(adapterId);
+            ddrRecord.setStart(start);
+            ddrRecord.setStatus(CommunicationStatus.SENT);
+            ddrRecords.add(ddrRecord);
+        }
+
+        private static DDRRecord copy(DDRRecord ddrRecord) {
+
+            DDRRecord copy = new DDRRecord();
+            copy.setId(ddrRecord.getId());
+            copy.setAdapterId(ddrRecord.getAdapterId());
+            copy.setStart(ddrRecord.getStart());
+            copy.setStatus(ddrRecord.getStatus());
+            copy.setTotalCost(ddrRecord.getTotalCost());
+            return copy;
+        }
+    }
+
+    /**
+     * Collects the handled ddrRecord ids
+     */
+    static class Collector implements RecordHandler<DDRRecord> {
+
+        final List<String> ids = new ArrayList<String>();
+
+        @Override
+        public void handle(DDRRecord ddrRecord) {
+
+            ids.add(ddrRecord.getId());
+        }
+    }
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+
+        file = File.createTempFile("ddr", ".checkpoint");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+
+        file.delete();
+    }
+
+    @Test
+    public void deliversOnlyNewAndChangedTest() throws Exception {
+
+        ListSource source = new ListSource();
+        source.add("1", "a", 1000);
+        source.add("2", "a", 2000);
+        source.add("3", "b", 3000);
+        DDRSync sync = new DDRSync(source, "account", file);
+        sync.setOverlapMillis(500);
+
+        Collector first = new Collector();
+        DDRSync.Result result = sync.sync(null, first);
+        Assert.assertEquals(3, result.getNewCount());
+        Assert.assertEquals(3, first.ids.size());
+
+        source.ddrRecords.get(2).setStatus(CommunicationStatus.DELIVERED);
+        source.add("4", "a", 4000);
+        // reopen from the checkpoint file
+        sync = new DDRSync(source, "account", file);
+        sync.setOverlapMillis(500);
+        Collector second = new Collector();
+        result = sync.sync(null, second);
+        Assert.assertEquals(Long.valueOf(2500), source.requestedStartTimes.get(1));
+        Assert.assertEquals(1, result.getNewCount());
+        Assert.assertEquals(1, result.getUpdatedCount());
+        Assert.assertEquals(0, result.getUnchangedCount());
+        Assert.assertEquals(2, second.ids.size());
+        Assert.assertTrue(second.ids.contains("3") && second.ids.contains("4"));
+
+        result = sync.sync(null, new Collector());
+        Assert.assertEquals(0, result.getNewCount());
+        Assert.assertEquals(1, result.getUnchangedCount());
+    }
+
+    @Test
+    public void failedHandlerKeepsCheckpointTest() throws Exception {
+
+        ListSource source = new ListSource();
+        source.add("1", "a", 1000);
+        source.add("2", "b", 2000);
+        DDRQuery query = new DDRQuery();
+        query.setAdapterIds(Arrays.asList("a", "b"));
+        DDRSync sync = new DDRSync(source, "account", file);
+        try {
+            sync.sync(query, new RecordHandler<DDRRecord>() {
+
+                @Override
+                public void handle(DDRRecord ddrRecord) throws Exception {
+
+                    if ("2".equals(ddrRecord.getId())) {
+                        throw new Exception("Handler failed");
+                    }
+                }
+            });
+            Assert.fail("The handler error should be thrown");
+        }
+        catch (Exception e) {
+            Assert.assertEquals("Handler failed", e.getMessage());
+        }
+        Assert.assertFalse(file.exists());
+        Assert.assertTrue(sync.getCheckpoint().getWatermarks().isEmpty());
+
+        Collector collector = new Collector();
+        DDRSync.Result result = sync.sync(query, collector);
+        Assert.assertEquals(2, result.getNewCount());
+        Assert.assertEquals(2, sync.getCheckpoint().getWatermarks().size());
+        Assert.assertEquals(Long.valueOf(2000), sync.getCheckpoint().getWatermarks().get("account/b").getStart());
+    }
+
+    @Test
+    public void deliversRecordWithoutStartOnceTest() throws Exception {
+
+        ListSource source = new ListSource();
+        source.add("1", "a", 1000);
+        source.add("2", "a", 0);
+        source.ddrRecords.get(1).setStart(null);
+        DDRSync sync = new DDRSync(source, "account", file);
+        sync.setOverlapMillis(500);
+
+        Collector first = new Collector();
+        Assert.assertEquals(2, sync.sync(null, first).getNewCount());
+        source.add("3", "a", 5000);
+        Collector second = new Collector();
+        sync.sync(null, second);
+        // the watermark moved past the overlap, the fingerprint of 2 is kept anyway
+        Assert.assertEquals(Arrays.asList("3"), second.ids);
+        Collector third = new Collector();
+        DDRSync.Result result = sync.sync(null, third);
+        Assert.assertTrue(third.ids.isEmpty());
+        Assert.assertEquals(2, result.getUnchangedCount());
+    }
+}
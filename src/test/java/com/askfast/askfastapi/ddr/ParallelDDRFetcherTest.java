@@ -0,0 +1,178 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.model.DDRRecord;
+
+/**
+ * Tests the partitioning, merging and resuming of the
+ * {@link ParallelDDRFetcher}
+ */
+public class ParallelDDRFetcherTest {
+
+    /**
+     * Serves one ddrRecord per adapter every step ms between 0 and 10000, and
+     * can fail a number of requests
+     */
+    static class TimeSeriesSource implements DDRRecordSource {
+
+        final List<String> adapterIds;
+        final AtomicInteger failuresLeft = new AtomicInteger();
+        long step = 10;
+        boolean exclusiveEndTime = false;
+        int maxPageSize = Integer.MAX_VALUE;
+
+        TimeSeriesSource(List<String> adapterIds) {
+            this.adapterIds = adapterIds;
+        }
+
+        List<DDRRecord> matching(DDRQuery query) {
+
+            List<DDRRecord> result = new ArrayList<DDRRecord>();
+            for (long start = 0; start < 10000; start += step) {
+                if (start < query.getStartTime() || start > query.getEndTime()
+                    || (exclusiveEndTime && start == query.getEndTime())) {
+                    continue;
+                }
+                for (String adapterId : adapterIds) {
+                    if (query.getAdapterIds() == null || query.getAdapterIds().contains(adapterId)) {
+                        DDRRecord ddrRecord = new DDRRecord();
+                        ddrRecord.setId(adapterId + "-" + start);
+                        ddrRecord.setAdapterId(adapterId);
+                        ddrRecord.setStart(start);
+                        result.add(ddrRecord);
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<DDRRecord> getDDRRecords(DDRQuery query, Integer offset, Integer limit) throws Exception {
+
+            if (offset > 0 && failuresLeft.getAndDecrement() > 0) {
+                throw new Exception("Temporary failure");
+            }
+            List<DDRRecord> all = matching(query);
+            return new ArrayList<DDRRecord>(all.subList(Math.min(offset, all.size()),
+                Math.min(offset + Math.min(limit, maxPageSize), all.size())));
+        }
+
+        @Override
+        public Integer getDDRRecordCount(DDRQuery query) throws Exception {
+
+            return matching(query).size();
+        }
+    }
+
+    @Test
+    public void fetchesAllPartitionsInOrderTest() throws Exception {
+
+        List<String> adapterIds = Arrays.asList("a", "b", "c", "d", "e");
+        TimeSeriesSource source = new TimeSeriesSource(adapterIds);
+        ParallelDDRFetcher fetcher = new ParallelDDRFetcher(source, 4);
+        fetcher.setAdapterIdsPerPartition(2);
+        fetcher.setRecordsPerPartition(500);
+        fetcher.setPageSize(100);
+
+        DDRQuery query = new DDRQuery(0L, 9999L);
+        query.setAdapterIds(adapterIds);
+        ParallelDDRFetcher.Result result = fetcher.fetch(query);
+
+        Assert.assertTrue(result.isComplete());
+        Assert.assertTrue(result.getPartitions().size() > 3);
+        List<DDRRecord> ddrRecords = result.getRecords();
+        Assert.assertEquals(5000, ddrRecords.size());
+        for (int index = 1; index < ddrRecords.size(); index++) {
+            Assert.assertTrue(ddrRecords.get(index - 1).getStart() <= ddrRecords.get(index).getStart());
+        }
+    }
+
+    @Test
+    public void keepsSliceBoundariesTest() throws Exception {
+
+        for (boolean exclusiveEndTime : new boolean[] { false, true }) {
+            TimeSeriesSource source = new TimeSeriesSource(Arrays.asList("a"));
+            source.step = 1;
+            source.exclusiveEndTime = exclusiveEndTime;
+            ParallelDDRFetcher fetcher = new ParallelDDRFetcher(source, 4);
+            fetcher.setRecordsPerPartition(1000);
+
+            ParallelDDRFetcher.Result result = fetcher.fetch(new DDRQuery(0L, 10000L));
+            Assert.assertEquals(10, result.getPartitions().size());
+            List<DDRRecord> ddrRecords = result.getRecords();
+            Assert.assertEquals(10000, ddrRecords.size());
+            for (int index = 0; index < ddrRecords.size(); index++) {
+                Assert.assertEquals(Long.valueOf(index), ddrRecords.get(index).getStart());
+            }
+        }
+    }
+
+    @Test
+    public void pagesCappedByServerTest() throws Exception {
+
+        TimeSeriesSource source = new TimeSeriesSource(Arrays.asList("a", "b"));
+        source.maxPageSize = 30;
+        ParallelDDRFetcher fetcher = new ParallelDDRFetcher(source, 4);
+        fetcher.setRecordsPerPartition(500);
+        fetcher.setPageSize(100);
+
+        ParallelDDRFetcher.Result result = fetcher.fetch(new DDRQuery(0L, 9999L));
+        Assert.assertTrue(result.isComplete());
+        Assert.assertEquals(2000, result.getRecords().size());
+    }
+
+    @Test
+    public void partitionRecordsAreSnapshotTest() {
+
+        DDRPartition partition = new DDRPartition(new DDRQuery(0L, 10L), 2);
+        partition.addPage(Arrays.asList(new DDRRecord()), false);
+        List<DDRRecord> records = partition.getRecords();
+        partition.addPage(Arrays.asList(new DDRRecord()), true);
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals(2, partition.getRecords().size());
+    }
+
+    @Test
+    public void resumesFailedPartitionsTest() throws Exception {
+
+        TimeSeriesSource source = new TimeSeriesSource(Arrays.asList("a"));
+        source.failuresLeft.set(3);
+        ParallelDDRFetcher fetcher = new ParallelDDRFetcher(source, 1);
+        fetcher.setRecordsPerPartition(10000);
+        fetcher.setPageSize(100);
+        fetcher.setMaxAttempts(2);
+
+        ParallelDDRFetcher.Result result = fetcher.fetch(new DDRQuery(0L, 9999L));
+        Assert.assertFalse(result.isComplete());
+        DDRPartition failed = result.getFailedPartitions().get(0);
+        Assert.assertEquals(100, failed.getNextOffset());
+
+        Assert.assertTrue(result.resume());
+        Assert.assertEquals(1000, result.getRecords().size());
+        Assert.assertEquals(4, failed.getAttempts());
+    }
+
+    @Test
+    public void mergeSkipsDuplicatesTest() {
+
+        DDRRecord first = new DDRRecord();
+        first.setId("1");
+        first.setStart(5L);
+        DDRRecord second = new DDRRecord();
+        second.setId("2");
+        second.setStart(1L);
+
+        DDRPartition left = new DDRPartition(new DDRQuery(), 2);
+        left.addPage(Arrays.asList(first, second), true);
+        DDRPartition right = new DDRPartition(new DDRQuery(), 1);
+        right.addPage(Arrays.asList(first), true);
+
+        List<DDRRecord> merged = ParallelDDRFetcher.merge(Arrays.asList(left, right));
+        Assert.assertEquals(Arrays.asList(second, first), merged);
+    }
+}
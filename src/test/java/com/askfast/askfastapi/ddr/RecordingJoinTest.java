@@ -0,0 +1,111 @@
+package com.askfast.askfastapi.ddr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.Recording;
+import com.askfast.util.RecordHandler;
+
+/**
+ * Tests the matching of the {@link RecordingJoin}
+ */
+public class RecordingJoinTest {
+
+    private static Recording createRecording(String id, String ddrId, String adapterId) {
+
+        Recording recording = new Recording();
+        recording.setId(id);
+        recording.setDdrId(ddrId);
+        recording.setAdapterId(adapterId);
+        return recording;
+    }
+
+    private static List<DDRRecord> createDDRRecords(int count) {
+
+        List<DDRRecord> ddrRecords = new ArrayList<DDRRecord>();
+        for (int index = 0; index < count; index++) {
+            DDRRecord ddrRecord = new DDRRecord();
+            ddrRecord.setId("ddr" + index);
+            ddrRecord.setAdapterId("adapter");
+            ddrRecords.add(ddrRecord);
+        }
+        return ddrRecords;
+    }
+
+    @Test
+    public void joinsMatchingRecordingsTest() throws Exception {
+
+        List<Recording> recordings = new ArrayList<Recording>();
+        recordings.add(createRecording("r1", "ddr1", "adapter"));
+        recordings.add(createRecording("r2", "ddr1", null));
+        recordings.add(createRecording("r3", "ddr2", "other"));
+        recordings.add(createRecording("r4", "unknown", "adapter"));
+        recordings.add(createRecording("r5", null, "adapter"));
+        RecordingJoin join = new RecordingJoin(recordings);
+        join.setMatchAdapterId(true);
+
+        final List<String> matches = new ArrayList<String>();
+        long count = join.join(createDDRRecords(5), new RecordHandler<RecordingJoin.Match>() {
+
+            @Override
+            public void handle(RecordingJoin.Match match) {
+
+                matches.add(match.getDDRRecord().getId() + ":" + match.getRecording().getId());
+            }
+        });
+        Collections.sort(matches);
+        Assert.assertEquals(2, count);
+        Assert.assertEquals("[ddr1:r1, ddr1:r2]", matches.toString());
+        Assert.assertEquals(3, join.getUnmatchedRecordings().size());
+        Assert.assertEquals(2, join.getRecordings("ddr1").size());
+        Assert.assertEquals("r1", join.getRecordings("ddr1").get(0).getId());
+    }
+
+    @Test
+    public void joinsInParallelTest() throws Exception {
+
+        List<Recording> recordings = new ArrayList<Recording>();
+        for (int index = 0; index < 100000; index += 7) {
+            recordings.add(createRecording("r" + index, "ddr" + index, "adapter"));
+        }
+        RecordingJoin join = new RecordingJoin(recordings);
+        join.setBatchSize(100);
+        final AtomicInteger handled = new AtomicInteger();
+        long count = join.join(createDDRRecords(100000), 4, new RecordHandler<RecordingJoin.Match>() {
+
+            @Override
+            public void handle(RecordingJoin.Match match) {
+
+                handled.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(recordings.size(), count);
+        Assert.assertEquals(recordings.size(), handled.get());
+        Assert.assertTrue(join.getUnmatchedRecordings().isEmpty());
+    }
+
+    @Test
+    public void stopsOnHandlerErrorTest() throws Exception {
+
+        RecordingJoin join = new RecordingJoin(Collections.singletonList(createRecording("r", "ddr500", null)));
+        join.setBatchSize(10);
+        try {
+            join.join(createDDRRecords(10000), 2, new RecordHandler<RecordingJoin.Match>() {
+
+                @Override
+                public void handle(RecordingJoin.Match match) throws Exception {
+
+                    throw new Exception("Handler failed");
+                }
+            });
+            Assert.fail("The handler error should be thrown");
+        }
+        catch (Exception e) {
+            Assert.assertEquals("Handler failed", e.getMessage());
+        }
+    }
+}
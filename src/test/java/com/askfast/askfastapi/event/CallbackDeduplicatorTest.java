@@ -0,0 +1,180 @@
+package com.askfast.askfastapi.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.askfastapi.model.AnswerPost;
+import com.askfast.askfastapi.model.EventPost;
+
+/**
+ * Tests the fingerprints, window and concurrency of the
+ * {@link CallbackDeduplicator}
+ */
+public class CallbackDeduplicatorTest {
+
+    /**
+     * A deduplicator with a clock the test sets
+     */
+    private static class ClockedDeduplicator extends CallbackDeduplicator {
+
+        final AtomicLong now = new AtomicLong(1000);
+
+        ClockedDeduplicator(long windowMillis, int capacity) {
+            super(windowMillis, capacity);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+
+            // called by the super constructor, before now is set
+            return now == null ? 1000 : now.get();
+        }
+    }
+
+    private static EventPost createEvent(String questionId, String responder, String event) {
+
+        return new EventPost(responder, questionId, event, null, null);
+    }
+
+    private static AnswerPost createAnswer(String questionId, String answerId, String answerText) {
+
+        AnswerPost answer = new AnswerPost();
+        answer.setQuestion_id(questionId);
+        answer.setResponder("tel:0612345678");
+        answer.setAnswer_id(answerId);
+        answer.setAnswer_text(answerText);
+        return answer;
+    }
+
+    @Test
+    public void recognizesDuplicatesTest() {
+
+        CallbackDeduplicator deduplicator = new CallbackDeduplicator();
+
+        Assert.assertFalse(deduplicator.isDuplicate(createEvent("q1", "tel:0612345678", "delivered")));
+        Assert.assertTrue(deduplicator.isDuplicate(createEvent("q1", "tel:0612345678", "delivered")));
+        Assert.assertFalse(deduplicator.isDuplicate(createEvent("q1", "tel:0612345678", "read")));
+        Assert.assertFalse(deduplicator.isDuplicate(createEvent("q1", "tel:0687654321", "delivered")));
+        Assert.assertFalse(deduplicator.isDuplicate(createEvent("q2", "tel:0612345678", "delivered")));
+        // the fields don't shift into each other
+        Assert.assertFalse(deduplicator.isDuplicate(createEvent("q1t", "el:0612345678", "delivered")));
+        Assert.assertFalse(deduplicator.isDuplicate(createEvent(null, "tel:0612345678", "delivered")));
+
+        Assert.assertFalse(deduplicator.isDuplicate(createAnswer("menu", "1", null)));
+        Assert.assertTrue(deduplicator.isDuplicate(createAnswer("menu", "1", null)));
+        Assert.assertFalse(deduplicator.isDuplicate(createAnswer("menu", "2", null)));
+        Assert.assertFalse(deduplicator.isDuplicate(createAnswer("menu", null, "yes")));
+        Assert.assertFalse(deduplicator.isDuplicate(createAnswer("menu", null, "no")));
+        Assert.assertEquals(2, deduplicator.getDuplicateCount());
+
+        long fingerprint = CallbackDeduplicator.fingerprint(createEvent("q1", "tel:0612345678", "delivered"));
+        deduplicator.forget(fingerprint);
+        Assert.assertFalse(deduplicator.isDuplicate(fingerprint));
+        Assert.assertTrue(deduplicator.isDuplicate(fingerprint));
+    }
+
+    @Test
+    public void forgetsAfterTheWindowTest() {
+
+        ClockedDeduplicator deduplicator = new ClockedDeduplicator(1000, 100);
+        Assert.assertFalse(deduplicator.isDuplicate(1L));
+
+        // still remembered in the previous table after a rotation
+        deduplicator.now.addAndGet(600);
+        Assert.assertTrue(deduplicator.isDuplicate(1L));
+        Assert.assertFalse(deduplicator.isDuplicate(2L));
+        Assert.assertEquals(1, deduplicator.getRotationCount());
+
+        deduplicator.now.addAndGet(600);
+        Assert.assertFalse(deduplicator.isDuplicate(1L));
+        Assert.assertTrue(deduplicator.isDuplicate(2L));
+        // after a quiet period longer than the window nothing is left
+        Assert.assertFalse(deduplicator.isDuplicate(3L));
+        deduplicator.now.addAndGet(1100);
+        Assert.assertFalse(deduplicator.isDuplicate(3L));
+    }
+
+    @Test
+    public void staysWithinCapacityTest() {
+
+        ClockedDeduplicator deduplicator = new ClockedDeduplicator(1000, 1000);
+        for (long fingerprint = 1; fingerprint <= 100000; fingerprint++) {
+            Assert.assertFalse(deduplicator.isDuplicate(fingerprint * 0x9e3779b97f4a7c15L));
+        }
+        // a table is replaced when it holds 1000 fingerprints, the last two are left
+        Assert.assertEquals(99, deduplicator.getRotationCount());
+        Assert.assertTrue(deduplicator.isDuplicate(100000 * 0x9e3779b97f4a7c15L));
+        Assert.assertTrue(deduplicator.isDuplicate(98001 * 0x9e3779b97f4a7c15L));
+        Assert.assertFalse(deduplicator.isDuplicate(98000 * 0x9e3779b97f4a7c15L));
+    }
+
+    @Test
+    public void remembersCapacityPerHalfWindowTest() {
+
+        int capacity = CallbackDeduplicator.DEFAULT_CAPACITY;
+        ClockedDeduplicator deduplicator = new ClockedDeduplicator(1000, capacity);
+        Random random = new Random(42);
+        long[] fingerprints = new long[capacity * 2];
+        for (int index = 0; index < fingerprints.length; index++) {
+            fingerprints[index] = random.nextLong();
+            Assert.assertFalse(deduplicator.isDuplicate(fingerprints[index]));
+            // random fingerprints cluster, but a table only fills up at the capacity
+            Assert.assertEquals(index / capacity, deduplicator.getRotationCount());
+        }
+        for (long fingerprint : fingerprints) {
+            Assert.assertTrue(deduplicator.isDuplicate(fingerprint));
+        }
+        Assert.assertEquals(1, deduplicator.getRotationCount());
+    }
+
+    @Test
+    public void concurrentDuplicatesTest() throws Exception {
+
+        final CallbackDeduplicator deduplicator = new CallbackDeduplicator(60000, 1 << 16);
+        final int threads = 4;
+        final int fingerprints = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int thread = 0; thread < threads; thread++) {
+                results.add(executor.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+
+                        start.await();
+                        int added = 0;
+                        for (int index = 0; index < fingerprints; index++) {
+                            EventPost event = createEvent("q" + index, "tel:0612345678", "delivered");
+                            if (!deduplicator.isDuplicate(event)) {
+                                added++;
+                            }
+                        }
+                        return added;
+                    }
+                }));
+            }
+            start.countDown();
+            int added = 0;
+            for (Future<Integer> result : results) {
+                added += result.get(30, TimeUnit.SECONDS);
+            }
+            // every event passes exactly once
+            Assert.assertEquals(fingerprints, added);
+            Assert.assertEquals((threads - 1) * (long) fingerprints, deduplicator.getDuplicateCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.askfast.askfastapi.event;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.askfastapi.event.EventIngestor.OverflowPolicy;
+import com.askfast.askfastapi.model.EventPost;
+
+/**
+ * Tests the ring buffer, batching and overflow policies of the
+ * {@link EventIngestor}
+ */
+public class EventIngestorTest {
+
+    /**
+     * Keeps the question ids of the processed events. The first batch waits
+     * for the gate, so the buffer can be filled while the worker is busy
+     */
+    private static class RecordingHandler implements EventIngestor.BatchHandler {
+
+        final List<String> questionIds = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger maxBatch = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate;
+
+        RecordingHandler(boolean closed) {
+            gate = new CountDownLatch(closed ? 1 : 0);
+        }
+
+        @Override
+        public void handle(List<EventPost> events) throws Exception {
+
+            entered.countDown();
+            gate.await();
+            maxBatch.set(Math.max(maxBatch.get(), events.size()));
+            for (EventPost event : events) {
+                questionIds.add(event.getQuestion_id());
+            }
+        }
+    }
+
+    private static EventPost createEvent(String questionId) {
+
+        return new EventPost("tel:0612345678", questionId, "delivered", null, null);
+    }
+
+    @Test
+    public void ringBufferHandsOutEveryElementOnceTest() throws Exception {
+
+        final RingBuffer<Long> buffer = new RingBuffer<Long>(1000);
+        final int producers = 4;
+        final int perProducer = 100000;
+        final AtomicLong consumed = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(producers * 2);
+        try {
+            List<Future<Long>> sums = new ArrayList<Future<Long>>();
+            for (int producer = 0; producer < producers; producer++) {
+                final long first = producer * (long) perProducer;
+                executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+
+                        for (long value = first; value < first + perProducer; value++) {
+                            while (!buffer.offer(value)) {
+                                Thread.yield();
+                            }
+                        }
+                        return null;
+                    }
+                });
+                sums.add(executor.submit(new Callable<Long>() {
+
+                    @Override
+                    public Long call() {
+
+                        long sum = 0;
+                        while (consumed.get() < producers * (long) perProducer) {
+                            Long value = buffer.poll();
+                            if (value != null) {
+                                sum += value;
+                                consumed.incrementAndGet();
+                            }
+                        }
+                        return sum;
+                    }
+                }));
+            }
+            long sum = 0;
+            for (Future<Long> future : sums) {
+                sum += future.get(30, TimeUnit.SECONDS);
+            }
+            long count = producers * (long) perProducer;
+            Assert.assertEquals(count * (count - 1) / 2, sum);
+            Assert.assertNull(buffer.poll());
+            Assert.assertEquals(1024, buffer.capacity());
+            Assert.assertEquals(2, new RingBuffer<Long>(1).capacity());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void processesInBatchesTest() throws Exception {
+
+        RecordingHandler handler = new RecordingHandler(false);
+        EventIngestor ingestor = new EventIngestor(handler, 1 << 16, 100, 1, OverflowPolicy.REJECT);
+        ingestor.start();
+        List<String> expected = new ArrayList<String>();
+        for (int index = 0; index < 20000; index++) {
+            expected.add("q" + index);
+            Assert.assertTrue(ingestor.offer(createEvent("q" + index)));
+        }
+        Assert.assertTrue(ingestor.shutdown(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(expected, handler.questionIds);
+        Assert.assertTrue(handler.maxBatch.get() <= 100);
+        Assert.assertEquals(20000, ingestor.getProcessedCount());
+        Assert.assertFalse(ingestor.offer(createEvent("late")));
+        Assert.assertEquals(1, ingestor.getRejectedCount());
+    }
+
+    /**
+     * Blocks the worker on the first event, fills the buffer of 4 and offers
+     * one more
+     */
+    private static RecordingHandler overflow(OverflowPolicy policy, boolean expectQueued) throws Exception {
+
+        RecordingHandler handler = new RecordingHandler(true);
+        EventIngestor ingestor = new EventIngestor(handler, 4, 10, 1, policy);
+        ingestor.start();
+        Assert.assertTrue(ingestor.offer(createEvent("first")));
+        Assert.assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+        for (int index = 0; index < 4; index++) {
+            Assert.assertTrue(ingestor.offer(createEvent("q" + index)));
+        }
+        Assert.assertEquals(expectQueued, ingestor.offer(createEvent("extra")));
+        Assert.assertEquals(4, ingestor.getQueueSize());
+        handler.gate.countDown();
+        Assert.assertTrue(ingestor.shutdown(10, TimeUnit.SECONDS));
+        Assert.assertEquals(policy == OverflowPolicy.REJECT ? 1 : 0, ingestor.getRejectedCount());
+        Assert.assertEquals(policy == OverflowPolicy.REJECT ? 0 : 1, ingestor.getDroppedCount());
+        Assert.assertEquals(5, ingestor.getProcessedCount());
+        return handler;
+    }
+
+    @Test
+    public void overflowPoliciesTest() throws Exception {
+
+        Assert.assertEquals(Arrays.asList("first", "q0", "q1", "q2", "q3"),
+            overflow(OverflowPolicy.REJECT, false).questionIds);
+        Assert.assertEquals(Arrays.asList("first", "q0", "q1", "q2", "q3"),
+            overflow(OverflowPolicy.DROP_NEWEST, false).questionIds);
+        Assert.assertEquals(Arrays.asList("first", "q1", "q2", "q3", "extra"),
+            overflow(OverflowPolicy.DROP_OLDEST, true).questionIds);
+    }
+
+    @Test
+    public void wakesIdleWorkerTest() throws Exception {
+
+        RecordingHandler handler = new RecordingHandler(false);
+        EventIngestor ingestor = new EventIngestor(handler, 16, 10, 1, OverflowPolicy.REJECT);
+        ingestor.start();
+        try {
+            // the worker is parked by now, for up to a second
+            Thread.sleep(100);
+            long start = System.nanoTime();
+            Assert.assertTrue(ingestor.offer(createEvent("a")));
+            Assert.assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        }
+        finally {
+            ingestor.close();
+        }
+    }
+
+    @Test
+    public void processesEveryAcknowledgedEventTest() throws Exception {
+
+        final RecordingHandler handler = new RecordingHandler(false);
+        final EventIngestor ingestor = new EventIngestor(handler, 1 << 20, 100, 2, OverflowPolicy.REJECT);
+        ingestor.start();
+        int producers = 4;
+        final CountDownLatch started = new CountDownLatch(producers);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            List<Future<Integer>> acknowledged = new ArrayList<Future<Integer>>();
+            for (int producer = 0; producer < producers; producer++) {
+                final String prefix = "p" + producer + "-";
+                acknowledged.add(executor.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() {
+
+                        started.countDown();
+                        int count = 0;
+                        // offers until the shutdown, so some race with it
+                        while (ingestor.offer(createEvent(prefix + count))) {
+                            count++;
+                        }
+                        return count;
+                    }
+                }));
+            }
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            Thread.sleep(20);
+            Assert.assertTrue(ingestor.shutdown(10, TimeUnit.SECONDS));
+            int count = 0;
+            for (Future<Integer> future : acknowledged) {
+                count += future.get(10, TimeUnit.SECONDS);
+            }
+            Assert.assertTrue(count > 0);
+            Assert.assertEquals(count, ingestor.getProcessedCount());
+            Assert.assertEquals(count, handler.questionIds.size());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void leavesOutDuplicatesTest() throws Exception {
+
+        RecordingHandler handler = new RecordingHandler(false);
+        EventIngestor ingestor = new EventIngestor(handler, 16, 10, 1, OverflowPolicy.REJECT);
+        ingestor.setDeduplicator(new CallbackDeduplicator());
+        for (String questionId : Arrays.asList("a", "b", "a", "c", "b")) {
+            Assert.assertFalse(ingestor.offer(createEvent(questionId)));
+        }
+        ingestor.start();
+        for (String questionId : Arrays.asList("a", "b", "a", "c", "b")) {
+            Assert.assertTrue(ingestor.offer(createEvent(questionId)));
+        }
+        Assert.assertTrue(ingestor.shutdown(10, TimeUnit.SECONDS));
+
+        // the rejected events were not remembered
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), handler.questionIds);
+        Assert.assertEquals(2, ingestor.getDuplicateCount());
+        Assert.assertEquals(3, ingestor.getProcessedCount());
+    }
+
+    @Test
+    public void servletAcknowledgesRightAwayTest() throws Exception {
+
+        final RecordingHandler handler = new RecordingHandler(true);
+        EventIngestionServlet servlet = new EventIngestionServlet() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected EventIngestor createIngestor() {
+
+                return new EventIngestor(handler, 2, 10, 1, OverflowPolicy.REJECT);
+            }
+        };
+        servlet.init();
+        try {
+            Assert.assertEquals(HttpServletResponse.SC_OK, post(servlet, "{'question_id': 'a', 'event': 'delivered'}"));
+            Assert.assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(HttpServletResponse.SC_OK, post(servlet, "{'question_id': 'b', 'event': 'read'}"));
+            Assert.assertEquals(HttpServletResponse.SC_OK, post(servlet, "{'question_id': 'c', 'event': 'read'}"));
+            // the worker is still busy with the first event, the buffer is full
+            Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                post(servlet, "{'question_id': 'd', 'event': 'read'}"));
+            Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST, post(servlet, "{'question_id': 'e'}"));
+            handler.gate.countDown();
+        }
+        finally {
+            servlet.destroy();
+        }
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), handler.questionIds);
+    }
+
+    /**
+     * Posts the body, with ' for ", and returns the status
+     */
+    private static int post(EventIngestionServlet servlet, String body) throws IOException {
+
+        final InputStream in = new ByteArrayInputStream(body.replace('\'', '"').getBytes("UTF-8"));
+        HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+            EventIngestorTest.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+            new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+
+                    if (method.getName().equals("getInputStream")) {
+                        return new ServletInputStream() {
+
+                            @Override
+                            public int read() throws IOException {
+
+                                return in.read();
+                            }
+                        };
+                    }
+                    return null;
+                }
+            });
+        final int[] status = new int[1];
+        HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+            EventIngestorTest.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+            new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+
+                    if (method.getName().equals("setStatus") || method.getName().equals("sendError")) {
+                        status[0] = (Integer) args[0];
+                    }
+                    return null;
+                }
+            });
+        servlet.doPost(request, response);
+        return status[0];
+    }
+}
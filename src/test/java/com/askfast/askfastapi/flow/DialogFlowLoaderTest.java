@@ -0,0 +1,204 @@
+package com.askfast.askfastapi.flow;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.askfast.askfastapi.model.EventPost.EventType;
+import com.askfast.askfastapi.model.MediaProperty.MediaPropertyKey;
+import com.askfast.askfastapi.model.MediaProperty.MediumType;
+import com.askfast.askfastapi.model.Question;
+
+/**
+ * Tests reading dialog flows from json files and swapping in new versions
+ * when the files change
+ */
+public class DialogFlowLoaderTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+
+        directory = Files.createTempDirectory("dialog-flows").toFile();
+    }
+
+    @After
+    public void tearDown() {
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Writes the flow through a temporary file, as a deployment would, with '
+     * for "
+     */
+    private void writeFlow(String name, String json) throws Exception {
+
+        File temporary = new File(directory, name + ".tmp");
+        Files.write(temporary.toPath(), json.replace('\'', '"').getBytes("UTF-8"));
+        Files.move(temporary.toPath(), new File(directory, name + ".json").toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String createPartyFlow(String thanks) {
+
+        return "{'questions': ["
+            + "{'question_id': 'start', 'type': 'closed', 'question_text': 'Are you coming?',"
+            + " 'answers': [{'answer_id': 'yes', 'answer_text': 'Yup', 'callback': 'thanks'},"
+            + "  {'answer_id': 'no', 'answer_text': 'Nope', 'callback': 'transfer'}],"
+            + " 'event_callbacks': [{'event': 'timeout', 'callback': 'start'}],"
+            + " 'media_properties': [{'medium': 'BROADSOFT', 'properties': {'TIMEOUT': '10'}}]},"
+            + "{'question_id': 'thanks', 'type': 'comment', 'question_text': '" + thanks + "',"
+            + " 'answers': [{'callback': 'message'}]},"
+            + "{'question_id': 'message', 'type': 'audio', 'question_text': 'Leave a message',"
+            + " 'answers': [{'callback': 'bye'}]},"
+            + "{'question_id': 'transfer', 'type': 'referral', 'url': ['0612345678']},"
+            + "{'question_id': 'bye', 'type': 'exit', 'question_text': 'Bye'}]}";
+    }
+
+    private static String getText(DialogRouter router, String node) {
+
+        return Question.fromJson(router.render(node, "http://example.com")).getQuestion_text();
+    }
+
+    @Test
+    public void readsQuestionFormatTest() throws Exception {
+
+        writeFlow("party", createPartyFlow("Thanks"));
+        DialogFlowLoader loader = new DialogFlowLoader(directory);
+        Assert.assertEquals(1, loader.reload());
+        DialogRouter router = loader.getRouter("party");
+
+        Assert.assertEquals("start", router.getStartNode());
+        Assert.assertEquals("thanks", router.route("start", "yes"));
+        Assert.assertEquals("start", router.routeEvent("start", EventType.timeout));
+        Assert.assertEquals("message", router.route("thanks", DialogFlow.NEXT));
+        Assert.assertEquals("bye", router.route("message", DialogFlow.NEXT));
+
+        Question start = Question.fromJson(router.render("start", "http://example.com"));
+        Assert.assertEquals(Question.QUESTION_TYPE_CLOSED, start.getType());
+        Assert.assertEquals("http://example.com/party?node=start&answer=yes", start.getAnswers().get(0).getCallback());
+        Assert.assertEquals("10", start.getMediaProperties().iterator().next().getProperties()
+            .get(MediaPropertyKey.TIMEOUT));
+        Question message = Question.fromJson(router.render("message", "http://example.com"));
+        Assert.assertEquals(MediumType.BROADSOFT, message.getMediaProperties().iterator().next().getMedium());
+        Assert.assertEquals(Question.QUESTION_TYPE_VOICE_RECORDING, message.getMediaProperties().iterator().next()
+            .getProperties().get(MediaPropertyKey.TYPE));
+        Question transfer = Question.fromJson(router.render("transfer", "http://example.com"));
+        Assert.assertEquals(Arrays.asList("tel:0612345678"), transfer.getUrl());
+    }
+
+    @Test
+    public void keepsPreviousVersionOnErrorTest() throws Exception {
+
+        writeFlow("party", createPartyFlow("Thanks"));
+        writeFlow("other", "{'path': '/elsewhere', 'start': 'b', 'questions': ["
+            + "{'question_id': 'a', 'type': 'exit'}, {'question_id': 'b', 'type': 'exit'}]}");
+        DialogFlowLoader loader = new DialogFlowLoader(directory);
+        Assert.assertEquals(2, loader.reload());
+        DialogRouter party = loader.getRouter("party");
+        Assert.assertEquals("b", loader.getRouter("other").getStartNode());
+        Assert.assertEquals(0, loader.reload());
+
+        writeFlow("party", createPartyFlow("Thanks").replace("'callback': 'bye'", "'callback': 'missing'"));
+        Assert.assertEquals(0, loader.reload());
+        Assert.assertSame(party, loader.getRouter("party"));
+        Assert.assertTrue(loader.getErrors().get("party").contains("unknown node missing"));
+
+        writeFlow("party", "{'questions': [{'question_id': 'start', 'type': 'reject'}]}");
+        Assert.assertEquals(0, loader.reload());
+        Assert.assertTrue(loader.getErrors().get("party").contains("unsupported type"));
+
+        writeFlow("party", createPartyFlow("Thanks a lot"));
+        Assert.assertEquals(1, loader.reload());
+        Assert.assertTrue(loader.getErrors().isEmpty());
+        Assert.assertEquals("text://Thanks a lot", getText(loader.getRouter("party"), "thanks"));
+
+        new File(directory, "other.json").delete();
+        Assert.assertEquals(1, loader.reload());
+        Assert.assertNull(loader.getRouter("other"));
+        Assert.assertEquals(3, loader.getVersion());
+    }
+
+    @Test
+    public void keepsFlowOfUnreadableFileTest() throws Exception {
+
+        writeFlow("party", createPartyFlow("Thanks"));
+        DialogFlowLoader loader = new DialogFlowLoader(directory);
+        Assert.assertEquals(1, loader.reload());
+        DialogRouter party = loader.getRouter("party");
+
+        // a directory is listed like the file, but can't be read
+        File file = new File(directory, "party.json");
+        Assert.assertTrue(file.delete());
+        Assert.assertTrue(file.mkdir());
+        Assert.assertEquals(0, loader.reload());
+        Assert.assertSame(party, loader.getRouter("party"));
+
+        Assert.assertTrue(file.delete());
+        writeFlow("party", createPartyFlow("Thanks"));
+        Assert.assertEquals(0, loader.reload());
+        Assert.assertSame(party, loader.getRouter("party"));
+    }
+
+    @Test
+    public void swapsChangedFilesWhileRenderingTest() throws Exception {
+
+        writeFlow("party", createPartyFlow("Version 0"));
+        final DialogFlowLoader loader = new DialogFlowLoader(directory);
+        loader.start();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger renders = new AtomicInteger();
+        Thread reader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try {
+                    while (running.get()) {
+                        String text = getText(loader.getRouter("party"), "thanks");
+                        Assert.assertTrue(text, text.startsWith("text://Version "));
+                        renders.incrementAndGet();
+                    }
+                }
+                catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        reader.start();
+        try {
+            for (int version = 1; version <= 3; version++) {
+                writeFlow("party", createPartyFlow("Version " + version));
+                long deadline = System.currentTimeMillis() + 10000;
+                while (!getText(loader.getRouter("party"), "thanks").equals("text://Version " + version)) {
+                    Assert.assertTrue("Version " + version + " was not loaded", System.currentTimeMillis() < deadline);
+                    Thread.sleep(20);
+                }
+            }
+        }
+        finally {
+            running.set(false);
+            reader.join();
+            loader.close();
+        }
+        Assert.assertNull(failure.get());
+        Assert.assertTrue(renders.get() > 0);
+        Assert.assertEquals(4, loader.getVersion());
+    }
+}
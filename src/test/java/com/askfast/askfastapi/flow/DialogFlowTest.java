@@ -0,0 +1,259 @@
+package com.askfast.askfastapi.flow;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.askfastapi.AskFast;
+import com.askfast.askfastapi.model.EventPost.EventType;
+import com.askfast.askfastapi.model.MediaProperty.MediaPropertyKey;
+import com.askfast.askfastapi.model.MediaProperty.MediumType;
+import com.askfast.askfastapi.model.Question;
+
+/**
+ * Tests the validation, routing and rendering of a compiled
+ * {@link DialogFlow}
+ */
+public class DialogFlowTest {
+
+    private static DialogFlow createPartyFlow() {
+
+        DialogFlow flow = new DialogFlow("/party");
+        flow.ask("start", "Are you coming to my bday party?")
+            .addAnswer("yes", "Yup", "accepted")
+            .addAnswer("no", "Nope", "declined")
+            .addEvent(EventType.timeout, "start")
+            .addMediaProperty(MediumType.BROADSOFT, MediaPropertyKey.TIMEOUT, "10");
+        flow.say("accepted", "Thanks for your accepting!").next("transfer");
+        flow.say("declined", "Thanks for your reply!");
+        flow.redirect("transfer", "0612345678", "Connecting you").next("bye");
+        flow.exit("bye", "Goodbye");
+        return flow;
+    }
+
+    @Test
+    public void routesAnswersAndEventsTest() {
+
+        DialogRouter router = createPartyFlow().compile();
+
+        Assert.assertEquals("start", router.getStartNode());
+        Assert.assertEquals(5, router.size());
+        Assert.assertEquals("accepted", router.route("start", "yes"));
+        Assert.assertEquals("declined", router.route("start", "no"));
+        Assert.assertEquals("transfer", router.route("accepted", DialogFlow.NEXT));
+        Assert.assertEquals("start", router.routeEvent("start", EventType.timeout));
+        Assert.assertNull(router.route("start", "maybe"));
+        Assert.assertNull(router.route("unknown", "yes"));
+        Assert.assertNull(router.routeEvent("start", EventType.hangup));
+    }
+
+    @Test
+    public void rendersSameQuestionAsAskFastTest() {
+
+        DialogRouter router = createPartyFlow().compile();
+        String baseURL = "http://party.example.com";
+
+        AskFast askFast = new AskFast(baseURL);
+        askFast.ask("Are you coming to my bday party?", "");
+        askFast.addAnswer("Yup", "/party?node=start&answer=yes");
+        askFast.addAnswer("Nope", "/party?node=start&answer=no");
+        askFast.addEvent(EventType.timeout, "/party?node=start&event=timeout");
+        askFast.addMediaProperty(MediumType.BROADSOFT, MediaPropertyKey.TIMEOUT, "10");
+        assertSameQuestion(askFast, router.render("start", baseURL));
+
+        askFast = new AskFast(baseURL);
+        askFast.redirect("0612345678", "Connecting you", "/party?node=transfer&answer=next");
+        assertSameQuestion(askFast, router.render("transfer", baseURL));
+
+        askFast = new AskFast(baseURL);
+        askFast.exit("Goodbye");
+        assertSameQuestion(askFast, router.render("bye", baseURL));
+        Assert.assertNull(router.render("unknown", baseURL));
+    }
+
+    @Test
+    public void rendersNewQuestionIdsTest() {
+
+        DialogRouter router = createPartyFlow().compile();
+
+        Question first = Question.fromJson(router.render("declined", "http://a.example.com"));
+        Question second = Question.fromJson(router.render("declined", "http://b.example.com"));
+
+        Assert.assertNotEquals(first.getQuestion_id(), second.getQuestion_id());
+        Assert.assertEquals("text://Thanks for your reply!", second.getQuestion_text());
+        // a host that needs escaping stays valid JSON
+        Question quoted = Question.fromJson(router.render("start", "http://a\"b"));
+        Assert.assertEquals("http://a\"b/party?node=start&answer=yes", quoted.getAnswers().get(0).getCallback());
+    }
+
+    @Test
+    public void reportsInvalidFlowTest() {
+
+        DialogFlow flow = new DialogFlow("/invalid");
+        flow.ask("start", "Well?").addAnswer("yes", "Yes", "missing");
+        flow.ask("open", "Anything else?");
+        flow.say("end", "Bye").addEvent(EventType.hangup, "gone");
+        try {
+            flow.compile();
+            Assert.fail("An invalid flow compiled");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("start leads to unknown node missing"));
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("open asks without answers or a next node"));
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("end leads to unknown node gone"));
+        }
+        try {
+            flow.say("start", "Again");
+            Assert.fail("A duplicate node was added");
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("start"));
+        }
+        try {
+            flow.say("statement", "Bye").addAnswer("ok", "Ok", "start");
+            Assert.fail("A statement got an answer");
+        }
+        catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("statement"));
+        }
+        try {
+            flow.say("has space", "Bye");
+            Assert.fail("An id that breaks the callback url was accepted");
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("has space"));
+        }
+    }
+
+    @Test
+    public void routesLargeFlowTest() {
+
+        // a menu of 100 levels with 9 options each, every option one level down
+        DialogFlow flow = new DialogFlow("/ivr");
+        int levels = 100;
+        for (int level = 0; level < levels; level++) {
+            DialogNode menu = flow.ask("menu" + level, "Menu " + level);
+            for (int option = 1; option <= 9; option++) {
+                menu.addAnswer(String.valueOf(option), "Option " + option, "option" + level + "-" + option);
+            }
+        }
+        for (int level = 0; level < levels; level++) {
+            for (int option = 1; option <= 9; option++) {
+                String next = level + 1 < levels ? "menu" + (level + 1) : "menu0";
+                flow.say("option" + level + "-" + option, "You chose " + option).next(next);
+            }
+        }
+        DialogRouter router = flow.compile();
+
+        Assert.assertEquals(levels * 10, router.size());
+        String node = router.getStartNode();
+        for (int level = 0; level < levels; level++) {
+            String option = router.route(node, String.valueOf(level % 9 + 1));
+            Assert.assertEquals("option" + level + "-" + (level % 9 + 1), option);
+            node = router.route(option, DialogFlow.NEXT);
+        }
+        Assert.assertEquals("menu0", node);
+    }
+
+    @Test
+    public void handlesCallbacksTest() throws Exception {
+
+        DialogRouter router = createPartyFlow().compile();
+
+        Map<String, String> params = new HashMap<String, String>();
+        StringWriter output = new StringWriter();
+        int[] status = new int[1];
+        Assert.assertTrue(router.handle(createRequest(params), createResponse(output, status)));
+        Assert.assertEquals("text://Are you coming to my bday party?",
+            Question.fromJson(output.toString()).getQuestion_text());
+
+        params.put(DialogFlow.NODE_PARAM, "start");
+        params.put(DialogFlow.ANSWER_PARAM, "yes");
+        output = new StringWriter();
+        Assert.assertTrue(router.handle(createRequest(params), createResponse(output, status)));
+        Question question = Question.fromJson(output.toString());
+        Assert.assertEquals("text://Thanks for your accepting!", question.getQuestion_text());
+        Assert.assertEquals("http://party.example.com:8080/party?node=accepted&answer=next",
+            question.getAnswers().get(0).getCallback());
+
+        params.remove(DialogFlow.ANSWER_PARAM);
+        params.put(DialogFlow.EVENT_PARAM, "unknownEvent");
+        Assert.assertFalse(router.handle(createRequest(params), createResponse(new StringWriter(), status)));
+        Assert.assertEquals(HttpServletResponse.SC_NOT_FOUND, status[0]);
+    }
+
+    @Test
+    public void redirectsToAllAddressesTest() {
+
+        DialogFlow flow = new DialogFlow("/redirect?tenant=1");
+        flow.redirect("start", Arrays.asList("0611111111", "0622222222"), null).next("end");
+        flow.exit("end", "Bye");
+        Question question = Question.fromJson(flow.compile().render("start", "http://r.example.com"));
+
+        Assert.assertEquals(Arrays.asList("tel:0611111111", "tel:0622222222"), question.getUrl());
+        Assert.assertEquals("http://r.example.com/redirect?tenant=1&node=start&answer=next",
+            question.getAnswers().get(0).getCallback());
+    }
+    private static void assertSameQuestion(AskFast expected, String json) {
+
+        Question question = Question.fromJson(json);
+        expected.getQuestion().setQuestion_id(question.getQuestion_id());
+        // the answer ids are fixed per node
+        for (int index = 0; index < question.getAnswers().size(); index++) {
+            expected.getQuestion().getAnswers().get(index).setAnswer_id(question.getAnswers().get(index).getAnswer_id());
+        }
+        Assert.assertEquals(expected.render(), json);
+    }
+
+    private static HttpServletRequest createRequest(final Map<String, String> params) {
+
+        return (HttpServletRequest) Proxy.newProxyInstance(DialogFlowTest.class.getClassLoader(),
+            new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+
+                    if (method.getName().equals("getParameter")) {
+                        return params.get(args[0]);
+                    }
+                    if (method.getName().equals("getScheme")) {
+                        return "http";
+                    }
+                    if (method.getName().equals("getServerName")) {
+                        return "party.example.com";
+                    }
+                    if (method.getName().equals("getServerPort")) {
+                        return 8080;
+                    }
+                    return null;
+                }
+            });
+    }
+
+    private static HttpServletResponse createResponse(final StringWriter output, final int[] status) {
+
+        return (HttpServletResponse) Proxy.newProxyInstance(DialogFlowTest.class.getClassLoader(),
+            new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+
+                    if (method.getName().equals("getWriter")) {
+                        return new PrintWriter(output);
+                    }
+                    if (method.getName().equals("sendError")) {
+                        status[0] = (Integer) args[0];
+                    }
+                    return null;
+                }
+            });
+    }
+}
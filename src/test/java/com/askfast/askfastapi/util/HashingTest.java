@@ -0,0 +1,26 @@
+package com.askfast.askfastapi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link Hashing} against known FNV-1a values
+ */
+public class HashingTest {
+
+    @Test
+    public void fnv1aTest() {
+
+        Assert.assertEquals(0xcbf29ce484222325L, Hashing.fnv1a(""));
+        Assert.assertEquals(0xaf63dc4c8601ec8cL, Hashing.fnv1a("a"));
+        Assert.assertEquals(0x85944171f73967e8L, Hashing.fnv1a("foobar"));
+        Assert.assertEquals(Hashing.fnv1a("foobar"), Hashing.fnv1a(Hashing.fnv1a("foo"), "bar"));
+    }
+
+    @Test
+    public void mixTest() {
+
+        Assert.assertEquals(0, Hashing.mix(0));
+        Assert.assertNotEquals(Hashing.mix(1) >>> 56, Hashing.mix(2) >>> 56);
+    }
+}
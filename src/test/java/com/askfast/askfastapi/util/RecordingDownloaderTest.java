@@ -0,0 +1,260 @@
+package com.askfast.askfastapi.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.askfast.askfastapi.util.RecordingDownloader.Download;
+import com.squareup.okhttp.OkHttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the streaming, resuming and parallel downloads of the
+ * {@link RecordingDownloader} against a local HTTP server
+ */
+public class RecordingDownloaderTest {
+
+    private final byte[] audio = new byte[3 * 1024 * 1024 + 17];
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private volatile boolean rangeSupported = true;
+    private volatile boolean totalOnUnsatisfiableRange = true;
+    private HttpServer server;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+
+        new Random(41).nextBytes(audio);
+        directory = Files.createTempDirectory("recordings").toFile();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/recording", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+
+                int current = active.incrementAndGet();
+                while (maxActive.get() < current && !maxActive.compareAndSet(maxActive.get(), current)) {
+                    // retry
+                }
+                try {
+                    serve(exchange);
+                }
+                finally {
+                    active.decrementAndGet();
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/missing", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+
+        server.stop(0);
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+
+        if (!"Bearer token".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            exchange.sendResponseHeaders(401, -1);
+            return;
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int start = 0;
+        if (range != null && rangeSupported) {
+            rangeRequests.incrementAndGet();
+            start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            if (start >= audio.length) {
+                if (totalOnUnsatisfiableRange) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + audio.length);
+                }
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range",
+                "bytes " + start + "-" + (audio.length - 1) + "/" + audio.length);
+            exchange.sendResponseHeaders(206, audio.length - start);
+        }
+        else {
+            exchange.sendResponseHeaders(200, audio.length);
+        }
+        try {
+            // slow enough for the downloads to overlap
+            Thread.sleep(50);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        OutputStream out = exchange.getResponseBody();
+        out.write(audio, start, audio.length - start);
+        out.close();
+    }
+
+    private String getUrl(String path) {
+
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private RecordingDownloader createDownloader() {
+
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Authorization", "Bearer token");
+        return new RecordingDownloader(new OkHttpClient(), headers);
+    }
+
+    @Test
+    public void downloadsToFileTest() throws Exception {
+
+        File target = new File(directory, "1.wav");
+        Download download = createDownloader().download(getUrl("/recording/1.wav"), target);
+
+        Assert.assertTrue(download.isSuccessful());
+        Assert.assertEquals(audio.length, download.getLength());
+        Assert.assertEquals(0, download.getResumedFrom());
+        Assert.assertArrayEquals(audio, Files.readAllBytes(target.toPath()));
+        Assert.assertFalse(new File(directory, "1.wav" + RecordingDownloader.PART_SUFFIX).exists());
+        Assert.assertEquals(0, rangeRequests.get());
+    }
+
+    @Test
+    public void resumesPartialDownloadTest() throws Exception {
+
+        File target = new File(directory, "1.wav");
+        File part = new File(directory, "1.wav" + RecordingDownloader.PART_SUFFIX);
+        int received = 1024 * 1024 + 5;
+        Files.write(part.toPath(), Arrays.copyOf(audio, received));
+
+        Download download = createDownloader().download(getUrl("/recording/1.wav"), target);
+
+        Assert.assertEquals(received, download.getResumedFrom());
+        Assert.assertEquals(1, rangeRequests.get());
+        Assert.assertArrayEquals(audio, Files.readAllBytes(target.toPath()));
+        Assert.assertFalse(part.exists());
+    }
+
+    @Test
+    public void completedPartIsMovedTest() throws Exception {
+
+        File target = new File(directory, "1.wav");
+        Files.write(new File(directory, "1.wav" + RecordingDownloader.PART_SUFFIX).toPath(), audio);
+
+        Download download = createDownloader().download(getUrl("/recording/1.wav"), target);
+
+        Assert.assertTrue(download.isSuccessful());
+        Assert.assertArrayEquals(audio, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void restartsWhenUnsatisfiableRangeHasNoTotalTest() throws Exception {
+
+        totalOnUnsatisfiableRange = false;
+        File target = new File(directory, "1.wav");
+        File part = new File(directory, "1.wav" + RecordingDownloader.PART_SUFFIX);
+        // as long as the audio, but not the audio
+        Files.write(part.toPath(), new byte[audio.length]);
+
+        Download download = createDownloader().download(getUrl("/recording/1.wav"), target);
+
+        Assert.assertEquals(0, download.getResumedFrom());
+        Assert.assertEquals(1, rangeRequests.get());
+        Assert.assertArrayEquals(audio, Files.readAllBytes(target.toPath()));
+        Assert.assertFalse(part.exists());
+    }
+
+    @Test
+    public void restartsWhenRangeIgnoredTest() throws Exception {
+
+        rangeSupported = false;
+        File target = new File(directory, "1.wav");
+        File part = new File(directory, "1.wav" + RecordingDownloader.PART_SUFFIX);
+        // bytes that don't match the audio, which must be overwritten
+        Files.write(part.toPath(), new byte[1000]);
+
+        Download download = createDownloader().download(getUrl("/recording/1.wav"), target);
+
+        Assert.assertEquals(0, download.getResumedFrom());
+        Assert.assertArrayEquals(audio, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void skipsExistingTargetTest() throws Exception {
+
+        File target = new File(directory, "1.wav");
+        Files.write(target.toPath(), new byte[] { 1, 2, 3 });
+
+        Download download = createDownloader().download(getUrl("/recording/1.wav"), target);
+
+        Assert.assertEquals(3, download.getLength());
+        Assert.assertEquals(0, maxActive.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void failedResponseTest() throws Exception {
+
+        createDownloader().download(getUrl("/missing/1.wav"), new File(directory, "1.wav"));
+    }
+
+    @Test
+    public void downloadsInParallelTest() throws Exception {
+
+        Map<String, File> downloads = new LinkedHashMap<String, File>();
+        for (int index = 0; index < 8; index++) {
+            downloads.put(getUrl("/recording/" + index + ".wav"), new File(directory, index + ".wav"));
+        }
+        downloads.put(getUrl("/missing/1.wav"), new File(directory, "missing.wav"));
+
+        List<Download> result = createDownloader().downloadAll(downloads, 3);
+
+        Assert.assertEquals(9, result.size());
+        for (int index = 0; index < 8; index++) {
+            Assert.assertTrue(result.get(index).isSuccessful());
+            Assert.assertEquals(new File(directory, index + ".wav"), result.get(index).getFile());
+            Assert.assertArrayEquals(audio, Files.readAllBytes(result.get(index).getFile().toPath()));
+        }
+        Assert.assertFalse(result.get(8).isSuccessful());
+        Assert.assertNotNull(result.get(8).getError());
+        Assert.assertTrue(maxActive.get() > 1 && maxActive.get() <= 3);
+    }
+
+    @Test
+    public void parsesContentRangeTest() {
+
+        Assert.assertEquals(100, RecordingDownloader.parseContentRange("bytes 100-199/200", 0));
+        Assert.assertEquals(200, RecordingDownloader.parseContentRange("bytes 100-199/200", 2));
+        Assert.assertEquals(200, RecordingDownloader.parseContentRange("bytes */200", 2));
+        Assert.assertEquals(-1, RecordingDownloader.parseContentRange("bytes */200", 0));
+        Assert.assertEquals(-1, RecordingDownloader.parseContentRange("bytes 0-99/*", 2));
+        Assert.assertEquals(-1, RecordingDownloader.parseContentRange(null, 0));
+    }
+}
@@ -0,0 +1,120 @@
+package com.askfast.util;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.model.Dialog;
+import com.fasterxml.jackson.core.type.TypeReference;
+import retrofit.RestAdapter;
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.mime.TypedByteArray;
+
+/**
+ * Tests if the {@link ConditionalClient} sends validators and reuses parsed
+ * objects
+ */
+public class ConditionalClientTest {
+
+    private static final String DIALOGS = "[{\"id\":\"1\",\"name\":\"Test\",\"url\":\"http://test.me/\"}]";
+
+    /**
+     * Answers with a fixed body, or with a 304 if the given etag matches
+     */
+    private static class FakeClient implements Client {
+
+        String body = DIALOGS;
+        String etag = null;
+        List<Request> requests = new ArrayList<Request>();
+
+        @Override
+        public Response execute(Request request) throws IOException {
+
+            requests.add(request);
+            List<Header> headers = new ArrayList<Header>();
+            if (etag != null) {
+                for (Header header : request.getHeaders()) {
+                    if (header.getName().equals("If-None-Match") && header.getValue().equals(etag)) {
+                        return new Response(request.getUrl(), 304, "Not Modified", headers, null);
+                    }
+                }
+                headers.add(new Header("ETag", etag));
+            }
+            return new Response(request.getUrl(), 200, "OK", headers,
+                new TypedByteArray("application/json", body.getBytes("UTF-8")));
+        }
+    }
+
+    private static final Type DIALOGS_TYPE = new TypeReference<Set<Dialog>>() {}.getType();
+
+    private final JacksonConverter converter = new JacksonConverter();
+
+    private AskFastRestService createService(Client client) {
+
+        return new RestAdapter.Builder().setEndpoint("http://localhost").setConverter(converter)
+                                        .setClient(client).build().create(AskFastRestService.class);
+    }
+
+    @Test
+    public void notModifiedReturnsParsedObjectTest() {
+
+        FakeClient fakeClient = new FakeClient();
+        fakeClient.etag = "\"v1\"";
+        ConditionalClient client = new ConditionalClient(fakeClient);
+        AskFastRestService service = createService(client);
+
+        Set<Dialog> first = getDialogs(client, service);
+        Set<Dialog> second = getDialogs(client, service);
+        Assert.assertEquals(1, first.size());
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, client.getNotModifiedCount());
+        Assert.assertTrue(fakeClient.requests.get(1).getHeaders().contains(new Header("If-None-Match", "\"v1\"")));
+
+        // a new version is parsed again
+        fakeClient.etag = "\"v2\"";
+        fakeClient.body = "[]";
+        Assert.assertTrue(getDialogs(client, service).isEmpty());
+        Assert.assertEquals(2, client.getChangedBodyCount());
+    }
+
+    @Test
+    public void identicalBodyWithoutValidatorsIsNotParsedTest() {
+
+        FakeClient fakeClient = new FakeClient();
+        ConditionalClient client = new ConditionalClient(fakeClient);
+        AskFastRestService service = createService(client);
+
+        Set<Dialog> first = getDialogs(client, service);
+        Assert.assertSame(first, getDialogs(client, service));
+        Assert.assertEquals(1, client.getUnchangedBodyCount());
+        Assert.assertEquals(Collections.<Header> emptyList(), fakeClient.requests.get(1).getHeaders());
+    }
+
+    @Test
+    public void bodyConvertedByRetrofitIsParsedTest() {
+
+        FakeClient fakeClient = new FakeClient();
+        fakeClient.etag = "\"v1\"";
+        ConditionalClient client = new ConditionalClient(fakeClient);
+        AskFastRestService service = createService(client);
+
+        Set<Dialog> first = getDialogs(client, service);
+        // the 304 is still sent, but the object isn't found through the wrapped body
+        Set<Dialog> second = service.getDialogs();
+        Assert.assertEquals(1, client.getNotModifiedCount());
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(first.iterator().next().getId(), second.iterator().next().getId());
+    }
+
+    private Set<Dialog> getDialogs(ConditionalClient client, AskFastRestService service) {
+
+        return client.convert(service.fetchDialogs(), DIALOGS_TYPE, converter);
+    }
+}
@@ -0,0 +1,69 @@
+package com.askfast.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import com.askfast.model.DDRRecord;
+import com.askfast.model.DDRRecord.CommunicationStatus;
+
+/**
+ * Tests the incremental parsing of the {@link JacksonConverter}
+ */
+public class JacksonConverterTest {
+
+    private static InputStream toStream(String json) throws Exception {
+
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void readValuesHandlesEveryElementTest() throws Exception {
+
+        String json = "[{\"_id\":\"1\",\"start\":10,\"status\":\"delivered\",\"unknownField\":{\"a\":[1,2]}},"
+            + "{\"_id\":\"2\",\"start\":20,\"totalCost\":0.5}]";
+        final List<DDRRecord> ddrRecords = new ArrayList<DDRRecord>();
+        int count = new JacksonConverter().readValues(toStream(json), DDRRecord.class,
+            new RecordHandler<DDRRecord>() {
+
+                @Override
+                public void handle(DDRRecord ddrRecord) throws Exception {
+
+                    ddrRecords.add(ddrRecord);
+                }
+            });
+
+        Assert.assertEquals(2, count);
+        Assert.assertEquals("1", ddrRecords.get(0).getId());
+        Assert.assertEquals(CommunicationStatus.DELIVERED, ddrRecords.get(0).getStatus());
+        Assert.assertEquals(Long.valueOf(20), ddrRecords.get(1).getStart());
+        Assert.assertEquals(0.5, ddrRecords.get(1).getTotalCost(), 0.0);
+    }
+
+    @Test
+    public void readValuesHandlesEmptyAndSingleValuesTest() throws Exception {
+
+        RecordHandler<DDRRecord> ignore = new RecordHandler<DDRRecord>() {
+
+            @Override
+            public void handle(DDRRecord ddrRecord) throws Exception {}
+        };
+        JacksonConverter converter = new JacksonConverter();
+        Assert.assertEquals(0, converter.readValues(toStream("[]"), DDRRecord.class, ignore));
+        Assert.assertEquals(0, converter.readValues(toStream(""), DDRRecord.class, ignore));
+        Assert.assertEquals(1, converter.readValues(toStream("{\"_id\":\"1\"}"), DDRRecord.class, ignore));
+    }
+
+    @Test(expected = Exception.class)
+    public void readValuesFailsOnTruncatedArrayTest() throws Exception {
+
+        new JacksonConverter().readValues(toStream("[{\"_id\":\"1\"},"), DDRRecord.class,
+            new RecordHandler<DDRRecord>() {
+
+                @Override
+                public void handle(DDRRecord ddrRecord) throws Exception {}
+            });
+    }
+}